@@ -36,6 +36,7 @@ import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.GridLayout;
 import java.awt.Point;
+import java.awt.Toolkit;
 import java.awt.datatransfer.DataFlavor;
 import java.awt.datatransfer.StringSelection;
 import java.awt.datatransfer.Transferable;
@@ -47,41 +48,54 @@ import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.PrintStream;
 import java.net.URL;
 import java.text.Format;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 
-import javax.swing.BorderFactory;
+import javax.swing.ButtonGroup;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JComponent;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
+import javax.swing.JRadioButtonMenuItem;
 import javax.swing.JScrollPane;
+import javax.swing.JSpinner;
 import javax.swing.JSplitPane;
+import javax.swing.JTabbedPane;
 import javax.swing.JTextArea;
-import javax.swing.JTextPane;
 import javax.swing.JToolBar;
 import javax.swing.JTree;
 import javax.swing.KeyStroke;
-import javax.swing.ScrollPaneConstants;
+import javax.swing.SpinnerNumberModel;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import javax.swing.event.TreeSelectionEvent;
 import javax.swing.event.TreeSelectionListener;
 import javax.swing.text.BadLocationException;
@@ -95,8 +109,7 @@ import javax.swing.tree.TreeNode;
 import javax.swing.tree.TreePath;
 import javax.swing.tree.TreeSelectionModel;
 
-import bsh.EvalError;
-import bsh.Interpreter;
+import io.miti.jsnip.app.SearchIndex.Match;
 
 /**
  * Main application class for JSnip.
@@ -105,7 +118,7 @@ import bsh.Interpreter;
  * @version 1.0
  */
 public final class App implements ISnippetEvent, WindowListener,
-                                  MouseListener, TreeHandler
+                                  MouseListener, TreeHandler, IRunListener
 {
   /**
    * The name of the properties file.
@@ -133,15 +146,30 @@ public final class App implements ISnippetEvent, WindowListener,
   private JFrame frame = null;
   
   /**
-   * The output text area.
+   * The output tabs, one per run.
    */
-  private JTextPane tpOutput = null;
+  private JTabbedPane tabOutput = null;
   
   /**
    * The input text area.
    */
   private JTextArea taInput = null;
   
+  /**
+   * The status bar, which shows what background tasks are doing.
+   */
+  private JLabel lblStatus = null;
+  
+  /**
+   * The task loading a library, or null.
+   */
+  private BackgroundTask<CodeItemNode> loadTask = null;
+  
+  /**
+   * The last task saving a library, or null.
+   */
+  private BackgroundTask<Boolean> saveTask = null;
+  
   /**
    * The tree of snippets.
    */
@@ -273,34 +301,28 @@ public final class App implements ISnippetEvent, WindowListener,
   private String currentDirectory = ".";
   
   /**
-   * Thread that the script runs in.
-   */
-  private SwingWorker worker = null;
-  
-  /**
-   * Boolean that the worker thread is running.
-   */
-  private boolean isWorking = false;
-  
-  /**
-   * Save a pointer to standard out.
+   * The maximum number of output tabs kept for runs that
+   * have ended.
    */
-  private final PrintStream standardOut = System.out;
+  private static final int MAX_FINISHED_TABS = 8;
   
   /**
-   * Save a point to standard error.
+   * Runs the scripts.
    */
-  private final PrintStream standardErr = System.err;
+  private final RunManager runManager =
+    new RunManager(RunManager.DEFAULT_THREADS);
   
   /**
-   * Output stream holder for standard out.
+   * The runs that have ended.
    */
-  private PanelOutputStream posOut = null;
+  private final RunHistory runHistory =
+    new RunHistory(RunHistory.DEFAULT_SIZE);
   
   /**
-   * Output stream holder for standard error.
+   * The output tab of each run, keyed on run.
    */
-  private PanelOutputStream posErr = null;
+  private final Map<SnippetRun, RunPanel> runPanels =
+    Collections.synchronizedMap(new HashMap<SnippetRun, RunPanel>());
   
   /**
    * The font for the application.
@@ -314,6 +336,81 @@ public final class App implements ISnippetEvent, WindowListener,
    */
   private boolean bOpenDataFromJar = false;
   
+  /**
+   * The search index for the current tree.
+   */
+  private SearchIndex searchIndex = new SearchIndex();
+  
+  /**
+   * The engines used to run scripts.
+   */
+  private final EngineRegistry engines = EngineRegistry.createDefault();
+  
+  /**
+   * The popup menu item for inheriting the parent's engine.
+   */
+  private JRadioButtonMenuItem popupEngineInherit = null;
+  
+  /**
+   * The popup menu items for the engines, keyed on engine name.
+   */
+  private final Map<String, JRadioButtonMenuItem> popupEngineItems =
+    new HashMap<String, JRadioButtonMenuItem>(5);
+  
+  /**
+   * The menu item for the persistent interpreter session.
+   */
+  private JCheckBoxMenuItem itemPersistent = null;
+  
+  /**
+   * The menu item for running snippets in a worker JVM.
+   */
+  private JCheckBoxMenuItem itemSeparateJvm = null;
+  
+  /**
+   * The menu item for making a flight recording of each run.
+   */
+  private JCheckBoxMenuItem itemFlightRecording = null;
+  
+  /**
+   * The number of warm-up iterations last used for a benchmark.
+   */
+  private int benchWarmup = BenchmarkEngine.DEFAULT_WARMUP;
+  
+  /**
+   * The number of measurement iterations last used for a benchmark.
+   */
+  private int benchIterations = BenchmarkEngine.DEFAULT_ITERATIONS;
+  
+  /**
+   * The node marked to be compared with another node.
+   */
+  private CodeItemNode compareNode = null;
+  
+  /**
+   * The limits on each run.
+   */
+  private RunLimits runLimits = RunLimits.DEFAULT;
+  
+  /**
+   * The node whose script was last run in the persistent session.
+   */
+  private CodeItemNode sessionNode = null;
+  
+  /**
+   * The text of the input panel when it was last run in the
+   * persistent session, used to find the lines added since.
+   */
+  private String sessionText = null;
+  
+  /**
+   * For each queued run in the persistent session, the update
+   * to sessionNode and sessionText to make if the run succeeds.
+   * Only used on the event dispatch thread.
+   */
+  private final Map<SnippetRun, Runnable> sessionUpdates =
+    new HashMap<SnippetRun, Runnable>(10);
+  
   
   /**
    * Default constructor.
@@ -340,6 +437,12 @@ public final class App implements ISnippetEvent, WindowListener,
    */
   public void createGUI()
   {
+    // Send the output of each run to its own tab
+    RoutingPrintStream.install();
+    
+    // Warm up the BeanShell interpreters while the GUI is built
+    engines.startInBackground(CodeItemNode.ENGINE_BEANSHELL);
+    
     // Initialize the font
     initFont();
     
@@ -371,10 +474,6 @@ public final class App implements ISnippetEvent, WindowListener,
     // Generate the GUI and add it to the frame
     buildUI();
     
-    // Set up the output streams
-    posOut = new PanelOutputStream(tpOutput, "regular");
-    posErr = new PanelOutputStream(tpOutput, "error");
-    
     // Display the window.
     // frame.pack();
     frame.setVisible(true);
@@ -452,6 +551,12 @@ public final class App implements ISnippetEvent, WindowListener,
     
     // Add the main panel to the content pane
     frame.getContentPane().add(sp, BorderLayout.CENTER);
+    
+    // Add the status bar
+    lblStatus = new JLabel(" ");
+    lblStatus.setBorder(javax.swing.BorderFactory.createEmptyBorder(
+        2, 5, 2, 5));
+    frame.getContentPane().add(lblStatus, BorderLayout.SOUTH);
   }
   
   
@@ -679,25 +784,18 @@ public final class App implements ISnippetEvent, WindowListener,
     results.setMinimumSize(new Dimension(100, 100));
     results.setPreferredSize(new Dimension(500, 300));
     
-    // Border for the pane
-    final int borderSize = 2;
-    
-    // Create the text output area
-    tpOutput = new JTextPane();
-    tpOutput.setOpaque(false);
-    tpOutput.setBorder(BorderFactory.createEmptyBorder(borderSize,
-        borderSize, borderSize, borderSize));
-    
-    StyledDocument doc = tpOutput.getStyledDocument();
-    addStylesToDocument(doc);
-    
-    // Set up the scroll bar
-    JScrollPane scrollPane = new JScrollPane(tpOutput);
-    scrollPane.setHorizontalScrollBarPolicy(
-        ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
-    scrollPane.setVerticalScrollBarPolicy(
-        ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED);
-    results.add(scrollPane);
+    // Create the tabs for the output of each run, and update
+    // the Stop controls when the selected tab changes
+    tabOutput = new JTabbedPane(JTabbedPane.BOTTOM,
+                                JTabbedPane.SCROLL_TAB_LAYOUT);
+    tabOutput.addChangeListener(new ChangeListener()
+    {
+      public void stateChanged(final ChangeEvent e)
+      {
+        updatePlayControls();
+      }
+    });
+    results.add(tabOutput);
     
     // Create the frame for the panel
     SimpleInternalFrame sif = new SimpleInternalFrame("Output");
@@ -730,6 +828,11 @@ public final class App implements ISnippetEvent, WindowListener,
     // Define the error style (red)
     Style s = doc.addStyle("error", regular);
     StyleConstants.setForeground(s, java.awt.Color.RED);
+    
+    // Define the style for run metrics
+    s = doc.addStyle("metrics", regular);
+    StyleConstants.setForeground(s, java.awt.Color.GRAY);
+    StyleConstants.setItalic(s, true);
   }
   
   
@@ -849,6 +952,69 @@ public final class App implements ISnippetEvent, WindowListener,
     
     // Add the child menu to the popup menu
     popupMenuTree.add(childMenu);
+    
+    // Create the engine menu
+    JMenu engineMenu = new JMenu("Run with");
+    ButtonGroup engineGroup = new ButtonGroup();
+    
+    // Use the parent's engine
+    popupEngineInherit = new JRadioButtonMenuItem(new SnippetActionHandler(
+        "Parent's Engine", null, this, SnippetActionHandler.ENGINE_INHERIT));
+    engineGroup.add(popupEngineInherit);
+    engineMenu.add(popupEngineInherit);
+    
+    // Use the fastest engine measured
+    addEngineMenuItem(engineMenu, engineGroup, "Automatic (Fastest)",
+                      CodeItemNode.ENGINE_AUTO);
+    
+    // Add an item for each registered engine
+    for (SnippetEngine engine : engines.getEngines())
+    {
+      addEngineMenuItem(engineMenu, engineGroup, engine.getLabel(),
+                        engine.getName());
+    }
+    
+    // Add the engine menu to the popup menu
+    popupMenuTree.add(engineMenu);
+    
+    // Set the jars the node's snippets can use
+    popupMenuTree.add(new JMenuItem(new SnippetActionHandler(
+        "Class Path...", null, this, SnippetActionHandler.CLASS_PATH)));
+    
+    // Run every snippet under the node
+    popupMenuTree.add(new JMenuItem(new SnippetActionHandler(
+        "Run Subtree", null, this, SnippetActionHandler.RUN_SUBTREE)));
+    
+    // Compare the speed of two snippets
+    popupMenuTree.addSeparator();
+    popupMenuTree.add(new JMenuItem(new SnippetActionHandler(
+        "Mark for Compare", null, this, SnippetActionHandler.MARK_COMPARE)));
+    popupMenuTree.add(new JMenuItem(new SnippetActionHandler(
+        "Compare With Marked", null, this,
+        SnippetActionHandler.COMPARE_MARKED)));
+  }
+  
+  
+  /**
+   * Add an item for an engine to the engine menu.
+   * 
+   * @param engineMenu the engine menu
+   * @param engineGroup the button group for the engine items
+   * @param label the menu item text
+   * @param engineName the engine name
+   */
+  private void addEngineMenuItem(final JMenu engineMenu,
+                                 final ButtonGroup engineGroup,
+                                 final String label,
+                                 final String engineName)
+  {
+    JRadioButtonMenuItem item = new JRadioButtonMenuItem(
+        new SnippetActionHandler(label, null, this,
+                                 SnippetActionHandler.ENGINE_SELECT));
+    item.setActionCommand(engineName);
+    engineGroup.add(item);
+    engineMenu.add(item);
+    popupEngineItems.put(engineName, item);
   }
   
   
@@ -909,6 +1075,47 @@ public final class App implements ISnippetEvent, WindowListener,
     itemExec.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F5, 0));
     menuFile.add(itemExec);
     
+    // Add the Execute Selection menu item
+    SnippetActionHandler actionExecSel = new SnippetActionHandler(
+        "Execute Selection", null, this, SnippetActionHandler.RUN_SELECTION);
+    JMenuItem itemExecSel = new JMenuItem(actionExecSel);
+    itemExecSel.setMnemonic(KeyEvent.VK_L);
+    // Set up Shift-F5 as an accelerator for this event
+    itemExecSel.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F5,
+        java.awt.event.InputEvent.SHIFT_DOWN_MASK));
+    menuFile.add(itemExecSel);
+    
+    // Add the Execute New Lines menu item
+    SnippetActionHandler actionExecNew = new SnippetActionHandler(
+        "Execute New Lines", null, this, SnippetActionHandler.RUN_NEW_LINES);
+    JMenuItem itemExecNew = new JMenuItem(actionExecNew);
+    itemExecNew.setMnemonic(KeyEvent.VK_W);
+    // Set up Ctrl-F5 as an accelerator for this event
+    itemExecNew.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F5,
+        java.awt.event.InputEvent.CTRL_DOWN_MASK));
+    menuFile.add(itemExecNew);
+    
+    // Add the Benchmark menu item
+    SnippetActionHandler actionBenchmark = new SnippetActionHandler(
+        "Benchmark", null, this, SnippetActionHandler.BENCHMARK);
+    JMenuItem itemBenchmark = new JMenuItem(actionBenchmark);
+    itemBenchmark.setMnemonic(KeyEvent.VK_B);
+    menuFile.add(itemBenchmark);
+    
+    // Add the Parameter Sweep menu item
+    SnippetActionHandler actionSweep = new SnippetActionHandler(
+        "Parameter Sweep", null, this, SnippetActionHandler.PARAM_SWEEP);
+    JMenuItem itemSweep = new JMenuItem(actionSweep);
+    itemSweep.setMnemonic(KeyEvent.VK_P);
+    menuFile.add(itemSweep);
+    
+    // Add the Profile menu item
+    SnippetActionHandler actionProfile = new SnippetActionHandler(
+        "Profile", null, this, SnippetActionHandler.PROFILE);
+    JMenuItem itemProfile = new JMenuItem(actionProfile);
+    itemProfile.setMnemonic(KeyEvent.VK_R);
+    menuFile.add(itemProfile);
+    
     // Add the Stop menu item
     SnippetActionHandler actionStop = new SnippetActionHandler("Stop Script",
         null, this, SnippetActionHandler.STOP_SCRIPT);
@@ -956,6 +1163,88 @@ public final class App implements ISnippetEvent, WindowListener,
     itemDeleteNode.setMnemonic(KeyEvent.VK_D);
     menuTree.add(itemDeleteNode);
     
+    // Add a separator
+    menuTree.addSeparator();
+    
+    // Add the Find menu item
+    SnippetActionHandler actionFind = new SnippetActionHandler("Find...",
+        null, this, SnippetActionHandler.FIND_NODE);
+    JMenuItem itemFind = new JMenuItem(actionFind);
+    itemFind.setMnemonic(KeyEvent.VK_F);
+    // Set up Ctrl-F (Cmd-F on a Mac) as an accelerator for this event
+    itemFind.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F,
+        Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()));
+    menuTree.add(itemFind);
+    
+    // Add the Find Duplicates menu item
+    SnippetActionHandler actionFindDups = new SnippetActionHandler(
+        "Find Duplicates...", null, this,
+        SnippetActionHandler.FIND_DUPLICATES);
+    JMenuItem itemFindDups = new JMenuItem(actionFindDups);
+    itemFindDups.setMnemonic(KeyEvent.VK_U);
+    menuTree.add(itemFindDups);
+    
+    /*
+     * Run menu
+     */
+    JMenu menuRun = new JMenu("Run");
+    menuRun.setMnemonic(KeyEvent.VK_R);
+    menuBar.add(menuRun);
+    
+    // Add the Persistent Session menu item
+    SnippetActionHandler actionPersistent = new SnippetActionHandler(
+        "Persistent Session", null, this,
+        SnippetActionHandler.PERSISTENT_SESSION);
+    itemPersistent = new JCheckBoxMenuItem(actionPersistent);
+    itemPersistent.setMnemonic(KeyEvent.VK_P);
+    menuRun.add(itemPersistent);
+    
+    // Add the Reset Session menu item
+    SnippetActionHandler actionResetSession = new SnippetActionHandler(
+        "Reset Session", null, this, SnippetActionHandler.RESET_SESSION);
+    JMenuItem itemResetSession = new JMenuItem(actionResetSession);
+    itemResetSession.setMnemonic(KeyEvent.VK_R);
+    menuRun.add(itemResetSession);
+    menuRun.addSeparator();
+    
+    // Add the Run in Separate JVM menu item
+    SnippetActionHandler actionSeparateJvm = new SnippetActionHandler(
+        "Run in Separate JVM", null, this,
+        SnippetActionHandler.SEPARATE_JVM);
+    itemSeparateJvm = new JCheckBoxMenuItem(actionSeparateJvm);
+    itemSeparateJvm.setMnemonic(KeyEvent.VK_J);
+    menuRun.add(itemSeparateJvm);
+    
+    // Add the Flight Recording menu item
+    SnippetActionHandler actionFlightRec = new SnippetActionHandler(
+        "Flight Recording", null, this,
+        SnippetActionHandler.FLIGHT_RECORDING);
+    itemFlightRecording = new JCheckBoxMenuItem(actionFlightRec);
+    itemFlightRecording.setMnemonic(KeyEvent.VK_F);
+    itemFlightRecording.setEnabled(FlightRecording.isSupported());
+    menuRun.add(itemFlightRecording);
+    
+    // Add the Run Limits menu item
+    SnippetActionHandler actionRunLimits = new SnippetActionHandler(
+        "Run Limits...", null, this, SnippetActionHandler.RUN_LIMITS);
+    JMenuItem itemRunLimits = new JMenuItem(actionRunLimits);
+    itemRunLimits.setMnemonic(KeyEvent.VK_L);
+    menuRun.add(itemRunLimits);
+    
+    // Add the Engine Statistics menu item
+    SnippetActionHandler actionEngineStats = new SnippetActionHandler(
+        "Engine Statistics", null, this, SnippetActionHandler.ENGINE_STATS);
+    JMenuItem itemEngineStats = new JMenuItem(actionEngineStats);
+    itemEngineStats.setMnemonic(KeyEvent.VK_E);
+    menuRun.add(itemEngineStats);
+    
+    // Add the Run History menu item
+    SnippetActionHandler actionRunHistory = new SnippetActionHandler(
+        "Run History", null, this, SnippetActionHandler.RUN_HISTORY);
+    JMenuItem itemRunHistory = new JMenuItem(actionRunHistory);
+    itemRunHistory.setMnemonic(KeyEvent.VK_H);
+    menuRun.add(itemRunHistory);
+    
     /*
      * Help menu item
      */
@@ -976,14 +1265,11 @@ public final class App implements ISnippetEvent, WindowListener,
   
   
   /**
-   * Execute the script in the input panel and send the output
-   * to the output panel.
+   * Execute the script in the input panel.  The script runs on
+   * the run manager's threads, with its output in a new tab.
    */
   public void execScript()
   {
-    // Empty the output area
-    tpOutput.setText("");
-    
     // Get the input text to process
     final String s = taInput.getText();
     
@@ -994,153 +1280,912 @@ public final class App implements ISnippetEvent, WindowListener,
       return;
     }
     
-    // Redirect standard output to the output panel
-    System.setOut(new PrintStream(posOut, true));
+    // Run the script
+    final CodeItemNode node = getSelectedNode();
+    SnippetRun run = startRun(getRunTitle(), s, getRunEngine(node, s));
+    
+    // Later runs of new lines build on this run's definitions
+    if (itemPersistent.isSelected())
+    {
+      updateSessionOnSuccess(run, node, s);
+    }
+  }
+  
+  
+  /**
+   * Run the selected text in the input panel, or the line with
+   * the caret if nothing is selected, in the persistent session.
+   * The session is turned on if it's off, so definitions from
+   * earlier runs can be used.
+   */
+  public void execSelection()
+  {
+    // Get the selected text, or else the line with the caret
+    String s = taInput.getSelectedText();
+    if ((s == null) || (s.trim().length() == 0))
+    {
+      try
+      {
+        final int line = taInput.getLineOfOffset(taInput.getCaretPosition());
+        final int start = taInput.getLineStartOffset(line);
+        s = taInput.getText(start, taInput.getLineEndOffset(line) - start);
+      }
+      catch (BadLocationException ble)
+      {
+        return;
+      }
+    }
     
-    // Redirect standard error to the output panel
-    System.setErr(new PrintStream(posErr, true));
+    if (s.trim().length() == 0)
+    {
+      return;
+    }
     
-    // Disable the Play button and menu item, and enable
-    // the Stop button and menu item
-    updatePlayControls(true);
+    startSession();
+    startRun(getRunTitle() + " (selection)", s,
+             getRunEngine(getSelectedNode(), s));
+  }
+  
+  
+  /**
+   * Run the lines of the input panel added or changed since it
+   * was last run, in the persistent session.  The session is
+   * turned on if it's off.  If the session has not run this
+   * node's script, the whole script is run.
+   */
+  public void execNewLines()
+  {
+    final String s = taInput.getText();
+    if ((s == null) || (s.length() < 1))
+    {
+      return;
+    }
     
-    // Mark that the thread is running
-    isWorking = true;
+    // Find the lines to run
+    final CodeItemNode node = getSelectedNode();
+    final String lines = (((node == sessionNode) && (sessionText != null))
+                          ? getNewLines(sessionText, s) : s);
+    if (lines.trim().length() == 0)
+    {
+      showStatus("No new lines to run");
+      return;
+    }
     
-    // Construct a BeanShell interpreter
-    final Interpreter i = new Interpreter();
+    startSession();
+    SnippetRun run = startRun(getRunTitle() + " (new lines)", lines,
+                              getRunEngine(node, lines));
+    updateSessionOnSuccess(run, node, s);
+  }
+  
+  
+  /**
+   * Record the text of the input panel as run in the session once
+   * a run succeeds, so a run that fails (such as with a syntax
+   * error) leaves its lines to be run again.
+   * 
+   * @param run the run
+   * @param node the node whose script is run
+   * @param text the text of the input panel
+   */
+  private void updateSessionOnSuccess(final SnippetRun run,
+                                      final CodeItemNode node,
+                                      final String text)
+  {
+    sessionUpdates.put(run, new Runnable()
+    {
+      public void run()
+      {
+        sessionNode = node;
+        sessionText = text;
+      }
+    });
+  }
+  
+  
+  /**
+   * Return the lines of a script from the first line that differs
+   * from the text last run, to the end.
+   * 
+   * @param last the text last run
+   * @param current the current text
+   * @return the new lines, which are empty if nothing changed
+   */
+  private static String getNewLines(final String last, final String current)
+  {
+    if (current.equals(last))
+    {
+      return "";
+    }
     
-    // Extend SwingWorker to handle processing the script
-    worker = new SwingWorker()
+    // Find the start of the first line that's different
+    int start = 0;
+    final int len = Math.min(last.length(), current.length());
+    for (int i = 0; i < len; ++i)
     {
-      public Object construct()
+      final char ch = current.charAt(i);
+      if (ch != last.charAt(i))
       {
-        // Evaluate the text entered by the user
-        try
-        {
-          // Pass it to Beanshell and print any output
-          Object result = i.eval(s);
-          if (result != null)
-          {
-            // If anything was returned by BeanShell, add
-            // it to the output pane
-            addStringToTextPane(result.toString() + "\n",
-                                "regular");
-          }
-          
-          // Flush the output streams
-          System.out.flush();
-          System.err.flush();
-        }
-        catch (EvalError e)
+        break;
+      }
+      else if (ch == '\n')
+      {
+        start = i + 1;
+      }
+    }
+    
+    // Lines added after a last line with no line break
+    if (current.startsWith(last) && (current.charAt(len) == '\n'))
+    {
+      start = len + 1;
+    }
+    
+    return current.substring(start);
+  }
+  
+  
+  /**
+   * Turn on the persistent session, if it's off, so runs of part
+   * of a script can use the definitions made by earlier runs.
+   */
+  private void startSession()
+  {
+    if (!itemPersistent.isSelected())
+    {
+      itemPersistent.setSelected(true);
+      togglePersistentSession();
+      showStatus("Persistent session turned on");
+    }
+  }
+  
+  
+  /**
+   * Benchmark the script in the input panel.  The user picks the
+   * number of warm-up and measurement iterations, and the
+   * benchmark runs like any other run, with its report in a new
+   * output tab.
+   */
+  public void benchmarkScript()
+  {
+    // Get the input text to process
+    final String s = taInput.getText();
+    if ((s == null) || (s.length() < 1))
+    {
+      return;
+    }
+    
+    // Ask for the number of iterations, and run the benchmark
+    if (askBenchmarkIterations("Benchmark"))
+    {
+      startRun(getRunTitle() + " (benchmark)", s,
+          new BenchmarkEngine(getRunEngine(getSelectedNode(), s),
+                              benchWarmup, benchIterations));
+    }
+  }
+  
+  
+  /**
+   * Run the script in the input panel with its stacks sampled,
+   * and show the profile beside the output when it ends.  The
+   * script runs in this JVM, so its stacks can be sampled, even
+   * if runs are set to use a worker JVM.
+   */
+  public void profileScript()
+  {
+    // Get the input text to process
+    final String s = taInput.getText();
+    if ((s == null) || (s.length() < 1))
+    {
+      return;
+    }
+    
+    startRun(getRunTitle() + " (profile)", s,
+             getRunEngine(getSelectedNode(), s, false), new StackProfile());
+  }
+  
+  
+  /**
+   * Run the script in the input panel once for each combination
+   * of the values of its parameters, in parallel, and show the
+   * results in a dialog.
+   */
+  public void sweepScript()
+  {
+    // Get the input text to process
+    final String s = taInput.getText();
+    if ((s == null) || (s.length() < 1))
+    {
+      return;
+    }
+    
+    // Get the parameters
+    ScriptParams params = null;
+    try
+    {
+      params = ScriptParams.parse(s);
+    }
+    catch (SnippetException se)
+    {
+      JOptionPane.showMessageDialog(frame, se.getMessage(),
+          "Parameter Sweep", JOptionPane.ERROR_MESSAGE);
+      return;
+    }
+    
+    if (params.isEmpty())
+    {
+      JOptionPane.showMessageDialog(frame,
+          "Declare the parameters to sweep with lines such as\n"
+          + ScriptParams.DIRECTIVE + " n = 1000, 10000, 100000",
+          "Parameter Sweep", JOptionPane.INFORMATION_MESSAGE);
+      return;
+    }
+    
+    // Show the results dialog and start the runs
+    SweepDialog dlg = new SweepDialog(frame, getRunTitle(), s, params,
+        getRunEngine(getSelectedNode(), s), runLimits,
+        new File(currentDirectory));
+    dlg.setVisible(true);
+    dlg.start();
+  }
+  
+  
+  /**
+   * Mark the selected node to be compared with another node.
+   */
+  public void markForCompare()
+  {
+    // Save any changes to the current script
+    checkNodeChanged();
+    
+    final TreePath path = tree.getSelectionPath();
+    if (path != null)
+    {
+      compareNode = (CodeItemNode) path.getLastPathComponent();
+    }
+  }
+  
+  
+  /**
+   * Compare the speed of the node marked for comparison with the
+   * selected node.  The comparison runs like any other run, with
+   * its report in a new output tab.
+   */
+  public void compareWithMarked()
+  {
+    // Save any changes to the current script
+    checkNodeChanged();
+    
+    // Check that a different node was marked
+    final TreePath path = tree.getSelectionPath();
+    if ((compareNode == null) || (path == null)
+        || (compareNode == path.getLastPathComponent()))
+    {
+      JOptionPane.showMessageDialog(frame,
+          "Mark a snippet with Mark for Compare, then select the "
+          + "snippet to compare it with.", "Compare",
+          JOptionPane.INFORMATION_MESSAGE);
+      return;
+    }
+    
+    // Get both scripts
+    final String scriptA = compareNode.getScript();
+    final String scriptB = taInput.getText();
+    if ((scriptA == null) || (scriptA.length() < 1)
+        || (scriptB == null) || (scriptB.length() < 1))
+    {
+      return;
+    }
+    
+    // Ask for the number of iterations
+    if (!askBenchmarkIterations("Compare"))
+    {
+      return;
+    }
+    
+    // Run each snippet with its own engine
+    final SnippetEngine engineA =
+      getRunEngine(compareNode, scriptA);
+    final String titleB = getRunTitle();
+    startRun(compareNode.toString() + " vs " + titleB, scriptB,
+        new CompareEngine(engineA, compareNode.toString(), scriptA,
+            getRunEngine(getSelectedNode(), scriptB), titleB,
+            benchWarmup, benchIterations));
+  }
+  
+  
+  /**
+   * Ask for the number of warm-up and measurement iterations of
+   * a benchmark.  The choices are kept for the next benchmark.
+   * 
+   * @param title the title of the dialog
+   * @return whether the user chose OK
+   */
+  private boolean askBenchmarkIterations(final String title)
+  {
+    // Ask for the number of iterations
+    JSpinner spinWarmup = new JSpinner(
+        new SpinnerNumberModel(benchWarmup, 0, 1000, 1));
+    JSpinner spinIterations = new JSpinner(
+        new SpinnerNumberModel(benchIterations, 1, 1000, 1));
+    JPanel panel = new JPanel(new GridLayout(2, 2, 5, 5));
+    panel.add(new JLabel("Warm-up iterations:"));
+    panel.add(spinWarmup);
+    panel.add(new JLabel("Measurement iterations:"));
+    panel.add(spinIterations);
+    final int choice = JOptionPane.showConfirmDialog(frame, panel,
+        title, JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+    if (choice != JOptionPane.OK_OPTION)
+    {
+      return false;
+    }
+    
+    // Save the choices for the next benchmark
+    benchWarmup = ((Number) spinWarmup.getValue()).intValue();
+    benchIterations = ((Number) spinIterations.getValue()).intValue();
+    return true;
+  }
+  
+  
+  /**
+   * Return the engine to run a node's script with: the node's
+   * engine, run in a worker JVM if that's turned on, and given the
+   * node's class path and the script's includes if it has any.
+   * 
+   * @param node the node, or null to use the default engine
+   * @param script the script
+   * @return the engine to run the script with
+   */
+  private SnippetEngine getRunEngine(final CodeItemNode node,
+                                     final String script)
+  {
+    // Flight recordings are made of this JVM, so recorded runs
+    // don't use a worker
+    return getRunEngine(node, script, itemSeparateJvm.isSelected()
+                        && !itemFlightRecording.isSelected());
+  }
+  
+  
+  /**
+   * Return the engine to run a node's script with.
+   * 
+   * @param node the node, or null to use the default engine
+   * @param script the script
+   * @param useWorker whether to run the script in a worker JVM
+   * @return the engine to run the script with
+   */
+  private SnippetEngine getRunEngine(final CodeItemNode node,
+                                     final String script,
+                                     final boolean useWorker)
+  {
+    SnippetEngine engine = engines.choose(((node == null)
+        ? CodeItemNode.ENGINE_BEANSHELL : node.getEffectiveEngine()), script);
+    if (useWorker)
+    {
+      engine = engines.getProcessEngine(engine);
+    }
+    
+    engine = IncludeEngine.wrap(engine, rootNode, script);
+    return ClassPathEngine.wrap(engine, ClassPath.of(node));
+  }
+  
+  
+  /**
+   * Create a run and its output tab, and queue the run.  Output
+   * written by the run goes to the tab's streams.
+   * 
+   * @param title the title of the run
+   * @param script the script to run
+   * @param engine the engine to run the script with
+   * @return the run
+   */
+  private SnippetRun startRun(final String title, final String script,
+                              final SnippetEngine engine)
+  {
+    return startRun(title, script, engine, null);
+  }
+  
+  
+  /**
+   * Create a run and its output tab, and queue the run.
+   * 
+   * @param title the run title
+   * @param script the script
+   * @param engine the engine to run the script with
+   * @param profile the profile to sample the run into, or null
+   * @return the run
+   */
+  private SnippetRun startRun(final String title, final String script,
+                              final SnippetEngine engine,
+                              final StackProfile profile)
+  {
+    // Create the run and its output tab
+    RunPanel panel = new RunPanel();
+    RunContext context = new RunContext(
+        new PrintStream(panel.getOut(), true),
+        new PrintStream(panel.getErr(), true));
+    context.setLimits(runLimits);
+    context.setProfile(profile);
+    if (itemFlightRecording.isSelected())
+    {
+      context.setRecording(new FlightRecording(getRecordingFile(title)));
+    }
+    SnippetRun run = new SnippetRun(title, script, engine, context, this);
+    addRunTab(panel, run);
+    
+    // Queue the run
+    runManager.submit(run);
+    return run;
+  }
+  
+  
+  /**
+   * Stop the run in the selected output tab.
+   */
+  public void stopScript()
+  {
+    // Check if a run is selected
+    RunPanel panel = getSelectedRunPanel();
+    if (panel != null)
+    {
+      panel.getRun().stop();
+    }
+  }
+  
+  
+  /**
+   * A run is about to execute its snippet.
+   * 
+   * @param run the run
+   */
+  public void runStarted(final SnippetRun run)
+  {
+    updateRunStatus(runPanels.get(run));
+  }
+  
+  
+  /**
+   * A run finished, failed or was stopped.
+   * 
+   * @param run the run
+   */
+  public void runFinished(final SnippetRun run)
+  {
+    final RunPanel panel = runPanels.get(run);
+    
+    // Flush the output streams
+    run.getContext().getOut().flush();
+    run.getContext().getErr().flush();
+    
+    // If anything was returned by the script, add it to the
+    // output pane
+    if (run.getResult() != null)
+    {
+      panel.append(run.getResult().toString() + "\n", "regular");
+    }
+    
+    // Show any error message
+    if (run.getError() != null)
+    {
+      panel.append("Error: " + run.getError() + "\n", "error");
+    }
+    
+    // Show what the run cost, and add it to the history
+    if (run.getMetrics().getWallNanos() >= 0L)
+    {
+      panel.append("[" + run.getStateName() + ": " + run.getMetrics()
+                   + "]\n", "metrics");
+    }
+    
+    // Show the summary of the flight recording
+    final FlightRecording recording = run.getContext().getRecording();
+    if ((recording != null) && (recording.getSummary() != null))
+    {
+      panel.append(recording.getSummary(), "metrics");
+    }
+    
+    runHistory.add(run);
+    
+    // Record a successful run of the session's text
+    final boolean succeeded = (run.getState() == SnippetRun.FINISHED);
+    SwingUtilities.invokeLater(new Runnable()
+    {
+      public void run()
+      {
+        final Runnable update = sessionUpdates.remove(run);
+        if ((update != null) && succeeded)
         {
-          // Show the error message
-          addStringToTextPane("Error: " + e.getMessage() + "\n",
-                              "error");
+          update.run();
         }
-        
-        // Have to return something
-        return null;
       }
-      
-      public void finished()
+    });
+    
+    updateRunStatus(panel);
+  }
+  
+  
+  /**
+   * Update a run's tab and the Stop controls on the event
+   * dispatch thread.
+   * 
+   * @param panel the run's output tab
+   */
+  private void updateRunStatus(final RunPanel panel)
+  {
+    SwingUtilities.invokeLater(new Runnable()
+    {
+      public void run()
+      {
+        panel.updateStatus();
+        updatePlayControls();
+      }
+    });
+  }
+  
+  
+  /**
+   * Return the title for a run of the selected node.
+   * 
+   * @return the run title
+   */
+  private String getRunTitle()
+  {
+    final TreePath path = tree.getSelectionPath();
+    if (path == null)
+    {
+      return "Untitled";
+    }
+    
+    return path.getLastPathComponent().toString();
+  }
+  
+  
+  /**
+   * Add an output tab for a run, and select it.  The oldest
+   * tabs of finished runs are closed to keep the number of
+   * tabs down.
+   * 
+   * @param panel the run's output tab
+   * @param run the run
+   */
+  private void addRunTab(final RunPanel panel, final SnippetRun run)
+  {
+    // Close the oldest finished tabs
+    int finished = 0;
+    for (int i = tabOutput.getTabCount() - 1; i >= 0; --i)
+    {
+      RunPanel tab = (RunPanel) tabOutput.getComponentAt(i);
+      if (!tab.getRun().isActive() && (++finished >= MAX_FINISHED_TABS))
+      {
+        closeRunTab(tab);
+      }
+    }
+    
+    // Add the tab
+    panel.setRun(run);
+    panel.addCloseListener(new ActionListener()
+    {
+      public void actionPerformed(final ActionEvent e)
+      {
+        closeRunTab(panel);
+      }
+    });
+    runPanels.put(run, panel);
+    tabOutput.addTab(run.getTitle(), panel);
+    tabOutput.setSelectedComponent(panel);
+    updatePlayControls();
+  }
+  
+  
+  /**
+   * Close a run's output tab.
+   * 
+   * @param panel the run's output tab
+   */
+  private void closeRunTab(final RunPanel panel)
+  {
+    tabOutput.remove(panel);
+    runPanels.remove(panel.getRun());
+  }
+  
+  
+  /**
+   * Close the output tabs of the runs that have ended.
+   */
+  private void closeFinishedRunTabs()
+  {
+    for (int i = tabOutput.getTabCount() - 1; i >= 0; --i)
+    {
+      RunPanel panel = (RunPanel) tabOutput.getComponentAt(i);
+      if (!panel.getRun().isActive())
+      {
+        closeRunTab(panel);
+      }
+    }
+  }
+  
+  
+  /**
+   * Return the selected output tab.
+   * 
+   * @return the selected run's tab, or null if there are no tabs
+   */
+  private RunPanel getSelectedRunPanel()
+  {
+    return (RunPanel) tabOutput.getSelectedComponent();
+  }
+  
+  
+  /**
+   * Set the engine used to run the selected node's script.
+   * 
+   * @param engineName the engine name, or null to use the parent's
+   */
+  public void setNodeEngine(final String engineName)
+  {
+    // Get the selected node
+    final TreePath path = tree.getSelectionPath();
+    if (path == null)
+    {
+      return;
+    }
+    
+    // Update the node
+    CodeItemNode node = (CodeItemNode) path.getLastPathComponent();
+    node.setEngine(engineName);
+    fileChanged = true;
+  }
+  
+  
+  /**
+   * Select the popup menu item for a node's engine.
+   * 
+   * @param node the node
+   */
+  private void updateEngineMenu(final CodeItemNode node)
+  {
+    final String engine = node.getEngine();
+    JRadioButtonMenuItem item =
+      ((engine == null) ? null : popupEngineItems.get(engine));
+    if (item == null)
+    {
+      popupEngineInherit.setSelected(true);
+    }
+    else
+    {
+      item.setSelected(true);
+    }
+  }
+  
+  
+  /**
+   * Return the selected node.
+   * 
+   * @return the selected node, or null if there's no selection
+   */
+  private CodeItemNode getSelectedNode()
+  {
+    final TreePath path = tree.getSelectionPath();
+    if (path == null)
+    {
+      return null;
+    }
+    
+    return (CodeItemNode) path.getLastPathComponent();
+  }
+  
+  
+  /**
+   * Turn the persistent interpreter session on or off, based
+   * on the state of the menu item.
+   */
+  public void togglePersistentSession()
+  {
+    engines.setPersistent(itemPersistent.isSelected());
+  }
+  
+  
+  /**
+   * Discard the persistent interpreter session.
+   */
+  public void resetSession()
+  {
+    engines.resetSession();
+    
+    // The next run of new lines runs the whole script
+    sessionNode = null;
+    sessionText = null;
+    sessionUpdates.clear();
+  }
+  
+  
+  /**
+   * Turn running snippets in a worker JVM on or off, based on
+   * the state of the menu item.  When it's turned on, the first
+   * worker is started in the background.
+   */
+  public void toggleSeparateJvm()
+  {
+    if (itemSeparateJvm.isSelected())
+    {
+      engines.getWorkerPool().fillInBackground();
+    }
+  }
+  
+  
+  /**
+   * Report when flight recording is turned on.  Runs started
+   * while the menu item is checked are recorded.
+   */
+  public void toggleFlightRecording()
+  {
+    showStatus(itemFlightRecording.isSelected()
+               ? "Runs will be saved as flight recordings" : null);
+  }
+  
+  
+  /**
+   * Return the file a run's flight recording is saved in: beside
+   * the library, named for the library, the run and the time, or
+   * in the user's JSnip directory if the library is not saved.
+   * 
+   * @param title the title of the run
+   * @return the file
+   */
+  private File getRecordingFile(final String title)
+  {
+    File dir = null;
+    String base = null;
+    if (currentFileName == null)
+    {
+      dir = new File(CompiledClassCache.getUserDirectory(), "recordings");
+      base = "untitled";
+    }
+    else
+    {
+      final File library = new File(currentFileName);
+      dir = library.getParentFile();
+      base = library.getName();
+      final int dot = base.lastIndexOf('.');
+      if (dot > 0)
       {
-        // Update the script controls
-        updatePlayControls(false);
-        
-        // Return standard output to the original output stream
-        System.setOut(standardOut);
-        System.setErr(standardErr);
-        
-        // The thread is no longer running
-        isWorking = false;
+        base = base.substring(0, dot);
       }
-    };
+    }
+    
+    // Name the file for the run, and make it unique
+    final String name = base + "-" + title.replaceAll("[^\\w.-]+", "_")
+        + "-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+    File file = new File(dir, name + ".jfr");
+    for (int i = 2; file.exists(); ++i)
+    {
+      file = new File(dir, name + "-" + i + ".jfr");
+    }
     
-    // Start the thread
-    worker.start();
+    return file;
   }
   
   
   /**
-   * Interrupt the script.
+   * Set the time, allocation and heap limits on each run.
    */
-  public void stopScript()
+  public void editRunLimits()
   {
-    // Check if a thread is running
-    if ((worker == null) || (!isWorking))
+    // Show the current limits.  Zero means no limit.
+    JSpinner spinTime = new JSpinner(new SpinnerNumberModel(
+        (int) (runLimits.getTimeoutMillis() / 1000L), 0, 86400, 1));
+    JSpinner spinAlloc = new JSpinner(new SpinnerNumberModel(
+        (int) (runLimits.getMaxAllocatedBytes() / (1024L * 1024L)),
+        0, 1024 * 1024, 100));
+    JSpinner spinHeap = new JSpinner(new SpinnerNumberModel(
+        runLimits.getMaxHeapPercent(), 0, 100, 5));
+    JPanel panel = new JPanel(new GridLayout(4, 2, 5, 5));
+    panel.add(new JLabel("Time limit (seconds):"));
+    panel.add(spinTime);
+    panel.add(new JLabel("Allocation limit (MB):"));
+    panel.add(spinAlloc);
+    panel.add(new JLabel("Heap limit (% full):"));
+    panel.add(spinHeap);
+    panel.add(new JLabel("Use 0 for no limit."));
+    final int choice = JOptionPane.showConfirmDialog(frame, panel,
+        "Run Limits", JOptionPane.OK_CANCEL_OPTION,
+        JOptionPane.PLAIN_MESSAGE);
+    if (choice != JOptionPane.OK_OPTION)
     {
       return;
     }
     
-    // Interrupt the thread.
-    worker.interrupt();
-    
-    // Update the script controls
-    updatePlayControls(false);
-    
-    // Return standard output and error to the original output streams
-    System.setOut(standardOut);
-    System.setErr(standardErr);
-    
-    // The thread is no longer running
-    isWorking = false;
+    // Save the limits for the next runs
+    runLimits = new RunLimits(
+        ((Number) spinTime.getValue()).longValue() * 1000L,
+        ((Number) spinAlloc.getValue()).longValue() * 1024L * 1024L,
+        ((Number) spinHeap.getValue()).intValue());
   }
   
   
   /**
-   * Add a string to the styled document.
-   * 
-   * @param msg the string to append
-   * @param style the style name
+   * Set the jars and directories the selected node adds to its
+   * parent's class path, one per line.
    */
-  private void addStringToTextPane(final String msg,
-                                   final String style)
+  public void editNodeClassPath()
   {
-    // Force a repaint of the pane
-    tpOutput.revalidate();
-    tpOutput.repaint();
-    
-    // Sleep for a bit
-    try
+    final CodeItemNode node = getSelectedNode();
+    if (node == null)
     {
-      Thread.sleep(25);
+      return;
     }
-    catch (InterruptedException e1)
+    
+    // Show the node's entries, and the ones it inherits
+    final String text = node.getClassPath();
+    JTextArea taPath = new JTextArea((text == null) ? "" : text, 8, 50);
+    final ClassPath inherited =
+      ClassPath.of((CodeItemNode) node.getParent());
+    JPanel panel = new JPanel(new BorderLayout(5, 5));
+    panel.add(new JLabel("Jars and directories, one per line:"),
+              BorderLayout.NORTH);
+    panel.add(new JScrollPane(taPath), BorderLayout.CENTER);
+    if (!inherited.isEmpty())
     {
-      e1.printStackTrace();
+      panel.add(new JLabel("Also on the class path: "
+                           + inherited.toString()), BorderLayout.SOUTH);
     }
     
-    // Get the styled document for the pane
-    StyledDocument doc = tpOutput.getStyledDocument();
-    
-    // Insert the string
-    try
+    final int choice = JOptionPane.showConfirmDialog(frame, panel,
+        "Class Path for " + node.toString(), JOptionPane.OK_CANCEL_OPTION,
+        JOptionPane.PLAIN_MESSAGE);
+    if (choice != JOptionPane.OK_OPTION)
     {
-      doc.insertString(doc.getLength(), msg,
-                       doc.getStyle(style));
+      return;
     }
-    catch (BadLocationException e)
+    
+    // Warn about entries that don't exist, but keep them, since
+    // the jar may be built later
+    for (File entry : ClassPath.parse(taPath.getText()).getEntries())
     {
-      // Auto-generated catch block
-      e.printStackTrace();
+      if (!entry.exists())
+      {
+        JOptionPane.showMessageDialog(frame, entry.getPath()
+            + " was not found.", "Class Path",
+            JOptionPane.WARNING_MESSAGE);
+        break;
+      }
     }
+    
+    // Update the node
+    node.setClassPath(taPath.getText());
+    fileChanged = true;
   }
   
   
   /**
-   * Update the controls for starting and interrupting
-   * a script.
-   * 
-   * @param playing whether the script is playing
+   * Show the recent runs and what each one cost.
+   */
+  public void showRunHistory()
+  {
+    new RunHistoryDialog(frame, runHistory).setVisible(true);
+  }
+  
+  
+  /**
+   * Show the startup cost and throughput of each engine.
+   */
+  public void showEngineStats()
+  {
+    JOptionPane.showMessageDialog(frame, engines.getStatsReport(),
+        "Engine Statistics", JOptionPane.INFORMATION_MESSAGE);
+  }
+  
+  
+  /**
+   * Update the controls for interrupting a script.  Any number
+   * of scripts can run at once, so Play is always enabled, and
+   * Stop is enabled if the run in the selected tab is active.
    */
-  private void updatePlayControls(final boolean playing)
+  private void updatePlayControls()
   {
-    // If a script is running, disable the play button and menu item
-    btnPlay.setEnabled(!playing);
-    itemExec.setEnabled(!playing);
+    // Check the run in the selected tab
+    RunPanel panel = getSelectedRunPanel();
+    final boolean playing = ((panel != null) && panel.getRun().isActive());
     
-    // If a script is running, enable interrupting the script
+    // If the script is running, enable interrupting the script
     btnStop.setEnabled(playing);
     itemStop.setEnabled(playing);
   }
@@ -1228,6 +2273,12 @@ public final class App implements ISnippetEvent, WindowListener,
         SnippetActionHandler.EXEC_SCRIPT, "Execute", "Execute the script");
     toolbar.add(btnPlay);
     
+    // Create the Benchmark button
+    JButton btnBenchmark = createActionButton(prop,
+        "button.script_benchmark", SnippetActionHandler.BENCHMARK,
+        "Benchmark", "Benchmark the script");
+    toolbar.add(btnBenchmark);
+    
     // Create the Stop button
     btnStop = createActionButton(prop, "button.script_stop",
         SnippetActionHandler.STOP_SCRIPT, "Stop", "Stop the script");
@@ -1469,13 +2520,7 @@ public final class App implements ISnippetEvent, WindowListener,
     currentDirectory = tempDirectory;
     
     // Load the file
-    loadFromFile(inputFile, true);
-    
-    // Set the root
-    treeModel.setRoot(rootNode);
-    
-    // Initialize the tree
-    resetTreeRoot(true);
+    openLibrary(inputFile, true);
   }
   
   
@@ -1652,14 +2697,23 @@ public final class App implements ISnippetEvent, WindowListener,
     // Delete the tree
     resetTreeRoot(false);
     
-    // Clear the input and output screen
+    // Clear the input and the output of finished runs
     taInput.setText("");
-    tpOutput.setText("");
+    closeFinishedRunTabs();
     scriptBackup = null;
     
     // Clear the file name
     currentFileName = null;
     
+    // Start a new search index
+    searchIndex = new SearchIndex();
+    
+    // Stop any load still running, so it doesn't replace the tree
+    if (loadTask != null)
+    {
+      loadTask.cancel();
+    }
+    
     // Clear that the file has changed
     fileChanged = false;
   }
@@ -1793,77 +2847,120 @@ public final class App implements ISnippetEvent, WindowListener,
   
   
   /**
-   * Save the current contents to a file.
+   * Save the current contents to a file.  The tree is serialized
+   * here, so later edits can't change what is written, and the
+   * file and its search index are written in the background.
    * 
    * @param outFile the output File object
    */
   private void saveToFile(final File outFile)
   {
-    // Whether the data was successfully written
-    boolean dataWritten = false;
-    
-    // Write the file
-    ObjectOutputStream oos = null;
+    // Serialize the tree
+    final byte[] data;
     try
     {
-      // Create the output stream
-      oos = new ObjectOutputStream(new FileOutputStream(outFile));
-      
-      // Write the data
+      ByteArrayOutputStream baos = new ByteArrayOutputStream(64 * 1024);
+      ObjectOutputStream oos = new ObjectOutputStream(baos);
       oos.writeObject(rootNode);
-      
-      // The tree is now saved
-      fileChanged = false;
-      
-      // Clear the stream
       oos.close();
-      oos = null;
-      
-      // The data was saved
-      dataWritten = true;
-    }
-    catch (FileNotFoundException fnfe)
-    {
-      writeErr("File not found: " + fnfe.getMessage());
+      data = baos.toByteArray();
     }
     catch (IOException ioe)
     {
       writeErr("IOException: " + ioe.getMessage());
+      return;
     }
-    finally
+    
+    // Bring the search index up to date with the saved tree
+    final SearchIndex index = searchIndex;
+    index.update(rootNode);
+    
+    // The tree is now saved, unless the write fails
+    fileChanged = false;
+    
+    // Save the output file name, and update the properties file
+    // with it
+    setCurrentFileName(outFile);
+    updateAppProps();
+    
+    // Write the file after any earlier save, so the writes stay
+    // in order
+    final BackgroundTask<Boolean> previous = saveTask;
+    saveTask = TaskExecutor.getShared().submit(new BackgroundTask<Boolean>()
     {
-      if (oos != null)
+      protected Boolean compute() throws Exception
       {
+        waitForTask(previous);
+        setProgress(-1, "Saving " + outFile.getName());
+        
+        // Write the file
+        FileOutputStream fos = new FileOutputStream(outFile);
         try
         {
-          oos.close();
+          fos.write(data);
         }
-        catch (IOException ioe)
+        finally
         {
-          writeErr("IOException: " + ioe.getMessage());
+          fos.close();
         }
         
-        oos = null;
+        // Save the search index next to the file
+        index.save(outFile);
+        return Boolean.TRUE;
+      }
+      
+      protected void progress(final int percent, final String message)
+      {
+        showStatus(message);
+      }
+      
+      protected void succeeded(final Boolean result)
+      {
+        showStatus(null);
+      }
+      
+      protected void failed(final Throwable cause)
+      {
+        showStatus(null);
+        fileChanged = true;
+        writeErr("IOException: " + cause.getMessage());
       }
+    });
+  }
+  
+  
+  /**
+   * Wait for a task to end.
+   * 
+   * @param task the task, or null
+   * @return whether the task (if any) succeeded
+   */
+  private static boolean waitForTask(final BackgroundTask<?> task)
+  {
+    if (task == null)
+    {
+      return true;
     }
     
-    // Save the output file name
     try
     {
-      currentFileName = outFile.getCanonicalPath();
+      task.getFuture().get();
+      return true;
     }
-    catch (IOException ioe)
+    catch (InterruptedException ie)
     {
-      writeErr("Error getting the filename: " + ioe.getMessage());
+      Thread.currentThread().interrupt();
     }
-    
-    // Check if we need to update the properties file with
-    // the name of the file that was just processed
-    if (dataWritten)
+    catch (ExecutionException ee)
+    {
+      // The task reports its own failure
+    }
+    catch (CancellationException ce)
     {
-      // Update the properties file
-      updateAppProps();
+      // The task was cancelled
     }
+    
+    return false;
   }
   
   
@@ -1970,18 +3067,7 @@ public final class App implements ISnippetEvent, WindowListener,
     }
     
     // Load the file (do not save to the properties file)
-    File inputFile = new File(fileName);
-    if (!loadFromFile(inputFile, false))
-    {
-      // An error occurred
-      return;
-    }
-    
-    // Set the root
-    treeModel.setRoot(rootNode);
-    
-    // Initialize the tree
-    resetTreeRoot(true);
+    openLibrary(new File(fileName), false);
   }
   
   
@@ -1996,44 +3082,100 @@ public final class App implements ISnippetEvent, WindowListener,
   
   
   /**
-   * Read the ontents of a file.
+   * Open a library file in the background, and show it in the
+   * tree once it's loaded.  A load still running is cancelled.
    * 
    * @param inFile the input File object
    * @param saveFileName whether to save the name of the file
-   * @return whether the operation was successful
    */
-  private boolean loadFromFile(final File inFile,
-                               final boolean saveFileName)
+  private void openLibrary(final File inFile,
+                           final boolean saveFileName)
   {
-    // Whether the data was successfully read
-    boolean dataRead = false;
-    
     // Verify that inFile points to an existing file
     if ((inFile == null) || (inFile.isDirectory()) || (!inFile.exists()))
     {
-      return false;
+      return;
     }
     
-    // Read the file
-    ObjectInputStream os = null;
-    try
+    // Stop any load still running
+    if (loadTask != null)
     {
-      // Create the output stream
-      os = new ObjectInputStream(new FileInputStream(inFile));
-      
-      // Write the data
-      rootNode = (CodeItemNode) os.readObject();
-      
-      // Clear the stream
-      os.close();
-      os = null;
-      
-      // The data was loaded
-      dataRead = true;
+      loadTask.cancel();
     }
-    catch (ClassNotFoundException cnfe)
+    
+    loadTask = TaskExecutor.getShared().submit(
+      new BackgroundTask<CodeItemNode>()
+      {
+        /**
+         * The search index saved with the file.
+         */
+        private SearchIndex index = null;
+        
+        protected CodeItemNode compute()
+        {
+          // Read the tree, and open its search index
+          setProgress(-1, "Loading " + inFile.getName());
+          CodeItemNode root = readFromFile(inFile);
+          if ((root != null) && !isCancelled())
+          {
+            setProgress(-1, "Indexing " + inFile.getName());
+            index = SearchIndex.open(inFile, root);
+          }
+          
+          return root;
+        }
+        
+        protected void progress(final int percent, final String message)
+        {
+          showStatus(message);
+        }
+        
+        protected void succeeded(final CodeItemNode root)
+        {
+          showStatus(null);
+          if (root == null)
+          {
+            return;
+          }
+          
+          // Show the new tree
+          rootNode = root;
+          searchIndex = index;
+          fileChanged = false;
+          setCurrentFileName(inFile);
+          if (saveFileName)
+          {
+            // Update the properties file
+            updateAppProps();
+          }
+          treeModel.setRoot(rootNode);
+          resetTreeRoot(true);
+        }
+        
+        protected void failed(final Throwable cause)
+        {
+          showStatus(null);
+          writeErr("Error loading " + inFile.getName() + ": " + cause);
+        }
+      });
+  }
+  
+  
+  /**
+   * Read the tree saved in a file.
+   * 
+   * @param inFile the input File object
+   * @return the root of the tree, or null if it could not be read
+   */
+  private static CodeItemNode readFromFile(final File inFile)
+  {
+    // The root of the tree that was read
+    CodeItemNode root = null;
+    
+    // Read the file
+    try
     {
-      writeErr("Class not found: " + cnfe.getMessage());
+      root = CodeItemNode.readTree(inFile);
     }
     catch (FileNotFoundException fnfe)
     {
@@ -2043,42 +3185,38 @@ public final class App implements ISnippetEvent, WindowListener,
     {
       writeErr("IOException: " + ioe.getMessage());
     }
-    finally
-    {
-      if (os != null)
-      {
-        try
-        {
-          os.close();
-        }
-        catch (IOException ioe)
-        {
-          writeErr("IOException: " + ioe.getMessage());
-        }
-        
-        os = null;
-      }
-    }
     
-    // Save the input file name
+    return root;
+  }
+  
+  
+  /**
+   * Save the name of the file the tree was loaded from or saved to.
+   * 
+   * @param file the file
+   */
+  private void setCurrentFileName(final File file)
+  {
     try
     {
-      currentFileName = inFile.getCanonicalPath();
+      currentFileName = file.getCanonicalPath();
     }
     catch (IOException ioe)
     {
       writeErr("Error getting the filename: " + ioe.getMessage());
     }
-    
-    // Check if we need to update the properties file with
-    // the name of the file that was just processed
-    if ((dataRead) && (saveFileName))
-    {
-      // Update the properties file
-      updateAppProps();
-    }
-    
-    return dataRead;
+  }
+  
+  
+  /**
+   * Show a message in the status bar.
+   * 
+   * @param message the message, or null to clear it
+   */
+  private void showStatus(final String message)
+  {
+    lblStatus.setText(((message == null) || (message.length() == 0))
+                      ? " " : message);
   }
   
   
@@ -2381,6 +3519,172 @@ public final class App implements ISnippetEvent, WindowListener,
   }
   
   
+  /**
+   * Search the tree for nodes matching the user's search
+   * string, and select the node chosen by the user.
+   */
+  public void findNode()
+  {
+    // Get the search string
+    final String query = JOptionPane.showInputDialog(frame,
+        "Find nodes containing:", "Find", JOptionPane.PLAIN_MESSAGE);
+    if ((query == null) || (query.trim().length() < 1))
+    {
+      // The user cancelled
+      return;
+    }
+    
+    // Save any changes to the current script, so it gets indexed
+    checkNodeChanged();
+    
+    // Bring the index up to date and search it in the background,
+    // using a copy of the tree's text so the user can keep editing
+    final CodeItemNode root = rootNode;
+    final SearchIndex index = searchIndex;
+    final SearchIndex.Snapshot snapshot = new SearchIndex.Snapshot(root);
+    TaskExecutor.getShared().submit(new BackgroundTask<List<Match>>()
+    {
+      protected List<Match> compute()
+      {
+        setProgress(-1, "Searching for " + query);
+        index.update(snapshot);
+        return index.search(query);
+      }
+      
+      protected void progress(final int percent, final String message)
+      {
+        showStatus(message);
+      }
+      
+      protected void failed(final Throwable cause)
+      {
+        showStatus(null);
+        super.failed(cause);
+      }
+      
+      protected void succeeded(final List<Match> matches)
+      {
+        showStatus(null);
+        if (matches.isEmpty())
+        {
+          JOptionPane.showMessageDialog(frame,
+              "No matching nodes were found", "Find",
+              JOptionPane.INFORMATION_MESSAGE);
+          return;
+        }
+        
+        // Let the user pick one of the matching nodes
+        final Object[] paths = matches.toArray();
+        final Object choice = JOptionPane.showInputDialog(frame,
+            paths.length + " matching node(s):", "Find",
+            JOptionPane.PLAIN_MESSAGE, null, paths, paths[0]);
+        if (choice == null)
+        {
+          // The user cancelled
+          return;
+        }
+        
+        // Select the node
+        selectNode(((Match) choice).find(root));
+      }
+    });
+  }
+  
+  
+  /**
+   * Search the tree for clusters of near-duplicate scripts
+   * and show them in a dialog.
+   */
+  public void findDuplicates()
+  {
+    // Save any changes to the current script
+    checkNodeChanged();
+    
+    // Compute the clusters in the background, using a copy of the
+    // scripts so the user can keep editing
+    final DuplicateFinder.Snapshot snapshot =
+      new DuplicateFinder.Snapshot(rootNode);
+    TaskExecutor.getShared().submit(
+      new BackgroundTask<List<List<CodeItemNode>>>()
+    {
+      protected List<List<CodeItemNode>> compute()
+      {
+        setProgress(-1, "Finding duplicates");
+        return new DuplicateFinder().findClusters(snapshot);
+      }
+      
+      protected void progress(final int percent, final String message)
+      {
+        showStatus(message);
+      }
+      
+      protected void failed(final Throwable cause)
+      {
+        showStatus(null);
+        super.failed(cause);
+      }
+      
+      protected void succeeded(final List<List<CodeItemNode>> clusters)
+      {
+        // Check the clusters
+        showStatus(null);
+        if ((clusters == null) || (clusters.isEmpty()))
+        {
+          JOptionPane.showMessageDialog(frame,
+              "No near-duplicate snippets were found",
+              "Find Duplicates", JOptionPane.INFORMATION_MESSAGE);
+          return;
+        }
+        
+        // Show the clusters
+        new DuplicatesDialog(frame, clusters, App.this).setVisible(true);
+      }
+    });
+  }
+  
+  
+  /**
+   * Run every snippet under the selected node (or the whole
+   * tree, if no node is selected) and show the results.
+   */
+  public void runSubtree()
+  {
+    // Save any changes to the current script
+    checkNodeChanged();
+    
+    // Get the root of the subtree
+    final TreePath path = tree.getSelectionPath();
+    final CodeItemNode root = ((path == null) ? rootNode
+                               : (CodeItemNode) path.getLastPathComponent());
+    
+    // Show the results dialog and start the runs
+    BatchRunDialog dlg = new BatchRunDialog(frame, root, engines,
+                                            runLimits, this);
+    dlg.setVisible(true);
+    dlg.start();
+  }
+  
+  
+  /**
+   * Select a node in the tree and make it visible.
+   * 
+   * @param node the node to select
+   */
+  public void selectNode(final CodeItemNode node)
+  {
+    // Check the node
+    if (node == null)
+    {
+      return;
+    }
+    
+    // Select the node and scroll to it
+    TreePath path = new TreePath(node.getPath());
+    tree.setSelectionPath(path);
+    tree.scrollPathToVisible(path);
+  }
+  
+  
   /**
    * Show information about the application.
    */
@@ -2505,6 +3809,9 @@ public final class App implements ISnippetEvent, WindowListener,
         // Select the node the user right-clicked on
         tree.setSelectionPath(path);
         
+        // Show the node's engine in the popup menu
+        updateEngineMenu((CodeItemNode) path.getLastPathComponent());
+        
         // Show the popup menu
         popupMenuTree.show(tree, loc.x, loc.y);
         
@@ -2600,6 +3907,13 @@ public final class App implements ISnippetEvent, WindowListener,
       return;
     }
     
+    // Let the last save finish writing, and cancel the exit if
+    // it failed; the task reports the error
+    if (!waitForTask(saveTask))
+    {
+      return;
+    }
+    
     // Close the application
     System.exit(0);
   }
@@ -0,0 +1,312 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * A task that computes a result in the background and hands it to
+ * the event dispatch thread.  Subclasses implement compute(), and
+ * override succeeded(), failed(), cancelled() and progress() to
+ * update the user interface.  A task can fork subtasks; they are
+ * cancelled with the task, and any still running when compute()
+ * returns are cancelled then, so no subtask outlives its task.
+ * 
+ * @param <T> the type of the result
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public abstract class BackgroundTask<T>
+{
+  /**
+   * The future of the result.
+   */
+  private FutureTask<T> future = null;
+  
+  /**
+   * The subtasks that have been forked.
+   */
+  private final List<Future<?>> children = new ArrayList<Future<?>>(2);
+  
+  /**
+   * The executor running the task.
+   */
+  private TaskExecutor executor = null;
+  
+  
+  /**
+   * Default constructor.
+   */
+  public BackgroundTask()
+  {
+    super();
+    future = new FutureTask<T>(new Callable<T>()
+    {
+      public T call() throws Exception
+      {
+        return execute();
+      }
+    })
+    {
+      @Override
+      protected void done()
+      {
+        finish();
+      }
+    };
+  }
+  
+  
+  /**
+   * Compute the result.  This runs on a background thread, and
+   * should check isCancelled() or the thread's interrupt flag
+   * during long work.
+   * 
+   * @return the result
+   * @throws Exception the task failed
+   */
+  protected abstract T compute() throws Exception;
+  
+  
+  /**
+   * Called on the event dispatch thread with the result.
+   * 
+   * @param result the result
+   */
+  protected void succeeded(final T result)
+  {
+    // Nothing to do by default
+  }
+  
+  
+  /**
+   * Called on the event dispatch thread if compute() threw an
+   * exception.
+   * 
+   * @param cause the exception
+   */
+  protected void failed(final Throwable cause)
+  {
+    System.err.println("Task failed: " + cause);
+  }
+  
+  
+  /**
+   * Called on the event dispatch thread if the task was cancelled.
+   */
+  protected void cancelled()
+  {
+    // Nothing to do by default
+  }
+  
+  
+  /**
+   * Called on the event dispatch thread when compute() reports
+   * progress.
+   * 
+   * @param percent the percent done, or -1 if not known
+   * @param message what the task is doing
+   */
+  protected void progress(final int percent, final String message)
+  {
+    // Nothing to do by default
+  }
+  
+  
+  /**
+   * Start the task on an executor.
+   * 
+   * @param taskExecutor the executor
+   */
+  final void start(final TaskExecutor taskExecutor)
+  {
+    executor = taskExecutor;
+    executor.submit(future);
+  }
+  
+  
+  /**
+   * Run compute(), and cancel any subtasks still running when it
+   * returns.
+   * 
+   * @return the result
+   * @throws Exception the task failed
+   */
+  private T execute() throws Exception
+  {
+    // A task is not part of any snippet run
+    RunContext.setCurrent(null);
+    try
+    {
+      return compute();
+    }
+    finally
+    {
+      cancelChildren();
+    }
+  }
+  
+  
+  /**
+   * Hand the outcome to the event dispatch thread.
+   */
+  private void finish()
+  {
+    SwingUtilities.invokeLater(new Runnable()
+    {
+      public void run()
+      {
+        if (future.isCancelled())
+        {
+          cancelled();
+          return;
+        }
+        
+        try
+        {
+          succeeded(future.get());
+        }
+        catch (ExecutionException ee)
+        {
+          failed(ee.getCause());
+        }
+        catch (InterruptedException ie)
+        {
+          failed(ie);
+        }
+      }
+    });
+  }
+  
+  
+  /**
+   * Report progress from compute().
+   * 
+   * @param percent the percent done, or -1 if not known
+   * @param message what the task is doing
+   */
+  protected final void setProgress(final int percent,
+                                   final String message)
+  {
+    SwingUtilities.invokeLater(new Runnable()
+    {
+      public void run()
+      {
+        if (!future.isDone())
+        {
+          progress(percent, message);
+        }
+      }
+    });
+  }
+  
+  
+  /**
+   * Start a subtask on the task's executor.  The subtask is
+   * cancelled if this task is cancelled or returns first.
+   * 
+   * @param callable the subtask
+   * @param <V> the type of the subtask's result
+   * @return the future of the subtask's result
+   */
+  protected final <V> Future<V> fork(final Callable<V> callable)
+  {
+    synchronized (children)
+    {
+      if (future.isDone())
+      {
+        throw new CancellationException("The task has ended");
+      }
+      
+      Future<V> child = executor.submit(callable);
+      children.add(child);
+      return child;
+    }
+  }
+  
+  
+  /**
+   * Cancel the subtasks.
+   */
+  private void cancelChildren()
+  {
+    synchronized (children)
+    {
+      for (Future<?> child : children)
+      {
+        child.cancel(true);
+      }
+      children.clear();
+    }
+  }
+  
+  
+  /**
+   * Cancel the task and its subtasks, interrupting them if they
+   * are running.
+   * 
+   * @return whether the task was cancelled
+   */
+  public final boolean cancel()
+  {
+    final boolean result = future.cancel(true);
+    cancelChildren();
+    return result;
+  }
+  
+  
+  /**
+   * Return whether the task was cancelled.
+   * 
+   * @return whether the task was cancelled
+   */
+  public final boolean isCancelled()
+  {
+    return future.isCancelled();
+  }
+  
+  
+  /**
+   * Return the future of the result.
+   * 
+   * @return the future
+   */
+  public final Future<T> getFuture()
+  {
+    return future;
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs every snippet in a subtree in parallel, on a pool of
+ * threads of its own, so a batch does not hold up interactive
+ * runs.  The output of the snippets is discarded.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class BatchRun implements IRunListener
+{
+  /**
+   * The stream the output of the snippets is written to.
+   */
+  private static final PrintStream DISCARD =
+    new PrintStream(OutputStream.nullOutputStream());
+  
+  /**
+   * The nodes with scripts, in tree order.
+   */
+  private final List<CodeItemNode> nodes = new ArrayList<CodeItemNode>();
+  
+  /**
+   * The run of each node, in the same order as the nodes.
+   */
+  private final List<SnippetRun> runs = new ArrayList<SnippetRun>();
+  
+  /**
+   * The number of runs that have ended.
+   */
+  private final AtomicInteger finished = new AtomicInteger(0);
+  
+  /**
+   * The threads that run the snippets.
+   */
+  private RunManager manager = null;
+  
+  /**
+   * The object notified as runs start and end.
+   */
+  private IRunListener listener = null;
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param root the root of the subtree
+   * @param engines the engines that run the snippets
+   * @param numThreads the number of snippets to run at once
+   * @param limits the limits on each run
+   * @param runListener the object notified as runs start and end
+   */
+  public BatchRun(final CodeItemNode root,
+                  final EngineRegistry engines,
+                  final int numThreads,
+                  final RunLimits limits,
+                  final IRunListener runListener)
+  {
+    super();
+    listener = runListener;
+    manager = new RunManager(numThreads);
+    
+    // Create a run for each node with a script
+    Enumeration<?> e = root.preorderEnumeration();
+    while (e.hasMoreElements())
+    {
+      CodeItemNode node = (CodeItemNode) e.nextElement();
+      final String script = node.getScript();
+      if ((script == null) || (script.trim().length() == 0))
+      {
+        continue;
+      }
+      
+      nodes.add(node);
+      RunContext context = new RunContext(DISCARD, DISCARD);
+      context.setLimits(limits);
+      runs.add(new SnippetRun(node.getPathName(), script,
+          engines.chooseFor(node, null, script), context, this));
+    }
+  }
+  
+  
+  /**
+   * Queue all the runs.
+   */
+  public void start()
+  {
+    // Check for an empty batch
+    if (runs.isEmpty())
+    {
+      manager.shutdown();
+      return;
+    }
+    
+    for (SnippetRun run : runs)
+    {
+      manager.submit(run);
+    }
+  }
+  
+  
+  /**
+   * Stop the runs that have not ended.
+   */
+  public void stop()
+  {
+    for (SnippetRun run : runs)
+    {
+      run.stop();
+    }
+  }
+  
+  
+  /**
+   * Return the nodes with scripts.
+   * 
+   * @return the nodes, in tree order
+   */
+  public List<CodeItemNode> getNodes()
+  {
+    return nodes;
+  }
+  
+  
+  /**
+   * Return the runs.
+   * 
+   * @return the runs, in the same order as the nodes
+   */
+  public List<SnippetRun> getRuns()
+  {
+    return runs;
+  }
+  
+  
+  /**
+   * Return the number of runs that have ended.
+   * 
+   * @return the number of ended runs
+   */
+  public int getFinishedCount()
+  {
+    return finished.get();
+  }
+  
+  
+  /**
+   * A run is about to execute its snippet.
+   * 
+   * @param run the run
+   */
+  public void runStarted(final SnippetRun run)
+  {
+    listener.runStarted(run);
+  }
+  
+  
+  /**
+   * A run ended.  The threads are shut down after the last one.
+   * 
+   * @param run the run
+   */
+  public void runFinished(final SnippetRun run)
+  {
+    if (finished.incrementAndGet() == runs.size())
+    {
+      manager.shutdown();
+    }
+    
+    listener.runFinished(run);
+  }
+}
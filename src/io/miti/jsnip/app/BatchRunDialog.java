@@ -0,0 +1,387 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Dialog that runs every snippet under a node, and shows the
+ * status, wall time, CPU time and first error line of each in a
+ * sortable table.  Double-clicking a row selects its node.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class BatchRunDialog extends JDialog implements IRunListener
+{
+  /**
+   * Serial version ID.
+   */
+  private static final long serialVersionUID = 1L;
+  
+  /**
+   * The column names.
+   */
+  private static final String[] COLUMNS =
+    {"Snippet", "Status", "Wall (ms)", "CPU (ms)", "Error"};
+  
+  /**
+   * The batch of runs.
+   */
+  private transient BatchRun batch = null;
+  
+  /**
+   * The row of each run, keyed on run.
+   */
+  private transient Map<SnippetRun, Integer> rows = null;
+  
+  /**
+   * The table model.
+   */
+  private BatchTableModel model = null;
+  
+  /**
+   * The progress label.
+   */
+  private JLabel lblProgress = null;
+  
+  /**
+   * The button to stop the batch.
+   */
+  private JButton btnStop = null;
+  
+  
+  /**
+   * The table model, with one row per run.
+   */
+  private final class BatchTableModel extends AbstractTableModel
+  {
+    /**
+     * Serial version ID.
+     */
+    private static final long serialVersionUID = 1L;
+    
+    /**
+     * Return the number of rows.
+     * 
+     * @return the number of runs
+     */
+    public int getRowCount()
+    {
+      return batch.getRuns().size();
+    }
+    
+    /**
+     * Return the number of columns.
+     * 
+     * @return the number of columns
+     */
+    public int getColumnCount()
+    {
+      return COLUMNS.length;
+    }
+    
+    /**
+     * Return the name of a column.
+     * 
+     * @param column the column index
+     * @return the column name
+     */
+    @Override
+    public String getColumnName(final int column)
+    {
+      return COLUMNS[column];
+    }
+    
+    /**
+     * Return the class of a column, so the times sort as numbers.
+     * 
+     * @param column the column index
+     * @return the column class
+     */
+    @Override
+    public Class<?> getColumnClass(final int column)
+    {
+      return (((column == 2) || (column == 3)) ? Long.class : String.class);
+    }
+    
+    /**
+     * Return the value of a cell.
+     * 
+     * @param row the row index
+     * @param column the column index
+     * @return the cell value
+     */
+    public Object getValueAt(final int row, final int column)
+    {
+      final SnippetRun run = batch.getRuns().get(row);
+      switch (column)
+      {
+        case 0:
+          return run.getTitle();
+        
+        case 1:
+          return run.getStateName();
+        
+        case 2:
+          return ((run.getState() == SnippetRun.QUEUED) ? null
+                  : Long.valueOf(run.getElapsedMillis()));
+        
+        case 3:
+          final long cpu = run.getCpuMillis();
+          return ((cpu < 0L) ? null : Long.valueOf(cpu));
+        
+        default:
+          return toSingleLine(run.getError());
+      }
+    }
+  }
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param owner the owning frame
+   * @param root the root of the subtree to run
+   * @param engines the engines that run the snippets
+   * @param limits the limits on each run
+   * @param treeHandler the handler used to select nodes
+   */
+  public BatchRunDialog(final JFrame owner,
+                        final CodeItemNode root,
+                        final EngineRegistry engines,
+                        final RunLimits limits,
+                        final TreeHandler treeHandler)
+  {
+    super(owner, "Run " + root.toString(), false);
+    
+    // Create the runs, and index their rows
+    batch = new BatchRun(root, engines, RunManager.DEFAULT_THREADS,
+                         limits, this);
+    rows = new HashMap<SnippetRun, Integer>(batch.getRuns().size());
+    List<SnippetRun> runs = batch.getRuns();
+    for (int i = 0; i < runs.size(); ++i)
+    {
+      rows.put(runs.get(i), Integer.valueOf(i));
+    }
+    
+    // Create the table; double-clicking a row selects its node
+    model = new BatchTableModel();
+    final JTable table = new JTable(model);
+    table.setAutoCreateRowSorter(true);
+    table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+    table.getColumnModel().getColumn(0).setPreferredWidth(220);
+    table.getColumnModel().getColumn(4).setPreferredWidth(260);
+    table.addMouseListener(new MouseAdapter()
+    {
+      @Override
+      public void mouseClicked(final MouseEvent e)
+      {
+        final int row = table.getSelectedRow();
+        if ((e.getClickCount() == 2) && (row >= 0))
+        {
+          treeHandler.selectNode(batch.getNodes().get(
+              table.convertRowIndexToModel(row)));
+        }
+      }
+    });
+    
+    // Add the Stop and Close buttons
+    btnStop = new JButton("Stop");
+    btnStop.addActionListener(new ActionListener()
+    {
+      public void actionPerformed(final ActionEvent e)
+      {
+        batch.stop();
+      }
+    });
+    JButton btnClose = new JButton("Close");
+    btnClose.addActionListener(new ActionListener()
+    {
+      public void actionPerformed(final ActionEvent e)
+      {
+        dispose();
+      }
+    });
+    JPanel buttons = new JPanel();
+    buttons.add(btnStop);
+    buttons.add(btnClose);
+    
+    // Lay out the dialog
+    lblProgress = new JLabel();
+    JPanel panel = new JPanel(new BorderLayout(0, 5));
+    panel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+    panel.add(lblProgress, BorderLayout.NORTH);
+    panel.add(new JScrollPane(table), BorderLayout.CENTER);
+    panel.add(buttons, BorderLayout.SOUTH);
+    getContentPane().add(panel);
+    
+    // Stop the batch when the dialog is closed
+    addWindowListener(new WindowAdapter()
+    {
+      @Override
+      public void windowClosed(final WindowEvent e)
+      {
+        batch.stop();
+      }
+    });
+    
+    updateProgress();
+    setSize(new Dimension(700, 450));
+    setLocationRelativeTo(owner);
+  }
+  
+  
+  /**
+   * Start the runs.
+   */
+  public void start()
+  {
+    batch.start();
+  }
+  
+  
+  /**
+   * A run is about to execute its snippet.
+   * 
+   * @param run the run
+   */
+  public void runStarted(final SnippetRun run)
+  {
+    updateRow(run);
+  }
+  
+  
+  /**
+   * A run ended.
+   * 
+   * @param run the run
+   */
+  public void runFinished(final SnippetRun run)
+  {
+    updateRow(run);
+  }
+  
+  
+  /**
+   * Update a run's row and the progress label on the event
+   * dispatch thread.
+   * 
+   * @param run the run
+   */
+  private void updateRow(final SnippetRun run)
+  {
+    SwingUtilities.invokeLater(new Runnable()
+    {
+      public void run()
+      {
+        final int row = rows.get(run).intValue();
+        model.fireTableRowsUpdated(row, row);
+        updateProgress();
+      }
+    });
+  }
+  
+  
+  /**
+   * Update the progress label and the Stop button.
+   */
+  private void updateProgress()
+  {
+    final int total = batch.getRuns().size();
+    final int done = batch.getFinishedCount();
+    int failed = 0;
+    for (SnippetRun run : batch.getRuns())
+    {
+      if (run.getState() == SnippetRun.FAILED)
+      {
+        ++failed;
+      }
+    }
+    
+    lblProgress.setText(done + " of " + total + " snippets run, "
+                        + failed + " failed");
+    btnStop.setEnabled(done < total);
+  }
+  
+  
+  /**
+   * Join the lines of an error message, so the first error line
+   * shows in the table even when the message starts with a
+   * heading such as "Compilation failed".
+   * 
+   * @param msg the message (may be null)
+   * @return the non-blank lines joined by "; ", or null
+   */
+  private static String toSingleLine(final String msg)
+  {
+    if (msg == null)
+    {
+      return null;
+    }
+    
+    StringBuilder sb = new StringBuilder(msg.length());
+    for (String line : msg.split("\n"))
+    {
+      if (line.trim().length() > 0)
+      {
+        if (sb.length() > 0)
+        {
+          sb.append("; ");
+        }
+        
+        sb.append(line.trim());
+      }
+    }
+    
+    return sb.toString();
+  }
+}
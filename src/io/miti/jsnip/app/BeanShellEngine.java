@@ -0,0 +1,352 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import bsh.EvalError;
+import bsh.NameSpace;
+
+/**
+ * The engine that runs snippets with BeanShell.  Interpreters are
+ * leased from a pool, and parsed scripts are cached so reruns of
+ * a snippet skip parsing.
+ * 
+ * Included snippets are evaluated once into a namespace that is
+ * kept, keyed on the paths and text of the includes, and each run
+ * gets a child of that namespace.  Editing an included snippet
+ * changes the key, so the includes are evaluated again.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class BeanShellEngine implements IncludeAwareEngine
+{
+  /**
+   * The pool of interpreters.
+   */
+  private InterpreterPool pool = null;
+  
+  /**
+   * The cache of parsed scripts.
+   */
+  private ParsedScriptCache cache = null;
+  
+  /**
+   * The engine statistics.
+   */
+  private final EngineStats stats = new EngineStats();
+  
+  /**
+   * The most namespaces of included snippets to keep.
+   */
+  private static final int MAX_INCLUDE_SPACES = 16;
+  
+  /**
+   * The namespaces of evaluated includes, keyed on the includes,
+   * with the least recently used first.
+   */
+  private final Map<String, NameSpace> includeSpaces =
+    new LinkedHashMap<String, NameSpace>(16, 0.75f, true)
+    {
+      private static final long serialVersionUID = 1L;
+      
+      @Override
+      protected boolean removeEldestEntry(
+          final Map.Entry<String, NameSpace> eldest)
+      {
+        return (size() > MAX_INCLUDE_SPACES);
+      }
+    };
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param interpreterPool the pool of interpreters
+   * @param parsedScriptCache the cache of parsed scripts
+   */
+  public BeanShellEngine(final InterpreterPool interpreterPool,
+                         final ParsedScriptCache parsedScriptCache)
+  {
+    super();
+    pool = interpreterPool;
+    cache = parsedScriptCache;
+  }
+  
+  
+  /**
+   * Return the engine name.
+   * 
+   * @return the engine name
+   */
+  public String getName()
+  {
+    return CodeItemNode.ENGINE_BEANSHELL;
+  }
+  
+  
+  /**
+   * Return the engine label.
+   * 
+   * @return the engine label
+   */
+  public String getLabel()
+  {
+    return "BeanShell";
+  }
+  
+  
+  /**
+   * Fill and warm up the interpreter pool.
+   */
+  public void start()
+  {
+    // Check if the engine was already started
+    if (stats.isStarted())
+    {
+      return;
+    }
+    
+    final long start = System.nanoTime();
+    pool.warmUp();
+    stats.recordStartup(System.nanoTime() - start);
+  }
+  
+  
+  /**
+   * Run a snippet.
+   * 
+   * @param script the snippet
+   * @return the value returned by the snippet, or null
+   * @throws SnippetException the snippet failed to parse or run
+   */
+  public Object run(final String script) throws SnippetException
+  {
+    return run(script, null);
+  }
+  
+  
+  /**
+   * Run a snippet in a child of the namespace of its includes.
+   * 
+   * @param script the snippet
+   * @param includes the included snippets, or null
+   * @return the value returned by the snippet, or null
+   * @throws SnippetException the snippet or an include failed to
+   *         parse or run
+   */
+  public Object run(final String script, final ScriptIncludes includes)
+    throws SnippetException
+  {
+    final long start = System.nanoTime();
+    final NameSpace parent = getIncludeNameSpace(includes);
+    final InterpreterPool.Lease lease = pool.acquire();
+    try
+    {
+      final ParsedScript parsed = cache.get(script);
+      Object result = ((parent == null) ? lease.eval(parsed)
+                       : lease.eval(parsed, new NameSpace(parent, "run")));
+      stats.recordRun(script, System.nanoTime() - start);
+      return result;
+    }
+    catch (EvalError e)
+    {
+      throw new SnippetException(e.getMessage(), e);
+    }
+    finally
+    {
+      // Return the interpreter to the pool
+      pool.release(lease);
+    }
+  }
+  
+  
+  /**
+   * Parse a snippet and lease an interpreter for its runs.
+   * 
+   * @param script the snippet
+   * @return the prepared snippet, which holds the interpreter
+   *         until it is closed
+   * @throws SnippetException the snippet failed to parse
+   */
+  public PreparedSnippet prepare(final String script)
+    throws SnippetException
+  {
+    return prepare(script, null);
+  }
+  
+  
+  /**
+   * Parse a snippet, evaluate its includes, and lease an
+   * interpreter for its runs.  Each run of a snippet with
+   * includes gets a new child of the includes' namespace.
+   * 
+   * @param script the snippet
+   * @param includes the included snippets, or null
+   * @return the prepared snippet, which holds the interpreter
+   *         until it is closed
+   * @throws SnippetException the snippet failed to parse, or an
+   *         include failed
+   */
+  public PreparedSnippet prepare(final String script,
+                                 final ScriptIncludes includes)
+    throws SnippetException
+  {
+    final NameSpace parent = getIncludeNameSpace(includes);
+    
+    // Parse the snippet
+    final ParsedScript parsed;
+    try
+    {
+      parsed = cache.get(script);
+    }
+    catch (EvalError e)
+    {
+      throw new SnippetException(e.getMessage(), e);
+    }
+    
+    final InterpreterPool.Lease lease = pool.acquire();
+    return new PreparedSnippet()
+    {
+      public Object run() throws SnippetException
+      {
+        try
+        {
+          return ((parent == null) ? lease.eval(parsed)
+                  : lease.eval(parsed, new NameSpace(parent, "run")));
+        }
+        catch (EvalError e)
+        {
+          throw new SnippetException(e.getMessage(), e);
+        }
+      }
+      
+      public void close()
+      {
+        pool.release(lease);
+      }
+    };
+  }
+  
+  
+  /**
+   * Return the namespace holding the definitions of a snippet's
+   * includes, evaluating them if they are not cached.
+   * 
+   * @param includes the included snippets, or null
+   * @return the namespace, or null if there are no includes
+   * @throws SnippetException an include failed to parse or run
+   */
+  private NameSpace getIncludeNameSpace(final ScriptIncludes includes)
+    throws SnippetException
+  {
+    if ((includes == null) || includes.isEmpty())
+    {
+      return null;
+    }
+    
+    // Evaluate the includes while holding the lock, so concurrent
+    // runs of snippets with the same includes evaluate them once;
+    // the definitions may use classes from the run's class path
+    final String key = includes.getKey() + ClassPath.current().getKey();
+    synchronized (includeSpaces)
+    {
+      NameSpace space = includeSpaces.get(key);
+      if (space != null)
+      {
+        return space;
+      }
+      
+      // Evaluate each include, in order, into a new namespace
+      final InterpreterPool.Lease lease = pool.acquire();
+      try
+      {
+        space = new NameSpace(lease.getInterpreter().getNameSpace(),
+                              "include");
+        for (int i = 0; i < includes.getPaths().size(); ++i)
+        {
+          try
+          {
+            lease.eval(cache.get(includes.getScripts().get(i)), space);
+          }
+          catch (EvalError e)
+          {
+            throw new SnippetException("Error in included snippet "
+                + includes.getPaths().get(i) + ": " + e.getMessage(), e);
+          }
+        }
+      }
+      finally
+      {
+        pool.release(lease);
+      }
+      
+      includeSpaces.put(key, space);
+      return space;
+    }
+  }
+  
+  
+  /**
+   * Set whether one interpreter is kept for all runs.
+   * 
+   * @param usePersistent whether to keep definitions between runs
+   */
+  public void setPersistent(final boolean usePersistent)
+  {
+    pool.setPersistent(usePersistent);
+  }
+  
+  
+  /**
+   * Discard the persistent interpreter, and the namespaces of
+   * evaluated includes.
+   */
+  public void resetSession()
+  {
+    pool.resetSession();
+    synchronized (includeSpaces)
+    {
+      includeSpaces.clear();
+    }
+  }
+  
+  
+  /**
+   * Return the engine statistics.
+   * 
+   * @return the statistics
+   */
+  public EngineStats getStats()
+  {
+    return stats;
+  }
+}
@@ -0,0 +1,331 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+/**
+ * Runs another engine's snippets in a timed loop and reports
+ * statistics on the time of one run.  The snippet is prepared
+ * once, run in batches until a batch takes long enough to time
+ * well, warmed up, and then measured.  The value returned by
+ * each run is passed to the Blackhole so the work can't be
+ * removed as dead code.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class BenchmarkEngine implements SnippetEngine
+{
+  /**
+   * The default number of warm-up iterations.
+   */
+  public static final int DEFAULT_WARMUP = 5;
+  
+  /**
+   * The default number of measurement iterations.
+   */
+  public static final int DEFAULT_ITERATIONS = 10;
+  
+  /**
+   * The shortest time one iteration should take, in nanoseconds.
+   */
+  private static final long TARGET_BATCH_NANOS = 100000000L;
+  
+  /**
+   * The largest number of runs in one iteration.
+   */
+  private static final int MAX_BATCH = 1 << 24;
+  
+  /**
+   * The engine that runs the snippet.
+   */
+  private SnippetEngine engine = null;
+  
+  /**
+   * The number of warm-up iterations.
+   */
+  private int warmup = DEFAULT_WARMUP;
+  
+  /**
+   * The number of measurement iterations.
+   */
+  private int iterations = DEFAULT_ITERATIONS;
+  
+  /**
+   * The engine statistics.
+   */
+  private final EngineStats stats = new EngineStats();
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param runEngine the engine that runs the snippet
+   * @param warmupIterations the number of warm-up iterations
+   * @param measureIterations the number of measurement iterations
+   */
+  public BenchmarkEngine(final SnippetEngine runEngine,
+                         final int warmupIterations,
+                         final int measureIterations)
+  {
+    super();
+    engine = runEngine;
+    warmup = Math.max(0, warmupIterations);
+    iterations = Math.max(1, measureIterations);
+  }
+  
+  
+  /**
+   * Return the name of the engine that runs the snippet.
+   * 
+   * @return the engine name
+   */
+  public String getName()
+  {
+    return engine.getName();
+  }
+  
+  
+  /**
+   * Return the engine label.
+   * 
+   * @return the engine label
+   */
+  public String getLabel()
+  {
+    return engine.getLabel() + " (benchmark)";
+  }
+  
+  
+  /**
+   * Start the engine that runs the snippet.
+   * 
+   * @throws SnippetException the engine could not be started
+   */
+  public void start() throws SnippetException
+  {
+    engine.start();
+  }
+  
+  
+  /**
+   * Benchmark a snippet, and print a report to standard output.
+   * 
+   * @param script the snippet
+   * @return the statistics
+   * @throws SnippetException the snippet failed, or the run was
+   *         stopped
+   */
+  public Object run(final String script) throws SnippetException
+  {
+    start();
+    final long start = System.nanoTime();
+    final PreparedSnippet snippet = engine.prepare(script);
+    try
+    {
+      // Find how many runs make an iteration long enough to time
+      final int batch = calibrate(snippet);
+      System.out.println("Benchmark: " + engine.getLabel() + ", "
+          + warmup + " warm-up and " + iterations
+          + " measurement iterations of " + batch + " runs");
+      
+      // Warm up
+      for (int i = 0; i < warmup; ++i)
+      {
+        System.out.println("Warm-up " + (i + 1) + ": "
+            + BenchmarkStats.formatNanos(sample(snippet, batch)) + "/op");
+      }
+      
+      // Measure
+      final double[] samples = new double[iterations];
+      for (int i = 0; i < iterations; ++i)
+      {
+        samples[i] = sample(snippet, batch);
+        System.out.println("Iteration " + (i + 1) + ": "
+            + BenchmarkStats.formatNanos(samples[i]) + "/op");
+      }
+      
+      final BenchmarkStats result = new BenchmarkStats(samples);
+      System.out.println(getReport(result));
+      stats.recordRun(script, System.nanoTime() - start);
+      return result;
+    }
+    finally
+    {
+      snippet.close();
+    }
+  }
+  
+  
+  /**
+   * Find the number of runs that make an iteration take at least
+   * the target time.  The runs made here also warm up the snippet.
+   * 
+   * @param snippet the prepared snippet
+   * @return the number of runs in an iteration
+   * @throws SnippetException the snippet failed, or the run was
+   *         stopped
+   */
+  static int calibrate(final PreparedSnippet snippet)
+    throws SnippetException
+  {
+    int batch = 1;
+    while (true)
+    {
+      // Time a batch
+      final double nanosPerOp = sample(snippet, batch);
+      final double nanos = nanosPerOp * batch;
+      if ((nanos >= TARGET_BATCH_NANOS) || (batch >= MAX_BATCH))
+      {
+        return batch;
+      }
+      
+      // Scale the batch toward the target, growing it at least
+      // twofold and at most a hundredfold
+      final double scale = TARGET_BATCH_NANOS / Math.max(nanos, 1.0);
+      final long next = (long) Math.ceil(batch
+          * Math.min(100.0, Math.max(2.0, scale)));
+      batch = (int) Math.min(MAX_BATCH, next);
+    }
+  }
+  
+  
+  /**
+   * Run a snippet a number of times, and return the mean time
+   * of one run.
+   * 
+   * @param snippet the prepared snippet
+   * @param batch the number of runs
+   * @return the mean time of one run, in nanoseconds
+   * @throws SnippetException the snippet failed, or the run was
+   *         stopped
+   */
+  static double sample(final PreparedSnippet snippet, final int batch)
+    throws SnippetException
+  {
+    // Check if the run was stopped
+    checkStopped();
+    
+    final long start = System.nanoTime();
+    for (int i = 0; i < batch; ++i)
+    {
+      Blackhole.consume(snippet.run());
+    }
+    final long nanos = System.nanoTime() - start;
+    
+    return ((double) nanos / (double) batch);
+  }
+  
+  
+  /**
+   * Throw an exception if the current run was stopped.
+   * 
+   * @throws SnippetException the run was stopped
+   */
+  static void checkStopped() throws SnippetException
+  {
+    final RunContext context = RunContext.current();
+    if (Thread.currentThread().isInterrupted()
+        || ((context != null) && context.isCancelled()))
+    {
+      throw new SnippetException("The benchmark was stopped");
+    }
+  }
+  
+  
+  /**
+   * Build the report on a benchmark.
+   * 
+   * @param result the benchmark statistics
+   * @return the report
+   */
+  private static String getReport(final BenchmarkStats result)
+  {
+    StringBuilder sb = new StringBuilder(200);
+    sb.append("Result: ").append(result.toString());
+    sb.append(" (95% CI +/- ").append(
+        BenchmarkStats.formatNanos(result.getConfidence95())).append(')');
+    sb.append(String.format("\n  %,.0f ops/s", result.getOpsPerSecond()));
+    sb.append(", min ").append(
+        BenchmarkStats.formatNanos(result.getMin()));
+    sb.append(", p50 ").append(
+        BenchmarkStats.formatNanos(result.getPercentile(50.0)));
+    sb.append(", p90 ").append(
+        BenchmarkStats.formatNanos(result.getPercentile(90.0)));
+    sb.append(", p99 ").append(
+        BenchmarkStats.formatNanos(result.getPercentile(99.0)));
+    sb.append(", max ").append(
+        BenchmarkStats.formatNanos(result.getMax()));
+    return sb.toString();
+  }
+  
+  
+  /**
+   * Set whether the definitions made by one run are kept.
+   * 
+   * @param usePersistent whether to keep definitions between runs
+   */
+  public void setPersistent(final boolean usePersistent)
+  {
+    engine.setPersistent(usePersistent);
+  }
+  
+  
+  /**
+   * Discard the definitions kept between runs.
+   */
+  public void resetSession()
+  {
+    engine.resetSession();
+  }
+  
+  
+  /**
+   * Prepare a snippet with the engine that runs it.
+   * 
+   * @param script the snippet
+   * @return the prepared snippet
+   * @throws SnippetException the snippet failed to parse or compile
+   */
+  public PreparedSnippet prepare(final String script)
+    throws SnippetException
+  {
+    return engine.prepare(script);
+  }
+  
+  
+  /**
+   * Return the engine statistics.
+   * 
+   * @return the statistics
+   */
+  public EngineStats getStats()
+  {
+    return stats;
+  }
+}
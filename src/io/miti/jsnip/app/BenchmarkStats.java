@@ -0,0 +1,286 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.util.Arrays;
+
+/**
+ * Statistics on the samples taken by a benchmark.  Each sample
+ * is the mean time of one operation, in nanoseconds, over one
+ * measurement iteration.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class BenchmarkStats
+{
+  /**
+   * The two-sided 95% critical values of Student's t distribution,
+   * indexed on degrees of freedom from 1 to 30.
+   */
+  private static final double[] T_95 =
+    {12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262,
+     2.228, 2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101,
+     2.093, 2.086, 2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052,
+     2.048, 2.045, 2.042};
+  
+  /**
+   * The samples, sorted.
+   */
+  private double[] samples = null;
+  
+  /**
+   * The mean of the samples.
+   */
+  private double mean = 0.0;
+  
+  /**
+   * The sample standard deviation.
+   */
+  private double stdDev = 0.0;
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param nanosPerOp the time of one operation in each sample
+   */
+  public BenchmarkStats(final double[] nanosPerOp)
+  {
+    super();
+    samples = nanosPerOp.clone();
+    Arrays.sort(samples);
+    
+    // Compute the mean
+    double sum = 0.0;
+    for (double sample : samples)
+    {
+      sum += sample;
+    }
+    mean = ((samples.length == 0) ? 0.0 : (sum / samples.length));
+    
+    // Compute the sample standard deviation
+    if (samples.length > 1)
+    {
+      double squares = 0.0;
+      for (double sample : samples)
+      {
+        squares += (sample - mean) * (sample - mean);
+      }
+      stdDev = Math.sqrt(squares / (samples.length - 1));
+    }
+  }
+  
+  
+  /**
+   * Return the number of samples.
+   * 
+   * @return the number of samples
+   */
+  public int getCount()
+  {
+    return samples.length;
+  }
+  
+  
+  /**
+   * Return the mean time of one operation.
+   * 
+   * @return the mean, in nanoseconds
+   */
+  public double getMean()
+  {
+    return mean;
+  }
+  
+  
+  /**
+   * Return the sample standard deviation.
+   * 
+   * @return the standard deviation, in nanoseconds
+   */
+  public double getStdDev()
+  {
+    return stdDev;
+  }
+  
+  
+  /**
+   * Return the standard error of the mean.
+   * 
+   * @return the standard error, in nanoseconds
+   */
+  public double getStdError()
+  {
+    return ((samples.length == 0) ? 0.0
+            : (stdDev / Math.sqrt(samples.length)));
+  }
+  
+  
+  /**
+   * Return the half-width of the 95% confidence interval of
+   * the mean.
+   * 
+   * @return the half-width of the interval, in nanoseconds
+   */
+  public double getConfidence95()
+  {
+    if (samples.length < 2)
+    {
+      return 0.0;
+    }
+    
+    return getCritical95(samples.length - 1) * getStdError();
+  }
+  
+  
+  /**
+   * Return the two-sided 95% critical value of Student's t
+   * distribution.  Degrees of freedom past the table use the
+   * nearest normal approximation.
+   * 
+   * @param degrees the degrees of freedom
+   * @return the critical value
+   */
+  public static double getCritical95(final double degrees)
+  {
+    final int df = (int) Math.floor(degrees);
+    if (df < 1)
+    {
+      return T_95[0];
+    }
+    else if (df <= T_95.length)
+    {
+      return T_95[df - 1];
+    }
+    else if (df <= 60)
+    {
+      return 2.000;
+    }
+    else if (df <= 120)
+    {
+      return 1.980;
+    }
+    
+    return 1.960;
+  }
+  
+  
+  /**
+   * Return the fastest sample.
+   * 
+   * @return the minimum, in nanoseconds
+   */
+  public double getMin()
+  {
+    return ((samples.length == 0) ? 0.0 : samples[0]);
+  }
+  
+  
+  /**
+   * Return the slowest sample.
+   * 
+   * @return the maximum, in nanoseconds
+   */
+  public double getMax()
+  {
+    return ((samples.length == 0) ? 0.0 : samples[samples.length - 1]);
+  }
+  
+  
+  /**
+   * Return a percentile of the samples, interpolating between
+   * the two nearest samples.
+   * 
+   * @param percent the percentile, from 0 to 100
+   * @return the percentile, in nanoseconds
+   */
+  public double getPercentile(final double percent)
+  {
+    if (samples.length == 0)
+    {
+      return 0.0;
+    }
+    
+    // Find the position of the percentile in the sorted samples
+    final double pos = (percent / 100.0) * (samples.length - 1);
+    final int lower = (int) Math.floor(pos);
+    final int upper = Math.min(lower + 1, samples.length - 1);
+    final double fraction = pos - lower;
+    return samples[lower] + (fraction * (samples[upper] - samples[lower]));
+  }
+  
+  
+  /**
+   * Return the number of operations per second at the mean.
+   * 
+   * @return the operations per second
+   */
+  public double getOpsPerSecond()
+  {
+    return ((mean <= 0.0) ? 0.0 : (1.0e9 / mean));
+  }
+  
+  
+  /**
+   * Format a time in nanoseconds, in the unit that suits it.
+   * 
+   * @param nanos the time in nanoseconds
+   * @return the formatted time, such as "12.3 us"
+   */
+  public static String formatNanos(final double nanos)
+  {
+    if (nanos < 1.0e3)
+    {
+      return String.format("%.1f ns", nanos);
+    }
+    else if (nanos < 1.0e6)
+    {
+      return String.format("%.2f us", nanos / 1.0e3);
+    }
+    else if (nanos < 1.0e9)
+    {
+      return String.format("%.2f ms", nanos / 1.0e6);
+    }
+    
+    return String.format("%.3f s", nanos / 1.0e9);
+  }
+  
+  
+  /**
+   * Return a short description of the statistics.
+   * 
+   * @return the mean and standard deviation per operation
+   */
+  @Override
+  public String toString()
+  {
+    return formatNanos(mean) + "/op +/- " + formatNanos(stdDev);
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+/**
+ * Consumes values so the JIT cannot remove the code that
+ * computes them.  Benchmarks pass each snippet's return value
+ * here, and a snippet can call Blackhole.consume() on values it
+ * computes but does not return.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class Blackhole
+{
+  /**
+   * The sink the values are folded into.  Because it's volatile,
+   * each write must happen.
+   */
+  private static volatile int sink = 0;
+  
+  
+  /**
+   * Default constructor.
+   */
+  private Blackhole()
+  {
+    super();
+  }
+  
+  
+  /**
+   * Consume an object.
+   * 
+   * @param value the value to consume
+   */
+  public static void consume(final Object value)
+  {
+    sink += System.identityHashCode(value);
+  }
+  
+  
+  /**
+   * Consume an int.
+   * 
+   * @param value the value to consume
+   */
+  public static void consume(final int value)
+  {
+    sink += value;
+  }
+  
+  
+  /**
+   * Consume a long.
+   * 
+   * @param value the value to consume
+   */
+  public static void consume(final long value)
+  {
+    sink += (int) (value ^ (value >>> 32));
+  }
+  
+  
+  /**
+   * Consume a double.
+   * 
+   * @param value the value to consume
+   */
+  public static void consume(final double value)
+  {
+    consume(Double.doubleToRawLongBits(value));
+  }
+}
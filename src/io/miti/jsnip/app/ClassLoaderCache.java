@@ -0,0 +1,167 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps a class loader for each class path used by snippets, so
+ * the jars are opened and indexed once and the loaded classes are
+ * reused across runs.  A loader is replaced when a jar on its
+ * class path is rewritten, since the key of the class path
+ * includes each jar's modification time.
+ * 
+ * Loaders that are replaced or evicted are dropped from the cache
+ * but not closed, since runs, the persistent session and cached
+ * include namespaces may still load classes through them.  Their
+ * jars are closed when they are garbage collected.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class ClassLoaderCache
+{
+  /**
+   * The most class loaders to keep.
+   */
+  private static final int MAX_LOADERS = 8;
+  
+  /**
+   * The shared cache.
+   */
+  private static final ClassLoaderCache SHARED = new ClassLoaderCache();
+  
+  /**
+   * The class loaders, keyed on the class path key, with the least
+   * recently used first.
+   */
+  private final LinkedHashMap<String, URLClassLoader> loaders =
+    new LinkedHashMap<String, URLClassLoader>(16, 0.75f, true);
+  
+  /**
+   * The key of the current loader for each class path, keyed on
+   * the class path text, used to find loaders that are out of date.
+   */
+  private final Map<String, String> currentKeys =
+    new HashMap<String, String>(16);
+  
+  
+  /**
+   * Default constructor.
+   */
+  private ClassLoaderCache()
+  {
+    super();
+  }
+  
+  
+  /**
+   * Return the shared cache.
+   * 
+   * @return the shared cache
+   */
+  public static ClassLoaderCache getShared()
+  {
+    return SHARED;
+  }
+  
+  
+  /**
+   * Return the class loader for a class path, creating it if
+   * there's none or a jar changed since it was created.
+   * 
+   * @param classPath the class path
+   * @return the class loader
+   */
+  public synchronized ClassLoader get(final ClassPath classPath)
+  {
+    // Check for a loader that's up to date
+    final String key = classPath.getKey();
+    URLClassLoader loader = loaders.get(key);
+    if (loader != null)
+    {
+      return loader;
+    }
+    
+    // Drop the loader that's out of date
+    final String text = classPath.toString();
+    final String oldKey = currentKeys.put(text, key);
+    if (oldKey != null)
+    {
+      loaders.remove(oldKey);
+    }
+    
+    // Create the loader, and drop the least recently used if
+    // there are too many
+    loader = new URLClassLoader(toUrls(classPath.getEntries()),
+                                ClassLoaderCache.class.getClassLoader());
+    loaders.put(key, loader);
+    if (loaders.size() > MAX_LOADERS)
+    {
+      final String eldest = loaders.keySet().iterator().next();
+      currentKeys.values().remove(eldest);
+      loaders.remove(eldest);
+    }
+    
+    return loader;
+  }
+  
+  
+  /**
+   * Convert the entries of a class path to URLs.
+   * 
+   * @param entries the entries
+   * @return the URLs
+   */
+  private static URL[] toUrls(final List<File> entries)
+  {
+    URL[] urls = new URL[entries.size()];
+    for (int i = 0; i < urls.length; ++i)
+    {
+      try
+      {
+        urls[i] = entries.get(i).toURI().toURL();
+      }
+      catch (MalformedURLException mue)
+      {
+        // Can't happen for a file URI
+        throw new IllegalArgumentException(mue);
+      }
+    }
+    
+    return urls;
+  }
+}
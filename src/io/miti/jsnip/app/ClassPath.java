@@ -0,0 +1,278 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A list of extra jars and directories that snippets can load
+ * classes from.  A library sets a class path on its root node,
+ * and any node can add to the class path of its parent.
+ * 
+ * The class path of the run on the current thread is kept in a
+ * thread-local, set by ClassPathEngine, so the engines can load
+ * the snippet's classes without the class path being passed
+ * through every engine that wraps them.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class ClassPath
+{
+  /**
+   * The empty class path.
+   */
+  public static final ClassPath EMPTY =
+    new ClassPath(Collections.<File>emptyList());
+  
+  /**
+   * The class path of the run on the current thread.
+   */
+  private static final ThreadLocal<ClassPath> CURRENT =
+    new ThreadLocal<ClassPath>();
+  
+  /**
+   * The entries, as canonical files.
+   */
+  private List<File> entries = null;
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param files the entries
+   */
+  private ClassPath(final List<File> files)
+  {
+    super();
+    entries = files;
+  }
+  
+  
+  /**
+   * Parse a class path.  The entries are separated by the
+   * platform's path separator or by line breaks, and blank
+   * entries are skipped.
+   * 
+   * @param text the class path
+   * @return the class path
+   */
+  public static ClassPath parse(final String text)
+  {
+    if ((text == null) || (text.trim().length() == 0))
+    {
+      return EMPTY;
+    }
+    
+    List<File> files = new ArrayList<File>(4);
+    for (String entry : text.split("[\\r\\n" + File.pathSeparator + "]+"))
+    {
+      if (entry.trim().length() > 0)
+      {
+        addEntry(files, new File(entry.trim()));
+      }
+    }
+    
+    return (files.isEmpty() ? EMPTY : new ClassPath(files));
+  }
+  
+  
+  /**
+   * Add an entry to a list of files, skipping duplicates.
+   * 
+   * @param files the list of files
+   * @param file the entry to add
+   */
+  private static void addEntry(final List<File> files, final File file)
+  {
+    File entry = file.getAbsoluteFile();
+    try
+    {
+      entry = entry.getCanonicalFile();
+    }
+    catch (IOException ioe)
+    {
+      // Keep the absolute path
+    }
+    
+    if (!files.contains(entry))
+    {
+      files.add(entry);
+    }
+  }
+  
+  
+  /**
+   * Return the class path of a node: the class paths of the nodes
+   * above it, followed by its own.
+   * 
+   * @param node the node
+   * @return the class path
+   */
+  public static ClassPath of(final CodeItemNode node)
+  {
+    List<File> files = new ArrayList<File>(4);
+    if (node != null)
+    {
+      for (Object obj : node.getPath())
+      {
+        for (File file : parse(((CodeItemNode) obj).getClassPath()).entries)
+        {
+          addEntry(files, file);
+        }
+      }
+    }
+    
+    return (files.isEmpty() ? EMPTY : new ClassPath(files));
+  }
+  
+  
+  /**
+   * Return the class path of the run on the current thread.
+   * 
+   * @return the class path, which is empty if none was set
+   */
+  public static ClassPath current()
+  {
+    final ClassPath classPath = CURRENT.get();
+    return ((classPath == null) ? EMPTY : classPath);
+  }
+  
+  
+  /**
+   * Set the class path of the run on the current thread.
+   * 
+   * @param classPath the class path, or null to clear it
+   * @return the class path that was set before
+   */
+  public static ClassPath setCurrent(final ClassPath classPath)
+  {
+    final ClassPath old = current();
+    if ((classPath == null) || classPath.isEmpty())
+    {
+      CURRENT.remove();
+    }
+    else
+    {
+      CURRENT.set(classPath);
+    }
+    
+    return old;
+  }
+  
+  
+  /**
+   * Return whether there are no entries.
+   * 
+   * @return whether the class path is empty
+   */
+  public boolean isEmpty()
+  {
+    return entries.isEmpty();
+  }
+  
+  
+  /**
+   * Return the entries.
+   * 
+   * @return the entries, as canonical files
+   */
+  public List<File> getEntries()
+  {
+    return Collections.unmodifiableList(entries);
+  }
+  
+  
+  /**
+   * Return a key that changes when an entry is added, removed or
+   * moved, or when a jar is rewritten.  Directories are read as
+   * the classes are loaded, so only their paths are part of the key.
+   * 
+   * @return the key, which is empty for the empty class path
+   */
+  public String getKey()
+  {
+    if (isEmpty())
+    {
+      return "";
+    }
+    
+    StringBuilder sb = new StringBuilder(200);
+    for (File file : entries)
+    {
+      sb.append(file.getPath());
+      if (file.isFile())
+      {
+        sb.append('@').append(file.lastModified());
+        sb.append('#').append(file.length());
+      }
+      sb.append('\n');
+    }
+    
+    return ScriptHash.of(sb.toString());
+  }
+  
+  
+  /**
+   * Return the class loader for the class path, from the shared
+   * cache.
+   * 
+   * @return the class loader, or null if the class path is empty
+   */
+  public ClassLoader getClassLoader()
+  {
+    return (isEmpty() ? null : ClassLoaderCache.getShared().get(this));
+  }
+  
+  
+  /**
+   * Return the class path in the platform's format.
+   * 
+   * @return the class path
+   */
+  @Override
+  public String toString()
+  {
+    StringBuilder sb = new StringBuilder(200);
+    for (File file : entries)
+    {
+      if (sb.length() > 0)
+      {
+        sb.append(File.pathSeparatorChar);
+      }
+      sb.append(file.getPath());
+    }
+    
+    return sb.toString();
+  }
+}
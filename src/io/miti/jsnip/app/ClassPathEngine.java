@@ -0,0 +1,216 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+/**
+ * Runs another engine's snippets with the jars and directories on
+ * a node's class path.  The class path is made current on the
+ * thread for each run, and the engines load classes through the
+ * cached class loader for it.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class ClassPathEngine implements SnippetEngine
+{
+  /**
+   * The engine that runs the snippet.
+   */
+  private SnippetEngine engine = null;
+  
+  /**
+   * The class path.
+   */
+  private ClassPath classPath = null;
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param runEngine the engine that runs the snippet
+   * @param path the class path
+   */
+  public ClassPathEngine(final SnippetEngine runEngine,
+                         final ClassPath path)
+  {
+    super();
+    engine = runEngine;
+    classPath = path;
+  }
+  
+  
+  /**
+   * Return the engine if there's a class path, or the engine that
+   * runs the snippet if there is not.
+   * 
+   * @param runEngine the engine that runs the snippet
+   * @param path the class path
+   * @return the engine to run the snippet with
+   */
+  public static SnippetEngine wrap(final SnippetEngine runEngine,
+                                   final ClassPath path)
+  {
+    if (path.isEmpty())
+    {
+      return runEngine;
+    }
+    
+    return new ClassPathEngine(runEngine, path);
+  }
+  
+  
+  /**
+   * Return the name of the engine that runs the snippet.
+   * 
+   * @return the engine name
+   */
+  public String getName()
+  {
+    return engine.getName();
+  }
+  
+  
+  /**
+   * Return the label of the engine that runs the snippet.
+   * 
+   * @return the engine label
+   */
+  public String getLabel()
+  {
+    return engine.getLabel();
+  }
+  
+  
+  /**
+   * Start the engine that runs the snippet.
+   * 
+   * @throws SnippetException the engine could not be started
+   */
+  public void start() throws SnippetException
+  {
+    engine.start();
+  }
+  
+  
+  /**
+   * Run a snippet with the class path.
+   * 
+   * @param script the snippet
+   * @return the value returned by the snippet, or null
+   * @throws SnippetException the snippet failed to compile or run
+   */
+  public Object run(final String script) throws SnippetException
+  {
+    final ClassPath old = ClassPath.setCurrent(classPath);
+    try
+    {
+      return engine.run(script);
+    }
+    finally
+    {
+      ClassPath.setCurrent(old);
+    }
+  }
+  
+  
+  /**
+   * Prepare a snippet with the class path.  Each run of the
+   * prepared snippet also has the class path.
+   * 
+   * @param script the snippet
+   * @return the prepared snippet
+   * @throws SnippetException the snippet failed to parse or compile
+   */
+  public PreparedSnippet prepare(final String script)
+    throws SnippetException
+  {
+    final PreparedSnippet prepared;
+    final ClassPath old = ClassPath.setCurrent(classPath);
+    try
+    {
+      prepared = engine.prepare(script);
+    }
+    finally
+    {
+      ClassPath.setCurrent(old);
+    }
+    
+    return new PreparedSnippet()
+    {
+      public Object run() throws SnippetException
+      {
+        final ClassPath old = ClassPath.setCurrent(classPath);
+        try
+        {
+          return prepared.run();
+        }
+        finally
+        {
+          ClassPath.setCurrent(old);
+        }
+      }
+      
+      public void close()
+      {
+        prepared.close();
+      }
+    };
+  }
+  
+  
+  /**
+   * Set whether the definitions made by one run are kept.
+   * 
+   * @param usePersistent whether to keep definitions between runs
+   */
+  public void setPersistent(final boolean usePersistent)
+  {
+    engine.setPersistent(usePersistent);
+  }
+  
+  
+  /**
+   * Discard the definitions kept between runs.
+   */
+  public void resetSession()
+  {
+    engine.resetSession();
+  }
+  
+  
+  /**
+   * Return the statistics of the engine that runs the snippet.
+   * 
+   * @return the statistics
+   */
+  public EngineStats getStats()
+  {
+    return engine.getStats();
+  }
+}
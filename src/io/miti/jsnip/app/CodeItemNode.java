@@ -28,7 +28,13 @@
 
 package io.miti.jsnip.app;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
 import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.TreeNode;
 
 /**
  * Encapsulation of a tree node.
@@ -43,11 +49,49 @@ public final class CodeItemNode extends DefaultMutableTreeNode
    */
   private String script = null;
   
+  /**
+   * The engine used to run the script, or null to use the
+   * parent node's engine.
+   */
+  private String engine = null;
+  
+  /**
+   * The extra jars and directories added to the parent node's
+   * class path, one per line, or null for none.
+   */
+  private String classPath = null;
+  
   /**
    * Serial version ID.
    */
   private static final long serialVersionUID = 1L;
   
+  /**
+   * The separator between node titles in a node path.
+   */
+  public static final char PATH_SEPARATOR = '/';
+  
+  /**
+   * The engine name for running scripts with BeanShell.
+   */
+  public static final String ENGINE_BEANSHELL = "beanshell";
+  
+  /**
+   * The engine name for compiling scripts with javac.
+   */
+  public static final String ENGINE_JAVAC = "javac";
+  
+  /**
+   * The engine name for running scripts with JShell.
+   */
+  public static final String ENGINE_JSHELL = "jshell";
+  
+  /**
+   * The engine name for choosing the fastest engine measured for
+   * the snippet.
+   */
+  public static final String ENGINE_AUTO = "auto";
+  
   
   /**
    * Default constructor.
@@ -70,6 +114,37 @@ public final class CodeItemNode extends DefaultMutableTreeNode
   }
   
   
+  /**
+   * Read the tree saved in a library file.
+   * 
+   * @param file the library file
+   * @return the root of the tree
+   * @throws IOException the file could not be read, or does not
+   *         hold a tree
+   */
+  public static CodeItemNode readTree(final File file) throws IOException
+  {
+    ObjectInputStream in = new ObjectInputStream(new FileInputStream(file));
+    try
+    {
+      return (CodeItemNode) in.readObject();
+    }
+    catch (ClassNotFoundException cnfe)
+    {
+      throw new IOException("Class not found: " + cnfe.getMessage(), cnfe);
+    }
+    catch (ClassCastException cce)
+    {
+      throw new IOException(file.getName() + " is not a snippet library",
+                            cce);
+    }
+    finally
+    {
+      in.close();
+    }
+  }
+  
+  
   /**
    * Set the script for this node.
    * 
@@ -92,6 +167,75 @@ public final class CodeItemNode extends DefaultMutableTreeNode
   }
   
   
+  /**
+   * Set the engine used to run this node's script.
+   * 
+   * @param engineName the engine name, or null to use the parent's
+   */
+  public void setEngine(final String engineName)
+  {
+    engine = engineName;
+  }
+  
+  
+  /**
+   * Return the engine set on this node.
+   * 
+   * @return the engine name, or null if it's inherited
+   */
+  public String getEngine()
+  {
+    return engine;
+  }
+  
+  
+  /**
+   * Return the engine used to run this node's script.  If the
+   * node has no engine set, the nearest ancestor's is used, and
+   * BeanShell is used if no ancestor has one.
+   * 
+   * @return the engine name
+   */
+  public String getEffectiveEngine()
+  {
+    for (CodeItemNode node = this; node != null;
+         node = (CodeItemNode) node.getParent())
+    {
+      if (node.engine != null)
+      {
+        return node.engine;
+      }
+    }
+    
+    return ENGINE_BEANSHELL;
+  }
+  
+  
+  /**
+   * Set the jars and directories this node adds to its parent's
+   * class path.
+   * 
+   * @param path the entries, one per line, or null for none
+   */
+  public void setClassPath(final String path)
+  {
+    classPath = (((path == null) || (path.trim().length() == 0))
+                 ? null : path.trim());
+  }
+  
+  
+  /**
+   * Return the jars and directories this node adds to its
+   * parent's class path.
+   * 
+   * @return the entries, one per line, or null for none
+   */
+  public String getClassPath()
+  {
+    return classPath;
+  }
+  
+  
   /**
    * Write out the tree, starting with node, and all children.
    * 
@@ -110,6 +254,90 @@ public final class CodeItemNode extends DefaultMutableTreeNode
   }
   
   
+  /**
+   * Return the path of this node, as the titles of the nodes
+   * below the root, separated by slashes.  The root node
+   * returns an empty string.
+   * 
+   * @return the path of this node
+   */
+  public String getPathName()
+  {
+    // Declare the string builder object
+    StringBuilder sb = new StringBuilder(100);
+    
+    // Walk the path, skipping the root node
+    final TreeNode[] nodes = getPath();
+    for (int i = 1; i < nodes.length; ++i)
+    {
+      if (i > 1)
+      {
+        sb.append(PATH_SEPARATOR);
+      }
+      
+      sb.append(((CodeItemNode) nodes[i]).getUserObject().toString());
+    }
+    
+    // Return the string
+    return sb.toString();
+  }
+  
+  
+  /**
+   * Find the node below this one with the specified path.  The
+   * path is relative to this node, in the format returned by
+   * getPathName() for the root node.
+   * 
+   * @param path the path of the node to find
+   * @return the matching node, or null if it is not found
+   */
+  public CodeItemNode findByPath(final String path)
+  {
+    // Check for an empty path
+    if ((path == null) || (path.trim().length() < 1))
+    {
+      return this;
+    }
+    
+    // Start at this node and match one title at a time
+    CodeItemNode node = this;
+    String remaining = path.trim();
+    while ((node != null) && (remaining.length() > 0))
+    {
+      // Find the child whose title matches the start of the path.
+      // Titles may contain the separator, so try the longest first.
+      CodeItemNode match = null;
+      int matchLength = -1;
+      final int childCount = node.getChildCount();
+      for (int i = 0; i < childCount; ++i)
+      {
+        final CodeItemNode child = (CodeItemNode) node.getChildAt(i);
+        final String title = child.getUserObject().toString();
+        if (remaining.equals(title))
+        {
+          match = child;
+          matchLength = title.length();
+          break;
+        }
+        else if ((title.length() > matchLength)
+                 && (remaining.startsWith(title + PATH_SEPARATOR)))
+        {
+          match = child;
+          matchLength = title.length();
+        }
+      }
+      
+      // Move to the matching child
+      node = match;
+      remaining = ((match == null) || (matchLength >= remaining.length()))
+                  ? "" : remaining.substring(matchLength + 1);
+    }
+    
+    // Return the node (null if not found)
+    return node;
+  }
+  
+  
   /**
    * Recurse over a node and all of its children.  The
    * output string is appended to sb.
@@ -0,0 +1,456 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+/**
+ * Compares the speed of two snippets.  The snippet marked for
+ * comparison (A) is run against the snippet passed to run() (B)
+ * under the same warm-up and measurement iterations.  The
+ * iterations of the two snippets are interleaved, in the order
+ * A B B A, so drift in the machine's speed is shared between
+ * them.  The report gives each mean with its 95% confidence
+ * interval, the interval of the difference, and the difference
+ * in bytes allocated per run.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class CompareEngine implements SnippetEngine
+{
+  /**
+   * The engine for snippet A.
+   */
+  private SnippetEngine engineA = null;
+  
+  /**
+   * The title of snippet A.
+   */
+  private String titleA = null;
+  
+  /**
+   * Snippet A.
+   */
+  private String scriptA = null;
+  
+  /**
+   * The engine for snippet B.
+   */
+  private SnippetEngine engineB = null;
+  
+  /**
+   * The title of snippet B.
+   */
+  private String titleB = null;
+  
+  /**
+   * The number of warm-up iterations.
+   */
+  private int warmup = BenchmarkEngine.DEFAULT_WARMUP;
+  
+  /**
+   * The number of measurement iterations.
+   */
+  private int iterations = BenchmarkEngine.DEFAULT_ITERATIONS;
+  
+  /**
+   * The engine statistics.
+   */
+  private final EngineStats stats = new EngineStats();
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param markedEngine the engine for snippet A
+   * @param markedTitle the title of snippet A
+   * @param markedScript snippet A
+   * @param runEngine the engine for snippet B
+   * @param runTitle the title of snippet B
+   * @param warmupIterations the number of warm-up iterations
+   * @param measureIterations the number of measurement iterations
+   */
+  public CompareEngine(final SnippetEngine markedEngine,
+                       final String markedTitle,
+                       final String markedScript,
+                       final SnippetEngine runEngine,
+                       final String runTitle,
+                       final int warmupIterations,
+                       final int measureIterations)
+  {
+    super();
+    engineA = markedEngine;
+    titleA = markedTitle;
+    scriptA = markedScript;
+    engineB = runEngine;
+    titleB = runTitle;
+    warmup = Math.max(0, warmupIterations);
+    iterations = Math.max(2, measureIterations);
+  }
+  
+  
+  /**
+   * Return the name of the engine for snippet B.
+   * 
+   * @return the engine name
+   */
+  public String getName()
+  {
+    return engineB.getName();
+  }
+  
+  
+  /**
+   * Return the engine label.
+   * 
+   * @return the engine label
+   */
+  public String getLabel()
+  {
+    return engineB.getLabel() + " (compare)";
+  }
+  
+  
+  /**
+   * Start the engines of both snippets.
+   * 
+   * @throws SnippetException an engine could not be started
+   */
+  public void start() throws SnippetException
+  {
+    engineA.start();
+    engineB.start();
+  }
+  
+  
+  /**
+   * Compare snippet A with a snippet, and print a report to
+   * standard output.
+   * 
+   * @param script snippet B
+   * @return a summary of the comparison
+   * @throws SnippetException a snippet failed, or the run was
+   *         stopped
+   */
+  public Object run(final String script) throws SnippetException
+  {
+    start();
+    final long start = System.nanoTime();
+    final PreparedSnippet snippetA = engineA.prepare(scriptA);
+    PreparedSnippet snippetB = null;
+    try
+    {
+      snippetB = engineB.prepare(script);
+      
+      // Size the iterations of each snippet
+      final int batchA = BenchmarkEngine.calibrate(snippetA);
+      final int batchB = BenchmarkEngine.calibrate(snippetB);
+      System.out.println("A: " + titleA + " (" + engineA.getLabel()
+          + "), " + batchA + " runs per iteration");
+      System.out.println("B: " + titleB + " (" + engineB.getLabel()
+          + "), " + batchB + " runs per iteration");
+      System.out.println("Comparing with " + warmup
+          + " warm-up and " + iterations + " measurement iterations");
+      
+      // Warm up both snippets
+      for (int i = 0; i < warmup; ++i)
+      {
+        BenchmarkEngine.sample(snippetA, batchA);
+        BenchmarkEngine.sample(snippetB, batchB);
+      }
+      
+      // Measure, alternating which snippet goes first
+      final double[] timesA = new double[iterations];
+      final double[] timesB = new double[iterations];
+      final double[] allocA = new double[iterations];
+      final double[] allocB = new double[iterations];
+      for (int i = 0; i < iterations; ++i)
+      {
+        if ((i % 2) == 0)
+        {
+          timesA[i] = sample(snippetA, batchA, allocA, i);
+          timesB[i] = sample(snippetB, batchB, allocB, i);
+        }
+        else
+        {
+          timesB[i] = sample(snippetB, batchB, allocB, i);
+          timesA[i] = sample(snippetA, batchA, allocA, i);
+        }
+      }
+      
+      // Report the results
+      final BenchmarkStats statsA = new BenchmarkStats(timesA);
+      final BenchmarkStats statsB = new BenchmarkStats(timesB);
+      final String summary = getSummary(statsA, statsB);
+      System.out.println(getReport(statsA, statsB,
+          mean(allocA), mean(allocB)));
+      stats.recordRun(script, System.nanoTime() - start);
+      return summary;
+    }
+    finally
+    {
+      snippetA.close();
+      if (snippetB != null)
+      {
+        snippetB.close();
+      }
+    }
+  }
+  
+  
+  /**
+   * Run one measurement iteration of a snippet, and save the
+   * bytes it allocated per run.
+   * 
+   * @param snippet the prepared snippet
+   * @param batch the number of runs
+   * @param allocated the bytes allocated per run in each iteration,
+   *        or -1 if that can't be measured
+   * @param index the iteration
+   * @return the mean time of one run, in nanoseconds
+   * @throws SnippetException the snippet failed, or the run was
+   *         stopped
+   */
+  private static double sample(final PreparedSnippet snippet,
+                               final int batch,
+                               final double[] allocated,
+                               final int index)
+    throws SnippetException
+  {
+    final long before = RunMetrics.getThreadAllocatedBytes();
+    final double nanos = BenchmarkEngine.sample(snippet, batch);
+    final long after = RunMetrics.getThreadAllocatedBytes();
+    allocated[index] = ((before < 0L) ? -1.0
+                        : ((double) (after - before) / (double) batch));
+    return nanos;
+  }
+  
+  
+  /**
+   * Return the mean of some values, or -1 if any value is
+   * negative.
+   * 
+   * @param values the values
+   * @return the mean
+   */
+  private static double mean(final double[] values)
+  {
+    double sum = 0.0;
+    for (double value : values)
+    {
+      if (value < 0.0)
+      {
+        return -1.0;
+      }
+      sum += value;
+    }
+    
+    return (sum / values.length);
+  }
+  
+  
+  /**
+   * Return the half-width of the 95% confidence interval of the
+   * difference of two means, using Welch's approximation of the
+   * degrees of freedom, since the variances may differ.
+   * 
+   * @param statsA the statistics of snippet A
+   * @param statsB the statistics of snippet B
+   * @return the half-width of the interval, in nanoseconds
+   */
+  private static double getDiffConfidence95(final BenchmarkStats statsA,
+                                            final BenchmarkStats statsB)
+  {
+    final double varA = statsA.getStdError() * statsA.getStdError();
+    final double varB = statsB.getStdError() * statsB.getStdError();
+    final double var = varA + varB;
+    if (var <= 0.0)
+    {
+      return 0.0;
+    }
+    
+    final double df = (var * var)
+      / (((varA * varA) / (statsA.getCount() - 1))
+         + ((varB * varB) / (statsB.getCount() - 1)));
+    return BenchmarkStats.getCritical95(df) * Math.sqrt(var);
+  }
+  
+  
+  /**
+   * Return a one-line summary of the comparison.
+   * 
+   * @param statsA the statistics of snippet A
+   * @param statsB the statistics of snippet B
+   * @return the summary
+   */
+  private static String getSummary(final BenchmarkStats statsA,
+                                   final BenchmarkStats statsB)
+  {
+    // Check if the interval of the difference includes zero
+    final double diff = statsB.getMean() - statsA.getMean();
+    if (Math.abs(diff) <= getDiffConfidence95(statsA, statsB))
+    {
+      return "No significant difference between A and B";
+    }
+    
+    // Say which is faster, and by how much
+    if (diff < 0.0)
+    {
+      return String.format("B is %.2fx as fast as A",
+                           statsA.getMean() / statsB.getMean());
+    }
+    
+    return String.format("A is %.2fx as fast as B",
+                         statsB.getMean() / statsA.getMean());
+  }
+  
+  
+  /**
+   * Build the report on a comparison.
+   * 
+   * @param statsA the statistics of snippet A
+   * @param statsB the statistics of snippet B
+   * @param allocA the bytes allocated per run of A, or -1
+   * @param allocB the bytes allocated per run of B, or -1
+   * @return the report
+   */
+  private static String getReport(final BenchmarkStats statsA,
+                                  final BenchmarkStats statsB,
+                                  final double allocA,
+                                  final double allocB)
+  {
+    StringBuilder sb = new StringBuilder(300);
+    appendLine(sb, "A", statsA, allocA);
+    appendLine(sb, "B", statsB, allocB);
+    
+    // The difference of the means
+    final double diff = statsB.getMean() - statsA.getMean();
+    final double ci = getDiffConfidence95(statsA, statsB);
+    sb.append("B - A: ").append(formatSigned(diff));
+    sb.append("/op (95% CI ").append(formatSigned(diff - ci));
+    sb.append(" to ").append(formatSigned(diff + ci)).append(")\n");
+    
+    // The difference in allocation
+    if ((allocA >= 0.0) && (allocB >= 0.0))
+    {
+      final long delta = Math.round(allocB - allocA);
+      sb.append("Allocation B - A: ").append((delta < 0L) ? "-" : "+");
+      sb.append(RunMetrics.formatBytes(Math.abs(delta))).append("/op\n");
+    }
+    
+    sb.append(getSummary(statsA, statsB));
+    return sb.toString();
+  }
+  
+  
+  /**
+   * Add the results of one snippet to the report.
+   * 
+   * @param sb the report
+   * @param name the name of the snippet
+   * @param result the statistics of the snippet
+   * @param alloc the bytes allocated per run, or -1
+   */
+  private static void appendLine(final StringBuilder sb,
+                                 final String name,
+                                 final BenchmarkStats result,
+                                 final double alloc)
+  {
+    sb.append(name).append(": ");
+    sb.append(BenchmarkStats.formatNanos(result.getMean()));
+    sb.append("/op +/- ");
+    sb.append(BenchmarkStats.formatNanos(result.getConfidence95()));
+    sb.append(" (95% CI)");
+    if (alloc >= 0.0)
+    {
+      sb.append(", ").append(RunMetrics.formatBytes(Math.round(alloc)));
+      sb.append("/op allocated");
+    }
+    sb.append('\n');
+  }
+  
+  
+  /**
+   * Format a time that may be negative.
+   * 
+   * @param nanos the time in nanoseconds
+   * @return the formatted time, with its sign
+   */
+  private static String formatSigned(final double nanos)
+  {
+    return ((nanos < 0.0) ? "-" : "+")
+      + BenchmarkStats.formatNanos(Math.abs(nanos));
+  }
+  
+  
+  /**
+   * Set whether the definitions made by one run are kept.
+   * 
+   * @param usePersistent whether to keep definitions between runs
+   */
+  public void setPersistent(final boolean usePersistent)
+  {
+    engineA.setPersistent(usePersistent);
+    engineB.setPersistent(usePersistent);
+  }
+  
+  
+  /**
+   * Discard the definitions kept between runs.
+   */
+  public void resetSession()
+  {
+    engineA.resetSession();
+    engineB.resetSession();
+  }
+  
+  
+  /**
+   * Prepare a snippet with the engine for snippet B.
+   * 
+   * @param script the snippet
+   * @return the prepared snippet
+   * @throws SnippetException the snippet failed to parse or compile
+   */
+  public PreparedSnippet prepare(final String script)
+    throws SnippetException
+  {
+    return engineB.prepare(script);
+  }
+  
+  
+  /**
+   * Return the engine statistics.
+   * 
+   * @return the statistics
+   */
+  public EngineStats getStats()
+  {
+    return stats;
+  }
+}
@@ -0,0 +1,373 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A cache of compiled snippets on disk, so a snippet compiled in
+ * an earlier session does not need to be compiled again.  Entries
+ * are keyed on the hash of the script and the JDK version, and the
+ * least recently used entries are deleted when the total size of
+ * the cache passes a limit.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class CompiledClassCache
+{
+  /**
+   * The default limit on the size of the cache, in bytes.
+   */
+  public static final long DEFAULT_MAX_BYTES = 32L * 1024L * 1024L;
+  
+  /**
+   * The name of the cache directory under the JSnip directory.
+   */
+  private static final String CACHE_DIR_NAME = "classes";
+  
+  /**
+   * The suffix of a cache entry file.
+   */
+  private static final String ENTRY_SUFFIX = ".snc";
+  
+  /**
+   * The marker at the start of an entry file ("JSNC").
+   */
+  private static final int MAGIC = 0x4A534E43;
+  
+  /**
+   * The directory holding the cache entries.
+   */
+  private File cacheDir = null;
+  
+  /**
+   * The limit on the size of the cache, in bytes.
+   */
+  private long maxBytes = DEFAULT_MAX_BYTES;
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param dir the directory holding the cache entries
+   * @param limit the limit on the size of the cache, in bytes
+   */
+  public CompiledClassCache(final File dir, final long limit)
+  {
+    super();
+    cacheDir = dir;
+    maxBytes = limit;
+  }
+  
+  
+  /**
+   * Return the user's JSnip directory.
+   * 
+   * @return the JSnip directory
+   */
+  public static File getUserDirectory()
+  {
+    return new File(System.getProperty("user.home"), ".jsnip");
+  }
+  
+  
+  /**
+   * Create a cache in the user's JSnip directory, with the
+   * default size limit.
+   * 
+   * @return the cache
+   */
+  public static CompiledClassCache createDefault()
+  {
+    return new CompiledClassCache(
+        new File(getUserDirectory(), CACHE_DIR_NAME), DEFAULT_MAX_BYTES);
+  }
+  
+  
+  /**
+   * Return the cache key for a script.  The classes depend on the
+   * compiler, so the JDK version is part of the key.
+   * 
+   * @param script the script
+   * @return the cache key
+   */
+  private static String getKey(final String script)
+  {
+    return ScriptHash.of(System.getProperty("java.vm.vendor") + '|'
+                         + System.getProperty("java.version") + '\n'
+                         + script);
+  }
+  
+  
+  /**
+   * Return the compiled form of a script from the cache.
+   * 
+   * @param script the script
+   * @return the compiled snippet, or null if it's not in the cache
+   */
+  public JavacRunner.CompiledSnippet get(final String script)
+  {
+    // Check for the entry
+    final File file = new File(cacheDir, getKey(script) + ENTRY_SUFFIX);
+    if (!file.isFile())
+    {
+      return null;
+    }
+    
+    // Read the entry.  No count or length can be more than the
+    // size of the file, so larger ones mean the entry is corrupt.
+    DataInputStream in = null;
+    JavacRunner.CompiledSnippet snippet = null;
+    final long fileLength = file.length();
+    try
+    {
+      in = new DataInputStream(new BufferedInputStream(
+          new FileInputStream(file)));
+      if (in.readInt() != MAGIC)
+      {
+        throw new IOException("Not a cache entry");
+      }
+      
+      final String mainClass = in.readUTF();
+      final boolean wrapped = in.readBoolean();
+      final int numClasses = checkLength(in.readInt(), fileLength);
+      Map<String, byte[]> classes = new HashMap<String, byte[]>(numClasses);
+      for (int i = 0; i < numClasses; ++i)
+      {
+        final String name = in.readUTF();
+        final byte[] bytes = new byte[checkLength(in.readInt(), fileLength)];
+        in.readFully(bytes);
+        classes.put(name, bytes);
+      }
+      
+      snippet = new JavacRunner.CompiledSnippet(classes, mainClass, wrapped);
+    }
+    catch (IOException ioe)
+    {
+      System.err.println("Unable to read the class cache: "
+                         + ioe.getMessage());
+    }
+    finally
+    {
+      close(in);
+    }
+    
+    // Mark the entry as recently used, or delete a bad entry so
+    // the snippet is compiled and cached again
+    if (snippet != null)
+    {
+      file.setLastModified(System.currentTimeMillis());
+    }
+    else
+    {
+      file.delete();
+    }
+    
+    return snippet;
+  }
+  
+  
+  /**
+   * Save the compiled form of a script in the cache.
+   * 
+   * @param script the script
+   * @param snippet the compiled snippet
+   */
+  public void put(final String script,
+                  final JavacRunner.CompiledSnippet snippet)
+  {
+    // Create the cache directory
+    if (!cacheDir.isDirectory() && !cacheDir.mkdirs())
+    {
+      System.err.println("Unable to create " + cacheDir.getPath());
+      return;
+    }
+    
+    // Write the entry to a temporary file of its own, then move it
+    // into place, so a partly-written entry is never read, even
+    // when two runs write the same entry at once
+    final String key = getKey(script);
+    final File file = new File(cacheDir, key + ENTRY_SUFFIX);
+    File tempFile = null;
+    DataOutputStream out = null;
+    try
+    {
+      tempFile = File.createTempFile(key, ".tmp", cacheDir);
+      out = new DataOutputStream(new BufferedOutputStream(
+          new FileOutputStream(tempFile)));
+      out.writeInt(MAGIC);
+      out.writeUTF(snippet.getMainClass());
+      out.writeBoolean(snippet.isWrapped());
+      out.writeInt(snippet.getClasses().size());
+      for (Map.Entry<String, byte[]> entry
+           : snippet.getClasses().entrySet())
+      {
+        out.writeUTF(entry.getKey());
+        out.writeInt(entry.getValue().length);
+        out.write(entry.getValue());
+      }
+      
+      out.close();
+      out = null;
+      
+      // Replace any existing entry
+      try
+      {
+        Files.move(tempFile.toPath(), file.toPath(),
+                   StandardCopyOption.ATOMIC_MOVE,
+                   StandardCopyOption.REPLACE_EXISTING);
+      }
+      catch (AtomicMoveNotSupportedException amnse)
+      {
+        Files.move(tempFile.toPath(), file.toPath(),
+                   StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
+    catch (IOException ioe)
+    {
+      System.err.println("Unable to write the class cache: "
+                         + ioe.getMessage());
+    }
+    finally
+    {
+      close(out);
+      if (tempFile != null)
+      {
+        tempFile.delete();
+      }
+    }
+    
+    // Keep the cache under its size limit
+    evict();
+  }
+  
+  
+  /**
+   * Check a count or length read from an entry.
+   * 
+   * @param length the count or length
+   * @param fileLength the length of the entry file
+   * @return the length
+   * @throws IOException the length is negative or longer than the
+   *         file, so the entry is corrupt
+   */
+  private static int checkLength(final int length, final long fileLength)
+    throws IOException
+  {
+    if ((length < 0) || (length > fileLength))
+    {
+      throw new IOException("The entry is corrupt");
+    }
+    
+    return length;
+  }
+  
+  
+  /**
+   * Delete the least recently used entries until the cache
+   * is under its size limit.
+   */
+  private void evict()
+  {
+    // Get the entries
+    File[] files = cacheDir.listFiles();
+    if (files == null)
+    {
+      return;
+    }
+    
+    // Add up their sizes
+    long total = 0L;
+    for (File file : files)
+    {
+      total += file.length();
+    }
+    
+    if (total <= maxBytes)
+    {
+      return;
+    }
+    
+    // Delete the oldest entries first
+    Arrays.sort(files, new Comparator<File>()
+    {
+      public int compare(final File a, final File b)
+      {
+        final long diff = a.lastModified() - b.lastModified();
+        return ((diff < 0) ? -1 : ((diff > 0) ? 1 : 0));
+      }
+    });
+    
+    for (int i = 0; (i < files.length) && (total > maxBytes); ++i)
+    {
+      final long size = files[i].length();
+      if (files[i].delete())
+      {
+        total -= size;
+      }
+    }
+  }
+  
+  
+  /**
+   * Close a stream, reporting any error.
+   * 
+   * @param stream the stream to close (may be null)
+   */
+  private static void close(final Closeable stream)
+  {
+    if (stream != null)
+    {
+      try
+      {
+        stream.close();
+      }
+      catch (IOException ioe)
+      {
+        System.err.println(ioe.getMessage());
+      }
+    }
+  }
+}
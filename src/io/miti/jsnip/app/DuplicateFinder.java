@@ -0,0 +1,438 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Find clusters of near-duplicate scripts in a tree.  Each script
+ * is reduced to a MinHash signature over its token shingles, and
+ * locality-sensitive hashing on bands of the signatures finds the
+ * candidate pairs, so scripts are never compared pairwise.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class DuplicateFinder
+{
+  /**
+   * The number of tokens in a shingle.
+   */
+  private static final int SHINGLE_SIZE = 4;
+  
+  /**
+   * The number of LSH bands.
+   */
+  private static final int BANDS = 16;
+  
+  /**
+   * The number of signature rows in each band.
+   */
+  private static final int ROWS = 8;
+  
+  /**
+   * The number of hash functions in a signature.
+   */
+  private static final int NUM_HASHES = BANDS * ROWS;
+  
+  /**
+   * The default estimated similarity for two scripts to be duplicates.
+   */
+  public static final double DEFAULT_THRESHOLD = 0.8;
+  
+  /**
+   * The seeds for the hash functions.
+   */
+  private static final long[] SEEDS = new long[NUM_HASHES];
+  
+  /**
+   * Initialize the seeds.
+   */
+  static
+  {
+    long seed = 0x2545F4914F6CDD1DL;
+    for (int i = 0; i < NUM_HASHES; ++i)
+    {
+      seed = mix(seed + i);
+      SEEDS[i] = seed;
+    }
+  }
+  
+  /**
+   * The minimum estimated similarity for two scripts to be duplicates.
+   */
+  private double threshold = DEFAULT_THRESHOLD;
+  
+  
+  /**
+   * The nodes in a tree that have a script, and their scripts,
+   * copied on the Swing event thread so the scripts can be
+   * compared on another thread while the user edits the tree.
+   */
+  public static final class Snapshot
+  {
+    /**
+     * The nodes with a script.
+     */
+    private List<CodeItemNode> nodes = null;
+    
+    /**
+     * The script of each node.
+     */
+    private List<String> scripts = null;
+    
+    
+    /**
+     * Constructor.
+     * 
+     * @param root the node to search under
+     */
+    public Snapshot(final CodeItemNode root)
+    {
+      nodes = new ArrayList<CodeItemNode>(500);
+      scripts = new ArrayList<String>(500);
+      Enumeration<?> e = root.preorderEnumeration();
+      while (e.hasMoreElements())
+      {
+        final CodeItemNode node = (CodeItemNode) e.nextElement();
+        final String script = node.getScript();
+        if ((script != null) && (script.trim().length() > 0))
+        {
+          nodes.add(node);
+          scripts.add(script);
+        }
+      }
+    }
+  }
+  
+  
+  /**
+   * Default constructor.
+   */
+  public DuplicateFinder()
+  {
+    super();
+  }
+  
+  
+  /**
+   * Constructor taking the similarity threshold.
+   * 
+   * @param minSimilarity the minimum similarity, from 0 to 1
+   */
+  public DuplicateFinder(final double minSimilarity)
+  {
+    super();
+    threshold = minSimilarity;
+  }
+  
+  
+  /**
+   * Find the clusters of near-duplicate scripts beneath a node.
+   * The signatures are computed in parallel on all processors.
+   * 
+   * @param snapshot the nodes to compare, and their scripts
+   * @return the clusters, largest first; each has at least 2 nodes
+   */
+  public List<List<CodeItemNode>> findClusters(final Snapshot snapshot)
+  {
+    // Compute the signatures and group the similar nodes
+    final List<CodeItemNode> nodes = snapshot.nodes;
+    final long[][] signatures = computeSignatures(snapshot.scripts);
+    final int[] parent = new int[nodes.size()];
+    for (int i = 0; i < parent.length; ++i)
+    {
+      parent[i] = i;
+    }
+    
+    // Hash each band; nodes sharing a bucket are candidates
+    for (int band = 0; band < BANDS; ++band)
+    {
+      Map<Long, List<Integer>> buckets =
+        new HashMap<Long, List<Integer>>(nodes.size() * 2);
+      for (int i = 0; i < signatures.length; ++i)
+      {
+        // Combine the rows of the band into one key
+        long key = band;
+        for (int row = 0; row < ROWS; ++row)
+        {
+          key = mix(key ^ signatures[i][(band * ROWS) + row]);
+        }
+        
+        // Check the candidates already in the bucket
+        final Long bucketKey = Long.valueOf(key);
+        List<Integer> bucket = buckets.get(bucketKey);
+        if (bucket == null)
+        {
+          bucket = new ArrayList<Integer>(2);
+          buckets.put(bucketKey, bucket);
+        }
+        else
+        {
+          for (Integer other : bucket)
+          {
+            if ((find(parent, i) != find(parent, other.intValue()))
+                && (similarity(signatures[i], signatures[other.intValue()])
+                    >= threshold))
+            {
+              union(parent, i, other.intValue());
+            }
+          }
+        }
+        
+        bucket.add(Integer.valueOf(i));
+      }
+    }
+    
+    // Gather the clusters
+    Map<Integer, List<CodeItemNode>> groups =
+      new HashMap<Integer, List<CodeItemNode>>(100);
+    for (int i = 0; i < parent.length; ++i)
+    {
+      final Integer group = Integer.valueOf(find(parent, i));
+      List<CodeItemNode> cluster = groups.get(group);
+      if (cluster == null)
+      {
+        cluster = new ArrayList<CodeItemNode>(2);
+        groups.put(group, cluster);
+      }
+      
+      cluster.add(nodes.get(i));
+    }
+    
+    // Keep only the clusters with duplicates, largest first
+    List<List<CodeItemNode>> clusters = new ArrayList<List<CodeItemNode>>(50);
+    for (List<CodeItemNode> cluster : groups.values())
+    {
+      if (cluster.size() > 1)
+      {
+        clusters.add(cluster);
+      }
+    }
+    
+    Collections.sort(clusters, new Comparator<List<CodeItemNode>>()
+    {
+      public int compare(final List<CodeItemNode> a,
+                         final List<CodeItemNode> b)
+      {
+        return b.size() - a.size();
+      }
+    });
+    
+    return clusters;
+  }
+  
+  
+  /**
+   * Compute the MinHash signatures of the nodes' scripts, splitting
+   * the work across the available processors.
+   * 
+   * @param scripts the nodes' scripts
+   * @return the signature for each node
+   */
+  private static long[][] computeSignatures(final List<String> scripts)
+  {
+    final long[][] signatures = new long[scripts.size()][];
+    
+    // Split the nodes into one chunk per processor
+    final int numThreads = Runtime.getRuntime().availableProcessors();
+    final int chunkSize = (scripts.size() + numThreads - 1) / numThreads;
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try
+    {
+      List<Future<?>> futures = new ArrayList<Future<?>>(numThreads);
+      for (int start = 0; start < scripts.size(); start += chunkSize)
+      {
+        final int from = start;
+        final int to = Math.min(start + chunkSize, scripts.size());
+        futures.add(executor.submit(new Callable<Object>()
+        {
+          public Object call()
+          {
+            for (int i = from; i < to; ++i)
+            {
+              signatures[i] = computeSignature(scripts.get(i));
+            }
+            
+            return null;
+          }
+        }));
+      }
+      
+      // Wait for all chunks to finish
+      for (Future<?> future : futures)
+      {
+        future.get();
+      }
+    }
+    catch (InterruptedException ie)
+    {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(ie);
+    }
+    catch (ExecutionException ee)
+    {
+      throw new RuntimeException(ee.getCause());
+    }
+    finally
+    {
+      executor.shutdown();
+    }
+    
+    return signatures;
+  }
+  
+  
+  /**
+   * Compute the MinHash signature of a script.
+   * 
+   * @param script the script
+   * @return the signature
+   */
+  private static long[] computeSignature(final String script)
+  {
+    // Initialize the signature
+    long[] sig = new long[NUM_HASHES];
+    Arrays.fill(sig, Long.MAX_VALUE);
+    
+    // Hash the tokens
+    final List<String> tokens = ScriptTokenizer.tokenize(script);
+    final int numTokens = tokens.size();
+    long[] tokenHashes = new long[numTokens];
+    for (int i = 0; i < numTokens; ++i)
+    {
+      tokenHashes[i] = ScriptHash.quick(tokens.get(i));
+    }
+    
+    // Hash each shingle, and keep the minimum value of
+    // each hash function
+    final int numShingles = Math.max(1, numTokens - SHINGLE_SIZE + 1);
+    for (int i = 0; i < numShingles; ++i)
+    {
+      long shingle = 0L;
+      for (int j = i; j < Math.min(i + SHINGLE_SIZE, numTokens); ++j)
+      {
+        shingle = mix(shingle ^ tokenHashes[j]);
+      }
+      
+      for (int k = 0; k < NUM_HASHES; ++k)
+      {
+        final long h = mix(shingle ^ SEEDS[k]);
+        if (h < sig[k])
+        {
+          sig[k] = h;
+        }
+      }
+    }
+    
+    return sig;
+  }
+  
+  
+  /**
+   * Return the estimated Jaccard similarity of two signatures.
+   * 
+   * @param a the first signature
+   * @param b the second signature
+   * @return the fraction of matching hash values
+   */
+  private static double similarity(final long[] a, final long[] b)
+  {
+    int same = 0;
+    for (int i = 0; i < NUM_HASHES; ++i)
+    {
+      if (a[i] == b[i])
+      {
+        ++same;
+      }
+    }
+    
+    return ((double) same) / NUM_HASHES;
+  }
+  
+  
+  /**
+   * Scramble the bits of a value (the SplitMix64 finalizer).
+   * 
+   * @param value the input value
+   * @return the mixed value
+   */
+  private static long mix(final long value)
+  {
+    long z = value + 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+  
+  
+  /**
+   * Find the representative of a set (with path halving).
+   * 
+   * @param parent the parent array
+   * @param i the element
+   * @return the representative of the element's set
+   */
+  private static int find(final int[] parent, final int i)
+  {
+    int x = i;
+    while (parent[x] != x)
+    {
+      parent[x] = parent[parent[x]];
+      x = parent[x];
+    }
+    
+    return x;
+  }
+  
+  
+  /**
+   * Merge the sets containing two elements.
+   * 
+   * @param parent the parent array
+   * @param a the first element
+   * @param b the second element
+   */
+  private static void union(final int[] parent, final int a, final int b)
+  {
+    parent[find(parent, a)] = find(parent, b);
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.List;
+
+import javax.swing.BorderFactory;
+import javax.swing.DefaultListModel;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.ListSelectionModel;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+
+/**
+ * Dialog listing clusters of near-duplicate snippets.  Clicking
+ * an entry selects the node in the tree.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class DuplicatesDialog extends JDialog
+{
+  /**
+   * Serial version ID.
+   */
+  private static final long serialVersionUID = 1L;
+  
+  /**
+   * The handler used to select nodes in the tree.
+   */
+  private transient TreeHandler handler = null;
+  
+  
+  /**
+   * An entry in the list: either a cluster heading or a node.
+   */
+  private static final class Item
+  {
+    /**
+     * The node to select.
+     */
+    private CodeItemNode node = null;
+    
+    /**
+     * The text shown in the list.
+     */
+    private String label = null;
+    
+    /**
+     * Constructor.
+     * 
+     * @param itemNode the node to select
+     * @param itemLabel the text shown in the list
+     */
+    Item(final CodeItemNode itemNode, final String itemLabel)
+    {
+      node = itemNode;
+      label = itemLabel;
+    }
+    
+    /**
+     * Return the text shown in the list.
+     * 
+     * @return the label
+     */
+    @Override
+    public String toString()
+    {
+      return label;
+    }
+  }
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param owner the owning frame
+   * @param clusters the clusters of duplicate nodes
+   * @param treeHandler the handler used to select nodes
+   */
+  public DuplicatesDialog(final JFrame owner,
+                          final List<List<CodeItemNode>> clusters,
+                          final TreeHandler treeHandler)
+  {
+    super(owner, "Duplicate Snippets", false);
+    handler = treeHandler;
+    
+    // Build the list of clusters and their nodes
+    DefaultListModel<Item> model = new DefaultListModel<Item>();
+    int clusterNum = 0;
+    for (List<CodeItemNode> cluster : clusters)
+    {
+      ++clusterNum;
+      model.addElement(new Item(cluster.get(0), "Cluster " + clusterNum
+          + " (" + cluster.size() + " snippets)"));
+      for (CodeItemNode node : cluster)
+      {
+        model.addElement(new Item(node, "    " + node.getPathName()));
+      }
+    }
+    
+    // Create the list; selecting an entry selects its node
+    final JList<Item> list = new JList<Item>(model);
+    list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+    list.addListSelectionListener(new ListSelectionListener()
+    {
+      public void valueChanged(final ListSelectionEvent e)
+      {
+        if (!e.getValueIsAdjusting())
+        {
+          Item item = list.getSelectedValue();
+          if (item != null)
+          {
+            handler.selectNode(item.node);
+          }
+        }
+      }
+    });
+    
+    // Add the Close button
+    JButton btnClose = new JButton("Close");
+    btnClose.addActionListener(new ActionListener()
+    {
+      public void actionPerformed(final ActionEvent e)
+      {
+        dispose();
+      }
+    });
+    JPanel buttons = new JPanel();
+    buttons.add(btnClose);
+    
+    // Lay out the dialog
+    JPanel panel = new JPanel(new BorderLayout(0, 5));
+    panel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+    panel.add(new JLabel(clusters.size()
+        + " cluster(s) of near-duplicate snippets"), BorderLayout.NORTH);
+    panel.add(new JScrollPane(list), BorderLayout.CENTER);
+    panel.add(buttons, BorderLayout.SOUTH);
+    getContentPane().add(panel);
+    
+    setSize(new Dimension(500, 400));
+    setLocationRelativeTo(owner);
+  }
+}
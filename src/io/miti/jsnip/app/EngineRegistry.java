@@ -0,0 +1,402 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The registry of snippet engines, in the order they are shown
+ * to the user.  A node can name an engine, or ask for the
+ * automatic choice, which tries each engine once on the node's
+ * script, and then uses the engine with the lowest mean run time
+ * for that script.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class EngineRegistry
+{
+  /**
+   * The number of scripts whose tried engines are kept.
+   */
+  private static final int MAX_SCRIPTS = 500;
+  
+  /**
+   * The engines, keyed on name.
+   */
+  private final Map<String, SnippetEngine> engines =
+    new LinkedHashMap<String, SnippetEngine>(5);
+  
+  /**
+   * The engines that run snippets in worker JVMs, keyed on the
+   * name of the engine the worker uses.
+   */
+  private final Map<String, ProcessEngine> processEngines =
+    new LinkedHashMap<String, ProcessEngine>(5);
+  
+  /**
+   * The pool of worker JVMs, or null if it has not been used.
+   */
+  private WorkerPool workerPool = null;
+  
+  /**
+   * The names of the engines the automatic choice has tried for
+   * each recent script, keyed on its content hash, in
+   * least-recently-used order.
+   */
+  private final Map<String, Set<String>> tried =
+    new LinkedHashMap<String, Set<String>>(64, 0.75f, true)
+    {
+      private static final long serialVersionUID = 1L;
+      
+      @Override
+      protected boolean removeEldestEntry(
+          final Map.Entry<String, Set<String>> eldest)
+      {
+        return (size() > MAX_SCRIPTS);
+      }
+    };
+  
+  
+  /**
+   * Default constructor.
+   */
+  public EngineRegistry()
+  {
+    super();
+  }
+  
+  
+  /**
+   * Create a registry holding the BeanShell engine, the JShell
+   * engine (if this JVM has JShell) and the compiled engine.
+   * 
+   * @return the registry
+   */
+  public static EngineRegistry createDefault()
+  {
+    EngineRegistry registry = new EngineRegistry();
+    registry.register(new BeanShellEngine(
+        new InterpreterPool(InterpreterPool.DEFAULT_SIZE),
+        new ParsedScriptCache()));
+    if (JShellEngine.isSupported())
+    {
+      registry.register(new JShellEngine());
+    }
+    
+    registry.register(new JavacEngine(
+        new JavacRunner(CompiledClassCache.createDefault())));
+    return registry;
+  }
+  
+  
+  /**
+   * Add an engine to the registry.
+   * 
+   * @param engine the engine
+   */
+  public synchronized void register(final SnippetEngine engine)
+  {
+    engines.put(engine.getName(), engine);
+  }
+  
+  
+  /**
+   * Return the registered engines.
+   * 
+   * @return the engines, in the order they were registered
+   */
+  public synchronized List<SnippetEngine> getEngines()
+  {
+    return new ArrayList<SnippetEngine>(engines.values());
+  }
+  
+  
+  /**
+   * Return an engine.
+   * 
+   * @param name the engine name
+   * @return the engine, or null if there is none with the name
+   */
+  public synchronized SnippetEngine getEngine(final String name)
+  {
+    return engines.get(name);
+  }
+  
+  
+  /**
+   * Return the engine used when a node does not name one.
+   * 
+   * @return the default engine
+   */
+  public synchronized SnippetEngine getDefaultEngine()
+  {
+    SnippetEngine engine = engines.get(CodeItemNode.ENGINE_BEANSHELL);
+    if ((engine == null) && !engines.isEmpty())
+    {
+      engine = engines.values().iterator().next();
+    }
+    
+    return engine;
+  }
+  
+  
+  /**
+   * Return the pool of worker JVMs, creating it if needed.
+   * 
+   * @return the worker pool
+   */
+  public synchronized WorkerPool getWorkerPool()
+  {
+    if (workerPool == null)
+    {
+      workerPool = new WorkerPool(WorkerPool.DEFAULT_SIZE);
+    }
+    
+    return workerPool;
+  }
+  
+  
+  /**
+   * Return an engine that runs snippets in a worker JVM with
+   * the same engine as the one given.
+   * 
+   * @param engine the engine the worker uses
+   * @return the out-of-process engine
+   */
+  public synchronized SnippetEngine getProcessEngine(
+      final SnippetEngine engine)
+  {
+    ProcessEngine processEngine = processEngines.get(engine.getName());
+    if (processEngine == null)
+    {
+      processEngine = new ProcessEngine(getWorkerPool(), engine);
+      processEngines.put(engine.getName(), processEngine);
+    }
+    
+    return processEngine;
+  }
+  
+  
+  /**
+   * Return the engine to use for a node's engine setting.
+   * 
+   * @param name the engine name from the node
+   * @param script the script to run
+   * @return the engine to run the node's script with
+   */
+  public SnippetEngine choose(final String name, final String script)
+  {
+    // Check for the automatic choice
+    if (CodeItemNode.ENGINE_AUTO.equals(name))
+    {
+      return chooseFastest(script);
+    }
+    
+    // Fall back to the default for an unknown engine, such as
+    // one saved by a JVM that had JShell
+    SnippetEngine engine = getEngine(name);
+    return ((engine == null) ? getDefaultEngine() : engine);
+  }
+  
+  
+  /**
+   * Return the engine to run a node's script with: the chosen
+   * engine, given the node's class path and the script's includes.
+   * 
+   * @param node the node
+   * @param name the engine name, or null to use the node's engine
+   * @param script the script
+   * @return the engine to run the script with
+   */
+  public SnippetEngine chooseFor(final CodeItemNode node,
+                                 final String name,
+                                 final String script)
+  {
+    final SnippetEngine engine =
+      choose(((name == null) ? node.getEffectiveEngine() : name), script);
+    return ClassPathEngine.wrap(
+        IncludeEngine.wrap(engine, (CodeItemNode) node.getRoot(), script),
+        ClassPath.of(node));
+  }
+  
+  
+  /**
+   * Return the engine to run a script with, for the automatic
+   * choice.  An engine with no run time for the script is tried
+   * once, in the order the engines were registered, so the default
+   * engine runs the script first.  After that, the engine with the
+   * lowest mean run time for the script is used.  An engine whose
+   * try failed, such as one that can't compile the script, has no
+   * run time, so it's not chosen again.
+   * 
+   * @param script the script
+   * @return the engine to try, or the fastest engine
+   */
+  private SnippetEngine chooseFastest(final String script)
+  {
+    // Hash the script outside the lock
+    final String key = ScriptHash.of(script);
+    synchronized (this)
+    {
+      Set<String> names = tried.get(key);
+      if (names == null)
+      {
+        names = new HashSet<String>(5);
+        tried.put(key, names);
+      }
+      
+      return chooseFastest(script, names);
+    }
+  }
+  
+  
+  /**
+   * Return the first engine with no run time for a script that has
+   * not been tried, or else the engine with the lowest mean run
+   * time for the script.
+   * 
+   * @param script the script
+   * @param names the names of the engines tried for the script,
+   *        which the returned engine is added to
+   * @return the engine to try, or the fastest engine
+   */
+  private SnippetEngine chooseFastest(final String script,
+                                      final Set<String> names)
+  {
+    SnippetEngine fastest = null;
+    double bestTime = Double.MAX_VALUE;
+    for (SnippetEngine engine : engines.values())
+    {
+      final double time = engine.getStats().getMeanRunMillis(script);
+      if ((time < 0.0) && names.add(engine.getName()))
+      {
+        return engine;
+      }
+      
+      if ((time >= 0.0) && (time < bestTime))
+      {
+        bestTime = time;
+        fastest = engine;
+      }
+    }
+    
+    return ((fastest == null) ? getDefaultEngine() : fastest);
+  }
+  
+  
+  /**
+   * Start an engine on a low-priority background thread, so its
+   * startup cost is paid before the first run.
+   * 
+   * @param name the engine name
+   */
+  public void startInBackground(final String name)
+  {
+    // Find the engine
+    final SnippetEngine engine = getEngine(name);
+    if (engine == null)
+    {
+      return;
+    }
+    
+    Thread t = new Thread(new Runnable()
+    {
+      public void run()
+      {
+        try
+        {
+          engine.start();
+        }
+        catch (SnippetException se)
+        {
+          System.err.println(se.getMessage());
+        }
+      }
+    }, "JSnip " + name + " warm-up");
+    t.setDaemon(true);
+    t.setPriority(Thread.MIN_PRIORITY);
+    t.start();
+  }
+  
+  
+  /**
+   * Set whether the engines keep definitions between runs.
+   * 
+   * @param usePersistent whether to keep definitions between runs
+   */
+  public void setPersistent(final boolean usePersistent)
+  {
+    for (SnippetEngine engine : getEngines())
+    {
+      engine.setPersistent(usePersistent);
+    }
+  }
+  
+  
+  /**
+   * Discard the definitions kept between runs by each engine.
+   */
+  public void resetSession()
+  {
+    for (SnippetEngine engine : getEngines())
+    {
+      engine.resetSession();
+    }
+  }
+  
+  
+  /**
+   * Return a report of each engine's statistics.
+   * 
+   * @return the report, one line per engine
+   */
+  public String getStatsReport()
+  {
+    List<SnippetEngine> all = getEngines();
+    synchronized (this)
+    {
+      all.addAll(processEngines.values());
+    }
+    
+    StringBuilder sb = new StringBuilder(200);
+    for (SnippetEngine engine : all)
+    {
+      sb.append(engine.getLabel()).append(": ")
+        .append(engine.getStats().toString()).append('\n');
+    }
+    
+    return sb.toString();
+  }
+}
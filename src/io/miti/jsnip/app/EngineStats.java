@@ -0,0 +1,251 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Startup and run statistics for a snippet engine.  Run times are
+ * also kept for each recently run script, keyed on its content
+ * hash, so the fastest engine can be chosen for a snippet.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class EngineStats
+{
+  /**
+   * The number of nanoseconds in a millisecond.
+   */
+  private static final double NANOS_PER_MILLI = 1000000.0;
+  
+  /**
+   * The number of scripts whose run times are kept.
+   */
+  private static final int MAX_SCRIPTS = 500;
+  
+  /**
+   * The time taken to start the engine, in nanoseconds,
+   * or -1 if it has not been started.
+   */
+  private long startupNanos = -1L;
+  
+  /**
+   * The number of completed runs.
+   */
+  private long runCount = 0L;
+  
+  /**
+   * The total time of the completed runs, in nanoseconds.
+   */
+  private long runNanos = 0L;
+  
+  /**
+   * The run count and total run time of each recent script, keyed
+   * on its content hash, in least-recently-used order.
+   */
+  private final Map<String, long[]> scripts =
+    new LinkedHashMap<String, long[]>(64, 0.75f, true)
+    {
+      private static final long serialVersionUID = 1L;
+      
+      @Override
+      protected boolean removeEldestEntry(
+          final Map.Entry<String, long[]> eldest)
+      {
+        return (size() > MAX_SCRIPTS);
+      }
+    };
+  
+  
+  /**
+   * Default constructor.
+   */
+  public EngineStats()
+  {
+    super();
+  }
+  
+  
+  /**
+   * Record the time taken to start the engine.
+   * 
+   * @param nanos the startup time, in nanoseconds
+   */
+  public synchronized void recordStartup(final long nanos)
+  {
+    startupNanos = nanos;
+  }
+  
+  
+  /**
+   * Record a completed run.
+   * 
+   * @param nanos the run time, in nanoseconds
+   */
+  public synchronized void recordRun(final long nanos)
+  {
+    ++runCount;
+    runNanos += nanos;
+  }
+  
+  
+  /**
+   * Record a completed run of a script.
+   * 
+   * @param script the script
+   * @param nanos the run time, in nanoseconds
+   */
+  public void recordRun(final String script, final long nanos)
+  {
+    // Hash the script outside the lock
+    final String key = ScriptHash.of(script);
+    synchronized (this)
+    {
+      recordRun(nanos);
+      long[] times = scripts.get(key);
+      if (times == null)
+      {
+        times = new long[2];
+        scripts.put(key, times);
+      }
+      
+      ++times[0];
+      times[1] += nanos;
+    }
+  }
+  
+  
+  /**
+   * Return whether the engine has been started.
+   * 
+   * @return whether the engine has been started
+   */
+  public synchronized boolean isStarted()
+  {
+    return (startupNanos >= 0L);
+  }
+  
+  
+  /**
+   * Return the time taken to start the engine.
+   * 
+   * @return the startup time in milliseconds, or -1 if the
+   *         engine has not been started
+   */
+  public synchronized double getStartupMillis()
+  {
+    return ((startupNanos < 0L) ? -1.0 : (startupNanos / NANOS_PER_MILLI));
+  }
+  
+  
+  /**
+   * Return the number of completed runs.
+   * 
+   * @return the number of runs
+   */
+  public synchronized long getRunCount()
+  {
+    return runCount;
+  }
+  
+  
+  /**
+   * Return the mean time of a run.
+   * 
+   * @return the mean run time in milliseconds, or -1 if there
+   *         have been no runs
+   */
+  public synchronized double getMeanRunMillis()
+  {
+    return ((runCount == 0L) ? -1.0
+            : (runNanos / NANOS_PER_MILLI / runCount));
+  }
+  
+  
+  /**
+   * Return the mean time of a run of a script.
+   * 
+   * @param script the script
+   * @return the mean run time in milliseconds, or -1 if the
+   *         script has not completed a recent run
+   */
+  public double getMeanRunMillis(final String script)
+  {
+    final String key = ScriptHash.of(script);
+    synchronized (this)
+    {
+      final long[] times = scripts.get(key);
+      return ((times == null) ? -1.0
+              : (times[1] / NANOS_PER_MILLI / times[0]));
+    }
+  }
+  
+  
+  /**
+   * Return the number of runs the engine completes per second
+   * of run time.
+   * 
+   * @return the throughput, or 0 if there have been no runs
+   */
+  public synchronized double getRunsPerSecond()
+  {
+    return ((runNanos == 0L) ? 0.0 : (runCount * 1.0e9 / runNanos));
+  }
+  
+  
+  /**
+   * Return a description of the statistics.
+   * 
+   * @return a description of the statistics
+   */
+  @Override
+  public synchronized String toString()
+  {
+    StringBuilder sb = new StringBuilder(80);
+    if (isStarted())
+    {
+      sb.append(String.format("startup %.1f ms", getStartupMillis()));
+    }
+    else
+    {
+      sb.append("not started");
+    }
+    
+    if (runCount > 0L)
+    {
+      sb.append(String.format(", %d runs, mean %.2f ms, %.1f runs/s",
+                              runCount, getMeanRunMillis(),
+                              getRunsPerSecond()));
+    }
+    
+    return sb.toString();
+  }
+}
@@ -0,0 +1,506 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedClass;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordedThread;
+import jdk.jfr.consumer.RecordedThreadGroup;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * A Java Flight Recorder recording of one run.  The recording is
+ * written to a file when the run ends, and summarized: the places
+ * the run allocated the most memory, the garbage collections while
+ * it ran, and the locks its threads waited for.
+ * 
+ * Allocation and lock events are kept for the run's thread and the
+ * threads it started.  As in StackProfiler, those are the threads
+ * in the run thread's group (and its subgroups) that were not there
+ * when recording started; each of the RunManager's threads has a
+ * group of its own.  Garbage collection is shared by the whole JVM,
+ * so it covers everything that ran at the time.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class FlightRecording
+{
+  /**
+   * The shortest lock wait recorded.
+   */
+  private static final Duration LOCK_THRESHOLD = Duration.ofMillis(1L);
+  
+  /**
+   * The number of allocation sites and locks in the summary.
+   */
+  private static final int MAX_ENTRIES = 10;
+  
+  /**
+   * The event for a sampled allocation (JDK 16 and later), used
+   * in place of the TLAB events if the JVM has it.
+   */
+  private static final String EVENT_ALLOC_SAMPLE =
+    "jdk.ObjectAllocationSample";
+  
+  /**
+   * The event for an allocation that needed a new TLAB.
+   */
+  private static final String EVENT_ALLOC_TLAB = "jdk.ObjectAllocationInNewTLAB";
+  
+  /**
+   * The event for an allocation outside a TLAB.
+   */
+  private static final String EVENT_ALLOC_OUTSIDE =
+    "jdk.ObjectAllocationOutsideTLAB";
+  
+  /**
+   * The event for a garbage collection.
+   */
+  private static final String EVENT_GC = "jdk.GarbageCollection";
+  
+  /**
+   * The event for waiting to enter a monitor.
+   */
+  private static final String EVENT_MONITOR = "jdk.JavaMonitorEnter";
+  
+  /**
+   * The event for waiting on a java.util.concurrent lock.
+   */
+  private static final String EVENT_PARK = "jdk.ThreadPark";
+  
+  /**
+   * The file the recording is written to.
+   */
+  private File file = null;
+  
+  /**
+   * The recording, while the run is active.
+   */
+  private Recording recording = null;
+  
+  /**
+   * The IDs of the threads whose events are not part of the run.
+   */
+  private Set<Long> otherThreads = null;
+  
+  /**
+   * The ID of the thread running the snippet.
+   */
+  private long runThreadId = 0L;
+  
+  /**
+   * The name of the run thread's group.
+   */
+  private String groupName = null;
+  
+  /**
+   * The summary, once the recording has been written.
+   */
+  private String summary = null;
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param recordingFile the file to write the recording to
+   */
+  public FlightRecording(final File recordingFile)
+  {
+    super();
+    file = recordingFile;
+  }
+  
+  
+  /**
+   * Return whether the JVM can make flight recordings.
+   * 
+   * @return whether the jdk.jfr module is present and usable
+   */
+  public static boolean isSupported()
+  {
+    try
+    {
+      Class.forName("jdk.jfr.FlightRecorder");
+      return FlightRecorder.isAvailable();
+    }
+    catch (ClassNotFoundException cnfe)
+    {
+      return false;
+    }
+    catch (LinkageError le)
+    {
+      return false;
+    }
+  }
+  
+  
+  /**
+   * Return the file the recording is written to.
+   * 
+   * @return the file
+   */
+  public File getFile()
+  {
+    return file;
+  }
+  
+  
+  /**
+   * Start recording a run.
+   * 
+   * @param runThread the thread running the snippet
+   */
+  public void start(final Thread runThread)
+  {
+    // Only the run's thread and new threads in its group are
+    // part of the run
+    runThreadId = runThread.getId();
+    groupName = runThread.getThreadGroup().getName();
+    otherThreads = new HashSet<Long>(50);
+    for (Thread thread : Thread.getAllStackTraces().keySet())
+    {
+      if (thread != runThread)
+      {
+        otherThreads.add(Long.valueOf(thread.getId()));
+      }
+    }
+    
+    // Enable the events for the summary
+    Set<String> types = new HashSet<String>(200);
+    for (EventType type
+           : FlightRecorder.getFlightRecorder().getEventTypes())
+    {
+      types.add(type.getName());
+    }
+    
+    recording = new Recording();
+    recording.setName("JSnip run");
+    if (types.contains(EVENT_ALLOC_SAMPLE))
+    {
+      recording.enable(EVENT_ALLOC_SAMPLE).withStackTrace();
+    }
+    else
+    {
+      recording.enable(EVENT_ALLOC_TLAB).withStackTrace();
+      recording.enable(EVENT_ALLOC_OUTSIDE).withStackTrace();
+    }
+    recording.enable(EVENT_GC);
+    recording.enable(EVENT_MONITOR).withThreshold(LOCK_THRESHOLD)
+      .withStackTrace();
+    recording.enable(EVENT_PARK).withThreshold(LOCK_THRESHOLD)
+      .withStackTrace();
+    try
+    {
+      recording.start();
+    }
+    catch (IllegalStateException ise)
+    {
+      // The recorder is turned off, or failed to start
+      summary = "Unable to start the flight recording: "
+                + ise.getMessage() + "\n";
+      recording.close();
+      recording = null;
+    }
+  }
+  
+  
+  /**
+   * Stop recording, write the recording to its file, and
+   * summarize it.
+   */
+  public void stop()
+  {
+    if (recording == null)
+    {
+      return;
+    }
+    
+    try
+    {
+      recording.stop();
+      final File dir = file.getParentFile();
+      if ((dir != null) && !dir.isDirectory() && !dir.mkdirs())
+      {
+        throw new IOException("Unable to create " + dir.getPath());
+      }
+      
+      recording.dump(file.toPath());
+      summary = summarize(RecordingFile.readAllEvents(file.toPath()));
+    }
+    catch (IOException ioe)
+    {
+      summary = "Unable to save the flight recording: "
+                + ioe.getMessage() + "\n";
+    }
+    finally
+    {
+      recording.close();
+      recording = null;
+    }
+  }
+  
+  
+  /**
+   * Return the summary of the recording.
+   * 
+   * @return the summary, or null if the recording has not ended
+   */
+  public String getSummary()
+  {
+    return summary;
+  }
+  
+  
+  /**
+   * Summarize the events of the recording.
+   * 
+   * @param events the events
+   * @return the summary
+   */
+  private String summarize(final List<RecordedEvent> events)
+  {
+    Map<String, long[]> sites = new HashMap<String, long[]>(100);
+    Map<String, long[]> locks = new HashMap<String, long[]>(10);
+    long allocated = 0L;
+    int gcCount = 0;
+    long gcPauseNanos = 0L;
+    long gcLongestNanos = 0L;
+    for (RecordedEvent event : events)
+    {
+      final String name = event.getEventType().getName();
+      if (name.equals(EVENT_GC))
+      {
+        // Collections are counted for the whole JVM
+        ++gcCount;
+        gcPauseNanos += event.getDuration("sumOfPauses").toNanos();
+        gcLongestNanos = Math.max(gcLongestNanos,
+            event.getDuration("longestPause").toNanos());
+        continue;
+      }
+      else if (!isRunThread(event.getThread()))
+      {
+        continue;
+      }
+      
+      if (name.equals(EVENT_MONITOR) || name.equals(EVENT_PARK))
+      {
+        final RecordedClass lockClass = event.getClass(
+            name.equals(EVENT_MONITOR) ? "monitorClass" : "parkedClass");
+        add(locks, (lockClass == null) ? "(unknown)" : lockClass.getName(),
+            event.getDuration().toNanos());
+      }
+      else
+      {
+        // Weigh each allocation event by the memory it stands for
+        final long bytes = (name.equals(EVENT_ALLOC_SAMPLE)
+            ? event.getLong("weight") : name.equals(EVENT_ALLOC_TLAB)
+            ? event.getLong("tlabSize") : event.getLong("allocationSize"));
+        final RecordedClass type = event.getClass("objectClass");
+        add(sites, ((type == null) ? "?" : type.getName()) + " at "
+            + getSite(event.getStackTrace()), bytes);
+        allocated += bytes;
+      }
+    }
+    
+    // Report the allocation sites
+    StringBuilder sb = new StringBuilder(2000);
+    sb.append("Flight recording saved to ").append(file.getPath());
+    sb.append("\nTop allocation sites (estimated from samples):\n");
+    if (sites.isEmpty())
+    {
+      sb.append("  none\n");
+    }
+    for (Map.Entry<String, long[]> site : getTop(sites))
+    {
+      sb.append(String.format("  %10s %5.1f%%  %s%n",
+          RunMetrics.formatBytes(site.getValue()[1]),
+          100.0 * site.getValue()[1] / Math.max(1L, allocated),
+          site.getKey()));
+    }
+    
+    // Report the collections and the lock waits
+    sb.append("Garbage collection (whole JVM): ").append(gcCount)
+      .append(" collections, ")
+      .append(RunMetrics.formatMillis(gcPauseNanos)).append(" paused, ")
+      .append("longest pause ").append(RunMetrics.formatMillis(gcLongestNanos))
+      .append('\n');
+    sb.append("Lock contention (waits over ")
+      .append(LOCK_THRESHOLD.toMillis()).append(" ms):\n");
+    if (locks.isEmpty())
+    {
+      sb.append("  none\n");
+    }
+    for (Map.Entry<String, long[]> lock : getTop(locks))
+    {
+      sb.append("  ").append(lock.getValue()[0]).append(" waits, ")
+        .append(RunMetrics.formatMillis(lock.getValue()[1]))
+        .append(" on ").append(lock.getKey()).append('\n');
+    }
+    
+    return sb.toString();
+  }
+  
+  
+  /**
+   * Return whether an event's thread is part of the run.
+   * 
+   * @param thread the event's thread (may be null)
+   * @return whether the thread is part of the run
+   */
+  private boolean isRunThread(final RecordedThread thread)
+  {
+    if (thread == null)
+    {
+      return false;
+    }
+    else if (thread.getJavaThreadId() == runThreadId)
+    {
+      return true;
+    }
+    else if (otherThreads.contains(Long.valueOf(thread.getJavaThreadId())))
+    {
+      return false;
+    }
+    
+    // Check whether the thread is in the run thread's group
+    RecordedThreadGroup group = thread.getThreadGroup();
+    while (group != null)
+    {
+      if (groupName.equals(group.getName()))
+      {
+        return true;
+      }
+      
+      group = group.getParent();
+    }
+    
+    return false;
+  }
+  
+  
+  /**
+   * Add an event to the count and total of a key.
+   * 
+   * @param totals the count and total of each key
+   * @param key the key
+   * @param amount the amount to add to the total
+   */
+  private static void add(final Map<String, long[]> totals,
+                          final String key,
+                          final long amount)
+  {
+    long[] total = totals.get(key);
+    if (total == null)
+    {
+      total = new long[2];
+      totals.put(key, total);
+    }
+    
+    ++total[0];
+    total[1] += amount;
+  }
+  
+  
+  /**
+   * Return the keys with the largest totals.
+   * 
+   * @param totals the count and total of each key
+   * @return the largest, in descending order
+   */
+  private static List<Map.Entry<String, long[]>> getTop(
+      final Map<String, long[]> totals)
+  {
+    List<Map.Entry<String, long[]>> list =
+      new ArrayList<Map.Entry<String, long[]>>(totals.entrySet());
+    Collections.sort(list, new Comparator<Map.Entry<String, long[]>>()
+    {
+      public int compare(final Map.Entry<String, long[]> a,
+                         final Map.Entry<String, long[]> b)
+      {
+        return Long.compare(b.getValue()[1], a.getValue()[1]);
+      }
+    });
+    
+    return ((list.size() > MAX_ENTRIES) ? list.subList(0, MAX_ENTRIES)
+            : list);
+  }
+  
+  
+  /**
+   * Describe where an allocation happened: the method that made
+   * it, and its caller.
+   * 
+   * @param stack the stack trace (may be null)
+   * @return the description
+   */
+  private static String getSite(final RecordedStackTrace stack)
+  {
+    if (stack == null)
+    {
+      return "(no stack trace)";
+    }
+    
+    StringBuilder sb = new StringBuilder(100);
+    final List<RecordedFrame> frames = stack.getFrames();
+    for (int i = 0; i < Math.min(2, frames.size()); ++i)
+    {
+      final RecordedFrame frame = frames.get(i);
+      if (i > 0)
+      {
+        sb.append(" <- ");
+      }
+      sb.append(frame.getMethod().getType().getName()).append('.')
+        .append(frame.getMethod().getName());
+      if (frame.getLineNumber() > 0)
+      {
+        sb.append(':').append(frame.getLineNumber());
+      }
+    }
+    
+    return sb.toString();
+  }
+}
@@ -102,4 +102,103 @@ public interface ISnippetEvent
    * @param nodeNameType how to rename the node
    */
   void renameNodeTo(int nodeNameType);
+  
+  /**
+   * Search the tree for a node.
+   */
+  void findNode();
+  
+  /**
+   * Search the tree for near-duplicate scripts.
+   */
+  void findDuplicates();
+  
+  /**
+   * Turn the persistent interpreter session on or off.
+   */
+  void togglePersistentSession();
+  
+  /**
+   * Discard the persistent interpreter session.
+   */
+  void resetSession();
+  
+  /**
+   * Set the engine used to run the selected node's script.
+   * 
+   * @param engineName the engine name, or null to use the parent's
+   */
+  void setNodeEngine(String engineName);
+  
+  /**
+   * Show the startup cost and throughput of each engine.
+   */
+  void showEngineStats();
+  
+  /**
+   * Run every snippet under the selected node.
+   */
+  void runSubtree();
+  
+  /**
+   * Turn running snippets in a worker JVM on or off.
+   */
+  void toggleSeparateJvm();
+  
+  /**
+   * Show the recent runs and what each one cost.
+   */
+  void showRunHistory();
+  
+  /**
+   * Benchmark the current script.
+   */
+  void benchmarkScript();
+  
+  /**
+   * Mark the selected node to be compared with another node.
+   */
+  void markForCompare();
+  
+  /**
+   * Compare the speed of the marked node with the selected node.
+   */
+  void compareWithMarked();
+  
+  /**
+   * Set the time, allocation and heap limits on each run.
+   */
+  void editRunLimits();
+  
+  /**
+   * Set the jars and directories on the selected node's class path.
+   */
+  void editNodeClassPath();
+  
+  /**
+   * Run the selected text in the persistent session.
+   */
+  void execSelection();
+  
+  /**
+   * Run the lines added since the last run in the persistent
+   * session.
+   */
+  void execNewLines();
+  
+  /**
+   * Run the current script over every combination of its
+   * parameters.
+   */
+  void sweepScript();
+  
+  /**
+   * Run the current script with its stacks sampled.
+   */
+  void profileScript();
+  
+  /**
+   * Turn flight recording of runs on or off.
+   */
+  void toggleFlightRecording();
 }
@@ -0,0 +1,55 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package io.miti.jsnip.app;
+
+/**
+ * Interface for the engines that run a snippet given with its
+ * includes, rather than with the included snippets placed before
+ * it.  The run is recorded in the engine's statistics against the
+ * snippet itself, so the automatic choice of engine, which looks
+ * up the snippet the user ran, finds it.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public interface IncludeAwareEngine extends SnippetEngine
+{
+  /**
+   * Run a snippet with its includes.
+   * 
+   * @param script the snippet
+   * @param includes the included snippets, or null
+   * @return the value returned by the snippet, or null
+   * @throws SnippetException the snippet or an include failed to
+   *         compile or run
+   */
+  Object run(String script, ScriptIncludes includes)
+    throws SnippetException;
+}
@@ -0,0 +1,230 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+/**
+ * Runs another engine's snippets with their includes.  The
+ * includes are resolved against the tree when the engine is
+ * created, on the thread that owns the tree (the Swing event
+ * thread, for the editor's tree), so runs never read a tree the
+ * user may be editing.  The BeanShell engine evaluates the
+ * included snippets once into a namespace it keeps; other engines
+ * get the included snippets placed before the snippet.  Engines
+ * that take the includes themselves record their runs against the
+ * snippet, rather than against the text with the includes.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class IncludeEngine implements SnippetEngine
+{
+  /**
+   * The engine that runs the snippet.
+   */
+  private SnippetEngine engine = null;
+  
+  /**
+   * The included snippets, or null if they could not be resolved.
+   */
+  private ScriptIncludes includes = null;
+  
+  /**
+   * The error resolving the includes, thrown when a snippet runs.
+   */
+  private SnippetException error = null;
+  
+  
+  /**
+   * Constructor.  The includes of the snippet are resolved now.
+   * 
+   * @param runEngine the engine that runs the snippet
+   * @param treeRoot the root of the tree
+   * @param script the snippet
+   */
+  public IncludeEngine(final SnippetEngine runEngine,
+                       final CodeItemNode treeRoot,
+                       final String script)
+  {
+    super();
+    engine = runEngine;
+    try
+    {
+      includes = ScriptIncludes.resolve(treeRoot, script);
+    }
+    catch (SnippetException se)
+    {
+      error = se;
+    }
+  }
+  
+  
+  /**
+   * Return the engine if a snippet has includes, or the engine
+   * that runs the snippet if it does not.
+   * 
+   * @param runEngine the engine that runs the snippet
+   * @param treeRoot the root of the tree
+   * @param script the snippet
+   * @return the engine to run the snippet with
+   */
+  public static SnippetEngine wrap(final SnippetEngine runEngine,
+                                   final CodeItemNode treeRoot,
+                                   final String script)
+  {
+    if (ScriptIncludes.getPaths(script).isEmpty())
+    {
+      return runEngine;
+    }
+    
+    return new IncludeEngine(runEngine, treeRoot, script);
+  }
+  
+  
+  /**
+   * Return the included snippets.
+   * 
+   * @return the included snippets
+   * @throws SnippetException an include was not found, or the
+   *         includes form a cycle
+   */
+  private ScriptIncludes getIncludes() throws SnippetException
+  {
+    if (error != null)
+    {
+      throw error;
+    }
+    
+    return includes;
+  }
+  
+  
+  /**
+   * Return the name of the engine that runs the snippet.
+   * 
+   * @return the engine name
+   */
+  public String getName()
+  {
+    return engine.getName();
+  }
+  
+  
+  /**
+   * Return the label of the engine that runs the snippet.
+   * 
+   * @return the engine label
+   */
+  public String getLabel()
+  {
+    return engine.getLabel();
+  }
+  
+  
+  /**
+   * Start the engine that runs the snippet.
+   * 
+   * @throws SnippetException the engine could not be started
+   */
+  public void start() throws SnippetException
+  {
+    engine.start();
+  }
+  
+  
+  /**
+   * Run a snippet with its includes.
+   * 
+   * @param script the snippet
+   * @return the value returned by the snippet, or null
+   * @throws SnippetException an include was not found, or the
+   *         snippet or an include failed
+   */
+  public Object run(final String script) throws SnippetException
+  {
+    final ScriptIncludes included = getIncludes();
+    if (engine instanceof IncludeAwareEngine)
+    {
+      return ((IncludeAwareEngine) engine).run(script, included);
+    }
+    
+    return engine.run(included.expand(script));
+  }
+  
+  
+  /**
+   * Prepare a snippet with its includes.
+   * 
+   * @param script the snippet
+   * @return the prepared snippet
+   * @throws SnippetException an include was not found, or the
+   *         snippet or an include failed to parse or compile
+   */
+  public PreparedSnippet prepare(final String script)
+    throws SnippetException
+  {
+    final ScriptIncludes included = getIncludes();
+    if (engine instanceof BeanShellEngine)
+    {
+      return ((BeanShellEngine) engine).prepare(script, included);
+    }
+    
+    return engine.prepare(included.expand(script));
+  }
+  
+  
+  /**
+   * Set whether the definitions made by one run are kept.
+   * 
+   * @param usePersistent whether to keep definitions between runs
+   */
+  public void setPersistent(final boolean usePersistent)
+  {
+    engine.setPersistent(usePersistent);
+  }
+  
+  
+  /**
+   * Discard the definitions kept between runs.
+   */
+  public void resetSession()
+  {
+    engine.resetSession();
+  }
+  
+  
+  /**
+   * Return the statistics of the engine that runs the snippet.
+   * 
+   * @return the statistics
+   */
+  public EngineStats getStats()
+  {
+    return engine.getStats();
+  }
+}
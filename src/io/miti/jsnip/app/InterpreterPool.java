@@ -0,0 +1,562 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.io.PrintStream;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import bsh.EvalError;
+import bsh.Interpreter;
+import bsh.NameSpace;
+
+/**
+ * A pool of pre-initialized BeanShell interpreters.  Creating an
+ * interpreter loads the BeanShell classes and builds its global
+ * namespace, so interpreters are kept and reused across runs.
+ * Each run gets a fresh child namespace of the interpreter's
+ * global namespace, which is discarded when the run finishes;
+ * this resets the interpreter without rebuilding it.
+ * 
+ * In persistent-session mode, a single interpreter and namespace
+ * are kept alive, so variables and methods defined by one run are
+ * visible to the next.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class InterpreterPool
+{
+  /**
+   * The default number of idle interpreters to keep.
+   */
+  public static final int DEFAULT_SIZE = 2;
+  
+  /**
+   * The number of times the warm-up script is run on each interpreter.
+   */
+  private static final int WARM_UP_RUNS = 25;
+  
+  /**
+   * The script used to warm up the interpreters.  It exercises the
+   * parser and the common paths through the interpreter (imports,
+   * method declarations, loops, object creation and method calls).
+   */
+  private static final String WARM_UP_SCRIPT =
+    "import java.util.*;\n"
+    + "int sum(int n) { int t = 0; for (int i = 0; i < n; i++) { t += i; }"
+    + " return t; }\n"
+    + "List list = new ArrayList();\n"
+    + "for (int i = 0; i < 100; i++) { list.add(\"item\" + i); }\n"
+    + "StringBuilder sb = new StringBuilder();\n"
+    + "for (int i = 0; i < list.size(); i++) { sb.append(list.get(i)); }\n"
+    + "Map map = new HashMap();\n"
+    + "map.put(\"sum\", new Integer(sum(100)));\n"
+    + "String s = sb.toString().toUpperCase().substring(0, 10);\n"
+    + "return s.length() + map.size();\n";
+  
+  /**
+   * The maximum number of idle interpreters to keep.
+   */
+  private int maxIdle = DEFAULT_SIZE;
+  
+  /**
+   * The idle interpreters.
+   */
+  private final LinkedList<Interpreter> idle = new LinkedList<Interpreter>();
+  
+  /**
+   * Whether runs share a single persistent session.
+   */
+  private boolean persistent = false;
+  
+  /**
+   * The persistent session, if one has been started.
+   */
+  private Lease session = null;
+  
+  /**
+   * Whether a background thread is filling the pool.
+   */
+  private boolean filling = false;
+  
+  
+  /**
+   * An interpreter and namespace leased from the pool for a run.
+   */
+  public static final class Lease
+  {
+    /**
+     * The class loader last set on each interpreter.
+     */
+    private static final Map<Interpreter, ClassLoader> LOADERS =
+      new WeakHashMap<Interpreter, ClassLoader>(8);
+    
+    /**
+     * The interpreter.
+     */
+    private Interpreter interpreter = null;
+    
+    /**
+     * The namespace that the script is evaluated in.
+     */
+    private NameSpace namespace = null;
+    
+    /**
+     * Whether this is the persistent session.
+     */
+    private boolean isSession = false;
+    
+    /**
+     * Constructor.
+     * 
+     * @param interp the interpreter
+     * @param session whether this is the persistent session
+     */
+    Lease(final Interpreter interp, final boolean session)
+    {
+      interpreter = interp;
+      isSession = session;
+      namespace = new NameSpace(interp.getNameSpace(),
+                                (session ? "session" : "run"));
+    }
+    
+    /**
+     * Return the interpreter.
+     * 
+     * @return the interpreter
+     */
+    public Interpreter getInterpreter()
+    {
+      return interpreter;
+    }
+    
+    /**
+     * Return the namespace that scripts are evaluated in.
+     * 
+     * @return the namespace
+     */
+    public NameSpace getNameSpace()
+    {
+      return namespace;
+    }
+    
+    /**
+     * Evaluate a script.  BeanShell output goes to the current
+     * standard output and error streams.
+     * 
+     * @param script the script to evaluate
+     * @return the value returned by the script
+     * @throws EvalError error evaluating the script
+     */
+    public synchronized Object eval(final String script)
+      throws EvalError
+    {
+      final ClassLoader old = bind();
+      try
+      {
+        // Evaluate the script in the lease's namespace
+        return interpreter.eval(script, namespace);
+      }
+      finally
+      {
+        Thread.currentThread().setContextClassLoader(old);
+      }
+    }
+    
+    /**
+     * Evaluate a parsed script.  BeanShell output goes to the
+     * current standard output and error streams.
+     * 
+     * @param script the parsed script to evaluate
+     * @return the value returned by the script
+     * @throws EvalError error evaluating the script
+     */
+    public synchronized Object eval(final ParsedScript script)
+      throws EvalError
+    {
+      final ClassLoader old = bind();
+      try
+      {
+        // Evaluate the script in the lease's namespace
+        return script.eval(interpreter, namespace);
+      }
+      finally
+      {
+        Thread.currentThread().setContextClassLoader(old);
+      }
+    }
+    
+    
+    /**
+     * Evaluate a parsed script in another namespace, such as one
+     * holding the definitions of included snippets.
+     * 
+     * @param script the parsed script to evaluate
+     * @param space the namespace to evaluate the script in
+     * @return the value returned by the script
+     * @throws EvalError error evaluating the script
+     */
+    public synchronized Object eval(final ParsedScript script,
+                                    final NameSpace space)
+      throws EvalError
+    {
+      final ClassLoader old = bind();
+      try
+      {
+        return script.eval(interpreter, space);
+      }
+      finally
+      {
+        Thread.currentThread().setContextClassLoader(old);
+      }
+    }
+    
+    
+    /**
+     * Point the interpreter at the current output streams and at
+     * the class loader of the current run's class path, and make
+     * that loader the thread's context class loader.
+     * 
+     * @return the thread's previous context class loader
+     */
+    private ClassLoader bind()
+    {
+      // Send the interpreter's output to the current streams
+      interpreter.setOut(System.out);
+      interpreter.setErr(System.err);
+      
+      // Only set the loader when the run's class path is different.
+      // Classes resolved under the old loader may still be cached
+      // by the interpreter, so parsed scripts are cached per class
+      // path (see ParsedScriptCache).
+      final ClassLoader loader = ClassPath.current().getClassLoader();
+      synchronized (LOADERS)
+      {
+        if (LOADERS.get(interpreter) != loader)
+        {
+          interpreter.setClassLoader(loader);
+          LOADERS.put(interpreter, loader);
+        }
+      }
+      
+      final Thread thread = Thread.currentThread();
+      final ClassLoader old = thread.getContextClassLoader();
+      if (loader != null)
+      {
+        thread.setContextClassLoader(loader);
+      }
+      
+      return old;
+    }
+  }
+  
+  
+  /**
+   * Default constructor.
+   */
+  public InterpreterPool()
+  {
+    super();
+  }
+  
+  
+  /**
+   * Constructor taking the pool size.
+   * 
+   * @param size the number of idle interpreters to keep
+   */
+  public InterpreterPool(final int size)
+  {
+    super();
+    maxIdle = size;
+  }
+  
+  
+  /**
+   * Set whether runs share a single persistent session.  Turning
+   * this off discards the session.
+   * 
+   * @param usePersistent whether to use a persistent session
+   */
+  public synchronized void setPersistent(final boolean usePersistent)
+  {
+    persistent = usePersistent;
+    if (!persistent)
+    {
+      session = null;
+    }
+  }
+  
+  
+  /**
+   * Return whether runs share a single persistent session.
+   * 
+   * @return whether a persistent session is used
+   */
+  public synchronized boolean isPersistent()
+  {
+    return persistent;
+  }
+  
+  
+  /**
+   * Discard the persistent session, so the next run starts
+   * with an empty namespace.
+   */
+  public synchronized void resetSession()
+  {
+    session = null;
+  }
+  
+  
+  /**
+   * Lease an interpreter for a run.  The caller must pass the
+   * lease to release() when the run finishes.
+   * 
+   * @return the lease
+   */
+  public Lease acquire()
+  {
+    Interpreter interp = null;
+    synchronized (this)
+    {
+      // Use the persistent session, if enabled
+      if (persistent)
+      {
+        if (session == null)
+        {
+          session = new Lease(takeInterpreter(), true);
+        }
+        
+        return session;
+      }
+      
+      // Take an idle interpreter
+      if (!idle.isEmpty())
+      {
+        interp = idle.removeFirst();
+      }
+    }
+    
+    // If none were idle, create one now (outside the lock)
+    if (interp == null)
+    {
+      interp = createInterpreter();
+    }
+    
+    // Replace the interpreter we took
+    fillInBackground();
+    return new Lease(interp, false);
+  }
+  
+  
+  /**
+   * Return a leased interpreter to the pool.  The run's namespace
+   * is dropped, so the next run starts clean.
+   * 
+   * @param lease the lease to release
+   */
+  public synchronized void release(final Lease lease)
+  {
+    // The session is kept, and a full pool drops the interpreter
+    if ((lease == null) || (lease.isSession) || (idle.size() >= maxIdle))
+    {
+      return;
+    }
+    
+    idle.addLast(lease.interpreter);
+  }
+  
+  
+  /**
+   * Create interpreters until the pool is full.
+   */
+  public void fill()
+  {
+    while (true)
+    {
+      synchronized (this)
+      {
+        if (idle.size() >= maxIdle)
+        {
+          return;
+        }
+      }
+      
+      // Create the interpreter outside the lock, since it's slow
+      final Interpreter interp = createInterpreter();
+      synchronized (this)
+      {
+        if (idle.size() >= maxIdle)
+        {
+          return;
+        }
+        
+        idle.addLast(interp);
+      }
+    }
+  }
+  
+  
+  /**
+   * Fill the pool and run a warm-up script on each interpreter,
+   * so the BeanShell classes are loaded and the interpreter's
+   * code paths are compiled by the JIT before the first real run.
+   */
+  public void warmUp()
+  {
+    // Create the interpreters
+    fill();
+    
+    // Lease each interpreter in turn, so a run started while
+    // warming up does not share an interpreter with this thread
+    for (int i = 0; i < maxIdle; ++i)
+    {
+      Interpreter interp = null;
+      synchronized (this)
+      {
+        if (idle.isEmpty())
+        {
+          return;
+        }
+        
+        interp = idle.removeFirst();
+      }
+      
+      // Run the warm-up script in throwaway namespaces
+      try
+      {
+        for (int j = 0; j < WARM_UP_RUNS; ++j)
+        {
+          interp.eval(WARM_UP_SCRIPT,
+                      new NameSpace(interp.getNameSpace(), "warmup"));
+        }
+      }
+      catch (EvalError ee)
+      {
+        System.err.println("Error warming up: " + ee.getMessage());
+      }
+      finally
+      {
+        synchronized (this)
+        {
+          idle.addLast(interp);
+        }
+      }
+    }
+  }
+  
+  
+  /**
+   * Start warming up the pool on a low-priority background thread.
+   */
+  public void warmUpInBackground()
+  {
+    Thread t = TaskExecutor.newBackgroundThread(new Runnable()
+    {
+      public void run()
+      {
+        warmUp();
+      }
+    }, "JSnip interpreter warm-up");
+    t.setPriority(Thread.MIN_PRIORITY);
+    t.start();
+  }
+  
+  
+  /**
+   * Fill the pool on a background thread.
+   */
+  private void fillInBackground()
+  {
+    synchronized (this)
+    {
+      // Only run one filler at a time
+      if (filling || (idle.size() >= maxIdle))
+      {
+        return;
+      }
+      
+      filling = true;
+    }
+    
+    // The filler is started by a run, but is not part of it
+    Thread t = TaskExecutor.newBackgroundThread(new Runnable()
+    {
+      public void run()
+      {
+        try
+        {
+          fill();
+        }
+        finally
+        {
+          synchronized (InterpreterPool.this)
+          {
+            filling = false;
+          }
+        }
+      }
+    }, "JSnip interpreter pool");
+    t.setPriority(Thread.MIN_PRIORITY);
+    t.start();
+  }
+  
+  
+  /**
+   * Take an idle interpreter, or create one if none are idle.
+   * 
+   * @return the interpreter
+   */
+  private Interpreter takeInterpreter()
+  {
+    if (idle.isEmpty())
+    {
+      return createInterpreter();
+    }
+    
+    return idle.removeFirst();
+  }
+  
+  
+  /**
+   * Create an interpreter.
+   * 
+   * @return the new interpreter
+   */
+  private static Interpreter createInterpreter()
+  {
+    // The output streams get set for each run
+    final PrintStream out = System.out;
+    final PrintStream err = System.err;
+    return new Interpreter(null, out, err, false);
+  }
+}
@@ -0,0 +1,892 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+import jdk.jshell.Diag;
+import jdk.jshell.EvalException;
+import jdk.jshell.JShell;
+import jdk.jshell.JShellException;
+import jdk.jshell.Snippet;
+import jdk.jshell.SnippetEvent;
+import jdk.jshell.SourceCodeAnalysis;
+import jdk.jshell.execution.DirectExecutionControl;
+import jdk.jshell.spi.ExecutionControl;
+import jdk.jshell.spi.ExecutionControlProvider;
+import jdk.jshell.spi.ExecutionEnv;
+
+/**
+ * The engine that runs snippets with JShell.  The JShell state
+ * runs in this JVM, and the snippet code runs on the thread that
+ * calls run(), rather than on a thread that JShell starts for each
+ * snippet (as its "local" execution engine does).  So the run's
+ * metrics, limits and profile cover the snippet, it writes to the
+ * same output streams as the other engines, and it's stopped the
+ * same way, by interrupting the run's thread.  The snippets defined
+ * by a run are dropped afterwards, unless the session is persistent.
+ * A JShell instance runs one snippet at a time, so runs that are not
+ * persistent each take an instance from a small pool, and persistent
+ * runs take turns with the one shared session.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class JShellEngine implements IncludeAwareEngine
+{
+  /**
+   * The most JShell instances kept idle for runs that are not
+   * persistent.
+   */
+  private static final int MAX_IDLE = 2;
+  
+  /**
+   * The session shared by persistent runs, or null if it has not
+   * been started.
+   */
+  private Session session = null;
+  
+  /**
+   * The idle sessions for runs that are not persistent.
+   */
+  private final List<Session> idle = new ArrayList<Session>(MAX_IDLE);
+  
+  /**
+   * The number of times the sessions have been reset.  A session
+   * created before the last reset is closed instead of reused.
+   */
+  private int generation = 0;
+  
+  /**
+   * Whether the definitions made by one run are kept.
+   */
+  private boolean persistent = false;
+  
+  /**
+   * The engine statistics.
+   */
+  private final EngineStats stats = new EngineStats();
+  
+  
+  /**
+   * Default constructor.
+   */
+  public JShellEngine()
+  {
+    super();
+  }
+  
+  
+  /**
+   * Return whether JShell is available in this JVM.
+   * 
+   * @return whether the jdk.jshell module can be loaded
+   */
+  public static boolean isSupported()
+  {
+    try
+    {
+      Class.forName("jdk.jshell.JShell");
+      return true;
+    }
+    catch (ClassNotFoundException cnfe)
+    {
+      return false;
+    }
+    catch (LinkageError le)
+    {
+      return false;
+    }
+  }
+  
+  
+  /**
+   * Return the engine name.
+   * 
+   * @return the engine name
+   */
+  public String getName()
+  {
+    return CodeItemNode.ENGINE_JSHELL;
+  }
+  
+  
+  /**
+   * Return the engine label.
+   * 
+   * @return the engine label
+   */
+  public String getLabel()
+  {
+    return "JShell";
+  }
+  
+  
+  /**
+   * Create an idle JShell instance, if there is none, so the
+   * compiler is loaded before the first run.
+   * 
+   * @throws SnippetException JShell could not be started
+   */
+  public void start() throws SnippetException
+  {
+    // Check if the engine was already started
+    synchronized (this)
+    {
+      if ((session != null) || !idle.isEmpty())
+      {
+        return;
+      }
+    }
+    
+    releaseIdle(takeIdle());
+  }
+  
+  
+  /**
+   * Create a session, and record the time it took as the startup
+   * time.
+   * 
+   * @param sessionGeneration the current number of resets
+   * @return the new session
+   * @throws SnippetException JShell could not be started
+   */
+  private Session newSession(final int sessionGeneration)
+    throws SnippetException
+  {
+    final long start = System.nanoTime();
+    Session created = new Session(sessionGeneration);
+    stats.recordStartup(System.nanoTime() - start);
+    return created;
+  }
+  
+  
+  /**
+   * Take an idle session, or create one if none is idle.
+   * 
+   * @return the session
+   * @throws SnippetException JShell could not be started
+   */
+  private Session takeIdle() throws SnippetException
+  {
+    final int current;
+    synchronized (this)
+    {
+      if (!idle.isEmpty())
+      {
+        return idle.remove(idle.size() - 1);
+      }
+      
+      current = generation;
+    }
+    
+    return newSession(current);
+  }
+  
+  
+  /**
+   * Return a session to the idle pool.  It's closed instead if the
+   * pool is full, or the sessions were reset while it was in use.
+   * 
+   * @param used the session
+   */
+  private void releaseIdle(final Session used)
+  {
+    boolean kept = false;
+    synchronized (this)
+    {
+      if ((used.generation == generation) && (idle.size() < MAX_IDLE))
+      {
+        idle.add(used);
+        kept = true;
+      }
+    }
+    
+    if (!kept)
+    {
+      used.close();
+    }
+  }
+  
+  
+  /**
+   * Lock the shared session, starting it if needed.  The wait for
+   * the lock ends if the run is stopped.  If the session is reset
+   * while waiting, the new session is locked instead.
+   * 
+   * @return the locked session
+   * @throws SnippetException JShell could not be started, or the
+   *         run was stopped while waiting
+   */
+  private Session lockShared() throws SnippetException
+  {
+    while (true)
+    {
+      Session shared;
+      final int current;
+      synchronized (this)
+      {
+        shared = session;
+        current = generation;
+      }
+      
+      // Start the session outside the lock, so a reset doesn't wait
+      if (shared == null)
+      {
+        Session created = newSession(current);
+        synchronized (this)
+        {
+          if ((session == null) && (generation == current))
+          {
+            session = created;
+            created = null;
+          }
+          
+          shared = session;
+        }
+        
+        if (created != null)
+        {
+          created.close();
+        }
+        
+        if (shared == null)
+        {
+          continue;
+        }
+      }
+      
+      try
+      {
+        shared.lock.lockInterruptibly();
+      }
+      catch (InterruptedException ie)
+      {
+        Thread.currentThread().interrupt();
+        throw new SnippetException("The run was stopped while waiting "
+                                   + "for the JShell session", ie);
+      }
+      
+      if (!shared.detached)
+      {
+        return shared;
+      }
+      
+      unlockShared(shared);
+    }
+  }
+  
+  
+  /**
+   * Unlock the shared session, and close it if it was reset while
+   * it was in use.
+   * 
+   * @param shared the session
+   */
+  private static void unlockShared(final Session shared)
+  {
+    shared.lock.unlock();
+    if (shared.detached)
+    {
+      shared.closeIfUnused();
+    }
+  }
+  
+  
+  /**
+   * Run a snippet.  The snippet is split into complete source
+   * snippets, which are evaluated in turn.  JShell ignores a
+   * return statement, so a top-level return is run as its
+   * expression and ends the snippet, as in the other engines, and
+   * a return nested in a statement is rejected.
+   * 
+   * @param script the snippet
+   * @return the returned value, the value of the last expression,
+   *         or null
+   * @throws SnippetException the snippet failed to compile or run
+   */
+  public Object run(final String script) throws SnippetException
+  {
+    return run(script, null);
+  }
+  
+  
+  /**
+   * Run a snippet with the included snippets placed before it.
+   * The run is recorded against the snippet alone.
+   * 
+   * @param script the snippet
+   * @param includes the included snippets, or null
+   * @return the returned value, the value of the last expression,
+   *         or null
+   * @throws SnippetException the snippet failed to compile or run
+   */
+  public Object run(final String script, final ScriptIncludes includes)
+    throws SnippetException
+  {
+    final boolean keep;
+    synchronized (this)
+    {
+      keep = persistent;
+    }
+    
+    final long start = System.nanoTime();
+    final Session runSession = (keep ? lockShared() : takeIdle());
+    final JShell shell = runSession.shell;
+    
+    // Save the existing snippets, so the new ones can be dropped
+    Set<Snippet> existing = getSnippets(shell);
+    
+    // JShell can only add to its class path, so entries stay
+    // until the session is reset
+    for (File entry : ClassPath.current().getEntries())
+    {
+      if (runSession.classPath.add(entry))
+      {
+        shell.addToClasspath(entry.getPath());
+      }
+    }
+    
+    SourceCodeAnalysis analysis = shell.sourceCodeAnalysis();
+    String remaining = ((includes == null) ? script
+                        : includes.expand(script));
+    String result = null;
+    try
+    {
+      while (remaining.trim().length() > 0)
+      {
+        // Get the next complete snippet.  If the rest of the
+        // script is incomplete, evaluate it anyway, so JShell
+        // reports the error.
+        SourceCodeAnalysis.CompletionInfo info =
+          analysis.analyzeCompletion(remaining);
+        String source = remaining;
+        remaining = "";
+        if (info.completeness().isComplete())
+        {
+          source = info.source();
+          remaining = info.remaining();
+        }
+        
+        // Return the value of a top-level return
+        final String returned = getReturnExpression(source);
+        if (returned != null)
+        {
+          result = ((returned.length() == 0) ? null
+                    : eval(shell, returned));
+          break;
+        }
+        
+        checkNoReturn(analysis, source);
+        result = eval(shell, source);
+      }
+    }
+    finally
+    {
+      if (keep)
+      {
+        unlockShared(runSession);
+      }
+      else
+      {
+        dropSnippets(shell, existing);
+        releaseIdle(runSession);
+      }
+    }
+    
+    stats.recordRun(script, System.nanoTime() - start);
+    return result;
+  }
+  
+  
+  /**
+   * Return the expression of a source snippet that is a return
+   * statement.
+   * 
+   * @param source the source snippet
+   * @return the expression, "" for a return with no value, or null
+   *         if the snippet is not a return statement
+   */
+  private static String getReturnExpression(final String source)
+  {
+    // Skip leading white space and comments
+    String text = source.trim();
+    while (text.startsWith("//") || text.startsWith("/*"))
+    {
+      final int end = (text.startsWith("//") ? text.indexOf('\n')
+                       : text.indexOf("*/"));
+      if (end < 0)
+      {
+        return null;
+      }
+      
+      text = text.substring(end + (text.startsWith("//") ? 1 : 2)).trim();
+    }
+    
+    // Check for the keyword, and not an identifier starting with it
+    final String keyword = "return";
+    if (!text.startsWith(keyword) || ((text.length() > keyword.length())
+        && Character.isJavaIdentifierPart(text.charAt(keyword.length()))))
+    {
+      return null;
+    }
+    
+    // Drop the keyword and the semicolon
+    text = text.substring(keyword.length()).trim();
+    if (text.endsWith(";"))
+    {
+      text = text.substring(0, text.length() - 1).trim();
+    }
+    
+    return text;
+  }
+  
+  
+  /**
+   * Reject a statement that contains a return, such as an if
+   * statement that returns, since JShell would ignore the return.
+   * Returns in methods, classes and lambdas assigned to variables
+   * are not statements, so they're allowed.
+   * 
+   * @param analysis the source analysis of the shell
+   * @param source the source snippet
+   * @throws SnippetException the snippet is a statement that
+   *         contains a return
+   */
+  private static void checkNoReturn(final SourceCodeAnalysis analysis,
+                                    final String source)
+    throws SnippetException
+  {
+    if (!ScriptTokenizer.tokenize(source).contains("return"))
+    {
+      return;
+    }
+    
+    for (Snippet snippet : analysis.sourceToSnippets(source))
+    {
+      if (snippet.kind() == Snippet.Kind.STATEMENT)
+      {
+        throw new SnippetException("JShell ignores a return inside a "
+            + "statement; return the value at the end of the snippet");
+      }
+    }
+  }
+  
+  
+  /**
+   * Evaluate one source snippet.
+   * 
+   * @param shell the JShell instance
+   * @param source the source snippet
+   * @return the value of the snippet if it's an expression, or null
+   * @throws SnippetException the snippet failed to compile or run
+   */
+  private static String eval(final JShell shell, final String source)
+    throws SnippetException
+  {
+    String value = null;
+    List<SnippetEvent> events = shell.eval(source);
+    for (SnippetEvent event : events)
+    {
+      // Skip the updates to snippets that depend on this one
+      if (event.causeSnippet() != null)
+      {
+        continue;
+      }
+      
+      // Check for a compile error
+      if (event.status() == Snippet.Status.REJECTED)
+      {
+        throw new SnippetException(getDiagnostics(shell,
+                                                  event.snippet()));
+      }
+      
+      // Check for an exception thrown by the snippet
+      JShellException ex = event.exception();
+      if (ex != null)
+      {
+        String name = ((ex instanceof EvalException)
+                       ? ((EvalException) ex).getExceptionClassName()
+                       : ex.getClass().getName());
+        throw new SnippetException(name + ": " + ex.getMessage(), ex);
+      }
+      
+      // Only an expression gives a value.  JShell stores the
+      // value of a bare expression in a temporary variable.
+      final Snippet.SubKind subKind = event.snippet().subKind();
+      value = (((subKind == Snippet.SubKind.TEMP_VAR_EXPRESSION_SUBKIND)
+                || (event.snippet().kind() == Snippet.Kind.EXPRESSION))
+               ? event.value() : null);
+    }
+    
+    return value;
+  }
+  
+  
+  /**
+   * Return the compile errors for a snippet.
+   * 
+   * @param shell the JShell instance
+   * @param snippet the rejected snippet
+   * @return the error messages, one per line
+   */
+  private static String getDiagnostics(final JShell shell,
+                                       final Snippet snippet)
+  {
+    StringBuilder sb = new StringBuilder(100);
+    Iterator<Diag> iter = shell.diagnostics(snippet).iterator();
+    while (iter.hasNext())
+    {
+      if (sb.length() > 0)
+      {
+        sb.append('\n');
+      }
+      
+      sb.append(iter.next().getMessage(Locale.getDefault()));
+    }
+    
+    if (sb.length() == 0)
+    {
+      sb.append("Unable to compile: ").append(snippet.source().trim());
+    }
+    
+    return sb.toString();
+  }
+  
+  
+  /**
+   * Return the current snippets.
+   * 
+   * @param shell the JShell instance
+   * @return the snippets
+   */
+  private static Set<Snippet> getSnippets(final JShell shell)
+  {
+    Set<Snippet> snippets = new HashSet<Snippet>();
+    Iterator<Snippet> iter = shell.snippets().iterator();
+    while (iter.hasNext())
+    {
+      snippets.add(iter.next());
+    }
+    
+    return snippets;
+  }
+  
+  
+  /**
+   * Drop the snippets that are not in a saved set.
+   * 
+   * @param shell the JShell instance
+   * @param keep the snippets to keep
+   */
+  private static void dropSnippets(final JShell shell,
+                                   final Set<Snippet> keep)
+  {
+    List<Snippet> added = new ArrayList<Snippet>();
+    Iterator<Snippet> iter = shell.snippets().iterator();
+    while (iter.hasNext())
+    {
+      Snippet snippet = iter.next();
+      if (!keep.contains(snippet))
+      {
+        added.add(snippet);
+      }
+    }
+    
+    for (Snippet snippet : added)
+    {
+      shell.drop(snippet);
+    }
+  }
+  
+  
+  /**
+   * Prepare a snippet.  JShell evaluates source text, and the
+   * snippets are dropped after each run, so each run of the
+   * prepared snippet is a full run.
+   * 
+   * @param script the snippet
+   * @return the prepared snippet
+   */
+  public PreparedSnippet prepare(final String script)
+  {
+    return new PreparedSnippet()
+    {
+      public Object run() throws SnippetException
+      {
+        return JShellEngine.this.run(script);
+      }
+      
+      public void close()
+      {
+        // Nothing to release
+      }
+    };
+  }
+  
+  
+  /**
+   * Set whether the definitions made by one run are kept.
+   * 
+   * @param usePersistent whether to keep definitions between runs
+   */
+  public synchronized void setPersistent(final boolean usePersistent)
+  {
+    persistent = usePersistent;
+  }
+  
+  
+  /**
+   * Discard the JShell state.  A new instance is started on
+   * the next run.  This doesn't wait for a run that's using the
+   * shared session; the session is closed when that run ends, and
+   * runs waiting for it move to the new session.
+   */
+  public void resetSession()
+  {
+    Session shared;
+    List<Session> unused;
+    synchronized (this)
+    {
+      shared = session;
+      session = null;
+      unused = new ArrayList<Session>(idle);
+      idle.clear();
+      ++generation;
+    }
+    
+    for (Session s : unused)
+    {
+      s.close();
+    }
+    
+    if (shared != null)
+    {
+      shared.detached = true;
+      shared.closeIfUnused();
+    }
+  }
+  
+  
+  /**
+   * Return the engine statistics.
+   * 
+   * @return the statistics
+   */
+  public EngineStats getStats()
+  {
+    return stats;
+  }
+  
+  
+  /**
+   * A JShell instance, and the state that goes with it.
+   */
+  private static final class Session
+  {
+    /**
+     * The JShell instance.
+     */
+    private final JShell shell;
+    
+    /**
+     * The number of resets when the session was created.
+     */
+    private final int generation;
+    
+    /**
+     * The class path entries added to the JShell instance.
+     */
+    private final Set<File> classPath = new HashSet<File>(8);
+    
+    /**
+     * The lock held by the persistent run using the session.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+    
+    /**
+     * Whether the session was reset, so it's closed once no run
+     * holds its lock.
+     */
+    private volatile boolean detached = false;
+    
+    /**
+     * Whether the JShell instance has been closed.
+     */
+    private boolean closed = false;
+    
+    
+    /**
+     * Start a JShell instance and evaluate a snippet, so the
+     * compiler is loaded.
+     * 
+     * @param sessionGeneration the current number of resets
+     * @throws SnippetException JShell could not be started
+     */
+    public Session(final int sessionGeneration) throws SnippetException
+    {
+      generation = sessionGeneration;
+      try
+      {
+        shell = JShell.builder().executionEngine(new RunThreadProvider(),
+                                                 null).build();
+        shell.eval("1 + 1;");
+      }
+      catch (IllegalStateException ise)
+      {
+        throw new SnippetException("Unable to start JShell: "
+                                   + ise.getMessage(), ise);
+      }
+    }
+    
+    
+    /**
+     * Close the session, unless a run holds its lock.
+     */
+    public void closeIfUnused()
+    {
+      if (lock.tryLock())
+      {
+        try
+        {
+          close();
+        }
+        finally
+        {
+          lock.unlock();
+        }
+      }
+    }
+    
+    
+    /**
+     * Close the JShell instance, if it's still open.
+     */
+    public synchronized void close()
+    {
+      if (!closed)
+      {
+        closed = true;
+        shell.close();
+      }
+    }
+  }
+  
+  
+  /**
+   * Provides the execution control that runs snippet code on the
+   * thread evaluating it.
+   */
+  private static final class RunThreadProvider
+    implements ExecutionControlProvider
+  {
+    /**
+     * Default constructor.
+     */
+    public RunThreadProvider()
+    {
+      super();
+    }
+    
+    
+    /**
+     * Return the name of the provider.
+     * 
+     * @return the provider name
+     */
+    public String name()
+    {
+      return "jsnip";
+    }
+    
+    
+    /**
+     * Create the execution control.
+     * 
+     * @param env the execution environment
+     * @param parameters the parameters, which are not used
+     * @return the execution control
+     */
+    public ExecutionControl generate(final ExecutionEnv env,
+                                     final Map<String, String> parameters)
+    {
+      return new RunThreadControl();
+    }
+  }
+  
+  
+  /**
+   * Runs snippet code on the thread evaluating it.  JShell has no
+   * way to stop that code itself, so stop() is left unsupported,
+   * and JShell ignores it.  A string or character value is returned
+   * as it is, rather than as a quoted Java literal, so it shows the
+   * same as in the other engines.
+   */
+  private static final class RunThreadControl
+    extends DirectExecutionControl
+  {
+    /**
+     * Default constructor.
+     */
+    public RunThreadControl()
+    {
+      super();
+    }
+    
+    
+    /**
+     * Invoke the method that runs a snippet, and return its value
+     * as text.
+     * 
+     * @param doitMethod the method
+     * @return the value as text
+     * @throws Exception the snippet threw an exception
+     */
+    @Override
+    protected String invoke(final Method doitMethod) throws Exception
+    {
+      Object value = doitMethod.invoke(null, new Object[0]);
+      if ((value instanceof String) || (value instanceof Character))
+      {
+        return value.toString();
+      }
+      
+      return valueString(value);
+    }
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+/**
+ * The engine that compiles snippets with javac and runs the
+ * bytecode.  It has the highest startup cost, but the snippet
+ * runs at full JIT-compiled speed.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class JavacEngine implements IncludeAwareEngine
+{
+  /**
+   * The snippet used to load the compiler.
+   */
+  private static final String WARM_UP_SCRIPT = "int n = 1; n += 1;";
+  
+  /**
+   * The runner that compiles and runs snippets.
+   */
+  private JavacRunner runner = null;
+  
+  /**
+   * The engine statistics.
+   */
+  private final EngineStats stats = new EngineStats();
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param javacRunner the runner that compiles and runs snippets
+   */
+  public JavacEngine(final JavacRunner javacRunner)
+  {
+    super();
+    runner = javacRunner;
+  }
+  
+  
+  /**
+   * Return the engine name.
+   * 
+   * @return the engine name
+   */
+  public String getName()
+  {
+    return CodeItemNode.ENGINE_JAVAC;
+  }
+  
+  
+  /**
+   * Return the engine label.
+   * 
+   * @return the engine label
+   */
+  public String getLabel()
+  {
+    return "Compiled (javac)";
+  }
+  
+  
+  /**
+   * Load the compiler by compiling a small snippet.
+   * 
+   * @throws SnippetException the compiler is not available
+   */
+  public void start() throws SnippetException
+  {
+    // Check if the engine was already started
+    if (stats.isStarted())
+    {
+      return;
+    }
+    
+    final long start = System.nanoTime();
+    runner.compile(WARM_UP_SCRIPT);
+    stats.recordStartup(System.nanoTime() - start);
+  }
+  
+  
+  /**
+   * Compile and run a snippet.
+   * 
+   * @param script the snippet
+   * @return the value returned by the snippet, or null
+   * @throws SnippetException the snippet failed to compile or run
+   */
+  public Object run(final String script) throws SnippetException
+  {
+    return run(script, null);
+  }
+  
+  
+  /**
+   * Compile and run a snippet with the included snippets placed
+   * before it.  The run is recorded against the snippet alone.
+   * 
+   * @param script the snippet
+   * @param includes the included snippets, or null
+   * @return the value returned by the snippet, or null
+   * @throws SnippetException the snippet failed to compile or run
+   */
+  public Object run(final String script, final ScriptIncludes includes)
+    throws SnippetException
+  {
+    start();
+    final long start = System.nanoTime();
+    Object result = runner.run((includes == null) ? script
+                               : includes.expand(script));
+    stats.recordRun(script, System.nanoTime() - start);
+    return result;
+  }
+  
+  
+  /**
+   * Compile and load a snippet.
+   * 
+   * @param script the snippet
+   * @return the loaded snippet
+   * @throws SnippetException the snippet failed to compile
+   */
+  public PreparedSnippet prepare(final String script)
+    throws SnippetException
+  {
+    start();
+    return runner.prepare(runner.compileCached(script));
+  }
+  
+  
+  /**
+   * Each run loads its classes in a new class loader, so there
+   * is no session to keep.
+   * 
+   * @param usePersistent ignored
+   */
+  public void setPersistent(final boolean usePersistent)
+  {
+    // Nothing to do
+  }
+  
+  
+  /**
+   * There is no session to discard.
+   */
+  public void resetSession()
+  {
+    // Nothing to do
+  }
+  
+  
+  /**
+   * Return the engine statistics.
+   * 
+   * @return the statistics
+   */
+  public EngineStats getStats()
+  {
+    return stats;
+  }
+}
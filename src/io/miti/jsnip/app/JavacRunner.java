@@ -0,0 +1,746 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Compile a snippet in memory with the system Java compiler and
+ * run the resulting bytecode.  A snippet that declares top-level
+ * classes is compiled as-is, and its main() method is run.  Any
+ * other snippet is treated as a list of statements, and wrapped
+ * in a method of a generated class.  The classes are loaded
+ * through a class loader that is thrown away after the run.  If
+ * a class cache is set, compiled snippets are saved in it, and a
+ * snippet found in the cache is not compiled again.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class JavacRunner
+{
+  /**
+   * The name of the class generated to hold a list of statements.
+   */
+  private static final String WRAPPER_CLASS = "JSnipSnippet";
+  
+  /**
+   * The name of the method generated to hold a list of statements.
+   */
+  private static final String WRAPPER_METHOD = "run";
+  
+  /**
+   * Pattern for a top-level type declaration (not indented).
+   */
+  private static final Pattern TYPE_DECL = Pattern.compile(
+      "^(public\\s+)?(?:(?:abstract|final|strictfp)\\s+)*"
+      + "(?:class|interface|enum)\\s+([A-Za-z_$][\\w$]*)",
+      Pattern.MULTILINE);
+  
+  /**
+   * Pattern for an import statement on its own line.
+   */
+  private static final Pattern IMPORT_DECL = Pattern.compile(
+      "^[ \\t]*import\\s+(?:static\\s+)?[\\w.$]+(?:\\s*\\.\\s*\\*)?\\s*;[ \\t]*$",
+      Pattern.MULTILINE);
+  
+  
+  /**
+   * The cache of compiled snippets, or null.
+   */
+  private CompiledClassCache cache = null;
+  
+  
+  /**
+   * The compiled bytecode of a snippet.
+   */
+  public static final class CompiledSnippet
+  {
+    /**
+     * The class files, keyed on binary class name.
+     */
+    private Map<String, byte[]> classes = null;
+    
+    /**
+     * The name of the class to run.
+     */
+    private String mainClass = null;
+    
+    /**
+     * Whether the snippet was wrapped in a generated class.
+     */
+    private boolean wrapped = false;
+    
+    /**
+     * Constructor.
+     * 
+     * @param classFiles the class files
+     * @param entryClass the name of the class to run
+     * @param isWrapped whether the snippet was wrapped
+     */
+    CompiledSnippet(final Map<String, byte[]> classFiles,
+                    final String entryClass,
+                    final boolean isWrapped)
+    {
+      classes = classFiles;
+      mainClass = entryClass;
+      wrapped = isWrapped;
+    }
+    
+    /**
+     * Return the class files, keyed on binary class name.
+     * 
+     * @return the class files
+     */
+    public Map<String, byte[]> getClasses()
+    {
+      return classes;
+    }
+    
+    /**
+     * Return the name of the class to run.
+     * 
+     * @return the class name
+     */
+    public String getMainClass()
+    {
+      return mainClass;
+    }
+    
+    /**
+     * Return whether the snippet was wrapped in a generated class.
+     * 
+     * @return whether the snippet was wrapped
+     */
+    public boolean isWrapped()
+    {
+      return wrapped;
+    }
+  }
+  
+  
+  /**
+   * A source file held in memory.
+   */
+  private static final class SourceFile extends SimpleJavaFileObject
+  {
+    /**
+     * The source code.
+     */
+    private String source = null;
+    
+    /**
+     * Constructor.
+     * 
+     * @param className the name of the class in the file
+     * @param code the source code
+     */
+    SourceFile(final String className, final String code)
+    {
+      super(URI.create("string:///" + className.replace('.', '/')
+                       + Kind.SOURCE.extension), Kind.SOURCE);
+      source = code;
+    }
+    
+    /**
+     * Return the source code.
+     * 
+     * @param ignoreEncodingErrors ignored
+     * @return the source code
+     */
+    @Override
+    public CharSequence getCharContent(final boolean ignoreEncodingErrors)
+    {
+      return source;
+    }
+  }
+  
+  
+  /**
+   * A class file held in memory.
+   */
+  private static final class ClassFile extends SimpleJavaFileObject
+  {
+    /**
+     * The bytecode written by the compiler.
+     */
+    private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    
+    /**
+     * Constructor.
+     * 
+     * @param className the binary name of the class
+     */
+    ClassFile(final String className)
+    {
+      super(URI.create("bytes:///" + className.replace('.', '/')
+                       + Kind.CLASS.extension), Kind.CLASS);
+    }
+    
+    /**
+     * Return the stream the compiler writes the bytecode to.
+     * 
+     * @return the output stream
+     */
+    @Override
+    public OutputStream openOutputStream()
+    {
+      return bytes;
+    }
+  }
+  
+  
+  /**
+   * A file manager that keeps the compiled classes in memory.
+   */
+  private static final class MemoryFileManager
+    extends ForwardingJavaFileManager<StandardJavaFileManager>
+  {
+    /**
+     * The class files written by the compiler.
+     */
+    private Map<String, ClassFile> output = new HashMap<String, ClassFile>();
+    
+    /**
+     * Constructor.
+     * 
+     * @param fileManager the standard file manager
+     */
+    MemoryFileManager(final StandardJavaFileManager fileManager)
+    {
+      super(fileManager);
+    }
+    
+    /**
+     * Return a class file for the compiler to write to.
+     * 
+     * @param location the output location
+     * @param className the binary name of the class
+     * @param kind the kind of file
+     * @param sibling the source file
+     * @return the class file
+     */
+    @Override
+    public JavaFileObject getJavaFileForOutput(
+        final JavaFileManager.Location location,
+        final String className,
+        final JavaFileObject.Kind kind,
+        final FileObject sibling)
+    {
+      ClassFile file = new ClassFile(className);
+      output.put(className, file);
+      return file;
+    }
+    
+    /**
+     * Return the bytecode of the compiled classes.
+     * 
+     * @return the class files, keyed on binary name
+     */
+    Map<String, byte[]> getClasses()
+    {
+      Map<String, byte[]> classes = new HashMap<String, byte[]>();
+      for (Map.Entry<String, ClassFile> entry : output.entrySet())
+      {
+        classes.put(entry.getKey(), entry.getValue().bytes.toByteArray());
+      }
+      
+      return classes;
+    }
+  }
+  
+  
+  /**
+   * A class loader for the classes of one compiled snippet.
+   */
+  private static final class SnippetClassLoader extends ClassLoader
+  {
+    /**
+     * The class files, keyed on binary name.
+     */
+    private Map<String, byte[]> classes = null;
+    
+    /**
+     * Constructor.
+     * 
+     * @param parent the parent class loader
+     * @param classFiles the class files
+     */
+    SnippetClassLoader(final ClassLoader parent,
+                       final Map<String, byte[]> classFiles)
+    {
+      super(parent);
+      classes = classFiles;
+    }
+    
+    /**
+     * Define one of the snippet's classes.
+     * 
+     * @param name the binary name of the class
+     * @return the class
+     * @throws ClassNotFoundException the class is not in the snippet
+     */
+    @Override
+    protected Class<?> findClass(final String name)
+      throws ClassNotFoundException
+    {
+      final byte[] bytes = classes.get(name);
+      if (bytes == null)
+      {
+        throw new ClassNotFoundException(name);
+      }
+      
+      return defineClass(name, bytes, 0, bytes.length);
+    }
+  }
+  
+  
+  /**
+   * Default constructor.
+   */
+  public JavacRunner()
+  {
+    super();
+  }
+  
+  
+  /**
+   * Constructor taking the cache of compiled snippets.
+   * 
+   * @param classCache the cache of compiled snippets
+   */
+  public JavacRunner(final CompiledClassCache classCache)
+  {
+    super();
+    cache = classCache;
+  }
+  
+  
+  /**
+   * Compile and run a snippet.
+   * 
+   * @param script the snippet source
+   * @return the value returned by the snippet, or null
+   * @throws SnippetException the snippet failed to compile or run
+   */
+  public Object run(final String script)
+    throws SnippetException
+  {
+    return run(compileCached(script));
+  }
+  
+  
+  /**
+   * Compile a snippet, or take it from the class cache.  The
+   * snippet is cached against the run's class path as well as
+   * its source, since a changed jar can change what it compiles to.
+   * 
+   * @param script the snippet source
+   * @return the compiled snippet
+   * @throws SnippetException the snippet failed to compile
+   */
+  public CompiledSnippet compileCached(final String script)
+    throws SnippetException
+  {
+    // Check the cache
+    final ClassPath classPath = ClassPath.current();
+    final String key = (classPath.isEmpty() ? script
+                        : script + "\n//classpath " + classPath.getKey());
+    JavacRunner.CompiledSnippet snippet =
+      ((cache == null) ? null : cache.get(key));
+    if (snippet == null)
+    {
+      // Compile the snippet and save it
+      snippet = compile(script);
+      if (cache != null)
+      {
+        cache.put(key, snippet);
+      }
+    }
+    
+    return snippet;
+  }
+  
+  
+  /**
+   * Compile a snippet against the run's class path.
+   * 
+   * @param script the snippet source
+   * @return the compiled snippet
+   * @throws SnippetException the snippet failed to compile
+   */
+  public CompiledSnippet compile(final String script)
+    throws SnippetException
+  {
+    // Get the compiler; it's missing when running on a JRE
+    final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    if (compiler == null)
+    {
+      throw new SnippetException("No Java compiler is available; "
+                                 + "run JSnip with a JDK");
+    }
+    
+    // Work out the class to compile.  If the snippet declares a
+    // top-level type, compile it as-is; otherwise wrap it.
+    String className = null;
+    String source = null;
+    int lineOffset = 0;
+    Matcher m = TYPE_DECL.matcher(script);
+    boolean wrapped = false;
+    if (m.find())
+    {
+      // Use the first public type (the file name must match it),
+      // or else the first type
+      className = m.group(2);
+      do
+      {
+        if (m.group(1) != null)
+        {
+          className = m.group(2);
+          break;
+        }
+      } while (m.find());
+      
+      source = script;
+    }
+    else
+    {
+      // Wrap the statements in a method
+      className = WRAPPER_CLASS;
+      source = wrapStatements(script);
+      lineOffset = 1;
+      wrapped = true;
+    }
+    
+    // Compile the source
+    DiagnosticCollector<JavaFileObject> diagnostics =
+      new DiagnosticCollector<JavaFileObject>();
+    MemoryFileManager fileManager = new MemoryFileManager(
+        compiler.getStandardFileManager(diagnostics, null, null));
+    List<JavaFileObject> units = new ArrayList<JavaFileObject>(1);
+    units.add(new SourceFile(className, source));
+    final Boolean ok = compiler.getTask(null, fileManager, diagnostics,
+        getOptions(), null, units).call();
+    try
+    {
+      fileManager.close();
+    }
+    catch (IOException ioe)
+    {
+      // Nothing was written to disk, so just report it
+      System.err.println(ioe.getMessage());
+    }
+    
+    // Report any errors
+    if ((ok == null) || (!ok.booleanValue()))
+    {
+      throw new SnippetException(formatErrors(diagnostics, lineOffset));
+    }
+    
+    // Find the fully-qualified name of the class to run
+    final Map<String, byte[]> classes = fileManager.getClasses();
+    String mainClass = className;
+    for (String name : classes.keySet())
+    {
+      if (name.equals(className) || name.endsWith("." + className))
+      {
+        mainClass = name;
+        break;
+      }
+    }
+    
+    return new CompiledSnippet(classes, mainClass, wrapped);
+  }
+  
+  
+  /**
+   * Return the compiler options for the run's class path.
+   * 
+   * @return the options, or null if there's no class path
+   */
+  private static List<String> getOptions()
+  {
+    final ClassPath classPath = ClassPath.current();
+    if (classPath.isEmpty())
+    {
+      return null;
+    }
+    
+    // Compile against JSnip's class path and the run's
+    List<String> options = new ArrayList<String>(2);
+    options.add("-classpath");
+    options.add(System.getProperty("java.class.path")
+                + File.pathSeparator + classPath.toString());
+    return options;
+  }
+  
+  
+  /**
+   * Run a compiled snippet in a new class loader.
+   * 
+   * @param snippet the compiled snippet
+   * @return the value returned by the snippet, or null
+   * @throws SnippetException the snippet failed to run
+   */
+  public Object run(final CompiledSnippet snippet)
+    throws SnippetException
+  {
+    return prepare(snippet).run();
+  }
+  
+  
+  /**
+   * Load a compiled snippet in a class loader of its own, and
+   * find the method to run, so the snippet can be run many
+   * times without loading it again.
+   * 
+   * @param snippet the compiled snippet
+   * @return the loaded snippet
+   * @throws SnippetException the snippet could not be loaded
+   */
+  public PreparedSnippet prepare(final CompiledSnippet snippet)
+    throws SnippetException
+  {
+    // Load the classes, on top of the run's class path, and find
+    // the method to run
+    ClassLoader parent = ClassPath.current().getClassLoader();
+    if (parent == null)
+    {
+      parent = JavacRunner.class.getClassLoader();
+    }
+    final ClassLoader loader =
+      new SnippetClassLoader(parent, snippet.getClasses());
+    final Method method = findEntryPoint(loader, snippet);
+    
+    return new PreparedSnippet()
+    {
+      public Object run() throws SnippetException
+      {
+        return invoke(loader, method, snippet.isWrapped());
+      }
+      
+      public void close()
+      {
+        // The class loader is dropped with this object
+      }
+    };
+  }
+  
+  
+  /**
+   * Run the entry point of a loaded snippet.
+   * 
+   * @param loader the class loader holding the snippet
+   * @param method the method to run
+   * @param wrapped whether the method holds wrapped statements
+   * @return the value returned by the snippet, or null
+   * @throws SnippetException the snippet threw an exception
+   */
+  private static Object invoke(final ClassLoader loader,
+                               final Method method,
+                               final boolean wrapped)
+    throws SnippetException
+  {
+    // Make the snippet's classes visible to code that uses the
+    // context class loader
+    final Thread thread = Thread.currentThread();
+    final ClassLoader oldLoader = thread.getContextClassLoader();
+    thread.setContextClassLoader(loader);
+    try
+    {
+      // Run the method
+      if (wrapped)
+      {
+        return method.invoke(null);
+      }
+      
+      method.invoke(null, new Object[] {new String[0]});
+      return null;
+    }
+    catch (InvocationTargetException ite)
+    {
+      // The snippet threw an exception
+      final Throwable cause = ite.getCause();
+      throw new SnippetException(cause.toString(), cause);
+    }
+    catch (IllegalAccessException iae)
+    {
+      throw new SnippetException("Unable to run the snippet: "
+                                 + iae.getMessage(), iae);
+    }
+    finally
+    {
+      thread.setContextClassLoader(oldLoader);
+    }
+  }
+  
+  
+  /**
+   * Find the method to run in a compiled snippet: the generated
+   * method for wrapped statements, or else a main() method.
+   * 
+   * @param loader the class loader holding the snippet
+   * @param snippet the compiled snippet
+   * @return the method to run
+   * @throws SnippetException no method can be run
+   */
+  private static Method findEntryPoint(final ClassLoader loader,
+                                       final CompiledSnippet snippet)
+    throws SnippetException
+  {
+    // Try the main class first, then the rest
+    List<String> names = new ArrayList<String>(snippet.getClasses().keySet());
+    Collections.sort(names);
+    names.remove(snippet.getMainClass());
+    names.add(0, snippet.getMainClass());
+    for (String name : names)
+    {
+      try
+      {
+        final Class<?> c = Class.forName(name, true, loader);
+        Method method = null;
+        if (snippet.isWrapped())
+        {
+          method = c.getMethod(WRAPPER_METHOD);
+        }
+        else
+        {
+          method = c.getMethod("main", String[].class);
+        }
+        
+        if (Modifier.isStatic(method.getModifiers()))
+        {
+          method.setAccessible(true);
+          return method;
+        }
+      }
+      catch (ClassNotFoundException cnfe)
+      {
+        continue;
+      }
+      catch (NoSuchMethodException nsme)
+      {
+        continue;
+      }
+      catch (LinkageError le)
+      {
+        throw new SnippetException("Unable to load " + name + ": "
+                                   + le.getMessage(), le);
+      }
+    }
+    
+    throw new SnippetException("The snippet compiled, but has no "
+        + "public static void main(String[]) method to run");
+  }
+  
+  
+  /**
+   * Wrap a list of statements in a generated class.  The import
+   * statements are moved to the top, and everything is kept on the
+   * same line numbers, offset by one.
+   * 
+   * @param script the statements
+   * @return the source of the generated class
+   */
+  private static String wrapStatements(final String script)
+  {
+    // Collect the imports and blank them out of the body
+    StringBuilder imports = new StringBuilder(200);
+    StringBuffer body = new StringBuffer(script.length() + 10);
+    Matcher m = IMPORT_DECL.matcher(script);
+    while (m.find())
+    {
+      imports.append(m.group().trim()).append(' ');
+      m.appendReplacement(body, "");
+    }
+    m.appendTail(body);
+    
+    // Build the class.  The "if (true)" keeps the trailing return
+    // from being unreachable when the snippet ends with a return.
+    StringBuilder sb = new StringBuilder(script.length() + 300);
+    sb.append(imports).append("public class ").append(WRAPPER_CLASS)
+      .append(" { public static Object ").append(WRAPPER_METHOD)
+      .append("() throws Throwable { if (true) {\n")
+      .append(body).append("\n} return null; } }\n");
+    return sb.toString();
+  }
+  
+  
+  /**
+   * Format the compiler errors.
+   * 
+   * @param diagnostics the compiler diagnostics
+   * @param lineOffset the number of lines added before the snippet
+   * @return the error message
+   */
+  private static String formatErrors(
+      final DiagnosticCollector<JavaFileObject> diagnostics,
+      final int lineOffset)
+  {
+    StringBuilder sb = new StringBuilder(200);
+    sb.append("Compilation failed");
+    for (Diagnostic<? extends JavaFileObject> d
+         : diagnostics.getDiagnostics())
+    {
+      if (d.getKind() == Diagnostic.Kind.ERROR)
+      {
+        sb.append("\n  Line ").append(d.getLineNumber() - lineOffset)
+          .append(": ").append(d.getMessage(Locale.getDefault()));
+      }
+    }
+    
+    return sb.toString();
+  }
+}
@@ -0,0 +1,446 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The entry point of the JSnip jar.  With no command it starts
+ * the GUI.  The run and serve commands run snippets without the
+ * GUI, so no AWT classes are loaded.  The run command:
+ * 
+ *   java -jar jsnip.jar run lib.snp "Path/To/Node"
+ * 
+ * runs the snippet at the path, and every snippet under it, in
+ * tree order.  Output goes to standard output, errors go to
+ * standard error, and the exit code tells the caller whether
+ * every snippet succeeded.  The serve command starts a
+ * SnippetServer, which runs snippets for other local programs.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class Main
+{
+  /**
+   * The command that runs snippets.
+   */
+  public static final String COMMAND_RUN = "run";
+  
+  /**
+   * The command that starts the server.
+   */
+  public static final String COMMAND_SERVE = "serve";
+  
+  /**
+   * Exit code: every snippet succeeded.
+   */
+  public static final int EXIT_OK = 0;
+  
+  /**
+   * Exit code: a snippet failed or was stopped.
+   */
+  public static final int EXIT_FAILED = 1;
+  
+  /**
+   * Exit code: the command line was not valid.
+   */
+  public static final int EXIT_USAGE = 2;
+  
+  /**
+   * Exit code: the library could not be read, or the path was
+   * not found in it.
+   */
+  public static final int EXIT_NOT_FOUND = 3;
+  
+  /**
+   * The usage message.
+   */
+  private static final String USAGE =
+    "Usage: java -jar jsnip.jar run <library> [<path>] [options]\n"
+    + "       java -jar jsnip.jar serve [<library>] [options]\n"
+    + "\n"
+    + "run: Runs the snippet at the path in the library, and every\n"
+    + "snippet under it.  With no path, every snippet is run.\n"
+    + "serve: Runs snippets sent to a port on the loopback address.\n"
+    + "Clients must first send the token the server writes to\n"
+    + "~/.jsnip/server-<port>.token, which only the user can read.\n"
+    + "\n"
+    + "Options:\n"
+    + "  --engine <name>      run with beanshell, javac, jshell or auto\n"
+    + "  --timeout <seconds>  stop a snippet that runs longer than this\n"
+    + "  --port <port>        serve on this port (default "
+    + SnippetServer.DEFAULT_PORT + ")\n"
+    + "  --threads <count>    serve this many runs at once (default "
+    + RunManager.DEFAULT_THREADS + ")\n"
+    + "\n"
+    + "Exit codes: 0 = success, 1 = a snippet failed, 2 = usage error,\n"
+    + "3 = library or path not found\n";
+  
+  
+  /**
+   * Default constructor.
+   */
+  private Main()
+  {
+    super();
+  }
+  
+  
+  /**
+   * Run snippets from the command line.
+   * 
+   * @param args the arguments after the run command
+   * @return the exit code
+   */
+  public static int run(final List<String> args)
+  {
+    // Parse the options
+    List<String> names = new ArrayList<String>(2);
+    Map<String, String> options = new HashMap<String, String>(4);
+    String msg = parseOptions(args, names, options, "engine", "timeout");
+    if (msg != null)
+    {
+      return usage(msg);
+    }
+    else if ((names.isEmpty()) || (names.size() > 2))
+    {
+      return usage(null);
+    }
+    
+    final long timeoutMillis = parseNumber(options.get("timeout"), 1000.0);
+    if (timeoutMillis < 0L)
+    {
+      return usage("Not a number of seconds: " + options.get("timeout"));
+    }
+    
+    // Check the engine
+    final String engineName = options.get("engine");
+    EngineRegistry engines = EngineRegistry.createDefault();
+    if ((engineName != null) && (engines.getEngine(engineName) == null)
+        && !CodeItemNode.ENGINE_AUTO.equals(engineName))
+    {
+      return usage("Unknown engine: " + engineName);
+    }
+    
+    // Read the library, and find the node
+    final File file = new File(names.get(0));
+    CodeItemNode root = null;
+    try
+    {
+      root = CodeItemNode.readTree(file);
+    }
+    catch (IOException ioe)
+    {
+      System.err.println("Unable to read " + file.getPath() + ": "
+                         + ioe.getMessage());
+      return EXIT_NOT_FOUND;
+    }
+    
+    final String path = ((names.size() > 1) ? names.get(1) : "");
+    final CodeItemNode start =
+      ((path.length() == 0) ? root : root.findByPath(path));
+    if (start == null)
+    {
+      System.err.println("Snippet not found: " + path);
+      return EXIT_NOT_FOUND;
+    }
+    
+    return runSubtree(start, engines, engineName,
+        new RunLimits(timeoutMillis, 0L, RunLimits.DEFAULT_HEAP_PERCENT));
+  }
+  
+  
+  /**
+   * Start the server, and serve requests until the JVM is
+   * stopped.
+   * 
+   * @param args the arguments after the serve command
+   * @return the exit code, if the server could not start
+   */
+  public static int serve(final List<String> args)
+  {
+    // Parse the options
+    List<String> names = new ArrayList<String>(1);
+    Map<String, String> options = new HashMap<String, String>(4);
+    String msg = parseOptions(args, names, options,
+                              "port", "threads", "timeout");
+    if (msg != null)
+    {
+      return usage(msg);
+    }
+    else if (names.size() > 1)
+    {
+      return usage(null);
+    }
+    
+    final long timeoutMillis = parseNumber(options.get("timeout"), 1000.0);
+    final long port = ((options.get("port") == null)
+        ? SnippetServer.DEFAULT_PORT : parseNumber(options.get("port"), 1.0));
+    final long threads = ((options.get("threads") == null)
+        ? RunManager.DEFAULT_THREADS
+        : parseNumber(options.get("threads"), 1.0));
+    if ((timeoutMillis < 0L) || (port < 0L) || (port > 65535L)
+        || (threads < 1L))
+    {
+      return usage("Not a valid number");
+    }
+    
+    // Start the server
+    final File file = (names.isEmpty() ? null : new File(names.get(0)));
+    final SnippetServer server = new SnippetServer(file, (int) threads,
+        new RunLimits(timeoutMillis, 0L, RunLimits.DEFAULT_HEAP_PERCENT));
+    try
+    {
+      server.start((int) port);
+    }
+    catch (IOException ioe)
+    {
+      System.err.println("Unable to start the server: " + ioe.getMessage());
+      return ((file != null) && !file.isFile() ? EXIT_NOT_FOUND
+              : EXIT_FAILED);
+    }
+    
+    System.err.println("Serving on port " + server.getPort()
+                       + ", token in " + server.getTokenFile().getPath());
+    server.serve();
+    return EXIT_OK;
+  }
+  
+  
+  /**
+   * Split the arguments into names and options.  Each option is
+   * given as --name value.
+   * 
+   * @param args the arguments
+   * @param names the list to add the names to
+   * @param options the map to add the options to, keyed by name
+   * @param allowed the names of the allowed options
+   * @return an error message, or null if the arguments are valid
+   */
+  private static String parseOptions(final List<String> args,
+                                     final List<String> names,
+                                     final Map<String, String> options,
+                                     final String... allowed)
+  {
+    for (int i = 0; i < args.size(); ++i)
+    {
+      final String arg = args.get(i);
+      if (!arg.startsWith("--"))
+      {
+        names.add(arg);
+        continue;
+      }
+      
+      // Check the option is allowed, and has a value
+      final String name = arg.substring(2);
+      if (!Arrays.asList(allowed).contains(name))
+      {
+        return "Unknown option: " + arg;
+      }
+      else if (i == args.size() - 1)
+      {
+        return "Missing value for " + arg;
+      }
+      
+      options.put(name, args.get(++i));
+    }
+    
+    return null;
+  }
+  
+  
+  /**
+   * Parse a non-negative number, and scale it.
+   * 
+   * @param value the number, or null
+   * @param scale the amount to multiply it by
+   * @return the scaled number, 0 if the value is null, or -1 if
+   *         the value is not a non-negative number
+   */
+  private static long parseNumber(final String value, final double scale)
+  {
+    if (value == null)
+    {
+      return 0L;
+    }
+    
+    try
+    {
+      final double number = Double.parseDouble(value);
+      return ((number < 0.0) ? -1L : Math.round(number * scale));
+    }
+    catch (NumberFormatException nfe)
+    {
+      return -1L;
+    }
+  }
+  
+  
+  /**
+   * Run every snippet in a subtree, in tree order, on this thread.
+   * 
+   * @param start the root of the subtree
+   * @param engines the engines
+   * @param engineName the engine to use, or null for each node's
+   * @param limits the limits on each run
+   * @return the exit code
+   */
+  private static int runSubtree(final CodeItemNode start,
+                                final EngineRegistry engines,
+                                final String engineName,
+                                final RunLimits limits)
+  {
+    // Find the nodes with scripts
+    List<CodeItemNode> nodes = new ArrayList<CodeItemNode>();
+    Enumeration<?> e = start.preorderEnumeration();
+    while (e.hasMoreElements())
+    {
+      CodeItemNode node = (CodeItemNode) e.nextElement();
+      final String script = node.getScript();
+      if ((script != null) && (script.trim().length() > 0))
+      {
+        nodes.add(node);
+      }
+    }
+    
+    if (nodes.isEmpty())
+    {
+      System.err.println("No snippets to run");
+      return EXIT_NOT_FOUND;
+    }
+    
+    final IRunListener listener = new IRunListener()
+    {
+      public void runStarted(final SnippetRun run)
+      {
+        // Nothing to do
+      }
+      
+      public void runFinished(final SnippetRun run)
+      {
+        // Nothing to do
+      }
+    };
+    
+    // Run each snippet; when there's more than one, label each
+    // snippet's output on standard error
+    int exitCode = EXIT_OK;
+    for (CodeItemNode node : nodes)
+    {
+      final String title = node.getPathName();
+      if (nodes.size() > 1)
+      {
+        System.err.println("== " + title);
+      }
+      
+      final String script = node.getScript();
+      RunContext context = new RunContext(System.out, System.err);
+      context.setLimits(limits);
+      SnippetRun run = new SnippetRun(title, script,
+          engines.chooseFor(node, engineName, script), context, listener);
+      run.run();
+      
+      // Show the result, or the error
+      System.out.flush();
+      if (run.getState() == SnippetRun.FINISHED)
+      {
+        if (run.getResult() != null)
+        {
+          System.out.println(run.getResult());
+        }
+      }
+      else
+      {
+        System.err.println("Error in " + title + ": "
+            + ((run.getError() == null) ? run.getStateName()
+               : run.getError()));
+        exitCode = EXIT_FAILED;
+      }
+    }
+    
+    return exitCode;
+  }
+  
+  
+  /**
+   * Print the usage message.
+   * 
+   * @param msg the error, or null
+   * @return the usage error exit code
+   */
+  private static int usage(final String msg)
+  {
+    if (msg != null)
+    {
+      System.err.println(msg);
+    }
+    
+    System.err.print(USAGE);
+    return EXIT_USAGE;
+  }
+  
+  
+  /**
+   * Entry point.  Runs the command given, or starts the GUI if
+   * there's no command.
+   * 
+   * @param args the command and its arguments
+   */
+  public static void main(final String[] args)
+  {
+    if ((args.length > 0) && (COMMAND_RUN.equals(args[0])
+                              || COMMAND_SERVE.equals(args[0])))
+    {
+      // Keep AWT from starting if a snippet uses it
+      System.setProperty("java.awt.headless", "true");
+      List<String> list = new ArrayList<String>(args.length);
+      for (int i = 1; i < args.length; ++i)
+      {
+        list.add(args[i]);
+      }
+      
+      // Exit, since the engines' threads may still be running
+      System.exit(COMMAND_RUN.equals(args[0]) ? run(list) : serve(list));
+    }
+    else if (args.length > 0)
+    {
+      System.exit(usage("Unknown command: " + args[0]));
+    }
+    
+    App.main(args);
+  }
+}
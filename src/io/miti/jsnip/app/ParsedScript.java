@@ -0,0 +1,403 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.io.StringReader;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import bsh.CallStack;
+import bsh.EvalError;
+import bsh.Interpreter;
+import bsh.InterpreterError;
+import bsh.NameSpace;
+import bsh.Parser;
+import bsh.Primitive;
+import bsh.TokenMgrError;
+
+/**
+ * A BeanShell script that has been parsed into its statement
+ * nodes, so it can be evaluated repeatedly without reparsing.
+ * The evaluation follows the same steps as Interpreter.eval().
+ * The parse tree classes are package-private in BeanShell, so
+ * the statement nodes are held as objects and evaluated through
+ * reflection.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class ParsedScript
+{
+  /**
+   * The longest part of the script shown in error messages.
+   */
+  private static final int MAX_SOURCE_INFO = 80;
+  
+  /**
+   * The name of the BeanShell parse tree node class.
+   */
+  private static final String NODE_CLASS = "bsh.SimpleNode";
+  
+  /**
+   * The rough number of bytes of parse tree per character of
+   * script, used to estimate the memory used by a parsed script.
+   */
+  private static final int BYTES_PER_CHAR = 48;
+  
+  /**
+   * The value field of the (package-private) bsh.ReturnControl
+   * class, used to unwrap a top-level return statement.
+   */
+  private static Field returnValueField = null;
+  
+  /**
+   * The SimpleNode.eval(CallStack, Interpreter) method.
+   */
+  private static Method evalMethod = null;
+  
+  /**
+   * The SimpleNode.setSourceFile(String) method.
+   */
+  private static Method setSourceMethod = null;
+  
+  /**
+   * The top-level statements of the script (bsh.SimpleNode objects).
+   */
+  private Object[] nodes = null;
+  
+  /**
+   * The estimated size of the parse tree, in bytes.
+   */
+  private long estimatedSize = 0L;
+  
+  /**
+   * The description of the script used in error messages.
+   */
+  private String sourceInfo = null;
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param statements the top-level statements
+   * @param size the estimated size in bytes
+   * @param info the description of the script used in error messages
+   */
+  private ParsedScript(final Object[] statements,
+                       final long size,
+                       final String info)
+  {
+    nodes = statements;
+    estimatedSize = size;
+    sourceInfo = info;
+  }
+  
+  
+  /**
+   * Parse a script.
+   * 
+   * @param script the script text
+   * @return the parsed script
+   * @throws EvalError the script has a syntax error
+   */
+  public static ParsedScript parse(final String script)
+    throws EvalError
+  {
+    // Describe the script the same way Interpreter.eval() does
+    String shown = script.replace('\n', ' ').replace('\r', ' ');
+    if (shown.length() > MAX_SOURCE_INFO)
+    {
+      shown = shown.substring(0, MAX_SOURCE_INFO) + " . . . ";
+    }
+    final String info = "inline evaluation of: ``" + shown + "''";
+    
+    // Parse each top-level statement
+    List<Object> statements = new ArrayList<Object>(20);
+    final String text = (script.endsWith(";") ? script : (script + ";"));
+    Parser parser = new Parser(new StringReader(text));
+    try
+    {
+      while (!parser.Line())
+      {
+        final Object node = parser.popNode();
+        if (node != null)
+        {
+          invoke(getSetSourceMethod(), node, info);
+          statements.add(node);
+        }
+      }
+    }
+    catch (TokenMgrError tme)
+    {
+      throw new EvalError("Token Parsing Error: " + tme.getMessage(),
+                          null, null);
+    }
+    
+    // Return the parsed script
+    return new ParsedScript(
+        statements.toArray(),
+        ((long) script.length()) * BYTES_PER_CHAR, info);
+  }
+  
+  
+  /**
+   * Return the estimated size of the parse tree, in bytes.
+   * 
+   * @return the estimated size
+   */
+  public long getEstimatedSize()
+  {
+    return estimatedSize;
+  }
+  
+  
+  /**
+   * Evaluate the script.
+   * 
+   * @param parent the interpreter to evaluate in
+   * @param namespace the namespace to evaluate in
+   * @return the value returned by the script
+   * @throws EvalError error evaluating the script
+   */
+  public Object eval(final Interpreter parent, final NameSpace namespace)
+    throws EvalError
+  {
+    // Create a local interpreter for the namespace, the same
+    // way that Interpreter.eval() does
+    Interpreter local = new Interpreter(new StringReader(""),
+        parent.getOut(), parent.getErr(), false, namespace,
+        parent, sourceInfo);
+    CallStack callstack = new CallStack(namespace);
+    
+    // Evaluate each statement, checking between statements for
+    // an interrupt from stopping the run, since BeanShell itself
+    // never checks
+    Object retVal = null;
+    for (Object node : nodes)
+    {
+      if (Thread.currentThread().isInterrupted())
+      {
+        throw new EvalError("Sourced file: " + sourceInfo
+            + " : The script was stopped", null, callstack);
+      }
+      
+      try
+      {
+        retVal = invoke(getEvalMethod(), node, callstack, local);
+      }
+      catch (InterpreterError ie)
+      {
+        throw new EvalError("Sourced file: " + sourceInfo
+            + " internal Error: " + ie.getMessage(), null, callstack);
+      }
+      catch (EvalError ee)
+      {
+        // Add the source to the message, as Interpreter.eval() does
+        ee.reThrow("Sourced file: " + sourceInfo);
+      }
+      
+      // Reset the call stack if a statement left it unbalanced
+      if (callstack.depth() > 1)
+      {
+        callstack.clear();
+        callstack.push(namespace);
+      }
+      
+      // Stop at a top-level return
+      if (isReturn(retVal))
+      {
+        retVal = getReturnValue(retVal);
+        break;
+      }
+    }
+    
+    return Primitive.unwrap(retVal);
+  }
+  
+  
+  /**
+   * Return the SimpleNode.eval() method.
+   * 
+   * @return the method
+   * @throws EvalError the method cannot be found
+   */
+  private static synchronized Method getEvalMethod()
+    throws EvalError
+  {
+    if (evalMethod == null)
+    {
+      evalMethod = findMethod("eval",
+          new Class<?>[] {CallStack.class, Interpreter.class});
+    }
+    
+    return evalMethod;
+  }
+  
+  
+  /**
+   * Return the SimpleNode.setSourceFile() method.
+   * 
+   * @return the method
+   * @throws EvalError the method cannot be found
+   */
+  private static synchronized Method getSetSourceMethod()
+    throws EvalError
+  {
+    if (setSourceMethod == null)
+    {
+      setSourceMethod = findMethod("setSourceFile",
+          new Class<?>[] {String.class});
+    }
+    
+    return setSourceMethod;
+  }
+  
+  
+  /**
+   * Find a method declared on bsh.SimpleNode, and make it accessible.
+   * Calls through the method are dispatched to the node subclass.
+   * 
+   * @param name the method name
+   * @param params the parameter types
+   * @return the method
+   * @throws EvalError the method cannot be found
+   */
+  private static Method findMethod(final String name,
+                                   final Class<?>[] params)
+    throws EvalError
+  {
+    try
+    {
+      Method method = Class.forName(NODE_CLASS).getDeclaredMethod(name,
+                                                                 params);
+      method.setAccessible(true);
+      return method;
+    }
+    catch (ClassNotFoundException cnfe)
+    {
+      throw new EvalError("Unable to find the class " + NODE_CLASS,
+                          null, null);
+    }
+    catch (NoSuchMethodException nsme)
+    {
+      throw new EvalError("Unable to find the method " + name, null, null);
+    }
+  }
+  
+  
+  /**
+   * Invoke a method on a node, unwrapping any exception it throws.
+   * 
+   * @param method the method
+   * @param node the node
+   * @param args the method arguments
+   * @return the value returned by the method
+   * @throws EvalError error thrown by the method
+   */
+  private static Object invoke(final Method method,
+                               final Object node,
+                               final Object... args)
+    throws EvalError
+  {
+    try
+    {
+      return method.invoke(node, args);
+    }
+    catch (IllegalAccessException iae)
+    {
+      throw new EvalError("Unable to call " + method.getName(), null, null);
+    }
+    catch (InvocationTargetException ite)
+    {
+      // Rethrow the original exception
+      final Throwable cause = ite.getCause();
+      if (cause instanceof EvalError)
+      {
+        throw (EvalError) cause;
+      }
+      else if (cause instanceof RuntimeException)
+      {
+        throw (RuntimeException) cause;
+      }
+      else if (cause instanceof Error)
+      {
+        throw (Error) cause;
+      }
+      
+      throw new EvalError(String.valueOf(cause), null, null);
+    }
+  }
+  
+  
+  /**
+   * Return whether a statement's value is a return statement.
+   * 
+   * @param value the value of the statement
+   * @return whether it's a bsh.ReturnControl
+   */
+  private static boolean isReturn(final Object value)
+  {
+    return ((value != null)
+            && value.getClass().getName().equals("bsh.ReturnControl"));
+  }
+  
+  
+  /**
+   * Return the value carried by a bsh.ReturnControl object.
+   * 
+   * @param control the return control object
+   * @return the returned value
+   * @throws EvalError the value cannot be read
+   */
+  private static synchronized Object getReturnValue(final Object control)
+    throws EvalError
+  {
+    try
+    {
+      if (returnValueField == null)
+      {
+        returnValueField = control.getClass().getField("value");
+        returnValueField.setAccessible(true);
+      }
+      
+      return returnValueField.get(control);
+    }
+    catch (NoSuchFieldException nsfe)
+    {
+      throw new EvalError("Unable to read the return value", null, null);
+    }
+    catch (IllegalAccessException iae)
+    {
+      throw new EvalError("Unable to read the return value", null, null);
+    }
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import bsh.EvalError;
+
+/**
+ * A cache of parsed BeanShell scripts, keyed on the content hash of
+ * the script text and the key of the current run's class path.
+ * The class path is part of the key because the parse tree caches
+ * the classes its type names resolve to, so a tree parsed under
+ * one class loader can't be run under another.  The least recently
+ * used scripts are evicted when the estimated size of the cached
+ * parse trees passes a limit.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class ParsedScriptCache
+{
+  /**
+   * The default limit on the estimated size of the cache, in bytes.
+   */
+  public static final long DEFAULT_MAX_BYTES = 16L * 1024L * 1024L;
+  
+  /**
+   * The limit on the estimated size of the cache, in bytes.
+   */
+  private long maxBytes = DEFAULT_MAX_BYTES;
+  
+  /**
+   * The estimated size of the cached scripts, in bytes.
+   */
+  private long currentBytes = 0L;
+  
+  /**
+   * The cached scripts, in least-recently-used order.
+   */
+  private final LinkedHashMap<String, ParsedScript> cache =
+    new LinkedHashMap<String, ParsedScript>(64, 0.75f, true);
+  
+  
+  /**
+   * Default constructor.
+   */
+  public ParsedScriptCache()
+  {
+    super();
+  }
+  
+  
+  /**
+   * Constructor taking the size limit.
+   * 
+   * @param limit the limit on the estimated size, in bytes
+   */
+  public ParsedScriptCache(final long limit)
+  {
+    super();
+    maxBytes = limit;
+  }
+  
+  
+  /**
+   * Return the parsed form of a script, parsing it if it's
+   * not in the cache.
+   * 
+   * @param script the script text
+   * @return the parsed script
+   * @throws EvalError the script has a syntax error
+   */
+  public ParsedScript get(final String script)
+    throws EvalError
+  {
+    // Check the cache
+    final String pathKey = ClassPath.current().getKey();
+    final String key = ((pathKey.length() == 0) ? ScriptHash.of(script)
+                        : ScriptHash.of(script) + ":" + pathKey);
+    synchronized (this)
+    {
+      final ParsedScript parsed = cache.get(key);
+      if (parsed != null)
+      {
+        return parsed;
+      }
+    }
+    
+    // Parse the script outside the lock
+    final ParsedScript parsed = ParsedScript.parse(script);
+    
+    // Add it to the cache, unless it's too big to ever fit
+    synchronized (this)
+    {
+      if ((parsed.getEstimatedSize() <= maxBytes)
+          && (!cache.containsKey(key)))
+      {
+        cache.put(key, parsed);
+        currentBytes += parsed.getEstimatedSize();
+        evict();
+      }
+    }
+    
+    return parsed;
+  }
+  
+  
+  /**
+   * Empty the cache.
+   */
+  public synchronized void clear()
+  {
+    cache.clear();
+    currentBytes = 0L;
+  }
+  
+  
+  /**
+   * Remove the least recently used scripts until the cache
+   * is under its size limit.
+   */
+  private void evict()
+  {
+    Iterator<Map.Entry<String, ParsedScript>> entries =
+      cache.entrySet().iterator();
+    while ((currentBytes > maxBytes) && (entries.hasNext()))
+    {
+      currentBytes -= entries.next().getValue().getEstimatedSize();
+      entries.remove();
+    }
+  }
+}
@@ -0,0 +1,251 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.io.IOException;
+
+/**
+ * Runs another engine's snippets in a worker JVM, so stopping a
+ * run kills the worker instead of relying on the snippet to
+ * notice an interrupt.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class ProcessEngine implements IncludeAwareEngine
+{
+  /**
+   * The pool of worker JVMs.
+   */
+  private WorkerPool pool = null;
+  
+  /**
+   * The engine the worker runs the snippets with.
+   */
+  private SnippetEngine engine = null;
+  
+  /**
+   * The engine statistics.
+   */
+  private final EngineStats stats = new EngineStats();
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param workerPool the pool of worker JVMs
+   * @param localEngine the engine the worker runs the snippets with
+   */
+  public ProcessEngine(final WorkerPool workerPool,
+                       final SnippetEngine localEngine)
+  {
+    super();
+    pool = workerPool;
+    engine = localEngine;
+  }
+  
+  
+  /**
+   * Return the name of the engine the worker uses.
+   * 
+   * @return the engine name
+   */
+  public String getName()
+  {
+    return engine.getName();
+  }
+  
+  
+  /**
+   * Return the engine label.
+   * 
+   * @return the engine label
+   */
+  public String getLabel()
+  {
+    return engine.getLabel() + " (separate JVM)";
+  }
+  
+  
+  /**
+   * Start the pool of workers.
+   */
+  public void start()
+  {
+    // Check if the engine was already started
+    if (stats.isStarted())
+    {
+      return;
+    }
+    
+    final long start = System.nanoTime();
+    pool.fill();
+    stats.recordStartup(System.nanoTime() - start);
+  }
+  
+  
+  /**
+   * Run a snippet in a worker.  If the run is cancelled, the
+   * worker is killed.
+   * 
+   * @param script the snippet
+   * @return the text of the value returned by the snippet, or null
+   * @throws SnippetException the snippet failed, or the worker died
+   */
+  public Object run(final String script) throws SnippetException
+  {
+    return run(script, null);
+  }
+  
+  
+  /**
+   * Run a snippet in a worker, with the included snippets placed
+   * before it.  The run is recorded against the snippet alone.
+   * 
+   * @param script the snippet
+   * @param includes the included snippets, or null
+   * @return the text of the value returned by the snippet, or null
+   * @throws SnippetException the snippet failed, or the worker died
+   */
+  public Object run(final String script, final ScriptIncludes includes)
+    throws SnippetException
+  {
+    start();
+    final long start = System.nanoTime();
+    
+    // Take a worker
+    final WorkerProcess worker;
+    try
+    {
+      worker = pool.acquire();
+    }
+    catch (IOException ioe)
+    {
+      throw new SnippetException("Unable to start a worker JVM: "
+                                 + ioe.getMessage(), ioe);
+    }
+    
+    // Kill the worker if the run is cancelled
+    final RunContext context = RunContext.current();
+    Runnable killHook = new Runnable()
+    {
+      public void run()
+      {
+        worker.kill();
+      }
+    };
+    if (context != null)
+    {
+      context.setInWorker(true);
+      context.addCancelHook(killHook);
+    }
+    
+    try
+    {
+      final String result = worker.run(engine.getName(),
+          ((includes == null) ? script : includes.expand(script)),
+          ((context == null) ? null : context.getMetrics()));
+      pool.release(worker);
+      stats.recordRun(script, System.nanoTime() - start);
+      return result;
+    }
+    catch (SnippetException se)
+    {
+      pool.release(worker);
+      throw se;
+    }
+    catch (IOException ioe)
+    {
+      pool.discard(worker);
+      throw new SnippetException("The worker JVM stopped", ioe);
+    }
+    finally
+    {
+      if (context != null)
+      {
+        context.removeCancelHook(killHook);
+      }
+    }
+  }
+  
+  
+  /**
+   * Prepare a snippet.  Each run is sent to a worker, so each
+   * run of the prepared snippet is a full run.
+   * 
+   * @param script the snippet
+   * @return the prepared snippet
+   */
+  public PreparedSnippet prepare(final String script)
+  {
+    return new PreparedSnippet()
+    {
+      public Object run() throws SnippetException
+      {
+        return ProcessEngine.this.run(script);
+      }
+      
+      public void close()
+      {
+        // Nothing to release
+      }
+    };
+  }
+  
+  
+  /**
+   * Workers do not keep a session between runs.
+   * 
+   * @param usePersistent ignored
+   */
+  public void setPersistent(final boolean usePersistent)
+  {
+    // Nothing to do
+  }
+  
+  
+  /**
+   * There is no session to discard.
+   */
+  public void resetSession()
+  {
+    // Nothing to do
+  }
+  
+  
+  /**
+   * Return the engine statistics.
+   * 
+   * @return the statistics
+   */
+  public EngineStats getStats()
+  {
+    return stats;
+  }
+}
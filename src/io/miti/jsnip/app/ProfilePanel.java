@@ -0,0 +1,229 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.Font;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JFileChooser;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTabbedPane;
+import javax.swing.JTextArea;
+import javax.swing.JTree;
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.TreePath;
+
+/**
+ * Shows the profile of a run: a tree of the calls the samples
+ * were taken in, the methods with the most samples, and the
+ * samples as collapsed stacks that can be saved for a flame
+ * graph tool.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class ProfilePanel extends JPanel
+{
+  /**
+   * Serial version ID.
+   */
+  private static final long serialVersionUID = 1L;
+  
+  /**
+   * The number of methods listed as hot methods.
+   */
+  private static final int MAX_HOT_METHODS = 50;
+  
+  /**
+   * The collapsed stacks.
+   */
+  private String collapsed = null;
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param profile the profile to show
+   */
+  public ProfilePanel(final StackProfile profile)
+  {
+    super(new BorderLayout(0, 2));
+    collapsed = profile.toCollapsed();
+    final int samples = profile.getSampleCount();
+    
+    // Show the number of samples
+    JLabel lblSummary = new JLabel(samples + " samples every "
+        + profile.getIntervalMillis() + " ms, "
+        + profile.getIdleCount() + " idle");
+    lblSummary.setBorder(BorderFactory.createEmptyBorder(2, 2, 2, 2));
+    add(lblSummary, BorderLayout.NORTH);
+    
+    // Build the call tree, and expand the path with the most samples
+    final StackProfile.Node root = profile.getRoot();
+    DefaultMutableTreeNode treeRoot = buildTree(root, samples);
+    JTree tree = new JTree(treeRoot);
+    DefaultMutableTreeNode node = treeRoot;
+    while (node.getChildCount() > 0)
+    {
+      node = (DefaultMutableTreeNode) node.getChildAt(0);
+      tree.makeVisible(new TreePath(node.getPath()));
+    }
+    
+    // Show the methods with the most samples
+    final Font mono = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+    JTextArea taHot = new JTextArea(getHotMethods(profile, samples));
+    taHot.setEditable(false);
+    taHot.setFont(mono);
+    
+    // Show the collapsed stacks, with a button to save them
+    JTextArea taCollapsed = new JTextArea(collapsed);
+    taCollapsed.setEditable(false);
+    taCollapsed.setFont(mono);
+    JButton btnSave = new JButton("Save...");
+    btnSave.addActionListener(new ActionListener()
+    {
+      public void actionPerformed(final ActionEvent e)
+      {
+        saveCollapsed();
+      }
+    });
+    JPanel collapsedPanel = new JPanel(new BorderLayout());
+    collapsedPanel.add(new JScrollPane(taCollapsed), BorderLayout.CENTER);
+    JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT, 2, 2));
+    buttons.add(btnSave);
+    collapsedPanel.add(buttons, BorderLayout.SOUTH);
+    
+    JTabbedPane tabs = new JTabbedPane();
+    tabs.addTab("Call Tree", new JScrollPane(tree));
+    tabs.addTab("Hot Methods", new JScrollPane(taHot));
+    tabs.addTab("Collapsed Stacks", collapsedPanel);
+    add(tabs, BorderLayout.CENTER);
+  }
+  
+  
+  /**
+   * Build the tree nodes for a node of the call tree and the
+   * nodes under it.
+   * 
+   * @param node the node of the call tree
+   * @param samples the number of samples in the profile
+   * @return the tree node
+   */
+  private static DefaultMutableTreeNode buildTree(
+      final StackProfile.Node node, final int samples)
+  {
+    DefaultMutableTreeNode treeNode = new DefaultMutableTreeNode(
+        formatPercent(node.getTotal(), samples) + "  " + node.getName()
+        + ((node.getSelf() > 0) ? "  (self " + formatPercent(
+            node.getSelf(), samples) + ")" : ""));
+    for (StackProfile.Node child : node.getChildren())
+    {
+      treeNode.add(buildTree(child, samples));
+    }
+    
+    return treeNode;
+  }
+  
+  
+  /**
+   * Return the methods with the most samples, as a table.
+   * 
+   * @param profile the profile
+   * @param samples the number of samples in the profile
+   * @return the table
+   */
+  private static String getHotMethods(final StackProfile profile,
+                                      final int samples)
+  {
+    StringBuilder sb = new StringBuilder(4000);
+    sb.append("  Self   Total  Method\n");
+    for (StackProfile.Node method : profile.getHotMethods(MAX_HOT_METHODS))
+    {
+      sb.append(String.format(Locale.US, "%6s  %6s  %s%n",
+          formatPercent(method.getSelf(), samples),
+          formatPercent(method.getTotal(), samples), method.getName()));
+    }
+    
+    return sb.toString();
+  }
+  
+  
+  /**
+   * Format a number of samples as a percentage of the total.
+   * 
+   * @param count the number of samples
+   * @param samples the total number of samples
+   * @return the percentage
+   */
+  private static String formatPercent(final int count, final int samples)
+  {
+    final double percent =
+      ((samples == 0) ? 0.0 : (100.0 * count / samples));
+    return String.format(Locale.US, "%.1f%%", percent);
+  }
+  
+  
+  /**
+   * Ask for a file, and save the collapsed stacks in it.
+   */
+  private void saveCollapsed()
+  {
+    JFileChooser chooser = new JFileChooser();
+    chooser.setSelectedFile(new File("profile.collapsed"));
+    if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION)
+    {
+      return;
+    }
+    
+    try
+    {
+      Files.write(chooser.getSelectedFile().toPath(),
+                  collapsed.getBytes(StandardCharsets.UTF_8));
+    }
+    catch (IOException ioe)
+    {
+      JOptionPane.showMessageDialog(this,
+          "Error while saving: " + ioe.getMessage(),
+          "Error", JOptionPane.ERROR_MESSAGE);
+    }
+  }
+}
@@ -0,0 +1,506 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.io.PrintStream;
+import java.util.Locale;
+
+/**
+ * A stream installed once as System.out and System.err, which
+ * sends each write to the stream of the run on the current
+ * thread.  Writes from threads that are not part of a run go to
+ * the original stream.  No lock is taken in this class, so runs
+ * only contend on their own streams.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class RoutingPrintStream extends PrintStream
+{
+  /**
+   * Whether the streams were installed.
+   */
+  private static boolean installed = false;
+  
+  /**
+   * The stream used outside of a run.
+   */
+  private PrintStream fallback = null;
+  
+  /**
+   * Whether this stream replaces standard error.
+   */
+  private boolean isErr = false;
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param original the stream used outside of a run
+   * @param forErr whether this stream replaces standard error
+   */
+  public RoutingPrintStream(final PrintStream original,
+                            final boolean forErr)
+  {
+    super(original, true);
+    fallback = original;
+    isErr = forErr;
+  }
+  
+  
+  /**
+   * Replace System.out and System.err with routing streams.
+   * Only the first call has an effect.
+   */
+  public static synchronized void install()
+  {
+    if (installed)
+    {
+      return;
+    }
+    
+    System.setOut(new RoutingPrintStream(System.out, false));
+    System.setErr(new RoutingPrintStream(System.err, true));
+    installed = true;
+  }
+  
+  
+  /**
+   * Return the stream for the current thread.
+   * 
+   * @return the stream to write to
+   */
+  private PrintStream target()
+  {
+    // Check for a run on this thread
+    final RunContext context = RunContext.current();
+    if (context == null)
+    {
+      return fallback;
+    }
+    
+    // Use the run's stream, unless it's a routing stream
+    final PrintStream ps = (isErr ? context.getErr() : context.getOut());
+    return (((ps == null) || (ps instanceof RoutingPrintStream))
+            ? fallback : ps);
+  }
+  
+  
+  /**
+   * Write a byte.
+   * 
+   * @param b the byte
+   */
+  @Override
+  public void write(final int b)
+  {
+    target().write(b);
+  }
+  
+  
+  /**
+   * Write part of a byte array.
+   * 
+   * @param buf the byte array
+   * @param off the offset of the first byte
+   * @param len the number of bytes
+   */
+  @Override
+  public void write(final byte[] buf, final int off, final int len)
+  {
+    target().write(buf, off, len);
+  }
+  
+  
+  /**
+   * Flush the stream for the current thread.
+   */
+  @Override
+  public void flush()
+  {
+    target().flush();
+  }
+  
+  
+  /**
+   * The routing stream is shared by all runs, so it is not closed.
+   */
+  @Override
+  public void close()
+  {
+    flush();
+  }
+  
+  
+  /**
+   * Return whether the stream for the current thread had an error.
+   * 
+   * @return whether there was an error
+   */
+  @Override
+  public boolean checkError()
+  {
+    return target().checkError();
+  }
+  
+  
+  /**
+   * Print a boolean.
+   * 
+   * @param b the value
+   */
+  @Override
+  public void print(final boolean b)
+  {
+    target().print(b);
+  }
+  
+  
+  /**
+   * Print a character.
+   * 
+   * @param c the value
+   */
+  @Override
+  public void print(final char c)
+  {
+    target().print(c);
+  }
+  
+  
+  /**
+   * Print an integer.
+   * 
+   * @param i the value
+   */
+  @Override
+  public void print(final int i)
+  {
+    target().print(i);
+  }
+  
+  
+  /**
+   * Print a long.
+   * 
+   * @param l the value
+   */
+  @Override
+  public void print(final long l)
+  {
+    target().print(l);
+  }
+  
+  
+  /**
+   * Print a float.
+   * 
+   * @param f the value
+   */
+  @Override
+  public void print(final float f)
+  {
+    target().print(f);
+  }
+  
+  
+  /**
+   * Print a double.
+   * 
+   * @param d the value
+   */
+  @Override
+  public void print(final double d)
+  {
+    target().print(d);
+  }
+  
+  
+  /**
+   * Print an array of characters.
+   * 
+   * @param s the value
+   */
+  @Override
+  public void print(final char[] s)
+  {
+    target().print(s);
+  }
+  
+  
+  /**
+   * Print a string.
+   * 
+   * @param s the value
+   */
+  @Override
+  public void print(final String s)
+  {
+    target().print(s);
+  }
+  
+  
+  /**
+   * Print an object.
+   * 
+   * @param obj the value
+   */
+  @Override
+  public void print(final Object obj)
+  {
+    target().print(obj);
+  }
+  
+  
+  /**
+   * Print a line separator.
+   */
+  @Override
+  public void println()
+  {
+    target().println();
+  }
+  
+  
+  /**
+   * Print a boolean and a line separator.
+   * 
+   * @param x the value
+   */
+  @Override
+  public void println(final boolean x)
+  {
+    target().println(x);
+  }
+  
+  
+  /**
+   * Print a character and a line separator.
+   * 
+   * @param x the value
+   */
+  @Override
+  public void println(final char x)
+  {
+    target().println(x);
+  }
+  
+  
+  /**
+   * Print an integer and a line separator.
+   * 
+   * @param x the value
+   */
+  @Override
+  public void println(final int x)
+  {
+    target().println(x);
+  }
+  
+  
+  /**
+   * Print a long and a line separator.
+   * 
+   * @param x the value
+   */
+  @Override
+  public void println(final long x)
+  {
+    target().println(x);
+  }
+  
+  
+  /**
+   * Print a float and a line separator.
+   * 
+   * @param x the value
+   */
+  @Override
+  public void println(final float x)
+  {
+    target().println(x);
+  }
+  
+  
+  /**
+   * Print a double and a line separator.
+   * 
+   * @param x the value
+   */
+  @Override
+  public void println(final double x)
+  {
+    target().println(x);
+  }
+  
+  
+  /**
+   * Print an array of characters and a line separator.
+   * 
+   * @param x the value
+   */
+  @Override
+  public void println(final char[] x)
+  {
+    target().println(x);
+  }
+  
+  
+  /**
+   * Print a string and a line separator.
+   * 
+   * @param x the value
+   */
+  @Override
+  public void println(final String x)
+  {
+    target().println(x);
+  }
+  
+  
+  /**
+   * Print an object and a line separator.
+   * 
+   * @param x the value
+   */
+  @Override
+  public void println(final Object x)
+  {
+    target().println(x);
+  }
+  
+  
+  /**
+   * Print a formatted string.
+   * 
+   * @param format the format string
+   * @param args the arguments
+   * @return this stream
+   */
+  @Override
+  public PrintStream printf(final String format, final Object... args)
+  {
+    target().printf(format, args);
+    return this;
+  }
+  
+  
+  /**
+   * Print a formatted string.
+   * 
+   * @param l the locale
+   * @param format the format string
+   * @param args the arguments
+   * @return this stream
+   */
+  @Override
+  public PrintStream printf(final Locale l, final String format,
+                            final Object... args)
+  {
+    target().printf(l, format, args);
+    return this;
+  }
+  
+  
+  /**
+   * Print a formatted string.
+   * 
+   * @param format the format string
+   * @param args the arguments
+   * @return this stream
+   */
+  @Override
+  public PrintStream format(final String format, final Object... args)
+  {
+    target().format(format, args);
+    return this;
+  }
+  
+  
+  /**
+   * Print a formatted string.
+   * 
+   * @param l the locale
+   * @param format the format string
+   * @param args the arguments
+   * @return this stream
+   */
+  @Override
+  public PrintStream format(final Locale l, final String format,
+                            final Object... args)
+  {
+    target().format(l, format, args);
+    return this;
+  }
+  
+  
+  /**
+   * Append a character sequence.
+   * 
+   * @param csq the character sequence
+   * @return this stream
+   */
+  @Override
+  public PrintStream append(final CharSequence csq)
+  {
+    target().append(csq);
+    return this;
+  }
+  
+  
+  /**
+   * Append part of a character sequence.
+   * 
+   * @param csq the character sequence
+   * @param start the index of the first character
+   * @param end the index after the last character
+   * @return this stream
+   */
+  @Override
+  public PrintStream append(final CharSequence csq, final int start,
+                            final int end)
+  {
+    target().append(csq, start, end);
+    return this;
+  }
+  
+  
+  /**
+   * Append a character.
+   * 
+   * @param c the character
+   * @return this stream
+   */
+  @Override
+  public PrintStream append(final char c)
+  {
+    target().append(c);
+    return this;
+  }
+}
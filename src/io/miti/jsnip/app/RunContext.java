@@ -0,0 +1,339 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The context of a run: where its output goes, and the hooks
+ * called to cancel it.  The context is held in an inheritable
+ * thread-local, so threads started by a snippet write to the
+ * same place as the snippet.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class RunContext
+{
+  /**
+   * The context of the run on the current thread.
+   */
+  private static final InheritableThreadLocal<RunContext> CURRENT =
+    new InheritableThreadLocal<RunContext>();
+  
+  /**
+   * The stream for standard output.
+   */
+  private PrintStream out = null;
+  
+  /**
+   * The stream for standard error.
+   */
+  private PrintStream err = null;
+  
+  /**
+   * The hooks called when the run is cancelled.
+   */
+  private final List<Runnable> cancelHooks = new ArrayList<Runnable>(2);
+  
+  /**
+   * Whether the run was cancelled.
+   */
+  private boolean cancelled = false;
+  
+  /**
+   * The cost of the run.
+   */
+  private final RunMetrics metrics = new RunMetrics();
+  
+  /**
+   * The limits on the run.
+   */
+  private RunLimits limits = RunLimits.NONE;
+  
+  /**
+   * The profile the run's stack samples are added to, or null if
+   * the run is not profiled.
+   */
+  private StackProfile profile = null;
+  
+  /**
+   * The flight recording of the run, or null if it's not recorded.
+   */
+  private FlightRecording recording = null;
+  
+  /**
+   * Whether the snippet is running in a worker JVM.
+   */
+  private volatile boolean inWorker = false;
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param outStream the stream for standard output
+   * @param errStream the stream for standard error
+   */
+  public RunContext(final PrintStream outStream,
+                    final PrintStream errStream)
+  {
+    super();
+    out = outStream;
+    err = errStream;
+  }
+  
+  
+  /**
+   * Set whether the snippet is running in a worker JVM.
+   * 
+   * @param isInWorker whether the snippet is in a worker JVM
+   */
+  public void setInWorker(final boolean isInWorker)
+  {
+    inWorker = isInWorker;
+  }
+  
+  
+  /**
+   * Return whether the snippet is running in a worker JVM.
+   * 
+   * @return whether the snippet is in a worker JVM
+   */
+  public boolean isInWorker()
+  {
+    return inWorker;
+  }
+  
+  
+  /**
+   * Set the limits on the run.
+   * 
+   * @param runLimits the limits
+   */
+  public void setLimits(final RunLimits runLimits)
+  {
+    limits = ((runLimits == null) ? RunLimits.NONE : runLimits);
+  }
+  
+  
+  /**
+   * Return the limits on the run.
+   * 
+   * @return the limits
+   */
+  public RunLimits getLimits()
+  {
+    return limits;
+  }
+  
+  
+  /**
+   * Set the profile the run's stack samples are added to.
+   * 
+   * @param stackProfile the profile, or null to not profile the run
+   */
+  public void setProfile(final StackProfile stackProfile)
+  {
+    profile = stackProfile;
+  }
+  
+  
+  /**
+   * Return the profile of the run.
+   * 
+   * @return the profile, or null if the run is not profiled
+   */
+  public StackProfile getProfile()
+  {
+    return profile;
+  }
+  
+  
+  /**
+   * Set the flight recording made of the run.
+   * 
+   * @param flightRecording the recording, or null to not record it
+   */
+  public void setRecording(final FlightRecording flightRecording)
+  {
+    recording = flightRecording;
+  }
+  
+  
+  /**
+   * Return the flight recording of the run.
+   * 
+   * @return the recording, or null if the run is not recorded
+   */
+  public FlightRecording getRecording()
+  {
+    return recording;
+  }
+  
+  
+  /**
+   * Return the context of the run on the current thread.
+   * 
+   * @return the context, or null if the thread is not part of a run
+   */
+  public static RunContext current()
+  {
+    return CURRENT.get();
+  }
+  
+  
+  /**
+   * Set the context of the run on the current thread.
+   * 
+   * @param context the context, or null to clear it
+   */
+  public static void setCurrent(final RunContext context)
+  {
+    if (context == null)
+    {
+      CURRENT.remove();
+    }
+    else
+    {
+      CURRENT.set(context);
+    }
+  }
+  
+  
+  /**
+   * Return the stream for standard output.
+   * 
+   * @return the output stream
+   */
+  public PrintStream getOut()
+  {
+    return out;
+  }
+  
+  
+  /**
+   * Return the stream for standard error.
+   * 
+   * @return the error stream
+   */
+  public PrintStream getErr()
+  {
+    return err;
+  }
+  
+  
+  /**
+   * Return the cost of the run.
+   * 
+   * @return the run metrics
+   */
+  public RunMetrics getMetrics()
+  {
+    return metrics;
+  }
+  
+  
+  /**
+   * Add a hook called when the run is cancelled.  If the run
+   * was already cancelled, the hook is called now.
+   * 
+   * @param hook the hook
+   */
+  public void addCancelHook(final Runnable hook)
+  {
+    synchronized (cancelHooks)
+    {
+      if (!cancelled)
+      {
+        cancelHooks.add(hook);
+        return;
+      }
+    }
+    
+    hook.run();
+  }
+  
+  
+  /**
+   * Remove a cancel hook.
+   * 
+   * @param hook the hook
+   */
+  public void removeCancelHook(final Runnable hook)
+  {
+    synchronized (cancelHooks)
+    {
+      cancelHooks.remove(hook);
+    }
+  }
+  
+  
+  /**
+   * Return whether the run was cancelled.
+   * 
+   * @return whether the run was cancelled
+   */
+  public boolean isCancelled()
+  {
+    synchronized (cancelHooks)
+    {
+      return cancelled;
+    }
+  }
+  
+  
+  /**
+   * Cancel the run, calling each cancel hook once.
+   */
+  public void cancel()
+  {
+    // Take the hooks, so each is only called once
+    List<Runnable> hooks = null;
+    synchronized (cancelHooks)
+    {
+      cancelled = true;
+      hooks = new ArrayList<Runnable>(cancelHooks);
+      cancelHooks.clear();
+    }
+    
+    for (Runnable hook : hooks)
+    {
+      try
+      {
+        hook.run();
+      }
+      catch (RuntimeException re)
+      {
+        System.err.println("Error cancelling the run: " + re.getMessage());
+      }
+    }
+  }
+}
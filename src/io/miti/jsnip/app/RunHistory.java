@@ -0,0 +1,96 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * The most recent runs that have ended, newest first.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class RunHistory
+{
+  /**
+   * The default number of runs to keep.
+   */
+  public static final int DEFAULT_SIZE = 500;
+  
+  /**
+   * The maximum number of runs to keep.
+   */
+  private int maxSize = DEFAULT_SIZE;
+  
+  /**
+   * The runs, newest first.
+   */
+  private final LinkedList<SnippetRun> runs = new LinkedList<SnippetRun>();
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param size the maximum number of runs to keep
+   */
+  public RunHistory(final int size)
+  {
+    super();
+    maxSize = size;
+  }
+  
+  
+  /**
+   * Add a run that has ended, dropping the oldest run if the
+   * history is full.
+   * 
+   * @param run the run
+   */
+  public synchronized void add(final SnippetRun run)
+  {
+    runs.addFirst(run);
+    if (runs.size() > maxSize)
+    {
+      runs.removeLast();
+    }
+  }
+  
+  
+  /**
+   * Return the runs.
+   * 
+   * @return a copy of the runs, newest first
+   */
+  public synchronized List<SnippetRun> getRuns()
+  {
+    return new ArrayList<SnippetRun>(runs);
+  }
+}
@@ -0,0 +1,231 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Dialog showing the recent runs and what each one cost, in a
+ * sortable table.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class RunHistoryDialog extends JDialog
+{
+  /**
+   * Serial version ID.
+   */
+  private static final long serialVersionUID = 1L;
+  
+  /**
+   * The column names.
+   */
+  private static final String[] COLUMNS = {"Ended", "Snippet", "Engine",
+    "Status", "Wall (ms)", "CPU (ms)", "Allocated (KB)"};
+  
+  
+  /**
+   * The table model, with one row per run.
+   */
+  private static final class HistoryTableModel extends AbstractTableModel
+  {
+    /**
+     * Serial version ID.
+     */
+    private static final long serialVersionUID = 1L;
+    
+    /**
+     * The format of the end time.
+     */
+    private final SimpleDateFormat timeFormat =
+      new SimpleDateFormat("HH:mm:ss");
+    
+    /**
+     * The runs, newest first.
+     */
+    private transient List<SnippetRun> runs = null;
+    
+    /**
+     * Constructor.
+     * 
+     * @param historyRuns the runs, newest first
+     */
+    HistoryTableModel(final List<SnippetRun> historyRuns)
+    {
+      runs = historyRuns;
+    }
+    
+    /**
+     * Return the number of rows.
+     * 
+     * @return the number of runs
+     */
+    public int getRowCount()
+    {
+      return runs.size();
+    }
+    
+    /**
+     * Return the number of columns.
+     * 
+     * @return the number of columns
+     */
+    public int getColumnCount()
+    {
+      return COLUMNS.length;
+    }
+    
+    /**
+     * Return the name of a column.
+     * 
+     * @param column the column index
+     * @return the column name
+     */
+    @Override
+    public String getColumnName(final int column)
+    {
+      return COLUMNS[column];
+    }
+    
+    /**
+     * Return the class of a column, so the costs sort as numbers.
+     * 
+     * @param column the column index
+     * @return the column class
+     */
+    @Override
+    public Class<?> getColumnClass(final int column)
+    {
+      return ((column >= 4) ? Double.class : String.class);
+    }
+    
+    /**
+     * Return the value of a cell.
+     * 
+     * @param row the row index
+     * @param column the column index
+     * @return the cell value
+     */
+    public Object getValueAt(final int row, final int column)
+    {
+      final SnippetRun run = runs.get(row);
+      final RunMetrics metrics = run.getMetrics();
+      switch (column)
+      {
+        case 0:
+          return timeFormat.format(new Date(run.getEndTime()));
+        
+        case 1:
+          return run.getTitle();
+        
+        case 2:
+          return run.getEngine().getLabel();
+        
+        case 3:
+          return run.getStateName();
+        
+        case 4:
+          return toMillis(metrics.getWallNanos());
+        
+        case 5:
+          return toMillis(metrics.getCpuNanos());
+        
+        default:
+          final long bytes = metrics.getAllocatedBytes();
+          return ((bytes < 0L) ? null : Double.valueOf(bytes / 1024.0));
+      }
+    }
+    
+    /**
+     * Convert a time to milliseconds.
+     * 
+     * @param nanos the time in nanoseconds, or -1
+     * @return the time in milliseconds, or null if not measured
+     */
+    private static Double toMillis(final long nanos)
+    {
+      return ((nanos < 0L) ? null : Double.valueOf(nanos / 1000000.0));
+    }
+  }
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param owner the owning frame
+   * @param history the run history
+   */
+  public RunHistoryDialog(final JFrame owner, final RunHistory history)
+  {
+    super(owner, "Run History", false);
+    
+    // Create the table
+    JTable table = new JTable(new HistoryTableModel(history.getRuns()));
+    table.setAutoCreateRowSorter(true);
+    table.getColumnModel().getColumn(1).setPreferredWidth(200);
+    
+    // Add the Close button
+    JButton btnClose = new JButton("Close");
+    btnClose.addActionListener(new ActionListener()
+    {
+      public void actionPerformed(final ActionEvent e)
+      {
+        dispose();
+      }
+    });
+    JPanel buttons = new JPanel();
+    buttons.add(btnClose);
+    
+    // Lay out the dialog
+    JPanel panel = new JPanel(new BorderLayout(0, 5));
+    panel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+    panel.add(new JScrollPane(table), BorderLayout.CENTER);
+    panel.add(buttons, BorderLayout.SOUTH);
+    getContentPane().add(panel);
+    
+    setSize(new Dimension(750, 400));
+    setLocationRelativeTo(owner);
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+/**
+ * The limits on one run: how long it may take, how many bytes
+ * its thread may allocate, and how full the heap may get while
+ * it runs.  A limit of zero means no limit.  The limits are
+ * enforced by the RunWatchdog.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class RunLimits
+{
+  /**
+   * No limits.
+   */
+  public static final RunLimits NONE = new RunLimits(0L, 0L, 0);
+  
+  /**
+   * The default share of the maximum heap that may be in use after
+   * a garbage collection, as a percent.
+   */
+  public static final int DEFAULT_HEAP_PERCENT = 90;
+  
+  /**
+   * The default limits, which only guard the heap.
+   */
+  public static final RunLimits DEFAULT =
+    new RunLimits(0L, 0L, DEFAULT_HEAP_PERCENT);
+  
+  /**
+   * The longest the run may take, in milliseconds.
+   */
+  private long timeoutMillis = 0L;
+  
+  /**
+   * The most bytes the run's thread may allocate.
+   */
+  private long maxAllocatedBytes = 0L;
+  
+  /**
+   * The share of the maximum heap that may be in use after a
+   * garbage collection, as a percent.
+   */
+  private int maxHeapPercent = 0;
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param timeout the longest the run may take, in milliseconds,
+   *        or 0 for no limit
+   * @param maxAllocated the most bytes the run's thread may
+   *        allocate, or 0 for no limit
+   * @param maxHeap the percent of the maximum heap that may be in
+   *        use after a garbage collection, or 0 for no limit
+   */
+  public RunLimits(final long timeout,
+                   final long maxAllocated,
+                   final int maxHeap)
+  {
+    super();
+    timeoutMillis = Math.max(0L, timeout);
+    maxAllocatedBytes = Math.max(0L, maxAllocated);
+    maxHeapPercent = Math.max(0, Math.min(100, maxHeap));
+  }
+  
+  
+  /**
+   * Return whether any limit is set.
+   * 
+   * @return whether the run is limited
+   */
+  public boolean isLimited()
+  {
+    return ((timeoutMillis > 0L) || (maxAllocatedBytes > 0L)
+            || (maxHeapPercent > 0));
+  }
+  
+  
+  /**
+   * Return the longest the run may take.
+   * 
+   * @return the time limit in milliseconds, or 0 for no limit
+   */
+  public long getTimeoutMillis()
+  {
+    return timeoutMillis;
+  }
+  
+  
+  /**
+   * Return the most bytes the run's thread may allocate.
+   * 
+   * @return the allocation limit, or 0 for no limit
+   */
+  public long getMaxAllocatedBytes()
+  {
+    return maxAllocatedBytes;
+  }
+  
+  
+  /**
+   * Return the share of the maximum heap that may be in use after
+   * a garbage collection.
+   * 
+   * @return the heap limit as a percent, or 0 for no limit
+   */
+  public int getMaxHeapPercent()
+  {
+    return maxHeapPercent;
+  }
+  
+  
+  /**
+   * Return a description of the limits.
+   * 
+   * @return a description of the limits
+   */
+  @Override
+  public String toString()
+  {
+    if (!isLimited())
+    {
+      return "No limits";
+    }
+    
+    StringBuilder sb = new StringBuilder(60);
+    if (timeoutMillis > 0L)
+    {
+      sb.append("time ").append(timeoutMillis / 1000.0).append(" s");
+    }
+    if (maxAllocatedBytes > 0L)
+    {
+      sb.append((sb.length() > 0) ? ", " : "").append("allocation ");
+      sb.append(RunMetrics.formatBytes(maxAllocatedBytes));
+    }
+    if (maxHeapPercent > 0)
+    {
+      sb.append((sb.length() > 0) ? ", " : "").append("heap ");
+      sb.append(maxHeapPercent).append('%');
+    }
+    
+    return sb.toString();
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+/**
+ * Runs snippets concurrently on a fixed number of threads.  Runs
+ * submitted while all the threads are busy wait in a queue.  The
+ * threads are platform threads, so the run metrics and limits can
+ * read each run thread's CPU time and allocation.  A thread held
+ * by an abandoned run (one whose snippet ignored being stopped) is
+ * replaced by a new one until the snippet returns, so stuck
+ * snippets can't leave later runs waiting forever.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class RunManager
+{
+  /**
+   * The default number of threads, one per processor (at least 2,
+   * so a long-running snippet does not block the next run).
+   */
+  public static final int DEFAULT_THREADS =
+    Math.max(2, Runtime.getRuntime().availableProcessors());
+  
+  /**
+   * The executor that runs the snippets.
+   */
+  private TaskExecutor executor = null;
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param numThreads the number of snippets that can run at once
+   */
+  public RunManager(final int numThreads)
+  {
+    super();
+    executor = TaskExecutor.newPlatformPool(numThreads, "JSnip run");
+  }
+  
+  
+  /**
+   * Queue a run.
+   * 
+   * @param run the run
+   */
+  public void submit(final SnippetRun run)
+  {
+    run.setManager(this);
+    run.setFuture(executor.submit(run));
+  }
+  
+  
+  /**
+   * Add a thread in place of the one held by a run that was
+   * abandoned.
+   */
+  void runAbandoned()
+  {
+    executor.addThreads(1);
+  }
+  
+  
+  /**
+   * Remove the thread added for an abandoned run, once the run's
+   * snippet has returned.
+   */
+  void abandonedRunReturned()
+  {
+    executor.addThreads(-1);
+  }
+  
+  
+  /**
+   * Stop the queued and running snippets, and shut down the
+   * threads.
+   */
+  public void shutdown()
+  {
+    executor.shutdown();
+  }
+}
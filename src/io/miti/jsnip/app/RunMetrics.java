@@ -0,0 +1,284 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * The cost of a run: wall-clock time, and the CPU time and heap
+ * allocation of the thread that ran the snippet.  CPU time and
+ * allocation are -1 when the JVM does not measure them.  For a
+ * run in a worker JVM, the worker's measurements are used.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class RunMetrics
+{
+  /**
+   * The thread management bean.
+   */
+  private static final ThreadMXBean THREADS =
+    ManagementFactory.getThreadMXBean();
+  
+  /**
+   * The wall-clock time at the start, from System.nanoTime().
+   */
+  private long wallStart = 0L;
+  
+  /**
+   * The CPU time of the thread at the start.
+   */
+  private long cpuStart = -1L;
+  
+  /**
+   * The bytes allocated by the thread at the start.
+   */
+  private long allocStart = -1L;
+  
+  /**
+   * The wall-clock time of the run, in nanoseconds.
+   */
+  private long wallNanos = -1L;
+  
+  /**
+   * The CPU time of the run, in nanoseconds.
+   */
+  private long cpuNanos = -1L;
+  
+  /**
+   * The bytes allocated by the run.
+   */
+  private long allocatedBytes = -1L;
+  
+  /**
+   * Whether the CPU time and allocation came from a worker JVM.
+   */
+  private boolean measuredElsewhere = false;
+  
+  
+  /**
+   * Default constructor.
+   */
+  public RunMetrics()
+  {
+    super();
+  }
+  
+  
+  /**
+   * Return the CPU time of the current thread.
+   * 
+   * @return the CPU time in nanoseconds, or -1 if not measured
+   */
+  public static long getThreadCpuNanos()
+  {
+    return (THREADS.isCurrentThreadCpuTimeSupported()
+            ? THREADS.getCurrentThreadCpuTime() : -1L);
+  }
+  
+  
+  /**
+   * Return the number of bytes allocated by the current thread.
+   * This uses the HotSpot extension of the thread bean.
+   * 
+   * @return the bytes allocated, or -1 if not measured
+   */
+  public static long getThreadAllocatedBytes()
+  {
+    return getThreadAllocatedBytes(Thread.currentThread());
+  }
+  
+  
+  /**
+   * Return the number of bytes allocated by a thread.  This uses
+   * the HotSpot extension of the thread bean.
+   * 
+   * @param thread the thread
+   * @return the bytes allocated, or -1 if not measured
+   */
+  public static long getThreadAllocatedBytes(final Thread thread)
+  {
+    if (THREADS instanceof com.sun.management.ThreadMXBean)
+    {
+      com.sun.management.ThreadMXBean hotspot =
+        (com.sun.management.ThreadMXBean) THREADS;
+      if (hotspot.isThreadAllocatedMemorySupported()
+          && hotspot.isThreadAllocatedMemoryEnabled())
+      {
+        return hotspot.getThreadAllocatedBytes(thread.getId());
+      }
+    }
+    
+    return -1L;
+  }
+  
+  
+  /**
+   * Start measuring on the current thread.
+   */
+  public synchronized void start()
+  {
+    wallStart = System.nanoTime();
+    cpuStart = getThreadCpuNanos();
+    allocStart = getThreadAllocatedBytes();
+  }
+  
+  
+  /**
+   * Stop measuring.  This must be called on the thread that
+   * called start().
+   */
+  public synchronized void stop()
+  {
+    // Take the readings in the reverse order of start()
+    final long alloc = getThreadAllocatedBytes();
+    final long cpu = getThreadCpuNanos();
+    wallNanos = System.nanoTime() - wallStart;
+    
+    // Keep the measurements made by a worker JVM
+    if (!measuredElsewhere)
+    {
+      cpuNanos = (((cpu < 0L) || (cpuStart < 0L)) ? -1L : (cpu - cpuStart));
+      allocatedBytes = (((alloc < 0L) || (allocStart < 0L)) ? -1L
+                        : (alloc - allocStart));
+    }
+  }
+  
+  
+  /**
+   * Record the CPU time and allocation measured by a worker JVM,
+   * in place of those of the thread waiting for the worker.
+   * 
+   * @param cpu the CPU time in nanoseconds, or -1
+   * @param allocated the bytes allocated, or -1
+   */
+  public synchronized void setMeasured(final long cpu, final long allocated)
+  {
+    measuredElsewhere = true;
+    cpuNanos = cpu;
+    allocatedBytes = allocated;
+  }
+  
+  
+  /**
+   * Return the wall-clock time of the run.
+   * 
+   * @return the time in nanoseconds, or -1 if the run has not ended
+   */
+  public synchronized long getWallNanos()
+  {
+    return wallNanos;
+  }
+  
+  
+  /**
+   * Return the CPU time of the run.
+   * 
+   * @return the time in nanoseconds, or -1 if not measured
+   */
+  public synchronized long getCpuNanos()
+  {
+    return cpuNanos;
+  }
+  
+  
+  /**
+   * Return the bytes allocated by the run.
+   * 
+   * @return the bytes allocated, or -1 if not measured
+   */
+  public synchronized long getAllocatedBytes()
+  {
+    return allocatedBytes;
+  }
+  
+  
+  /**
+   * Format a number of bytes with a unit.
+   * 
+   * @param bytes the number of bytes
+   * @return the formatted size, such as "1.5 MB"
+   */
+  public static String formatBytes(final long bytes)
+  {
+    if (bytes < 1024L)
+    {
+      return bytes + " B";
+    }
+    else if (bytes < (1024L * 1024L))
+    {
+      return String.format("%.1f KB", bytes / 1024.0);
+    }
+    else if (bytes < (1024L * 1024L * 1024L))
+    {
+      return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+    
+    return String.format("%.2f GB", bytes / (1024.0 * 1024.0 * 1024.0));
+  }
+  
+  
+  /**
+   * Format a time in nanoseconds as milliseconds.
+   * 
+   * @param nanos the time in nanoseconds
+   * @return the formatted time
+   */
+  public static String formatMillis(final long nanos)
+  {
+    return String.format("%.2f ms", nanos / 1000000.0);
+  }
+  
+  
+  /**
+   * Return a description of the metrics.
+   * 
+   * @return a description of the metrics
+   */
+  @Override
+  public synchronized String toString()
+  {
+    StringBuilder sb = new StringBuilder(80);
+    sb.append(formatMillis(wallNanos)).append(" wall");
+    if (cpuNanos >= 0L)
+    {
+      sb.append(", ").append(formatMillis(cpuNanos)).append(" CPU");
+    }
+    
+    if (allocatedBytes >= 0L)
+    {
+      sb.append(", ").append(formatBytes(allocatedBytes))
+        .append(" allocated");
+    }
+    
+    return sb.toString();
+  }
+}
@@ -0,0 +1,294 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.OutputStream;
+
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JSplitPane;
+import javax.swing.JTextPane;
+import javax.swing.ScrollPaneConstants;
+import javax.swing.SwingUtilities;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.StyledDocument;
+
+/**
+ * The output tab for one run, with the run's status and a
+ * button to stop it.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class RunPanel extends JPanel
+{
+  /**
+   * Serial version ID.
+   */
+  private static final long serialVersionUID = 1L;
+  
+  /**
+   * The run shown in this panel.
+   */
+  private transient SnippetRun run = null;
+  
+  /**
+   * The output text area.
+   */
+  private JTextPane tpOutput = null;
+  
+  /**
+   * The status of the run.
+   */
+  private JLabel lblStatus = null;
+  
+  /**
+   * The button to stop the run.
+   */
+  private JButton btnStop = null;
+  
+  /**
+   * The button to close the tab.
+   */
+  private JButton btnClose = null;
+  
+  /**
+   * The stream for standard output.
+   */
+  private transient PanelOutputStream posOut = null;
+  
+  /**
+   * The stream for standard error.
+   */
+  private transient PanelOutputStream posErr = null;
+  
+  /**
+   * The scroll pane holding the output.
+   */
+  private JScrollPane scrollPane = null;
+  
+  /**
+   * The run's profile, shown beside the output once a profiled
+   * run ends, or null.
+   */
+  private ProfilePanel profilePanel = null;
+  
+  
+  /**
+   * Constructor.  The run is set once it's created, since it
+   * writes to this panel's streams.
+   */
+  public RunPanel()
+  {
+    super(new BorderLayout());
+    
+    // Border for the pane
+    final int borderSize = 2;
+    
+    // Create the text output area
+    tpOutput = new JTextPane();
+    tpOutput.setOpaque(false);
+    tpOutput.setBorder(BorderFactory.createEmptyBorder(borderSize,
+        borderSize, borderSize, borderSize));
+    App.addStylesToDocument(tpOutput.getStyledDocument());
+    posOut = new PanelOutputStream(tpOutput, "regular");
+    posErr = new PanelOutputStream(tpOutput, "error");
+    
+    // Set up the scroll bar
+    scrollPane = new JScrollPane(tpOutput);
+    scrollPane.setHorizontalScrollBarPolicy(
+        ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
+    scrollPane.setVerticalScrollBarPolicy(
+        ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED);
+    add(scrollPane, BorderLayout.CENTER);
+    
+    // Add the Stop button
+    btnStop = new JButton("Stop");
+    btnStop.addActionListener(new ActionListener()
+    {
+      public void actionPerformed(final ActionEvent e)
+      {
+        run.stop();
+      }
+    });
+    
+    // Add the Close button
+    btnClose = new JButton("Close");
+    
+    // Lay out the status bar
+    lblStatus = new JLabel();
+    JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT, 2, 0));
+    buttons.add(btnStop);
+    buttons.add(btnClose);
+    JPanel statusBar = new JPanel(new BorderLayout());
+    statusBar.setBorder(BorderFactory.createEmptyBorder(borderSize,
+        borderSize, borderSize, borderSize));
+    statusBar.add(lblStatus, BorderLayout.CENTER);
+    statusBar.add(buttons, BorderLayout.EAST);
+    add(statusBar, BorderLayout.NORTH);
+  }
+  
+  
+  /**
+   * Set the run shown in this panel.
+   * 
+   * @param snippetRun the run
+   */
+  public void setRun(final SnippetRun snippetRun)
+  {
+    run = snippetRun;
+    updateStatus();
+  }
+  
+  
+  /**
+   * Add a listener called when the Close button is pressed.
+   * 
+   * @param listener the listener
+   */
+  public void addCloseListener(final ActionListener listener)
+  {
+    btnClose.addActionListener(listener);
+  }
+  
+  
+  /**
+   * Return the run shown in this panel.
+   * 
+   * @return the run
+   */
+  public SnippetRun getRun()
+  {
+    return run;
+  }
+  
+  
+  /**
+   * Return the stream that writes to the panel in the
+   * regular style.
+   * 
+   * @return the output stream
+   */
+  public OutputStream getOut()
+  {
+    return posOut;
+  }
+  
+  
+  /**
+   * Return the stream that writes to the panel in the
+   * error style.
+   * 
+   * @return the error stream
+   */
+  public OutputStream getErr()
+  {
+    return posErr;
+  }
+  
+  
+  /**
+   * Add a string to the output.  This may be called from any
+   * thread; the string is added after any output already
+   * written to the panel's streams.
+   * 
+   * @param msg the string to append
+   * @param style the style name
+   */
+  public void append(final String msg, final String style)
+  {
+    SwingUtilities.invokeLater(new Runnable()
+    {
+      public void run()
+      {
+        try
+        {
+          StyledDocument doc = tpOutput.getStyledDocument();
+          doc.insertString(doc.getLength(), msg, doc.getStyle(style));
+        }
+        catch (BadLocationException e)
+        {
+          e.printStackTrace();
+        }
+      }
+    });
+  }
+  
+  
+  /**
+   * Update the status line and buttons from the state of the
+   * run.  This must be called on the event dispatch thread.
+   */
+  public void updateStatus()
+  {
+    final boolean active = run.isActive();
+    StringBuilder sb = new StringBuilder(60);
+    sb.append(run.getStateName()).append(" (")
+      .append(run.getEngine().getLabel()).append(')');
+    if (run.getMetrics().getWallNanos() >= 0L)
+    {
+      sb.append(": ").append(run.getMetrics().toString());
+    }
+    
+    lblStatus.setText(sb.toString());
+    btnStop.setEnabled(active);
+    btnClose.setEnabled(!active);
+    
+    // Show the profile of a profiled run once it ends
+    final StackProfile profile = run.getContext().getProfile();
+    if (!active && (profile != null) && (profilePanel == null))
+    {
+      showProfile(profile);
+    }
+  }
+  
+  
+  /**
+   * Show a run's profile to the right of its output.
+   * 
+   * @param profile the profile
+   */
+  private void showProfile(final StackProfile profile)
+  {
+    profilePanel = new ProfilePanel(profile);
+    remove(scrollPane);
+    JSplitPane split = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT,
+                                      scrollPane, profilePanel);
+    split.setResizeWeight(0.4);
+    add(split, BorderLayout.CENTER);
+    revalidate();
+  }
+}
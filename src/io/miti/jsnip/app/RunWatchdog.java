@@ -0,0 +1,453 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enforces the limits on runs.  A single daemon thread samples
+ * each watched run's elapsed time and its thread's allocation
+ * counter, and the heap in use after the last garbage collection.
+ * A run over a limit is stopped with the reason as its error.  If
+ * the snippet ignores the interrupt for a grace period, a run in a
+ * worker JVM has its thread sent ThreadDeath, where the JVM still
+ * supports that.  Any other run is abandoned, since ThreadDeath
+ * could leave this JVM's shared state broken.  An abandoned run is
+ * still watched for heap use, and if it's the run filling the heap
+ * it's sent ThreadDeath after all, since running out of memory
+ * would take down the whole JVM.
+ * 
+ * Allocation is counted on the run's own thread only, so threads
+ * started by a snippet, and runs in a worker JVM, are held to the
+ * time and heap limits but not the allocation limit.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class RunWatchdog
+{
+  /**
+   * How often the runs are sampled, in milliseconds.
+   */
+  private static final long SAMPLE_MILLIS = 50L;
+  
+  /**
+   * How long a stopped snippet has to end before it's forced to,
+   * in milliseconds.
+   */
+  private static final long GRACE_MILLIS = 2000L;
+  
+  /**
+   * The shortest time between garbage collections requested to
+   * check that the heap is full, in nanoseconds.
+   */
+  private static final long GC_INTERVAL_NANOS = 1000000000L;
+  
+  /**
+   * The single instance.
+   */
+  private static final RunWatchdog INSTANCE = new RunWatchdog();
+  
+  /**
+   * The runs being watched.
+   */
+  private final Map<SnippetRun, Watch> watches =
+    new HashMap<SnippetRun, Watch>(10);
+  
+  /**
+   * The thread that samples the runs, or null if not started.
+   */
+  private ScheduledExecutorService timer = null;
+  
+  /**
+   * When the watchdog last requested a garbage collection.
+   */
+  private long lastGcNanos = 0L;
+  
+  
+  /**
+   * What is known about one watched run.
+   */
+  private static final class Watch
+  {
+    /**
+     * The thread running the snippet.
+     */
+    private Thread thread = null;
+    
+    /**
+     * The limits on the run.
+     */
+    private RunLimits limits = null;
+    
+    /**
+     * When the run started, from System.nanoTime().
+     */
+    private long startNanos = 0L;
+    
+    /**
+     * The bytes the thread had allocated when the run started.
+     */
+    private long startAllocated = -1L;
+    
+    /**
+     * The bytes the run has allocated, as of the last sample.
+     */
+    private long allocated = 0L;
+    
+    /**
+     * When the run was stopped, or 0 if it has not been.
+     */
+    private long stopNanos = 0L;
+    
+    /**
+     * Whether the run was abandoned.
+     */
+    private boolean abandoned = false;
+    
+    
+    /**
+     * Constructor.
+     * 
+     * @param runThread the thread running the snippet
+     * @param runLimits the limits on the run
+     */
+    public Watch(final Thread runThread, final RunLimits runLimits)
+    {
+      thread = runThread;
+      limits = runLimits;
+      startNanos = System.nanoTime();
+      startAllocated = RunMetrics.getThreadAllocatedBytes(runThread);
+    }
+  }
+  
+  
+  /**
+   * Default constructor.
+   */
+  private RunWatchdog()
+  {
+    super();
+  }
+  
+  
+  /**
+   * Return the single instance.
+   * 
+   * @return the watchdog
+   */
+  public static RunWatchdog getInstance()
+  {
+    return INSTANCE;
+  }
+  
+  
+  /**
+   * Start watching a run.
+   * 
+   * @param run the run
+   * @param thread the thread running the snippet
+   * @param limits the limits on the run
+   */
+  public void watch(final SnippetRun run,
+                    final Thread thread,
+                    final RunLimits limits)
+  {
+    synchronized (watches)
+    {
+      watches.put(run, new Watch(thread, limits));
+      startTimer();
+    }
+  }
+  
+  
+  /**
+   * Stop watching a run.  Once this returns, the watchdog will not
+   * force the run's thread to stop.
+   * 
+   * @param run the run
+   */
+  public void unwatch(final SnippetRun run)
+  {
+    synchronized (watches)
+    {
+      watches.remove(run);
+    }
+  }
+  
+  
+  /**
+   * Start the sampling thread, if it's not running.  The caller
+   * must hold the lock on the watches.
+   */
+  private void startTimer()
+  {
+    if (timer != null)
+    {
+      return;
+    }
+    
+    timer = Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactory()
+      {
+        public Thread newThread(final Runnable r)
+        {
+          // The thread is created by the first run watched, but
+          // is not part of it
+          return TaskExecutor.newBackgroundThread(r, "Run watchdog");
+        }
+      });
+    timer.scheduleWithFixedDelay(new Runnable()
+    {
+      public void run()
+      {
+        sample();
+      }
+    }, SAMPLE_MILLIS, SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+  }
+  
+  
+  /**
+   * Check each watched run against its limits.
+   */
+  private void sample()
+  {
+    final long now = System.nanoTime();
+    final int heapPercent = getHeapPercentAfterGc();
+    final List<SnippetRun> toStop = new ArrayList<SnippetRun>(2);
+    final List<String> reasons = new ArrayList<String>(2);
+    final List<SnippetRun> toAbandon = new ArrayList<SnippetRun>(1);
+    SnippetRun heaviest = null;
+    boolean heaviestAbandoned = false;
+    long heaviestAllocated = -1L;
+    int heapLimit = 0;
+    
+    synchronized (watches)
+    {
+      Iterator<Map.Entry<SnippetRun, Watch>> iter =
+        watches.entrySet().iterator();
+      while (iter.hasNext())
+      {
+        final Map.Entry<SnippetRun, Watch> entry = iter.next();
+        final SnippetRun run = entry.getKey();
+        final Watch watch = entry.getValue();
+        
+        // Update the bytes allocated by the run
+        if (watch.startAllocated >= 0L)
+        {
+          watch.allocated = RunMetrics.getThreadAllocatedBytes(
+              watch.thread) - watch.startAllocated;
+        }
+        
+        // Only the heap limit still applies to an abandoned run
+        if (!watch.abandoned)
+        {
+          // Force a stopped run in a worker to end once its grace
+          // period is over, and abandon any other run
+          if (watch.stopNanos != 0L)
+          {
+            if ((now - watch.stopNanos) < (GRACE_MILLIS * 1000000L))
+            {
+              continue;
+            }
+            else if (run.getContext().isInWorker())
+            {
+              run.forceStop();
+              watch.stopNanos = now;
+            }
+            else
+            {
+              toAbandon.add(run);
+              watch.abandoned = true;
+            }
+            continue;
+          }
+          
+          // Check the limits
+          final String reason = checkLimits(watch, now);
+          if (reason != null)
+          {
+            watch.stopNanos = now;
+            toStop.add(run);
+            reasons.add(reason);
+            continue;
+          }
+        }
+        
+        // Find the run that has allocated the most, in case the
+        // heap is too full
+        final int limit = watch.limits.getMaxHeapPercent();
+        if ((limit > 0) && (heapPercent >= limit)
+            && (watch.allocated > heaviestAllocated))
+        {
+          heaviest = run;
+          heaviestAbandoned = watch.abandoned;
+          heaviestAllocated = watch.allocated;
+          heapLimit = limit;
+        }
+      }
+      
+    }
+    
+    // Stop the run most likely to be filling the heap, if the heap
+    // is still too full after collecting the garbage.  An abandoned
+    // run has already ignored being stopped, so it's forced to.
+    if (heaviest != null)
+    {
+      final int confirmed = confirmHeapPercent(now);
+      if ((confirmed >= heapLimit) && heaviestAbandoned)
+      {
+        heaviest.forceStop();
+      }
+      else if (confirmed >= heapLimit)
+      {
+        synchronized (watches)
+        {
+          Watch watch = watches.get(heaviest);
+          if ((watch != null) && (watch.stopNanos == 0L))
+          {
+            watch.stopNanos = now;
+            toStop.add(heaviest);
+            reasons.add("The heap was " + confirmed
+                + "% full after garbage collection (limit "
+                + heapLimit + "%)");
+          }
+        }
+      }
+    }
+    
+    // Stop the runs outside the lock, since stopping calls the
+    // runs' cancel hooks
+    for (int i = 0; i < toStop.size(); ++i)
+    {
+      toStop.get(i).stop(reasons.get(i));
+    }
+    
+    for (SnippetRun run : toAbandon)
+    {
+      run.abandon();
+    }
+  }
+  
+  
+  /**
+   * Check a run against its time and allocation limits.
+   * 
+   * @param watch the run
+   * @param now the time, from System.nanoTime()
+   * @return why the run must stop, or null if it's within its limits
+   */
+  private static String checkLimits(final Watch watch, final long now)
+  {
+    final long timeout = watch.limits.getTimeoutMillis();
+    if ((timeout > 0L)
+        && ((now - watch.startNanos) >= (timeout * 1000000L)))
+    {
+      return "The run took longer than its time limit of "
+        + (timeout / 1000.0) + " s";
+    }
+    
+    final long maxAllocated = watch.limits.getMaxAllocatedBytes();
+    if ((maxAllocated > 0L) && (watch.allocated > maxAllocated))
+    {
+      return "The run allocated more than its limit of "
+        + RunMetrics.formatBytes(maxAllocated);
+    }
+    
+    return null;
+  }
+  
+  
+  /**
+   * Collect the garbage and return how full the heap is.  The
+   * figures kept by each memory pool are only updated when that
+   * pool is collected, so they can still count a run that has
+   * already ended.  To keep a collection from running on every
+   * sample, this returns 0 if one was requested recently.
+   * 
+   * @param now the time, from System.nanoTime()
+   * @return the percent of the heap in use, or 0 if unknown
+   */
+  private int confirmHeapPercent(final long now)
+  {
+    if ((lastGcNanos != 0L) && ((now - lastGcNanos) < GC_INTERVAL_NANOS))
+    {
+      return 0;
+    }
+    
+    System.gc();
+    lastGcNanos = System.nanoTime();
+    return getHeapPercentAfterGc();
+  }
+  
+  
+  /**
+   * Return how full the heap was after the last garbage collection,
+   * as a percent of the maximum heap.  Memory in use after a
+   * collection is live, so this is not fooled by garbage waiting
+   * to be collected.
+   * 
+   * @return the percent of the heap in use, or 0 if unknown
+   */
+  private static int getHeapPercentAfterGc()
+  {
+    final long max = Runtime.getRuntime().maxMemory();
+    if ((max <= 0L) || (max == Long.MAX_VALUE))
+    {
+      return 0;
+    }
+    
+    long used = 0L;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+    {
+      if (pool.getType() == MemoryType.HEAP)
+      {
+        MemoryUsage usage = pool.getCollectionUsage();
+        if (usage != null)
+        {
+          used += usage.getUsed();
+        }
+      }
+    }
+    
+    return (int) ((used * 100L) / max);
+  }
+}
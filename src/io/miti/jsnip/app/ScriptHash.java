@@ -0,0 +1,202 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Utility methods for computing hashes of scripts and files.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class ScriptHash
+{
+  /**
+   * The digest algorithm used for content hashes.
+   */
+  private static final String ALGORITHM = "SHA-1";
+  
+  /**
+   * The FNV-1a 64-bit offset basis.
+   */
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+  
+  /**
+   * The FNV-1a 64-bit prime.
+   */
+  private static final long FNV_PRIME = 0x100000001b3L;
+  
+  /**
+   * The hex digits.
+   */
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+  
+  
+  /**
+   * Default constructor.
+   */
+  private ScriptHash()
+  {
+    super();
+  }
+  
+  
+  /**
+   * Return the content hash of a string, as a hex string.
+   * 
+   * @param text the text to hash
+   * @return the hex string of the hash
+   */
+  public static String of(final String text)
+  {
+    // Get the digest and hash the UTF-8 bytes of the text
+    final MessageDigest md = getDigest();
+    try
+    {
+      md.update(((text == null) ? "" : text).getBytes("UTF-8"));
+    }
+    catch (UnsupportedEncodingException uee)
+    {
+      // Every JVM supports UTF-8
+      throw new RuntimeException(uee);
+    }
+    
+    // Return the hash as a string
+    return toHex(md.digest());
+  }
+  
+  
+  /**
+   * Return the content hash of a file, as a hex string.
+   * 
+   * @param file the file to hash
+   * @return the hex string of the hash
+   * @throws IOException error reading the file
+   */
+  public static String of(final File file)
+    throws IOException
+  {
+    // Get the digest
+    final MessageDigest md = getDigest();
+    
+    // Read the file and hash the contents
+    InputStream in = null;
+    try
+    {
+      in = new FileInputStream(file);
+      final byte[] buffer = new byte[8192];
+      int len = 0;
+      while ((len = in.read(buffer)) > 0)
+      {
+        md.update(buffer, 0, len);
+      }
+    }
+    finally
+    {
+      if (in != null)
+      {
+        in.close();
+        in = null;
+      }
+    }
+    
+    // Return the hash as a string
+    return toHex(md.digest());
+  }
+  
+  
+  /**
+   * Return a fast 64-bit (FNV-1a) hash of a string.  This is not
+   * suitable as a content key, but is cheap enough to use for
+   * checking whether a node has changed.
+   * 
+   * @param text the text to hash
+   * @return the hash of the string
+   */
+  public static long quick(final String text)
+  {
+    long hash = FNV_OFFSET;
+    if (text != null)
+    {
+      final int len = text.length();
+      for (int i = 0; i < len; ++i)
+      {
+        hash ^= text.charAt(i);
+        hash *= FNV_PRIME;
+      }
+    }
+    
+    return hash;
+  }
+  
+  
+  /**
+   * Return a new message digest.
+   * 
+   * @return the message digest
+   */
+  private static MessageDigest getDigest()
+  {
+    try
+    {
+      return MessageDigest.getInstance(ALGORITHM);
+    }
+    catch (NoSuchAlgorithmException nsae)
+    {
+      // Every JVM supports SHA-1
+      throw new RuntimeException(nsae);
+    }
+  }
+  
+  
+  /**
+   * Convert an array of bytes to a hex string.
+   * 
+   * @param bytes the bytes to convert
+   * @return the hex string
+   */
+  private static String toHex(final byte[] bytes)
+  {
+    final char[] chars = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; ++i)
+    {
+      chars[2 * i] = HEX[(bytes[i] >> 4) & 0x0f];
+      chars[(2 * i) + 1] = HEX[bytes[i] & 0x0f];
+    }
+    
+    return new String(chars);
+  }
+}
@@ -0,0 +1,257 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Resolves the include directives in a snippet.  A line of the
+ * form
+ * 
+ *   //@include Utilities/IO Helpers
+ * 
+ * names another node by its path in the tree.  Included snippets
+ * may include others; each snippet is included once, after the
+ * snippets it includes, and a cycle is an error.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class ScriptIncludes
+{
+  /**
+   * The include directive.
+   */
+  public static final String DIRECTIVE = "//@include";
+  
+  /**
+   * The paths of the included nodes, in the order they run.
+   */
+  private List<String> paths = null;
+  
+  /**
+   * The scripts of the included nodes, in the order they run.
+   */
+  private List<String> scripts = null;
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param includePaths the paths of the included nodes
+   * @param includeScripts the scripts of the included nodes
+   */
+  private ScriptIncludes(final List<String> includePaths,
+                         final List<String> includeScripts)
+  {
+    super();
+    paths = includePaths;
+    scripts = includeScripts;
+  }
+  
+  
+  /**
+   * Resolve the includes of a snippet.
+   * 
+   * @param root the root of the tree the paths are relative to
+   * @param script the snippet
+   * @return the included snippets
+   * @throws SnippetException an included node was not found, or
+   *         the includes form a cycle
+   */
+  public static ScriptIncludes resolve(final CodeItemNode root,
+                                       final String script)
+    throws SnippetException
+  {
+    List<String> paths = new ArrayList<String>(4);
+    List<String> scripts = new ArrayList<String>(4);
+    for (String path : getPaths(script))
+    {
+      add(root, path, new HashSet<String>(4), paths, scripts);
+    }
+    
+    return new ScriptIncludes(paths, scripts);
+  }
+  
+  
+  /**
+   * Add an included node, after the nodes it includes.
+   * 
+   * @param root the root of the tree
+   * @param path the path of the node
+   * @param pending the paths being resolved, to catch cycles
+   * @param paths the paths added so far
+   * @param scripts the scripts added so far
+   * @throws SnippetException a node was not found, or the includes
+   *         form a cycle
+   */
+  private static void add(final CodeItemNode root,
+                          final String path,
+                          final Set<String> pending,
+                          final List<String> paths,
+                          final List<String> scripts)
+    throws SnippetException
+  {
+    // Each node is included once
+    if (paths.contains(path))
+    {
+      return;
+    }
+    else if (!pending.add(path))
+    {
+      throw new SnippetException("The includes of " + path
+                                 + " form a cycle");
+    }
+    
+    // Find the node
+    CodeItemNode node = ((root == null) ? null : root.findByPath(path));
+    if ((node == null) || (node == root))
+    {
+      throw new SnippetException("Included snippet not found: " + path);
+    }
+    
+    // Add its includes, then the node
+    final String script = ((node.getScript() == null) ? ""
+                           : node.getScript());
+    for (String child : getPaths(script))
+    {
+      add(root, child, pending, paths, scripts);
+    }
+    
+    pending.remove(path);
+    paths.add(path);
+    scripts.add(script);
+  }
+  
+  
+  /**
+   * Return the paths named by the include directives in a snippet.
+   * 
+   * @param script the snippet
+   * @return the paths, in order
+   */
+  public static List<String> getPaths(final String script)
+  {
+    List<String> list = new ArrayList<String>(2);
+    if (script == null)
+    {
+      return list;
+    }
+    
+    for (String line : script.split("\\r?\\n"))
+    {
+      final String text = line.trim();
+      if (text.startsWith(DIRECTIVE))
+      {
+        final String path = text.substring(DIRECTIVE.length()).trim();
+        if (path.length() > 0)
+        {
+          list.add(path);
+        }
+      }
+    }
+    
+    return list;
+  }
+  
+  
+  /**
+   * Return whether there are no includes.
+   * 
+   * @return whether there are no includes
+   */
+  public boolean isEmpty()
+  {
+    return paths.isEmpty();
+  }
+  
+  
+  /**
+   * Return the paths of the included nodes.
+   * 
+   * @return the paths, in the order they run
+   */
+  public List<String> getPaths()
+  {
+    return paths;
+  }
+  
+  
+  /**
+   * Return the scripts of the included nodes.
+   * 
+   * @return the scripts, in the order they run
+   */
+  public List<String> getScripts()
+  {
+    return scripts;
+  }
+  
+  
+  /**
+   * Return a key that changes when any included node's path or
+   * script changes.
+   * 
+   * @return the key
+   */
+  public String getKey()
+  {
+    StringBuilder sb = new StringBuilder(1000);
+    for (int i = 0; i < paths.size(); ++i)
+    {
+      sb.append(paths.get(i)).append('\n');
+      sb.append(scripts.get(i).length()).append('\n');
+      sb.append(scripts.get(i)).append('\n');
+    }
+    
+    return ScriptHash.of(sb.toString());
+  }
+  
+  
+  /**
+   * Return the snippet with the included scripts placed before it,
+   * for engines that have no namespace to keep them in.
+   * 
+   * @param script the snippet
+   * @return the expanded snippet
+   */
+  public String expand(final String script)
+  {
+    StringBuilder sb = new StringBuilder(script.length() + 1000);
+    for (String include : scripts)
+    {
+      sb.append(include).append('\n');
+    }
+    sb.append(script);
+    return sb.toString();
+  }
+}
@@ -0,0 +1,368 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The parameters declared in a snippet for a parameter sweep.
+ * A line of the form
+ * 
+ *   //@param n = 1000, 10000, 100000
+ * 
+ * declares a parameter and the values to run the snippet with.
+ * Each value is a Java expression, such as a number or a quoted
+ * string.  A sweep runs the snippet once for each combination of
+ * the values, with each directive replaced by a declaration of
+ * its parameter, so the line numbers of errors are unchanged.
+ * 
+ * Snippets compiled by javac must be statements, not a class,
+ * since the parameters are declared as local variables.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class ScriptParams
+{
+  /**
+   * The parameter directive.
+   */
+  public static final String DIRECTIVE = "//@param";
+  
+  /**
+   * The most combinations a sweep may have.
+   */
+  public static final int MAX_COMBINATIONS = 10000;
+  
+  /**
+   * The parameter names, in the order they are declared.
+   */
+  private List<String> names = null;
+  
+  /**
+   * The values of each parameter, in the same order as the names.
+   */
+  private List<List<String>> values = null;
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param paramNames the parameter names
+   * @param paramValues the values of each parameter
+   */
+  private ScriptParams(final List<String> paramNames,
+                       final List<List<String>> paramValues)
+  {
+    super();
+    names = paramNames;
+    values = paramValues;
+  }
+  
+  
+  /**
+   * Parse the parameter directives of a snippet.
+   * 
+   * @param script the snippet
+   * @return the parameters, which are empty if there are none
+   * @throws SnippetException a directive is malformed, a parameter
+   *         is declared twice, or there are too many combinations
+   */
+  public static ScriptParams parse(final String script)
+    throws SnippetException
+  {
+    List<String> names = new ArrayList<String>(2);
+    List<List<String>> values = new ArrayList<List<String>>(2);
+    long combinations = 1L;
+    for (String line : splitLines(script))
+    {
+      final String text = line.trim();
+      if (!text.startsWith(DIRECTIVE))
+      {
+        continue;
+      }
+      
+      // Split the name from the values
+      final String decl = text.substring(DIRECTIVE.length());
+      final int eq = decl.indexOf('=');
+      final String name = ((eq < 0) ? "" : decl.substring(0, eq).trim());
+      if (!isIdentifier(name))
+      {
+        throw new SnippetException("Expected " + DIRECTIVE
+            + " name = value, value, ... but found: " + text);
+      }
+      else if (names.contains(name))
+      {
+        throw new SnippetException("Parameter " + name
+                                   + " is declared twice");
+      }
+      
+      final List<String> list = splitValues(decl.substring(eq + 1));
+      if (list.isEmpty())
+      {
+        throw new SnippetException("Parameter " + name + " has no values");
+      }
+      
+      combinations *= list.size();
+      if (combinations > MAX_COMBINATIONS)
+      {
+        throw new SnippetException("The parameters have more than "
+            + MAX_COMBINATIONS + " combinations");
+      }
+      
+      names.add(name);
+      values.add(list);
+    }
+    
+    return new ScriptParams(names, values);
+  }
+  
+  
+  /**
+   * Split a script into lines.
+   * 
+   * @param script the script (may be null)
+   * @return the lines
+   */
+  private static String[] splitLines(final String script)
+  {
+    return ((script == null) ? new String[0] : script.split("\\r?\\n", -1));
+  }
+  
+  
+  /**
+   * Return whether a string is a Java identifier.
+   * 
+   * @param name the string
+   * @return whether it's an identifier
+   */
+  private static boolean isIdentifier(final String name)
+  {
+    if ((name.length() == 0)
+        || !Character.isJavaIdentifierStart(name.charAt(0)))
+    {
+      return false;
+    }
+    
+    for (int i = 1; i < name.length(); ++i)
+    {
+      if (!Character.isJavaIdentifierPart(name.charAt(i)))
+      {
+        return false;
+      }
+    }
+    
+    return true;
+  }
+  
+  
+  /**
+   * Split a list of values on the commas that are not inside
+   * quotes, brackets or parentheses.
+   * 
+   * @param text the values
+   * @return the values, trimmed, with blank ones skipped
+   */
+  private static List<String> splitValues(final String text)
+  {
+    List<String> list = new ArrayList<String>(8);
+    int depth = 0;
+    char quote = 0;
+    int start = 0;
+    for (int i = 0; i <= text.length(); ++i)
+    {
+      final char ch = ((i < text.length()) ? text.charAt(i) : ',');
+      if (quote != 0)
+      {
+        // Skip escaped characters, and look for the closing quote
+        if (ch == '\\')
+        {
+          ++i;
+        }
+        else if (ch == quote)
+        {
+          quote = 0;
+        }
+      }
+      else if ((ch == '"') || (ch == '\''))
+      {
+        quote = ch;
+      }
+      else if ((ch == '(') || (ch == '[') || (ch == '{'))
+      {
+        ++depth;
+      }
+      else if ((ch == ')') || (ch == ']') || (ch == '}'))
+      {
+        --depth;
+      }
+      else if ((ch == ',') && (depth <= 0))
+      {
+        final String value = text.substring(start, i).trim();
+        if (value.length() > 0)
+        {
+          list.add(value);
+        }
+        start = i + 1;
+      }
+    }
+    
+    return list;
+  }
+  
+  
+  /**
+   * Return whether the snippet declares no parameters.
+   * 
+   * @return whether there are no parameters
+   */
+  public boolean isEmpty()
+  {
+    return names.isEmpty();
+  }
+  
+  
+  /**
+   * Return the parameter names.
+   * 
+   * @return the names, in the order they are declared
+   */
+  public List<String> getNames()
+  {
+    return Collections.unmodifiableList(names);
+  }
+  
+  
+  /**
+   * Return every combination of the parameter values.  The last
+   * parameter varies fastest.
+   * 
+   * @return the combinations, each holding one value per parameter
+   */
+  public List<String[]> getCombinations()
+  {
+    List<String[]> list = new ArrayList<String[]>();
+    if (names.isEmpty())
+    {
+      return list;
+    }
+    
+    // Count through the combinations like an odometer
+    final int[] index = new int[names.size()];
+    while (true)
+    {
+      String[] combination = new String[index.length];
+      for (int i = 0; i < index.length; ++i)
+      {
+        combination[i] = values.get(i).get(index[i]);
+      }
+      list.add(combination);
+      
+      int i = index.length - 1;
+      while ((i >= 0) && (++index[i] == values.get(i).size()))
+      {
+        index[i--] = 0;
+      }
+      
+      if (i < 0)
+      {
+        return list;
+      }
+    }
+  }
+  
+  
+  /**
+   * Return the snippet with each directive replaced by a
+   * declaration of its parameter.  BeanShell variables are
+   * declared untyped; other engines infer the type with var.
+   * 
+   * @param script the snippet
+   * @param combination the value of each parameter
+   * @param engineName the name of the engine that runs it
+   * @return the snippet to run
+   */
+  public String bind(final String script,
+                     final String[] combination,
+                     final String engineName)
+  {
+    final String prefix =
+      (CodeItemNode.ENGINE_BEANSHELL.equals(engineName) ? "" : "var ");
+    StringBuilder sb = new StringBuilder(script.length() + 100);
+    final String[] lines = splitLines(script);
+    for (int i = 0; i < lines.length; ++i)
+    {
+      if (i > 0)
+      {
+        sb.append('\n');
+      }
+      
+      // Replace the directive, keeping the line count
+      final String line = lines[i];
+      final String text = line.trim();
+      if (text.startsWith(DIRECTIVE))
+      {
+        final int eq = text.indexOf('=');
+        final String name = text.substring(DIRECTIVE.length(), eq).trim();
+        sb.append(prefix).append(name).append(" = ")
+          .append(combination[names.indexOf(name)]).append(';');
+      }
+      else
+      {
+        sb.append(line);
+      }
+    }
+    
+    return sb.toString();
+  }
+  
+  
+  /**
+   * Return a description of a combination, such as "n=1000, k=2".
+   * 
+   * @param combination the value of each parameter
+   * @return the description
+   */
+  public String describe(final String[] combination)
+  {
+    StringBuilder sb = new StringBuilder(50);
+    for (int i = 0; i < names.size(); ++i)
+    {
+      if (i > 0)
+      {
+        sb.append(", ");
+      }
+      sb.append(names.get(i)).append('=').append(combination[i]);
+    }
+    
+    return sb.toString();
+  }
+}
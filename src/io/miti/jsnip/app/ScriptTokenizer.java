@@ -0,0 +1,92 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Split the text of a script into word tokens.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class ScriptTokenizer
+{
+  /**
+   * Default constructor.
+   */
+  private ScriptTokenizer()
+  {
+    super();
+  }
+  
+  
+  /**
+   * Split the text into lower-case tokens.  A token is a run of
+   * letters, digits and underscores.
+   * 
+   * @param text the text to tokenize
+   * @return the list of tokens, in the order they appear
+   */
+  public static List<String> tokenize(final String text)
+  {
+    // This will hold the tokens
+    List<String> tokens = new ArrayList<String>(50);
+    if (text == null)
+    {
+      return tokens;
+    }
+    
+    // Walk the string, saving each run of word characters
+    final int len = text.length();
+    int start = -1;
+    for (int i = 0; i <= len; ++i)
+    {
+      final boolean isWordChar = (i < len)
+          && (Character.isLetterOrDigit(text.charAt(i))
+              || (text.charAt(i) == '_'));
+      if (isWordChar)
+      {
+        if (start < 0)
+        {
+          start = i;
+        }
+      }
+      else if (start >= 0)
+      {
+        tokens.add(text.substring(start, i).toLowerCase());
+        start = -1;
+      }
+    }
+    
+    // Return the tokens
+    return tokens;
+  }
+}
@@ -0,0 +1,781 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A full-text index of the node titles and scripts in a library.
+ * The index is saved in a sidecar file next to the library, along
+ * with the content hash of the library, so a library that has not
+ * changed since it was indexed can be searched without reindexing.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class SearchIndex
+{
+  /**
+   * The suffix appended to the library file name for the index file.
+   */
+  public static final String INDEX_SUFFIX = ".idx";
+  
+  /**
+   * The marker at the start of an index file ("JSIX").
+   */
+  private static final int MAGIC = 0x4A534958;
+  
+  /**
+   * The version of the index file format.
+   */
+  private static final int VERSION = 1;
+  
+  /**
+   * The shortest token that gets indexed.
+   */
+  private static final int MIN_TERM_LENGTH = 2;
+  
+  /**
+   * The content hash of the library when it was last indexed.
+   */
+  private String libraryHash = null;
+  
+  /**
+   * The indexed nodes, keyed on the node key.
+   */
+  private Map<String, Entry> entries = new HashMap<String, Entry>(500);
+  
+  /**
+   * Map of each term to the keys of the nodes containing it.
+   */
+  private TreeMap<String, Set<String>> postings =
+    new TreeMap<String, Set<String>>();
+  
+  
+  /**
+   * The index data for a single node.
+   */
+  private static final class Entry
+  {
+    /**
+     * The quick hash of the node's title and script.
+     */
+    private long hash = 0L;
+    
+    /**
+     * The terms found in the node.
+     */
+    private String[] terms = null;
+    
+    /**
+     * Constructor.
+     * 
+     * @param nodeHash the node hash
+     * @param nodeTerms the node terms
+     */
+    Entry(final long nodeHash, final String[] nodeTerms)
+    {
+      hash = nodeHash;
+      terms = nodeTerms;
+    }
+  }
+  
+  
+  /**
+   * A node that matched a search.  Titles need not be unique, so a
+   * match is the path of the node and which of the nodes with that
+   * path it is, in tree order.
+   */
+  public static final class Match implements Comparable<Match>
+  {
+    /**
+     * The path of the node.
+     */
+    private String path = null;
+    
+    /**
+     * The number of nodes before this one with the same path.
+     */
+    private int occurrence = 0;
+    
+    /**
+     * Constructor.
+     * 
+     * @param key the key of the node in the index
+     */
+    Match(final String key)
+    {
+      final int index = key.indexOf('\u0000');
+      path = ((index < 0) ? key : key.substring(0, index));
+      occurrence = ((index < 0) ? 0
+                    : Integer.parseInt(key.substring(index + 1)));
+    }
+    
+    /**
+     * Return the path of the node.
+     * 
+     * @return the path
+     */
+    public String getPath()
+    {
+      return path;
+    }
+    
+    /**
+     * Find the matching node in a tree.
+     * 
+     * @param root the root of the tree
+     * @return the node, or null if it is no longer in the tree
+     */
+    public CodeItemNode find(final CodeItemNode root)
+    {
+      // Count the nodes with the path in the order Snapshot does
+      int count = 0;
+      Enumeration<?> nodes = root.preorderEnumeration();
+      while (nodes.hasMoreElements())
+      {
+        final CodeItemNode node = (CodeItemNode) nodes.nextElement();
+        if (node.getPathName().equals(path) && (count++ == occurrence))
+        {
+          return node;
+        }
+      }
+      
+      return null;
+    }
+    
+    /**
+     * Compare to another match, by path and then occurrence.
+     * 
+     * @param other the other match
+     * @return the comparison
+     */
+    public int compareTo(final Match other)
+    {
+      final int cmp = path.compareTo(other.path);
+      return ((cmp != 0) ? cmp : (occurrence - other.occurrence));
+    }
+    
+    /**
+     * Check if another object is an equal match.
+     * 
+     * @param obj the other object
+     * @return whether they're equal
+     */
+    @Override
+    public boolean equals(final Object obj)
+    {
+      return ((obj instanceof Match) && (compareTo((Match) obj) == 0));
+    }
+    
+    /**
+     * Return the hash code.
+     * 
+     * @return the hash code
+     */
+    @Override
+    public int hashCode()
+    {
+      return (path.hashCode() * 31) + occurrence;
+    }
+    
+    /**
+     * Return the text shown for the match.  Nodes after the first
+     * with the same path get their number appended.
+     * 
+     * @return the text shown for the match
+     */
+    @Override
+    public String toString()
+    {
+      return ((occurrence == 0) ? path
+              : (path + " (" + (occurrence + 1) + ")"));
+    }
+  }
+  
+  
+  /**
+   * The keys and the text of the nodes in a tree, copied on the
+   * Swing event thread so the index can be updated on another
+   * thread while the user edits the tree.
+   */
+  public static final class Snapshot
+  {
+    /**
+     * The key of each node.
+     */
+    private List<String> keys = null;
+    
+    /**
+     * The title and script of each node.
+     */
+    private List<String> texts = null;
+    
+    
+    /**
+     * Constructor.
+     * 
+     * @param root the root node of the tree
+     */
+    public Snapshot(final CodeItemNode root)
+    {
+      keys = new ArrayList<String>(500);
+      texts = new ArrayList<String>(500);
+      
+      // The number of times each path has been seen (titles
+      // need not be unique)
+      Map<String, Integer> pathCounts = new HashMap<String, Integer>(100);
+      
+      // Iterate over all nodes in the tree
+      Enumeration<?> nodes = root.preorderEnumeration();
+      while (nodes.hasMoreElements())
+      {
+        // Get the node and its key
+        final CodeItemNode node = (CodeItemNode) nodes.nextElement();
+        final String path = node.getPathName();
+        final Integer pathCount = pathCounts.get(path);
+        final int occurrence = ((pathCount == null) ? 0
+                                : pathCount.intValue());
+        pathCounts.put(path, Integer.valueOf(occurrence + 1));
+        keys.add((occurrence == 0) ? path
+                 : (path + '\u0000' + occurrence));
+        texts.add(node.getUserObject() + "\n"
+                  + ((node.getScript() == null) ? "" : node.getScript()));
+      }
+    }
+  }
+  
+  
+  /**
+   * Default constructor.
+   */
+  public SearchIndex()
+  {
+    super();
+  }
+  
+  
+  /**
+   * Open the index for a library.  If the index file is current, it
+   * is used as-is.  Otherwise, any nodes that changed since the index
+   * was written are reindexed and the index file is rewritten.
+   * 
+   * @param libFile the library file
+   * @param root the root node of the library
+   * @return the index
+   */
+  public static SearchIndex open(final File libFile,
+                                 final CodeItemNode root)
+  {
+    // Create the index
+    SearchIndex index = new SearchIndex();
+    
+    // Get the content hash of the library
+    String hash = null;
+    try
+    {
+      hash = ScriptHash.of(libFile);
+    }
+    catch (IOException ioe)
+    {
+      System.err.println("Unable to hash the library: " + ioe.getMessage());
+    }
+    
+    // Load the index; if it's stale, update and save it
+    if (!index.load(getIndexFile(libFile), hash))
+    {
+      index.update(root);
+      index.save(libFile);
+    }
+    
+    // Return the index
+    return index;
+  }
+  
+  
+  /**
+   * Return the index file for a library file.
+   * 
+   * @param libFile the library file
+   * @return the index file
+   */
+  public static File getIndexFile(final File libFile)
+  {
+    return new File(libFile.getPath() + INDEX_SUFFIX);
+  }
+  
+  
+  /**
+   * Bring the index up to date with the tree.  Only nodes
+   * whose title or script changed are reindexed.  The tree must
+   * not change while this runs; use a Snapshot of a tree that's
+   * shown to the user.
+   * 
+   * @param root the root node of the tree
+   * @return the number of nodes that were reindexed
+   */
+  public int update(final CodeItemNode root)
+  {
+    return update(new Snapshot(root));
+  }
+  
+  
+  /**
+   * Bring the index up to date with a snapshot of the tree.  Only
+   * nodes whose title or script changed are reindexed.
+   * 
+   * @param snapshot the snapshot of the tree
+   * @return the number of nodes that were reindexed
+   */
+  public synchronized int update(final Snapshot snapshot)
+  {
+    // The number of reindexed nodes
+    int count = 0;
+    
+    // The keys of the nodes in the tree
+    Set<String> seen = new HashSet<String>(entries.size() + 10);
+    
+    // Iterate over all nodes in the tree
+    final int numNodes = snapshot.keys.size();
+    for (int i = 0; i < numNodes; ++i)
+    {
+      // Get the node's key
+      final String key = snapshot.keys.get(i);
+      seen.add(key);
+      
+      // Check if the node changed since it was indexed
+      final String text = snapshot.texts.get(i);
+      final long hash = ScriptHash.quick(text);
+      final Entry entry = entries.get(key);
+      if ((entry != null) && (entry.hash == hash))
+      {
+        continue;
+      }
+      
+      // Reindex the node
+      removeEntry(key);
+      addEntry(key, new Entry(hash, getTerms(text)));
+      ++count;
+    }
+    
+    // Remove any nodes no longer in the tree
+    Iterator<String> keys = entries.keySet().iterator();
+    while (keys.hasNext())
+    {
+      final String key = keys.next();
+      if (!seen.contains(key))
+      {
+        removePostings(key, entries.get(key));
+        keys.remove();
+        ++count;
+      }
+    }
+    
+    // The library no longer matches the saved hash
+    if (count > 0)
+    {
+      libraryHash = null;
+    }
+    
+    return count;
+  }
+  
+  
+  /**
+   * Search the index.  A node matches if, for every word in the
+   * query, the node contains a term starting with that word.
+   * 
+   * @param query the search string
+   * @return the matching nodes, sorted by path
+   */
+  public synchronized List<Match> search(final String query)
+  {
+    // The set of matching keys
+    Set<String> matches = null;
+    
+    // Intersect the matches for each word in the query
+    for (String word : ScriptTokenizer.tokenize(query))
+    {
+      // Collect all nodes with a term starting with the word
+      Set<String> wordMatches = new HashSet<String>(100);
+      SortedMap<String, Set<String>> range =
+        postings.subMap(word, word + Character.MAX_VALUE);
+      for (Set<String> keys : range.values())
+      {
+        wordMatches.addAll(keys);
+      }
+      
+      // Intersect with the previous matches
+      if (matches == null)
+      {
+        matches = wordMatches;
+      }
+      else
+      {
+        matches.retainAll(wordMatches);
+      }
+      
+      // Stop early if nothing matches
+      if (matches.isEmpty())
+      {
+        break;
+      }
+    }
+    
+    // Check for no matches
+    if (matches == null)
+    {
+      return Collections.emptyList();
+    }
+    
+    // Convert the keys to matches
+    Set<Match> sorted = new TreeSet<Match>();
+    for (String key : matches)
+    {
+      sorted.add(new Match(key));
+    }
+    
+    return new ArrayList<Match>(sorted);
+  }
+  
+  
+  /**
+   * Load the index file.  The file is read into a heap buffer
+   * rather than mapped, since a mapping is only released when it's
+   * garbage collected, and on Windows a mapped file can't be
+   * rewritten by save().
+   * 
+   * @param indexFile the index file
+   * @param expectedHash the current content hash of the library
+   * @return whether the index was loaded and matches the library
+   */
+  private synchronized boolean load(final File indexFile,
+                                    final String expectedHash)
+  {
+    // Check that the file exists
+    if (!indexFile.isFile())
+    {
+      return false;
+    }
+    
+    FileInputStream in = null;
+    try
+    {
+      // Read the file into memory
+      in = new FileInputStream(indexFile);
+      FileChannel channel = in.getChannel();
+      if (channel.size() > Integer.MAX_VALUE)
+      {
+        return false;
+      }
+      
+      ByteBuffer buf = ByteBuffer.allocate((int) channel.size());
+      int numRead = 0;
+      while (buf.hasRemaining() && (numRead >= 0))
+      {
+        numRead = channel.read(buf);
+      }
+      
+      buf.flip();
+      
+      // Check the header
+      if ((buf.getInt() != MAGIC) || (buf.getInt() != VERSION))
+      {
+        return false;
+      }
+      
+      // Read the library hash and the entries
+      final String hash = readString(buf);
+      final int numEntries = buf.getInt();
+      for (int i = 0; i < numEntries; ++i)
+      {
+        final String key = readString(buf);
+        final long nodeHash = buf.getLong();
+        final String[] terms = new String[checkLength(buf, 4)];
+        for (int j = 0; j < terms.length; ++j)
+        {
+          terms[j] = readString(buf);
+        }
+        
+        addEntry(key, new Entry(nodeHash, terms));
+      }
+      
+      // Save the hash if it's still current
+      libraryHash = (hash.equals(expectedHash) ? hash : null);
+    }
+    catch (IOException ioe)
+    {
+      System.err.println("Unable to read the index: " + ioe.getMessage());
+    }
+    catch (BufferUnderflowException bue)
+    {
+      System.err.println("The index file is corrupt");
+    }
+    finally
+    {
+      if (in != null)
+      {
+        try
+        {
+          in.close();
+        }
+        catch (IOException ioe)
+        {
+          System.err.println(ioe.getMessage());
+        }
+        
+        in = null;
+      }
+    }
+    
+    // The index is current only if the hash matched
+    return (libraryHash != null);
+  }
+  
+  
+  /**
+   * Write the index file for a library.  This should be called
+   * after the library is written, so the saved hash matches.
+   * 
+   * @param libFile the library file
+   */
+  public synchronized void save(final File libFile)
+  {
+    DataOutputStream out = null;
+    try
+    {
+      // Get the current hash of the library
+      libraryHash = ScriptHash.of(libFile);
+      
+      // Open the index file
+      out = new DataOutputStream(new BufferedOutputStream(
+          new FileOutputStream(getIndexFile(libFile))));
+      
+      // Write the header
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      writeString(out, libraryHash);
+      
+      // Write the entries
+      out.writeInt(entries.size());
+      for (Map.Entry<String, Entry> entry : entries.entrySet())
+      {
+        writeString(out, entry.getKey());
+        out.writeLong(entry.getValue().hash);
+        out.writeInt(entry.getValue().terms.length);
+        for (String term : entry.getValue().terms)
+        {
+          writeString(out, term);
+        }
+      }
+      
+      // Close the stream
+      out.close();
+      out = null;
+    }
+    catch (IOException ioe)
+    {
+      System.err.println("Unable to write the index: " + ioe.getMessage());
+    }
+    finally
+    {
+      if (out != null)
+      {
+        try
+        {
+          out.close();
+        }
+        catch (IOException ioe)
+        {
+          System.err.println(ioe.getMessage());
+        }
+        
+        out = null;
+      }
+    }
+  }
+  
+  
+  /**
+   * Return the distinct terms in a string.
+   * 
+   * @param text the text to split into terms
+   * @return the array of terms
+   */
+  private static String[] getTerms(final String text)
+  {
+    Set<String> terms = new HashSet<String>(100);
+    for (String token : ScriptTokenizer.tokenize(text))
+    {
+      if (token.length() >= MIN_TERM_LENGTH)
+      {
+        terms.add(token);
+      }
+    }
+    
+    return terms.toArray(new String[terms.size()]);
+  }
+  
+  
+  /**
+   * Add an entry to the index.
+   * 
+   * @param key the node key
+   * @param entry the entry
+   */
+  private void addEntry(final String key, final Entry entry)
+  {
+    entries.put(key, entry);
+    for (String term : entry.terms)
+    {
+      Set<String> keys = postings.get(term);
+      if (keys == null)
+      {
+        keys = new HashSet<String>(4);
+        postings.put(term, keys);
+      }
+      
+      keys.add(key);
+    }
+  }
+  
+  
+  /**
+   * Remove an entry from the index.
+   * 
+   * @param key the node key
+   */
+  private void removeEntry(final String key)
+  {
+    final Entry entry = entries.remove(key);
+    if (entry != null)
+    {
+      removePostings(key, entry);
+    }
+  }
+  
+  
+  /**
+   * Remove the postings for an entry.
+   * 
+   * @param key the node key
+   * @param entry the entry
+   */
+  private void removePostings(final String key, final Entry entry)
+  {
+    for (String term : entry.terms)
+    {
+      Set<String> keys = postings.get(term);
+      if (keys != null)
+      {
+        keys.remove(key);
+        if (keys.isEmpty())
+        {
+          postings.remove(term);
+        }
+      }
+    }
+  }
+  
+  
+  /**
+   * Write a string as its length and UTF-8 bytes.
+   * 
+   * @param out the output stream
+   * @param str the string to write
+   * @throws IOException error writing the string
+   */
+  private static void writeString(final DataOutputStream out,
+                                  final String str)
+    throws IOException
+  {
+    final byte[] bytes = str.getBytes("UTF-8");
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+  
+  
+  /**
+   * Read a string written by writeString().
+   * 
+   * @param buf the buffer to read from
+   * @return the string
+   * @throws IOException error reading the string
+   */
+  private static String readString(final ByteBuffer buf)
+    throws IOException
+  {
+    final byte[] bytes = new byte[checkLength(buf, 1)];
+    buf.get(bytes);
+    return new String(bytes, "UTF-8");
+  }
+  
+  
+  /**
+   * Read a count of items from the buffer, and check that it's
+   * not negative and that the rest of the buffer can hold that
+   * many items.
+   * 
+   * @param buf the buffer to read from
+   * @param itemSize the minimum size of each item, in bytes
+   * @return the count
+   * @throws IOException the count is invalid
+   */
+  private static int checkLength(final ByteBuffer buf, final int itemSize)
+    throws IOException
+  {
+    final int length = buf.getInt();
+    if ((length < 0) || (length > (buf.remaining() / itemSize)))
+    {
+      throw new IOException("The index file is corrupt");
+    }
+    
+    return length;
+  }
+}
@@ -126,6 +126,106 @@ public final class SnippetActionHandler extends AbstractAction
    */
   public static final int RENAME_TO_DATE_TIME = 16;
   
+  /**
+   * Search the tree for a node.
+   */
+  public static final int FIND_NODE = 17;
+  
+  /**
+   * Search the tree for near-duplicate scripts.
+   */
+  public static final int FIND_DUPLICATES = 18;
+  
+  /**
+   * Turn the persistent interpreter session on or off.
+   */
+  public static final int PERSISTENT_SESSION = 19;
+  
+  /**
+   * Discard the persistent interpreter session.
+   */
+  public static final int RESET_SESSION = 20;
+  
+  /**
+   * Have the node use its parent's engine.
+   */
+  public static final int ENGINE_INHERIT = 21;
+  
+  /**
+   * Have the node run with the engine named by the action command.
+   */
+  public static final int ENGINE_SELECT = 22;
+  
+  /**
+   * Show the engine statistics.
+   */
+  public static final int ENGINE_STATS = 23;
+  
+  /**
+   * Run every snippet under the selected node.
+   */
+  public static final int RUN_SUBTREE = 24;
+  
+  /**
+   * Turn running snippets in a worker JVM on or off.
+   */
+  public static final int SEPARATE_JVM = 25;
+  
+  /**
+   * Show the run history.
+   */
+  public static final int RUN_HISTORY = 26;
+  
+  /**
+   * Benchmark the current script.
+   */
+  public static final int BENCHMARK = 27;
+  
+  /**
+   * Mark the selected node for comparison.
+   */
+  public static final int MARK_COMPARE = 28;
+  
+  /**
+   * Compare the selected node with the marked node.
+   */
+  public static final int COMPARE_MARKED = 29;
+  
+  /**
+   * Set the limits on each run.
+   */
+  public static final int RUN_LIMITS = 30;
+  
+  /**
+   * Set the class path of the selected node.
+   */
+  public static final int CLASS_PATH = 31;
+  
+  /**
+   * Run the selected text.
+   */
+  public static final int RUN_SELECTION = 32;
+  
+  /**
+   * Run the lines added since the last run.
+   */
+  public static final int RUN_NEW_LINES = 33;
+  
+  /**
+   * Run a snippet over every combination of its parameters.
+   */
+  public static final int PARAM_SWEEP = 34;
+  
+  /**
+   * Run a snippet with its stacks sampled.
+   */
+  public static final int PROFILE = 35;
+  
+  /**
+   * Turn flight recording of runs on or off.
+   */
+  public static final int FLIGHT_RECORDING = 36;
+  
   /**
    * Constant for renaming a node to the clipboard string.
    */
@@ -274,6 +374,86 @@ public final class SnippetActionHandler extends AbstractAction
       case RENAME_TO_DATE_TIME:
         handler.renameNodeTo(NODE_NAME_DATE_TIME);
         break;
+        
+      case FIND_NODE:
+        handler.findNode();
+        break;
+        
+      case FIND_DUPLICATES:
+        handler.findDuplicates();
+        break;
+        
+      case PERSISTENT_SESSION:
+        handler.togglePersistentSession();
+        break;
+        
+      case RESET_SESSION:
+        handler.resetSession();
+        break;
+        
+      case ENGINE_INHERIT:
+        handler.setNodeEngine(null);
+        break;
+        
+      case ENGINE_SELECT:
+        handler.setNodeEngine(evt.getActionCommand());
+        break;
+        
+      case ENGINE_STATS:
+        handler.showEngineStats();
+        break;
+        
+      case RUN_SUBTREE:
+        handler.runSubtree();
+        break;
+        
+      case SEPARATE_JVM:
+        handler.toggleSeparateJvm();
+        break;
+        
+      case RUN_HISTORY:
+        handler.showRunHistory();
+        break;
+        
+      case BENCHMARK:
+        handler.benchmarkScript();
+        break;
+        
+      case MARK_COMPARE:
+        handler.markForCompare();
+        break;
+        
+      case COMPARE_MARKED:
+        handler.compareWithMarked();
+        break;
+        
+      case RUN_LIMITS:
+        handler.editRunLimits();
+        break;
+        
+      case CLASS_PATH:
+        handler.editNodeClassPath();
+        break;
+        
+      case RUN_SELECTION:
+        handler.execSelection();
+        break;
+        
+      case RUN_NEW_LINES:
+        handler.execNewLines();
+        break;
+        
+      case PARAM_SWEEP:
+        handler.sweepScript();
+        break;
+        
+      case PROFILE:
+        handler.profileScript();
+        break;
+        
+      case FLIGHT_RECORDING:
+        handler.toggleFlightRecording();
+        break;
       
       default:
         throw new RuntimeException("Unhandled event type");
@@ -0,0 +1,101 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+/**
+ * Interface for the engines that run snippets.  Each engine is
+ * registered under a name in the EngineRegistry, and keeps
+ * statistics on its startup cost and throughput.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public interface SnippetEngine
+{
+  /**
+   * Return the name the engine is stored under on a node.
+   * 
+   * @return the engine name
+   */
+  String getName();
+  
+  /**
+   * Return the name of the engine shown to the user.
+   * 
+   * @return the engine label
+   */
+  String getLabel();
+  
+  /**
+   * Start the engine, if it's not already running.  This is
+   * called before the first run, so it can be called early to
+   * take the startup cost before the user runs a snippet.
+   * 
+   * @throws SnippetException the engine could not be started
+   */
+  void start() throws SnippetException;
+  
+  /**
+   * Run a snippet.
+   * 
+   * @param script the snippet
+   * @return the value returned by the snippet, or null
+   * @throws SnippetException the snippet failed to compile or run
+   */
+  Object run(String script) throws SnippetException;
+  
+  /**
+   * Prepare a snippet to be run many times.
+   * 
+   * @param script the snippet
+   * @return the prepared snippet
+   * @throws SnippetException the snippet failed to parse or compile
+   */
+  PreparedSnippet prepare(String script) throws SnippetException;
+  
+  /**
+   * Set whether the definitions made by one run are kept
+   * for the next run.
+   * 
+   * @param usePersistent whether to keep definitions between runs
+   */
+  void setPersistent(boolean usePersistent);
+  
+  /**
+   * Discard the definitions kept between runs.
+   */
+  void resetSession();
+  
+  /**
+   * Return the engine's startup and run statistics.
+   * 
+   * @return the statistics
+   */
+  EngineStats getStats();
+}
@@ -0,0 +1,633 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One execution of a snippet by an engine.  A run is created
+ * for each press of Play, and is queued on the RunManager's
+ * executor until a thread is free.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class SnippetRun implements Runnable
+{
+  /**
+   * The run is waiting for a thread.
+   */
+  public static final int QUEUED = 0;
+  
+  /**
+   * The run is executing.
+   */
+  public static final int RUNNING = 1;
+  
+  /**
+   * The run completed normally.
+   */
+  public static final int FINISHED = 2;
+  
+  /**
+   * The snippet failed to compile or threw an exception.
+   */
+  public static final int FAILED = 3;
+  
+  /**
+   * The run was stopped by the user.
+   */
+  public static final int STOPPED = 4;
+  
+  /**
+   * The names of the states, indexed by state.
+   */
+  private static final String[] STATE_NAMES =
+    {"Queued", "Running", "Finished", "Failed", "Stopped"};
+  
+  /**
+   * The source of run IDs.
+   */
+  private static final AtomicInteger NEXT_ID = new AtomicInteger(1);
+  
+  /**
+   * The run ID.
+   */
+  private final int id;
+  
+  /**
+   * The title of the run, such as the node name.
+   */
+  private String title = null;
+  
+  /**
+   * The snippet.
+   */
+  private String script = null;
+  
+  /**
+   * The engine that runs the snippet.
+   */
+  private SnippetEngine engine = null;
+  
+  /**
+   * The context the snippet runs in.
+   */
+  private RunContext context = null;
+  
+  /**
+   * The object notified of changes in state.
+   */
+  private IRunListener listener = null;
+  
+  /**
+   * The state of the run.
+   */
+  private int state = QUEUED;
+  
+  /**
+   * The thread executing the run, or null.
+   */
+  private Thread thread = null;
+  
+  /**
+   * The task on the executor, or null.
+   */
+  private Future<?> future = null;
+  
+  /**
+   * The manager the run was queued on, or null.
+   */
+  private RunManager manager = null;
+  
+  /**
+   * The value returned by the snippet.
+   */
+  private Object result = null;
+  
+  /**
+   * The error message, if the run failed.
+   */
+  private String error = null;
+  
+  /**
+   * Why the run was stopped, or null if it was stopped by the user.
+   */
+  private String stopReason = null;
+  
+  /**
+   * Whether the run was given up on while its snippet kept running.
+   */
+  private boolean abandoned = false;
+  
+  /**
+   * The time the run started, from System.nanoTime().
+   */
+  private long startNanos = 0L;
+  
+  /**
+   * The time the run ended, from System.nanoTime().
+   */
+  private long endNanos = 0L;
+  
+  /**
+   * The time the run ended, from System.currentTimeMillis().
+   */
+  private long endTime = 0L;
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param runTitle the title of the run
+   * @param runScript the snippet
+   * @param runEngine the engine that runs the snippet
+   * @param runContext the context the snippet runs in
+   * @param runListener the object notified of changes in state
+   */
+  public SnippetRun(final String runTitle,
+                    final String runScript,
+                    final SnippetEngine runEngine,
+                    final RunContext runContext,
+                    final IRunListener runListener)
+  {
+    super();
+    id = NEXT_ID.getAndIncrement();
+    title = runTitle;
+    script = runScript;
+    engine = runEngine;
+    context = runContext;
+    listener = runListener;
+  }
+  
+  
+  /**
+   * Execute the snippet.
+   */
+  public void run()
+  {
+    // Check if the run was stopped while queued
+    synchronized (this)
+    {
+      if (state != QUEUED)
+      {
+        return;
+      }
+      
+      state = RUNNING;
+      thread = Thread.currentThread();
+      startNanos = System.nanoTime();
+    }
+    
+    listener.runStarted(this);
+    
+    // Send the output of this thread, and of any threads it
+    // starts, to the run's streams
+    RunContext.setCurrent(context);
+    
+    // Record the run with the flight recorder, if asked to.  The
+    // recording starts before and ends after the run is measured,
+    // so the metrics don't include the recorder's own cost.
+    final FlightRecording recording = context.getRecording();
+    if (recording != null)
+    {
+      recording.start(Thread.currentThread());
+    }
+    
+    // Measure the cost of the run on this thread
+    final RunMetrics metrics = context.getMetrics();
+    metrics.start();
+    
+    // Have the watchdog enforce the run's limits
+    if (context.getLimits().isLimited())
+    {
+      RunWatchdog.getInstance().watch(this, Thread.currentThread(),
+                                      context.getLimits());
+    }
+    
+    // Sample the run's stacks if it's being profiled
+    final StackProfiler profiler = ((context.getProfile() == null) ? null
+        : StackProfiler.start(context.getProfile(), Thread.currentThread()));
+    
+    int endState = FINISHED;
+    try
+    {
+      result = engine.run(script);
+    }
+    catch (SnippetException se)
+    {
+      endState = FAILED;
+      error = se.getMessage();
+    }
+    catch (RuntimeException re)
+    {
+      endState = FAILED;
+      error = re.toString();
+    }
+    catch (OutOfMemoryError oome)
+    {
+      endState = FAILED;
+      error = "Out of memory";
+    }
+    catch (ThreadDeath td)
+    {
+      // The watchdog forced the run to stop.  The run is already
+      // marked as stopped.
+      endState = STOPPED;
+    }
+    catch (Throwable t)
+    {
+      // Any other error, such as a stack overflow, fails the run
+      endState = FAILED;
+      error = t.toString();
+    }
+    finally
+    {
+      if (profiler != null)
+      {
+        profiler.stop();
+      }
+      
+      RunWatchdog.getInstance().unwatch(this);
+      metrics.stop();
+      if (recording != null)
+      {
+        recording.stop();
+      }
+      
+      RunContext.setCurrent(null);
+      final boolean wasAbandoned;
+      synchronized (this)
+      {
+        // Keep the Stopped state if the run was interrupted, and
+        // replace the error caused by the interrupt with the reason
+        // for stopping, if any.  An abandoned run has already ended.
+        wasAbandoned = abandoned;
+        if (state == RUNNING)
+        {
+          state = endState;
+        }
+        else if (!abandoned)
+        {
+          error = stopReason;
+        }
+        
+        thread = null;
+        if (!abandoned)
+        {
+          endNanos = System.nanoTime();
+          endTime = System.currentTimeMillis();
+        }
+      }
+      
+      // Clear any interrupt meant for the snippet, since the
+      // executor reuses the thread
+      Thread.interrupted();
+      
+      // Always tell the listener, so the run's tab and any batch
+      // waiting on it see it end, unless it was told when the run
+      // was abandoned.  The thread that replaced this one while it
+      // was abandoned is no longer needed.
+      if (!wasAbandoned)
+      {
+        listener.runFinished(this);
+      }
+      else if (manager != null)
+      {
+        manager.abandonedRunReturned();
+      }
+    }
+  }
+  
+  
+  /**
+   * Stop the run.  A queued run is removed from the queue, and
+   * a running snippet is interrupted and its context's cancel
+   * hooks are called.
+   */
+  public void stop()
+  {
+    stop(null);
+  }
+  
+  
+  /**
+   * Stop the run, and save why it was stopped as its error.
+   * 
+   * @param reason why the run was stopped, or null
+   */
+  public void stop(final String reason)
+  {
+    boolean wasQueued = false;
+    synchronized (this)
+    {
+      if (state == QUEUED)
+      {
+        wasQueued = true;
+        if (future != null)
+        {
+          future.cancel(false);
+        }
+      }
+      else if (state == RUNNING)
+      {
+        thread.interrupt();
+      }
+      else
+      {
+        return;
+      }
+      
+      state = STOPPED;
+      stopReason = reason;
+      if (wasQueued)
+      {
+        error = reason;
+      }
+      endTime = System.currentTimeMillis();
+    }
+    
+    // A running snippet notifies the listener when it returns
+    if (wasQueued)
+    {
+      listener.runFinished(this);
+    }
+    else
+    {
+      context.cancel();
+    }
+  }
+  
+  
+  /**
+   * Force a snippet that ignored being stopped to end, by
+   * throwing ThreadDeath in its thread.  This is a last resort:
+   * locks held by the snippet are released part way through its
+   * work, and newer JVMs no longer support it.  It's only used for
+   * runs in a worker JVM, where the thread is waiting on the
+   * worker and holds none of this JVM's shared state.
+   * 
+   * @return whether the thread was sent ThreadDeath
+   */
+  @SuppressWarnings("deprecation")
+  synchronized boolean forceStop()
+  {
+    // Check that the snippet is still running after being stopped
+    if ((state != STOPPED) || (thread == null))
+    {
+      return false;
+    }
+    
+    try
+    {
+      thread.stop();
+      return true;
+    }
+    catch (UnsupportedOperationException uoe)
+    {
+      return false;
+    }
+    catch (SecurityException se)
+    {
+      return false;
+    }
+  }
+  
+  
+  /**
+   * Give up on a snippet that ignored being stopped.  The run is
+   * reported as ended, so its tab and any batch waiting on it move
+   * on, but the snippet's thread is left running, since stopping it
+   * by force could leave the interpreter pool or the caches broken.
+   * The run manager adds a thread in its place until it returns.
+   * 
+   * @return whether the run was abandoned
+   */
+  boolean abandon()
+  {
+    synchronized (this)
+    {
+      // Check that the snippet is still running after being stopped
+      if ((state != STOPPED) || (thread == null) || abandoned)
+      {
+        return false;
+      }
+      
+      abandoned = true;
+      error = ((stopReason == null) ? "" : (stopReason + "; "))
+        + "the snippet ignored being stopped, and was left running";
+      endNanos = System.nanoTime();
+      endTime = System.currentTimeMillis();
+      if (manager != null)
+      {
+        manager.runAbandoned();
+      }
+    }
+    
+    listener.runFinished(this);
+    return true;
+  }
+  
+  
+  /**
+   * Save the task on the executor, so a queued run can be
+   * cancelled.
+   * 
+   * @param task the task
+   */
+  synchronized void setFuture(final Future<?> task)
+  {
+    future = task;
+  }
+  
+  
+  /**
+   * Save the manager the run is queued on, so it can replace the
+   * run's thread if the run is abandoned.
+   * 
+   * @param runManager the manager
+   */
+  synchronized void setManager(final RunManager runManager)
+  {
+    manager = runManager;
+  }
+  
+  
+  /**
+   * Return the run ID.
+   * 
+   * @return the run ID
+   */
+  public int getId()
+  {
+    return id;
+  }
+  
+  
+  /**
+   * Return the title of the run.
+   * 
+   * @return the title
+   */
+  public String getTitle()
+  {
+    return title;
+  }
+  
+  
+  /**
+   * Return the engine that runs the snippet.
+   * 
+   * @return the engine
+   */
+  public SnippetEngine getEngine()
+  {
+    return engine;
+  }
+  
+  
+  /**
+   * Return the context the snippet runs in.
+   * 
+   * @return the run context
+   */
+  public RunContext getContext()
+  {
+    return context;
+  }
+  
+  
+  /**
+   * Return the state of the run.
+   * 
+   * @return the state
+   */
+  public synchronized int getState()
+  {
+    return state;
+  }
+  
+  
+  /**
+   * Return the name of the state of the run.
+   * 
+   * @return the state name
+   */
+  public synchronized String getStateName()
+  {
+    return STATE_NAMES[state];
+  }
+  
+  
+  /**
+   * Return whether the run is queued or running.
+   * 
+   * @return whether the run has not ended
+   */
+  public synchronized boolean isActive()
+  {
+    return ((state == QUEUED) || (state == RUNNING));
+  }
+  
+  
+  /**
+   * Return the value returned by the snippet.
+   * 
+   * @return the result, or null
+   */
+  public Object getResult()
+  {
+    return result;
+  }
+  
+  
+  /**
+   * Return the error message, if the run failed.
+   * 
+   * @return the error message, or null
+   */
+  public String getError()
+  {
+    return error;
+  }
+  
+  
+  /**
+   * Return the cost of the run.
+   * 
+   * @return the run metrics
+   */
+  public RunMetrics getMetrics()
+  {
+    return context.getMetrics();
+  }
+  
+  
+  /**
+   * Return the CPU time used by the thread that ran the snippet.
+   * Threads started by the snippet are not counted.
+   * 
+   * @return the CPU time in milliseconds, or -1 if the run has
+   *         not ended or the JVM does not measure it
+   */
+  public long getCpuMillis()
+  {
+    final long cpuNanos = context.getMetrics().getCpuNanos();
+    return ((cpuNanos < 0L) ? -1L : (cpuNanos / 1000000L));
+  }
+  
+  
+  /**
+   * Return the time the run ended.
+   * 
+   * @return the end time, from System.currentTimeMillis()
+   */
+  public synchronized long getEndTime()
+  {
+    return endTime;
+  }
+  
+  
+  /**
+   * Return the wall-clock time of the run so far.
+   * 
+   * @return the elapsed time in milliseconds
+   */
+  public synchronized long getElapsedMillis()
+  {
+    if (state == QUEUED)
+    {
+      return 0L;
+    }
+    
+    final long end = ((thread != null) ? System.nanoTime() : endNanos);
+    return ((end - startNanos) / 1000000L);
+  }
+}
@@ -0,0 +1,612 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Runs snippets for other local programs, such as an editor
+ * plugin or a test harness, so each call doesn't pay for starting
+ * a JVM and an interpreter.  The server listens on the loopback
+ * address only.  Any program on this machine can connect and run
+ * code as the user who started the server, so each connection
+ * must first prove it can read a token the server writes to a
+ * file only the user can read, ~/.jsnip/server-PORT.token.
+ * 
+ * The protocol is the one the worker JVM uses.  Once connected,
+ * the client sends a REQ_AUTH frame (the token).  If the token is
+ * right it receives a READY frame, and otherwise the connection
+ * is closed.  The client then sends requests:
+ * 
+ *   REQ_RUN (engine name, class path, script) runs a script
+ *   REQ_RUN_NODE (path, engine name) runs a node of the library
+ *   REQ_QUIT closes the connection
+ * 
+ * Each request is answered with the OUT and ERR frames written by
+ * the snippet as it runs, then a RESULT or FAILED frame.  An
+ * engine name of "" uses the default engine, or the node's.
+ * Requests on one connection run in order.  Requests from all
+ * the connections share a RunManager, so at most its number of
+ * snippets run at once and the rest wait in its queue.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class SnippetServer
+{
+  /**
+   * The default port.
+   */
+  public static final int DEFAULT_PORT = 7397;
+  
+  /**
+   * Request frame: run a node of the library (path, engine name).
+   * The other frame types are defined in WorkerMain.
+   */
+  public static final int REQ_RUN_NODE = 3;
+  
+  /**
+   * Request frame: the first frame from a client (token).
+   */
+  public static final int REQ_AUTH = 4;
+  
+  /**
+   * The number of random bytes in the token.
+   */
+  private static final int TOKEN_BYTES = 32;
+  
+  /**
+   * The library file, or null if there isn't one.
+   */
+  private File file = null;
+  
+  /**
+   * The root of the library, or null if it has not been read.
+   */
+  private CodeItemNode root = null;
+  
+  /**
+   * The time the library file was last modified when it was read.
+   */
+  private long loadedTime = 0L;
+  
+  /**
+   * The engines.
+   */
+  private EngineRegistry engines = null;
+  
+  /**
+   * The threads that run the snippets.
+   */
+  private RunManager runManager = null;
+  
+  /**
+   * The limits on each run.
+   */
+  private RunLimits limits = null;
+  
+  /**
+   * The socket the server listens on.
+   */
+  private ServerSocket serverSocket = null;
+  
+  /**
+   * The token clients must send before making requests.
+   */
+  private byte[] token = null;
+  
+  /**
+   * The file the token is written to.
+   */
+  private File tokenFile = null;
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param libraryFile the library file, or null if only scripts
+   *                    will be run
+   * @param numThreads the number of snippets that can run at once
+   * @param runLimits the limits on each run
+   */
+  public SnippetServer(final File libraryFile,
+                       final int numThreads,
+                       final RunLimits runLimits)
+  {
+    super();
+    file = libraryFile;
+    limits = runLimits;
+    engines = EngineRegistry.createDefault();
+    runManager = new RunManager(numThreads);
+  }
+  
+  
+  /**
+   * Read the library, warm up the default engine, start
+   * listening, and write the token file.
+   * 
+   * @param port the port, or 0 for any free port
+   * @throws IOException the library could not be read, the port
+   *                     could not be opened, or the token file
+   *                     could not be written
+   */
+  public void start(final int port) throws IOException
+  {
+    // Check the library can be read before clients depend on it
+    if (file != null)
+    {
+      getLibrary();
+    }
+    
+    // Send the snippets' output to the connection that ran them
+    RoutingPrintStream.install();
+    
+    // Pay the engine's startup cost before the first request
+    try
+    {
+      engines.getDefaultEngine().start();
+    }
+    catch (SnippetException se)
+    {
+      System.err.println(se.getMessage());
+    }
+    
+    serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    try
+    {
+      writeToken();
+    }
+    catch (IOException ioe)
+    {
+      serverSocket.close();
+      throw ioe;
+    }
+  }
+  
+  
+  /**
+   * Create a random token, and write it to a file in the user's
+   * JSnip directory that only the user can read.
+   * 
+   * @throws IOException error writing the file
+   */
+  private void writeToken() throws IOException
+  {
+    // Make the token, as hex so it's easy to read from a script
+    byte[] random = new byte[TOKEN_BYTES];
+    new SecureRandom().nextBytes(random);
+    StringBuilder sb = new StringBuilder(TOKEN_BYTES * 2);
+    for (byte b : random)
+    {
+      sb.append(String.format("%02x", b & 0xFF));
+    }
+    
+    token = sb.toString().getBytes(StandardCharsets.UTF_8);
+    
+    // Create the file empty, readable only by the user, before
+    // the token is written to it
+    File dir = CompiledClassCache.getUserDirectory();
+    if (!dir.isDirectory() && !dir.mkdirs())
+    {
+      throw new IOException("Unable to create " + dir.getPath());
+    }
+    
+    tokenFile = new File(dir, "server-" + getPort() + ".token");
+    final Path path = tokenFile.toPath();
+    Files.deleteIfExists(path);
+    if (FileSystems.getDefault().supportedFileAttributeViews()
+        .contains("posix"))
+    {
+      Files.createFile(path, PosixFilePermissions.asFileAttribute(
+          PosixFilePermissions.fromString("rw-------")));
+    }
+    else
+    {
+      Files.createFile(path);
+      tokenFile.setReadable(false, false);
+      tokenFile.setWritable(false, false);
+      tokenFile.setReadable(true, true);
+      tokenFile.setWritable(true, true);
+    }
+    
+    Files.write(path, token);
+    tokenFile.deleteOnExit();
+  }
+  
+  
+  /**
+   * Return the file the token is written to.
+   * 
+   * @return the token file
+   */
+  public File getTokenFile()
+  {
+    return tokenFile;
+  }
+  
+  
+  /**
+   * Return the port the server is listening on.
+   * 
+   * @return the port
+   */
+  public int getPort()
+  {
+    return serverSocket.getLocalPort();
+  }
+  
+  
+  /**
+   * Accept connections until the server is stopped.  Each
+   * connection is handled by a task on the shared executor.
+   */
+  public void serve()
+  {
+    while (!serverSocket.isClosed())
+    {
+      try
+      {
+        // Send each frame as soon as it's flushed, since a response
+        // is a few small frames and waiting on ACKs would stall it
+        final Socket socket = serverSocket.accept();
+        socket.setTcpNoDelay(true);
+        TaskExecutor.getShared().submit(new Runnable()
+        {
+          public void run()
+          {
+            handle(socket);
+          }
+        });
+      }
+      catch (IOException ioe)
+      {
+        // The socket was closed by stop(), or the accept failed
+        if (!serverSocket.isClosed())
+        {
+          System.err.println("Error accepting a connection: "
+                             + ioe.getMessage());
+        }
+      }
+    }
+  }
+  
+  
+  /**
+   * Stop listening, and stop the queued and running snippets.
+   */
+  public void stop()
+  {
+    try
+    {
+      serverSocket.close();
+    }
+    catch (IOException ioe)
+    {
+      // Nothing to do
+    }
+    
+    runManager.shutdown();
+    if (tokenFile != null)
+    {
+      tokenFile.delete();
+    }
+  }
+  
+  
+  /**
+   * Return the root of the library, reading it again if the file
+   * has changed since it was read.
+   * 
+   * @return the root of the library
+   * @throws IOException the library could not be read
+   */
+  private synchronized CodeItemNode getLibrary() throws IOException
+  {
+    final long modified = file.lastModified();
+    if ((root == null) || (modified != loadedTime))
+    {
+      root = CodeItemNode.readTree(file);
+      loadedTime = modified;
+    }
+    
+    return root;
+  }
+  
+  
+  /**
+   * Answer the requests from one connection until it is closed.
+   * 
+   * @param socket the connection
+   */
+  private void handle(final Socket socket)
+  {
+    try
+    {
+      DataInputStream in = new DataInputStream(
+          new BufferedInputStream(socket.getInputStream()));
+      DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(socket.getOutputStream()));
+      
+      // Check the client's token before answering it at all
+      if ((in.readByte() != REQ_AUTH) || !isToken(in))
+      {
+        return;
+      }
+      
+      synchronized (out)
+      {
+        out.writeByte(WorkerMain.RSP_READY);
+        out.flush();
+      }
+      
+      while (true)
+      {
+        final int type = in.readByte();
+        if (type == WorkerMain.REQ_RUN)
+        {
+          final String engineName = WorkerMain.readString(in);
+          final ClassPath path = ClassPath.parse(WorkerMain.readString(in));
+          final String script = WorkerMain.readString(in);
+          runScript(engineName, path, script, out);
+        }
+        else if (type == REQ_RUN_NODE)
+        {
+          final String nodePath = WorkerMain.readString(in);
+          final String engineName = WorkerMain.readString(in);
+          runNode(nodePath, engineName, out);
+        }
+        else
+        {
+          break;
+        }
+      }
+    }
+    catch (EOFException eofe)
+    {
+      // The client closed the connection
+    }
+    catch (IOException ioe)
+    {
+      // The client went away
+    }
+    finally
+    {
+      try
+      {
+        socket.close();
+      }
+      catch (IOException ioe)
+      {
+        // Nothing to do
+      }
+    }
+  }
+  
+  
+  /**
+   * Read a token sent by a client, and check it matches.
+   * 
+   * @param in the stream to read from
+   * @return whether the token matches
+   * @throws IOException error reading the token
+   */
+  private boolean isToken(final DataInputStream in) throws IOException
+  {
+    // Check the length before reading, so a client can't make the
+    // server allocate a large buffer
+    final int length = in.readInt();
+    if (length != token.length)
+    {
+      return false;
+    }
+    
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return MessageDigest.isEqual(bytes, token);
+  }
+  
+  
+  /**
+   * Run a script sent by the client.
+   * 
+   * @param engineName the engine name, or "" for the default
+   * @param path the class path
+   * @param script the script
+   * @param out the stream to send the response to
+   * @throws IOException error writing the response
+   */
+  private void runScript(final String engineName,
+                         final ClassPath path,
+                         final String script,
+                         final DataOutputStream out)
+    throws IOException
+  {
+    // Let the script include snippets from the library
+    SnippetEngine engine = ((engineName.length() == 0)
+        ? engines.getDefaultEngine() : engines.choose(engineName, script));
+    if (file != null)
+    {
+      engine = IncludeEngine.wrap(engine, getLibrary(), script);
+    }
+    
+    execute("Script", script, ClassPathEngine.wrap(engine, path), out);
+  }
+  
+  
+  /**
+   * Run a node of the library.
+   * 
+   * @param nodePath the path of the node
+   * @param engineName the engine name, or "" for the node's engine
+   * @param out the stream to send the response to
+   * @throws IOException error writing the response
+   */
+  private void runNode(final String nodePath,
+                       final String engineName,
+                       final DataOutputStream out)
+    throws IOException
+  {
+    // Find the node
+    String error = null;
+    CodeItemNode node = null;
+    if (file == null)
+    {
+      error = "The server has no library";
+    }
+    else
+    {
+      try
+      {
+        node = getLibrary().findByPath(nodePath);
+        if ((node == null) || (node.getScript() == null)
+            || (node.getScript().trim().length() < 1))
+        {
+          error = "Snippet not found: " + nodePath;
+        }
+      }
+      catch (IOException ioe)
+      {
+        error = "Unable to read the library: " + ioe.getMessage();
+      }
+    }
+    
+    if (error != null)
+    {
+      WorkerMain.writeEnd(out, WorkerMain.RSP_FAILED, new RunMetrics(),
+                          false, error);
+      return;
+    }
+    
+    final String script = node.getScript();
+    execute(node.getPathName(), script, engines.chooseFor(node,
+        ((engineName.length() == 0) ? null : engineName), script), out);
+  }
+  
+  
+  /**
+   * Queue a run, send its output as it's written, and send the
+   * result when it ends.
+   * 
+   * @param title the title of the run
+   * @param script the script
+   * @param engine the engine to run it with
+   * @param out the stream to send the response to
+   * @throws IOException error writing the response
+   */
+  private void execute(final String title,
+                       final String script,
+                       final SnippetEngine engine,
+                       final DataOutputStream out)
+    throws IOException
+  {
+    // Send the output straight to the client
+    PrintStream runOut = new PrintStream(new WorkerMain.FrameOutputStream(
+        out, WorkerMain.RSP_OUT), true);
+    PrintStream runErr = new PrintStream(new WorkerMain.FrameOutputStream(
+        out, WorkerMain.RSP_ERR), true);
+    RunContext context = new RunContext(runOut, runErr);
+    context.setLimits(limits);
+    
+    // Wait for the run to end on one of the manager's threads
+    final CountDownLatch done = new CountDownLatch(1);
+    SnippetRun run = new SnippetRun(title, script, engine, context,
+        new IRunListener()
+        {
+          public void runStarted(final SnippetRun snippetRun)
+          {
+            // Nothing to do
+          }
+          
+          public void runFinished(final SnippetRun snippetRun)
+          {
+            done.countDown();
+          }
+        });
+    
+    runManager.submit(run);
+    try
+    {
+      done.await();
+    }
+    catch (InterruptedException ie)
+    {
+      run.stop();
+      Thread.currentThread().interrupt();
+      throw new IOException("The server is stopping");
+    }
+    
+    // Send the result, or the error
+    runOut.flush();
+    runErr.flush();
+    if (run.getState() == SnippetRun.FINISHED)
+    {
+      // Convert the result to text, failing the request if the
+      // result's toString() throws
+      final Object result = run.getResult();
+      String text = null;
+      try
+      {
+        text = ((result == null) ? "" : result.toString());
+      }
+      catch (RuntimeException re)
+      {
+        WorkerMain.writeEnd(out, WorkerMain.RSP_FAILED, run.getMetrics(),
+            false, re.toString());
+        return;
+      }
+      
+      WorkerMain.writeEnd(out, WorkerMain.RSP_RESULT, run.getMetrics(),
+          (result != null), text);
+    }
+    else
+    {
+      WorkerMain.writeEnd(out, WorkerMain.RSP_FAILED, run.getMetrics(),
+          false, ((run.getError() == null) ? run.getStateName()
+                  : run.getError()));
+    }
+  }
+}
@@ -0,0 +1,387 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The stack samples taken while profiling a run, merged into a
+ * tree of calls.  Each node of the tree is a method called by its
+ * parent, with the number of samples taken in it (self) and in it
+ * or the methods it called (total).
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class StackProfile
+{
+  /**
+   * The default time between samples, in milliseconds.
+   */
+  public static final long DEFAULT_INTERVAL_MILLIS = 10L;
+  
+  /**
+   * The prefix of the classes whose frames are dropped from the
+   * bottom of each stack, up to the snippet.
+   */
+  private static final String APP_PACKAGE = "io.miti.jsnip.app.";
+  
+  /**
+   * The time between samples, in milliseconds.
+   */
+  private long intervalMillis = DEFAULT_INTERVAL_MILLIS;
+  
+  /**
+   * The root of the call tree, which holds no method.
+   */
+  private final Node root = new Node("(all)");
+  
+  /**
+   * The number of samples of stacks that were not running.
+   */
+  private int idleCount = 0;
+  
+  
+  /**
+   * A method in the call tree.
+   */
+  public static final class Node
+  {
+    /**
+     * The method, as class.method.
+     */
+    private String name = null;
+    
+    /**
+     * The samples taken in this method or its callees.
+     */
+    private int total = 0;
+    
+    /**
+     * The samples taken in this method itself.
+     */
+    private int self = 0;
+    
+    /**
+     * The methods called by this method, keyed on name.
+     */
+    private final Map<String, Node> children =
+      new LinkedHashMap<String, Node>(4);
+    
+    /**
+     * Constructor.
+     * 
+     * @param method the method name
+     */
+    Node(final String method)
+    {
+      name = method;
+    }
+    
+    /**
+     * Return the method name.
+     * 
+     * @return the method, as class.method
+     */
+    public String getName()
+    {
+      return name;
+    }
+    
+    /**
+     * Return the number of samples in this method or its callees.
+     * 
+     * @return the total samples
+     */
+    public int getTotal()
+    {
+      return total;
+    }
+    
+    /**
+     * Return the number of samples in this method itself.
+     * 
+     * @return the self samples
+     */
+    public int getSelf()
+    {
+      return self;
+    }
+    
+    /**
+     * Return the methods called by this method, with the most
+     * samples first.
+     * 
+     * @return the callees
+     */
+    public List<Node> getChildren()
+    {
+      List<Node> list = new ArrayList<Node>(children.values());
+      Collections.sort(list, new Comparator<Node>()
+      {
+        public int compare(final Node a, final Node b)
+        {
+          return (b.total - a.total);
+        }
+      });
+      
+      return list;
+    }
+  }
+  
+  
+  /**
+   * Default constructor.
+   */
+  public StackProfile()
+  {
+    super();
+  }
+  
+  
+  /**
+   * Constructor taking the time between samples.
+   * 
+   * @param interval the time between samples, in milliseconds
+   */
+  public StackProfile(final long interval)
+  {
+    super();
+    intervalMillis = interval;
+  }
+  
+  
+  /**
+   * Return the time between samples.
+   * 
+   * @return the time between samples, in milliseconds
+   */
+  public long getIntervalMillis()
+  {
+    return intervalMillis;
+  }
+  
+  
+  /**
+   * Add a sample of a running thread's stack.  The frames below
+   * the last JSnip frame (the thread pool and the engine's entry
+   * point) are dropped, so the tree starts at the snippet.
+   * 
+   * @param stack the stack, with the most recent call first
+   */
+  public synchronized void addSample(final StackTraceElement[] stack)
+  {
+    // Find the first frame to keep, from the bottom
+    int first = stack.length - 1;
+    for (int i = 0; i < stack.length; ++i)
+    {
+      if (stack[i].getClassName().startsWith(APP_PACKAGE))
+      {
+        first = i - 1;
+        break;
+      }
+    }
+    
+    // Add the frames to the tree, from the caller down
+    Node node = root;
+    ++node.total;
+    for (int i = first; i >= 0; --i)
+    {
+      final String name = stack[i].getClassName() + "."
+                          + stack[i].getMethodName();
+      Node child = node.children.get(name);
+      if (child == null)
+      {
+        child = new Node(name);
+        node.children.put(name, child);
+      }
+      
+      node = child;
+      ++node.total;
+    }
+    
+    ++node.self;
+  }
+  
+  
+  /**
+   * Count a sample taken while no profiled thread was running.
+   */
+  public synchronized void addIdleSample()
+  {
+    ++idleCount;
+  }
+  
+  
+  /**
+   * Return the root of the call tree.  Read it after the run has
+   * ended, since it's not safe to read while samples are added.
+   * 
+   * @return the root, whose total is the number of samples
+   */
+  public synchronized Node getRoot()
+  {
+    return root;
+  }
+  
+  
+  /**
+   * Return the number of samples of running threads.
+   * 
+   * @return the number of samples
+   */
+  public synchronized int getSampleCount()
+  {
+    return root.total;
+  }
+  
+  
+  /**
+   * Return the number of samples taken while no profiled thread
+   * was running, such as while the snippet slept or waited.
+   * 
+   * @return the number of idle samples
+   */
+  public synchronized int getIdleCount()
+  {
+    return idleCount;
+  }
+  
+  
+  /**
+   * Return the samples as collapsed stacks, one line per distinct
+   * stack, as read by flame graph tools: the methods from the
+   * caller down, separated by semicolons, then the sample count.
+   * 
+   * @return the collapsed stacks
+   */
+  public synchronized String toCollapsed()
+  {
+    StringBuilder sb = new StringBuilder(4000);
+    for (Node child : root.children.values())
+    {
+      appendCollapsed(sb, child, child.name);
+    }
+    
+    return sb.toString();
+  }
+  
+  
+  /**
+   * Append the collapsed stacks ending in or under a node.
+   * 
+   * @param sb the text so far
+   * @param node the node
+   * @param path the methods from the caller down to the node
+   */
+  private static void appendCollapsed(final StringBuilder sb,
+                                      final Node node,
+                                      final String path)
+  {
+    if (node.self > 0)
+    {
+      sb.append(path).append(' ').append(node.self).append('\n');
+    }
+    
+    for (Node child : node.children.values())
+    {
+      appendCollapsed(sb, child, path + ";" + child.name);
+    }
+  }
+  
+  
+  /**
+   * Return the methods the samples were taken in, with the
+   * most samples first.
+   * 
+   * @param max the most methods to return
+   * @return the methods, each with its self and total samples
+   *         summed over the tree
+   */
+  public synchronized List<Node> getHotMethods(final int max)
+  {
+    // Sum each method's samples.  A method's total is counted
+    // once per stack, even when it's recursive.
+    Map<String, Node> methods = new HashMap<String, Node>(100);
+    sumMethods(root, methods, new ArrayList<String>(32));
+    
+    List<Node> list = new ArrayList<Node>(methods.values());
+    Collections.sort(list, new Comparator<Node>()
+    {
+      public int compare(final Node a, final Node b)
+      {
+        return ((b.self != a.self) ? (b.self - a.self)
+                : (b.total - a.total));
+      }
+    });
+    
+    return ((list.size() > max) ? list.subList(0, max) : list);
+  }
+  
+  
+  /**
+   * Add the samples of the nodes under a node to the sums for
+   * their methods.
+   * 
+   * @param node the node
+   * @param methods the sums, keyed on method
+   * @param callers the methods on the stack above the node's
+   *        children
+   */
+  private static void sumMethods(final Node node,
+                                 final Map<String, Node> methods,
+                                 final List<String> callers)
+  {
+    for (Node child : node.children.values())
+    {
+      Node sum = methods.get(child.name);
+      if (sum == null)
+      {
+        sum = new Node(child.name);
+        methods.put(child.name, sum);
+      }
+      
+      sum.self += child.self;
+      if (!callers.contains(child.name))
+      {
+        sum.total += child.total;
+      }
+      
+      callers.add(child.name);
+      sumMethods(child, methods, callers);
+      callers.remove(callers.size() - 1);
+    }
+  }
+}
@@ -0,0 +1,230 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the stacks of a run's threads at a fixed interval, and
+ * adds them to a profile.  The run's own thread is sampled, along
+ * with the threads it starts, since a snippet (or a library it
+ * calls) may do its work on threads of its own.  A new thread joins
+ * the thread group of the thread that starts it, and each of the
+ * RunManager's threads has a group of its own, so the run's threads
+ * are those in its thread's group (and subgroups) that were not
+ * there when profiling started.  Threads of other runs, and of the
+ * JVM, are never sampled.  Only threads that are running are added
+ * to the profile, so time spent sleeping or waiting shows as idle
+ * samples.
+ * 
+ * All profilers share one daemon thread.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class StackProfiler
+{
+  /**
+   * The thread that takes the samples, shared by all profilers.
+   */
+  private static ScheduledExecutorService timer = null;
+  
+  /**
+   * The profile the samples are added to.
+   */
+  private StackProfile profile = null;
+  
+  /**
+   * The thread running the snippet.
+   */
+  private Thread runThread = null;
+  
+  /**
+   * The thread group of the run's thread.
+   */
+  private ThreadGroup group = null;
+  
+  /**
+   * The threads in the group when profiling started.
+   */
+  private Set<Thread> existing = null;
+  
+  /**
+   * The scheduled sampling task.
+   */
+  private ScheduledFuture<?> future = null;
+  
+  /**
+   * Whether profiling has stopped.
+   */
+  private volatile boolean stopped = false;
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param stackProfile the profile the samples are added to
+   * @param thread the thread running the snippet
+   */
+  private StackProfiler(final StackProfile stackProfile,
+                        final Thread thread)
+  {
+    super();
+    profile = stackProfile;
+    runThread = thread;
+    group = thread.getThreadGroup();
+    existing = new HashSet<Thread>();
+    for (Thread t : getGroupThreads())
+    {
+      existing.add(t);
+    }
+  }
+  
+  
+  /**
+   * Return the threads in the run thread's group and its subgroups.
+   * 
+   * @return the threads
+   */
+  private Thread[] getGroupThreads()
+  {
+    // Leave room for threads started while enumerating
+    Thread[] threads = new Thread[group.activeCount() + 8];
+    final int count = group.enumerate(threads, true);
+    Thread[] result = new Thread[count];
+    System.arraycopy(threads, 0, result, 0, count);
+    return result;
+  }
+  
+  
+  /**
+   * Start sampling a run's threads.
+   * 
+   * @param profile the profile the samples are added to
+   * @param thread the thread running the snippet
+   * @return the profiler, which must be stopped when the run ends
+   */
+  public static StackProfiler start(final StackProfile profile,
+                                    final Thread thread)
+  {
+    final StackProfiler profiler = new StackProfiler(profile, thread);
+    final long interval = profile.getIntervalMillis();
+    profiler.future = getTimer().scheduleAtFixedRate(new Runnable()
+    {
+      public void run()
+      {
+        profiler.sample();
+      }
+    }, interval, interval, TimeUnit.MILLISECONDS);
+    
+    return profiler;
+  }
+  
+  
+  /**
+   * Return the sampling thread, starting it if needed.
+   * 
+   * @return the sampling thread's executor
+   */
+  private static synchronized ScheduledExecutorService getTimer()
+  {
+    if (timer == null)
+    {
+      timer = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactory()
+        {
+          public Thread newThread(final Runnable r)
+          {
+            // The thread is created by the first run profiled, but
+            // is not part of it
+            return TaskExecutor.newBackgroundThread(r, "Stack profiler");
+          }
+        });
+    }
+    
+    return timer;
+  }
+  
+  
+  /**
+   * Stop sampling.
+   */
+  public void stop()
+  {
+    stopped = true;
+    future.cancel(false);
+  }
+  
+  
+  /**
+   * Sample the stacks of the run's threads.
+   */
+  private void sample()
+  {
+    if (stopped)
+    {
+      return;
+    }
+    
+    boolean running = false;
+    final Thread self = Thread.currentThread();
+    for (Thread thread : getGroupThreads())
+    {
+      // Sample the run's thread, and the threads it started since
+      // profiling started
+      if ((thread == self)
+          || ((thread != runThread) && existing.contains(thread)))
+      {
+        continue;
+      }
+      
+      // Only walk the stacks of the threads that are running
+      if (thread.getState() == Thread.State.RUNNABLE)
+      {
+        final StackTraceElement[] stack = thread.getStackTrace();
+        if (stack.length > 0)
+        {
+          profile.addSample(stack);
+          running = true;
+        }
+      }
+    }
+    
+    if (!running)
+    {
+      profile.addIdleSample();
+    }
+  }
+}
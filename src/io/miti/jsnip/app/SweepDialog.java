@@ -0,0 +1,443 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JFileChooser;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Dialog that runs a snippet over every combination of its
+ * parameters, and shows the status, times, allocation, result
+ * and last line of output of each run in a sortable table.  The
+ * table can be exported as CSV.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class SweepDialog extends JDialog implements IRunListener
+{
+  /**
+   * Serial version ID.
+   */
+  private static final long serialVersionUID = 1L;
+  
+  /**
+   * The names of the columns after the parameter columns.
+   */
+  private static final String[] COLUMNS = {"Status", "Wall (ms)",
+    "CPU (ms)", "Allocated", "Result", "Output", "Error"};
+  
+  /**
+   * The sweep.
+   */
+  private transient SweepRun sweep = null;
+  
+  /**
+   * The row of each run, keyed on run.
+   */
+  private transient Map<SnippetRun, Integer> rows = null;
+  
+  /**
+   * The number of parameter columns.
+   */
+  private int numParams = 0;
+  
+  /**
+   * The table model.
+   */
+  private SweepTableModel model = null;
+  
+  /**
+   * The progress label.
+   */
+  private JLabel lblProgress = null;
+  
+  /**
+   * The button to stop the sweep.
+   */
+  private JButton btnStop = null;
+  
+  /**
+   * The directory the CSV file is saved in by default.
+   */
+  private File directory = null;
+  
+  
+  /**
+   * The table model, with one row per run.
+   */
+  private final class SweepTableModel extends AbstractTableModel
+  {
+    /**
+     * Serial version ID.
+     */
+    private static final long serialVersionUID = 1L;
+    
+    /**
+     * Return the number of rows.
+     * 
+     * @return the number of runs
+     */
+    public int getRowCount()
+    {
+      return sweep.getRuns().size();
+    }
+    
+    /**
+     * Return the number of columns.
+     * 
+     * @return the number of columns
+     */
+    public int getColumnCount()
+    {
+      return numParams + COLUMNS.length;
+    }
+    
+    /**
+     * Return the name of a column.
+     * 
+     * @param column the column index
+     * @return the column name
+     */
+    @Override
+    public String getColumnName(final int column)
+    {
+      return ((column < numParams)
+              ? sweep.getParams().getNames().get(column)
+              : COLUMNS[column - numParams]);
+    }
+    
+    /**
+     * Return the class of a column, so the times sort as numbers.
+     * 
+     * @param column the column index
+     * @return the column class
+     */
+    @Override
+    public Class<?> getColumnClass(final int column)
+    {
+      final int index = column - numParams;
+      return (((index >= 1) && (index <= 3)) ? Long.class : String.class);
+    }
+    
+    /**
+     * Return the value of a cell.
+     * 
+     * @param row the row index
+     * @param column the column index
+     * @return the cell value
+     */
+    public Object getValueAt(final int row, final int column)
+    {
+      if (column < numParams)
+      {
+        return sweep.getCombinations().get(row)[column];
+      }
+      
+      final SnippetRun run = sweep.getRuns().get(row);
+      switch (column - numParams)
+      {
+        case 0:
+          return run.getStateName();
+        
+        case 1:
+          return ((run.getState() == SnippetRun.QUEUED) ? null
+                  : Long.valueOf(run.getElapsedMillis()));
+        
+        case 2:
+          final long cpu = run.getCpuMillis();
+          return ((cpu < 0L) ? null : Long.valueOf(cpu));
+        
+        case 3:
+          final long bytes = run.getMetrics().getAllocatedBytes();
+          return ((bytes < 0L) ? null : Long.valueOf(bytes));
+        
+        case 4:
+          final Object result = run.getResult();
+          return ((result == null) ? null : result.toString());
+        
+        case 5:
+          return getLastLine(sweep.getOutput(row));
+        
+        default:
+          return getLastLine(run.getError());
+      }
+    }
+  }
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param owner the owning frame
+   * @param title the title of the snippet
+   * @param script the snippet
+   * @param params the snippet's parameters
+   * @param engine the engine that runs the snippet
+   * @param limits the limits on each run
+   * @param csvDirectory the directory to save the CSV file in
+   */
+  public SweepDialog(final JFrame owner,
+                     final String title,
+                     final String script,
+                     final ScriptParams params,
+                     final SnippetEngine engine,
+                     final RunLimits limits,
+                     final File csvDirectory)
+  {
+    super(owner, "Sweep " + title, false);
+    directory = csvDirectory;
+    numParams = params.getNames().size();
+    
+    // Create the runs, and index their rows
+    sweep = new SweepRun(title, script, params, engine,
+                         RunManager.DEFAULT_THREADS, limits, this);
+    rows = new HashMap<SnippetRun, Integer>(sweep.getRuns().size());
+    List<SnippetRun> runs = sweep.getRuns();
+    for (int i = 0; i < runs.size(); ++i)
+    {
+      rows.put(runs.get(i), Integer.valueOf(i));
+    }
+    
+    // Create the table
+    model = new SweepTableModel();
+    final JTable table = new JTable(model);
+    table.setAutoCreateRowSorter(true);
+    table.getColumnModel().getColumn(numParams + 5).setPreferredWidth(200);
+    table.getColumnModel().getColumn(numParams + 6).setPreferredWidth(200);
+    
+    // Add the Stop, Export and Close buttons
+    btnStop = new JButton("Stop");
+    btnStop.addActionListener(new ActionListener()
+    {
+      public void actionPerformed(final ActionEvent e)
+      {
+        sweep.stop();
+      }
+    });
+    JButton btnExport = new JButton("Export CSV...");
+    btnExport.addActionListener(new ActionListener()
+    {
+      public void actionPerformed(final ActionEvent e)
+      {
+        exportCsv();
+      }
+    });
+    JButton btnClose = new JButton("Close");
+    btnClose.addActionListener(new ActionListener()
+    {
+      public void actionPerformed(final ActionEvent e)
+      {
+        dispose();
+      }
+    });
+    JPanel buttons = new JPanel();
+    buttons.add(btnStop);
+    buttons.add(btnExport);
+    buttons.add(btnClose);
+    
+    // Lay out the dialog
+    lblProgress = new JLabel();
+    JPanel panel = new JPanel(new BorderLayout(0, 5));
+    panel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+    panel.add(lblProgress, BorderLayout.NORTH);
+    panel.add(new JScrollPane(table), BorderLayout.CENTER);
+    panel.add(buttons, BorderLayout.SOUTH);
+    getContentPane().add(panel);
+    
+    // Stop the sweep when the dialog is closed
+    addWindowListener(new WindowAdapter()
+    {
+      @Override
+      public void windowClosed(final WindowEvent e)
+      {
+        sweep.stop();
+      }
+    });
+    
+    updateProgress();
+    setSize(new Dimension(800, 450));
+    setLocationRelativeTo(owner);
+  }
+  
+  
+  /**
+   * Start the runs.
+   */
+  public void start()
+  {
+    sweep.start();
+  }
+  
+  
+  /**
+   * Ask for a file, and save the results in it as CSV.
+   */
+  private void exportCsv()
+  {
+    JFileChooser chooser = new JFileChooser(directory);
+    chooser.setSelectedFile(new File(directory, "sweep.csv"));
+    if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION)
+    {
+      return;
+    }
+    
+    // Write the file
+    final File file = chooser.getSelectedFile();
+    try
+    {
+      Files.write(file.toPath(),
+                  sweep.toCsv().getBytes(StandardCharsets.UTF_8));
+    }
+    catch (IOException ioe)
+    {
+      JOptionPane.showMessageDialog(this,
+          "Error while saving: " + ioe.getMessage(),
+          "Error", JOptionPane.ERROR_MESSAGE);
+      return;
+    }
+    
+    directory = file.getParentFile();
+  }
+  
+  
+  /**
+   * A run is about to execute its snippet.
+   * 
+   * @param run the run
+   */
+  public void runStarted(final SnippetRun run)
+  {
+    updateRow(run);
+  }
+  
+  
+  /**
+   * A run ended.
+   * 
+   * @param run the run
+   */
+  public void runFinished(final SnippetRun run)
+  {
+    updateRow(run);
+  }
+  
+  
+  /**
+   * Update a run's row and the progress label on the event
+   * dispatch thread.
+   * 
+   * @param run the run
+   */
+  private void updateRow(final SnippetRun run)
+  {
+    SwingUtilities.invokeLater(new Runnable()
+    {
+      public void run()
+      {
+        final int row = rows.get(run).intValue();
+        model.fireTableRowsUpdated(row, row);
+        updateProgress();
+      }
+    });
+  }
+  
+  
+  /**
+   * Update the progress label and the Stop button.
+   */
+  private void updateProgress()
+  {
+    final int total = sweep.getRuns().size();
+    final int done = sweep.getFinishedCount();
+    int failed = 0;
+    for (SnippetRun run : sweep.getRuns())
+    {
+      if (run.getState() == SnippetRun.FAILED)
+      {
+        ++failed;
+      }
+    }
+    
+    lblProgress.setText(done + " of " + total + " combinations run, "
+                        + failed + " failed");
+    btnStop.setEnabled(done < total);
+  }
+  
+  
+  /**
+   * Return the last non-blank line of some text, so the table
+   * shows the final line a run printed.
+   * 
+   * @param text the text (may be null)
+   * @return the last non-blank line, or null
+   */
+  private static String getLastLine(final String text)
+  {
+    if (text == null)
+    {
+      return null;
+    }
+    
+    final String[] lines = text.split("\\r?\\n");
+    for (int i = lines.length - 1; i >= 0; --i)
+    {
+      if (lines[i].trim().length() > 0)
+      {
+        return lines[i].trim();
+      }
+    }
+    
+    return null;
+  }
+}
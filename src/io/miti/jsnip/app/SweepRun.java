@@ -0,0 +1,328 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a snippet once for each combination of the values of its
+ * parameters, in parallel, on a pool of threads of its own.  The
+ * output of each run is kept, so the results can be shown in a
+ * table and exported as CSV.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class SweepRun implements IRunListener
+{
+  /**
+   * The character set of the captured output.
+   */
+  private static final String CHARSET = "UTF-8";
+  
+  /**
+   * The parameters.
+   */
+  private ScriptParams params = null;
+  
+  /**
+   * The combination of parameter values of each run.
+   */
+  private List<String[]> combinations = null;
+  
+  /**
+   * The run of each combination, in the same order.
+   */
+  private final List<SnippetRun> runs = new ArrayList<SnippetRun>();
+  
+  /**
+   * The buffer holding the output of each run, in the same order.
+   */
+  private final List<ByteArrayOutputStream> outputs =
+    new ArrayList<ByteArrayOutputStream>();
+  
+  /**
+   * The number of runs that have ended.
+   */
+  private final AtomicInteger finished = new AtomicInteger(0);
+  
+  /**
+   * The threads that run the snippet.
+   */
+  private RunManager manager = null;
+  
+  /**
+   * The object notified as runs start and end.
+   */
+  private IRunListener listener = null;
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param title the title of the snippet
+   * @param script the snippet
+   * @param scriptParams the snippet's parameters
+   * @param engine the engine that runs the snippet
+   * @param numThreads the number of runs at once
+   * @param limits the limits on each run
+   * @param runListener the object notified as runs start and end
+   */
+  public SweepRun(final String title,
+                  final String script,
+                  final ScriptParams scriptParams,
+                  final SnippetEngine engine,
+                  final int numThreads,
+                  final RunLimits limits,
+                  final IRunListener runListener)
+  {
+    super();
+    params = scriptParams;
+    listener = runListener;
+    manager = new RunManager(numThreads);
+    
+    // Create a run for each combination, writing both output
+    // streams to one buffer
+    combinations = params.getCombinations();
+    for (String[] combination : combinations)
+    {
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+      PrintStream out = null;
+      try
+      {
+        out = new PrintStream(buffer, true, CHARSET);
+      }
+      catch (UnsupportedEncodingException uee)
+      {
+        // Every JVM supports UTF-8
+        throw new IllegalStateException(uee);
+      }
+      
+      RunContext context = new RunContext(out, out);
+      context.setLimits(limits);
+      outputs.add(buffer);
+      runs.add(new SnippetRun(
+          title + " [" + params.describe(combination) + "]",
+          params.bind(script, combination, engine.getName()),
+          engine, context, this));
+    }
+  }
+  
+  
+  /**
+   * Queue all the runs.
+   */
+  public void start()
+  {
+    for (SnippetRun run : runs)
+    {
+      manager.submit(run);
+    }
+  }
+  
+  
+  /**
+   * Stop the runs that have not ended.
+   */
+  public void stop()
+  {
+    for (SnippetRun run : runs)
+    {
+      run.stop();
+    }
+  }
+  
+  
+  /**
+   * Return the parameters.
+   * 
+   * @return the parameters
+   */
+  public ScriptParams getParams()
+  {
+    return params;
+  }
+  
+  
+  /**
+   * Return the combination of parameter values of each run.
+   * 
+   * @return the combinations, in the same order as the runs
+   */
+  public List<String[]> getCombinations()
+  {
+    return combinations;
+  }
+  
+  
+  /**
+   * Return the runs.
+   * 
+   * @return the runs
+   */
+  public List<SnippetRun> getRuns()
+  {
+    return runs;
+  }
+  
+  
+  /**
+   * Return the output written by a run so far.
+   * 
+   * @param index the index of the run
+   * @return the output
+   */
+  public String getOutput(final int index)
+  {
+    try
+    {
+      return outputs.get(index).toString(CHARSET);
+    }
+    catch (UnsupportedEncodingException uee)
+    {
+      throw new IllegalStateException(uee);
+    }
+  }
+  
+  
+  /**
+   * Return the number of runs that have ended.
+   * 
+   * @return the number of ended runs
+   */
+  public int getFinishedCount()
+  {
+    return finished.get();
+  }
+  
+  
+  /**
+   * Return the results as CSV: a column for each parameter, then
+   * the status, times, allocation, result, error and output of
+   * each run.
+   * 
+   * @return the CSV text
+   */
+  public String toCsv()
+  {
+    StringBuilder sb = new StringBuilder(100 * (runs.size() + 1));
+    for (String name : params.getNames())
+    {
+      appendCsv(sb, name);
+    }
+    sb.append("status,wall_ms,cpu_ms,allocated_bytes,result,error,output");
+    sb.append("\r\n");
+    
+    for (int i = 0; i < runs.size(); ++i)
+    {
+      final SnippetRun run = runs.get(i);
+      for (String value : combinations.get(i))
+      {
+        appendCsv(sb, value);
+      }
+      
+      appendCsv(sb, run.getStateName());
+      appendCsv(sb, (run.getState() == SnippetRun.QUEUED) ? ""
+                : Long.toString(run.getElapsedMillis()));
+      final long cpu = run.getCpuMillis();
+      appendCsv(sb, (cpu < 0L) ? "" : Long.toString(cpu));
+      final long bytes = run.getMetrics().getAllocatedBytes();
+      appendCsv(sb, (bytes < 0L) ? "" : Long.toString(bytes));
+      final Object result = run.getResult();
+      appendCsv(sb, (result == null) ? "" : result.toString());
+      appendCsv(sb, (run.getError() == null) ? "" : run.getError());
+      sb.append(quoteCsv(getOutput(i).replaceFirst("\\s+$", "")));
+      sb.append("\r\n");
+    }
+    
+    return sb.toString();
+  }
+  
+  
+  /**
+   * Append a field and a comma to a CSV line.
+   * 
+   * @param sb the line
+   * @param value the field
+   */
+  private static void appendCsv(final StringBuilder sb, final String value)
+  {
+    sb.append(quoteCsv(value)).append(',');
+  }
+  
+  
+  /**
+   * Quote a CSV field if it holds a comma, quote or line break.
+   * 
+   * @param value the field
+   * @return the field, quoted if needed
+   */
+  private static String quoteCsv(final String value)
+  {
+    if ((value.indexOf(',') < 0) && (value.indexOf('"') < 0)
+        && (value.indexOf('\n') < 0) && (value.indexOf('\r') < 0))
+    {
+      return value;
+    }
+    
+    return '"' + value.replace("\"", "\"\"") + '"';
+  }
+  
+  
+  /**
+   * A run is about to execute its snippet.
+   * 
+   * @param run the run
+   */
+  public void runStarted(final SnippetRun run)
+  {
+    listener.runStarted(run);
+  }
+  
+  
+  /**
+   * A run ended.  The threads are shut down after the last one.
+   * 
+   * @param run the run
+   */
+  public void runFinished(final SnippetRun run)
+  {
+    if (finished.incrementAndGet() == runs.size())
+    {
+      manager.shutdown();
+    }
+    
+    listener.runFinished(run);
+  }
+}
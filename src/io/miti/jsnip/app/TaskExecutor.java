@@ -0,0 +1,345 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs background tasks.  The shared executor, used for loading,
+ * saving and searching, starts a virtual thread per task when the
+ * JVM has them, and otherwise uses a cached pool of daemon
+ * threads.  Snippet runs use a bounded pool of platform threads
+ * instead, since the CPU time and allocation counters, and
+ * ThreadDeath, do not work on virtual threads.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class TaskExecutor
+{
+  /**
+   * The shared executor, created when first used.
+   */
+  private static TaskExecutor shared = null;
+  
+  /**
+   * The executor that runs the tasks.
+   */
+  private ExecutorService service = null;
+  
+  /**
+   * Whether the tasks run on virtual threads.
+   */
+  private boolean virtual = false;
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param executorService the executor that runs the tasks
+   * @param usesVirtual whether the tasks run on virtual threads
+   */
+  private TaskExecutor(final ExecutorService executorService,
+                       final boolean usesVirtual)
+  {
+    super();
+    service = executorService;
+    virtual = usesVirtual;
+  }
+  
+  
+  /**
+   * Return the shared executor.
+   * 
+   * @return the shared executor
+   */
+  public static synchronized TaskExecutor getShared()
+  {
+    if (shared == null)
+    {
+      // Use virtual threads if the JVM has them
+      ExecutorService service = newVirtualExecutor();
+      if (service != null)
+      {
+        shared = new TaskExecutor(service, true);
+      }
+      else
+      {
+        shared = new TaskExecutor(Executors.newCachedThreadPool(
+            new DaemonThreadFactory("JSnip task", false)), false);
+      }
+    }
+    
+    return shared;
+  }
+  
+  
+  /**
+   * Create an executor with a fixed number of platform threads.
+   * Each thread is in a thread group of its own, so the threads
+   * started by a task (which join the group of the thread that
+   * starts them) can be told apart from those of other tasks.
+   * 
+   * @param numThreads the number of threads
+   * @param name the prefix of the thread names
+   * @return the executor
+   */
+  public static TaskExecutor newPlatformPool(final int numThreads,
+                                             final String name)
+  {
+    return new TaskExecutor(Executors.newFixedThreadPool(numThreads,
+        new DaemonThreadFactory(name, true)), false);
+  }
+  
+  
+  /**
+   * Create a daemon thread that is not part of any
+   * run.  The thread clears the run context it inherits, and is
+   * put in the top thread group rather than the group of the
+   * thread that creates it, so it isn't counted as one of the
+   * threads of the run that happens to start it.
+   * 
+   * @param r the runnable
+   * @param name the thread name
+   * @return the thread, not yet started
+   */
+  public static Thread newBackgroundThread(final Runnable r,
+                                           final String name)
+  {
+    Thread t = new Thread(getTopGroup(), new Runnable()
+    {
+      public void run()
+      {
+        RunContext.setCurrent(null);
+        r.run();
+      }
+    }, name);
+    t.setDaemon(true);
+    return t;
+  }
+  
+  
+  /**
+   * Return the top thread group below the system group, which is
+   * the application's main group.
+   * 
+   * @return the top thread group
+   */
+  private static ThreadGroup getTopGroup()
+  {
+    ThreadGroup group = Thread.currentThread().getThreadGroup();
+    while ((group.getParent() != null)
+           && (group.getParent().getParent() != null))
+    {
+      group = group.getParent();
+    }
+    
+    return group;
+  }
+  
+  
+  /**
+   * Create an executor that starts a virtual thread per task.  The
+   * method is looked up at run time, so this builds and runs on
+   * JVMs without virtual threads.
+   * 
+   * @return the executor, or null if virtual threads are not
+   *         available
+   */
+  private static ExecutorService newVirtualExecutor()
+  {
+    try
+    {
+      Method method =
+        Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) method.invoke(null);
+    }
+    catch (Exception e)
+    {
+      return null;
+    }
+  }
+  
+  
+  /**
+   * Return whether the tasks run on virtual threads.
+   * 
+   * @return whether the tasks run on virtual threads
+   */
+  public boolean usesVirtualThreads()
+  {
+    return virtual;
+  }
+  
+  
+  /**
+   * Start a task.
+   * 
+   * @param task the task
+   * @param <T> the type of the task's result
+   * @return the task
+   */
+  public <T> BackgroundTask<T> submit(final BackgroundTask<T> task)
+  {
+    task.start(this);
+    return task;
+  }
+  
+  
+  /**
+   * Run a callable.
+   * 
+   * @param callable the callable
+   * @param <V> the type of the result
+   * @return the future of the result
+   */
+  public <V> Future<V> submit(final Callable<V> callable)
+  {
+    return service.submit(callable);
+  }
+  
+  
+  /**
+   * Run a runnable.
+   * 
+   * @param runnable the runnable
+   * @return the future of the runnable
+   */
+  public Future<?> submit(final Runnable runnable)
+  {
+    return service.submit(runnable);
+  }
+  
+  
+  /**
+   * Add threads to, or remove them from, an executor created by
+   * newPlatformPool().  A removed thread ends once its task
+   * returns.
+   * 
+   * @param delta the number of threads to add, or to remove if
+   *        it's negative
+   */
+  public void addThreads(final int delta)
+  {
+    final ThreadPoolExecutor pool = (ThreadPoolExecutor) service;
+    synchronized (pool)
+    {
+      // The core size can't be raised past the maximum, or the
+      // maximum lowered below the core size
+      final int size = pool.getCorePoolSize() + delta;
+      if (delta > 0)
+      {
+        pool.setMaximumPoolSize(size);
+        pool.setCorePoolSize(size);
+      }
+      else
+      {
+        pool.setCorePoolSize(size);
+        pool.setMaximumPoolSize(size);
+      }
+    }
+  }
+  
+  
+  /**
+   * Interrupt the running tasks, drop the queued tasks, and shut
+   * down the threads.
+   */
+  public void shutdown()
+  {
+    service.shutdownNow();
+  }
+  
+  
+  /**
+   * Creates named daemon threads.
+   */
+  private static final class DaemonThreadFactory implements ThreadFactory
+  {
+    /**
+     * The prefix of the thread names.
+     */
+    private String prefix = null;
+    
+    /**
+     * The number of the next thread.
+     */
+    private final AtomicInteger count = new AtomicInteger(1);
+    
+    /**
+     * The number of the next thread group, shared by all the
+     * factories so every group has a different name.
+     */
+    private static final AtomicInteger groupCount = new AtomicInteger(1);
+    
+    /**
+     * Whether each thread gets a thread group of its own.
+     */
+    private boolean ownGroup = false;
+    
+    
+    /**
+     * Constructor.
+     * 
+     * @param name the prefix of the thread names
+     * @param useOwnGroup whether each thread gets its own group
+     */
+    public DaemonThreadFactory(final String name,
+                               final boolean useOwnGroup)
+    {
+      prefix = name;
+      ownGroup = useOwnGroup;
+    }
+    
+    
+    /**
+     * Create a thread.
+     * 
+     * @param r the runnable
+     * @return the thread
+     */
+    public Thread newThread(final Runnable r)
+    {
+      final String name = prefix + " " + count.getAndIncrement();
+      Thread t = (ownGroup
+          ? new Thread(new ThreadGroup(getTopGroup(),
+                name + " group " + groupCount.getAndIncrement()), r, name)
+          : new Thread(r, name));
+      t.setDaemon(true);
+      return t;
+    }
+  }
+}
@@ -40,4 +40,11 @@ public interface TreeHandler
    * Mark the tree as changed.
    */
   void treeChanged();
+  
+  /**
+   * Select a node in the tree.
+   * 
+   * @param node the node to select
+   */
+  void selectNode(CodeItemNode node);
 }
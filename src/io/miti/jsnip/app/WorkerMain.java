@@ -0,0 +1,365 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The main class of a worker JVM, which runs snippets for the
+ * JSnip process that started it.  Requests are read from standard
+ * input and responses written to standard output, each as a frame
+ * starting with a type byte.  Output written by the snippets is
+ * sent back in OUT and ERR frames.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class WorkerMain
+{
+  /**
+   * Request frame: run a snippet (engine name, class path,
+   * script).
+   */
+  public static final int REQ_RUN = 1;
+  
+  /**
+   * Request frame: exit the worker.
+   */
+  public static final int REQ_QUIT = 2;
+  
+  /**
+   * Response frame: the worker is warmed up and ready.
+   */
+  public static final int RSP_READY = 10;
+  
+  /**
+   * Response frame: bytes written to standard output.
+   */
+  public static final int RSP_OUT = 11;
+  
+  /**
+   * Response frame: bytes written to standard error.
+   */
+  public static final int RSP_ERR = 12;
+  
+  /**
+   * Response frame: the snippet completed (CPU time, bytes
+   * allocated, flag, result text).
+   */
+  public static final int RSP_RESULT = 13;
+  
+  /**
+   * Response frame: the snippet failed (CPU time, bytes
+   * allocated, error message).
+   */
+  public static final int RSP_FAILED = 14;
+  
+  /**
+   * The stream the frames are written to.
+   */
+  private static DataOutputStream frames = null;
+  
+  
+  /**
+   * A stream that sends what is written to it as frames.
+   */
+  static final class FrameOutputStream extends OutputStream
+  {
+    /**
+     * The stream the frames are written to.
+     */
+    private DataOutputStream out = null;
+    
+    /**
+     * The frame type.
+     */
+    private int type = 0;
+    
+    /**
+     * Constructor.
+     * 
+     * @param frameStream the stream the frames are written to
+     * @param frameType the frame type
+     */
+    FrameOutputStream(final DataOutputStream frameStream,
+                      final int frameType)
+    {
+      out = frameStream;
+      type = frameType;
+    }
+    
+    /**
+     * Write a byte.
+     * 
+     * @param b the byte
+     * @throws IOException error writing the frame
+     */
+    @Override
+    public void write(final int b) throws IOException
+    {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+    
+    /**
+     * Write part of a byte array.
+     * 
+     * @param b the byte array
+     * @param off the offset of the first byte
+     * @param len the number of bytes
+     * @throws IOException error writing the frame
+     */
+    @Override
+    public void write(final byte[] b, final int off, final int len)
+      throws IOException
+    {
+      synchronized (out)
+      {
+        out.writeByte(type);
+        out.writeInt(len);
+        out.write(b, off, len);
+        out.flush();
+      }
+    }
+  }
+  
+  
+  /**
+   * Default constructor.
+   */
+  private WorkerMain()
+  {
+    super();
+  }
+  
+  
+  /**
+   * Write a string with its length.
+   * 
+   * @param out the stream to write to
+   * @param str the string
+   * @throws IOException error writing the string
+   */
+  public static void writeString(final DataOutputStream out,
+                                 final String str)
+    throws IOException
+  {
+    final byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+  
+  
+  /**
+   * Read a string written by writeString().
+   * 
+   * @param in the stream to read from
+   * @return the string
+   * @throws IOException error reading the string
+   */
+  public static String readString(final DataInputStream in)
+    throws IOException
+  {
+    final byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+  
+  
+  /**
+   * Write the frame that ends a run.
+   * 
+   * @param out the stream to write to
+   * @param type the frame type
+   * @param metrics the cost of the run
+   * @param hasResult whether the snippet returned a value
+   * @param str the result text or error message
+   * @throws IOException error writing the frame
+   */
+  static void writeEnd(final DataOutputStream out,
+                       final int type,
+                       final RunMetrics metrics,
+                       final boolean hasResult,
+                       final String str)
+    throws IOException
+  {
+    synchronized (out)
+    {
+      out.writeByte(type);
+      out.writeLong(metrics.getCpuNanos());
+      out.writeLong(metrics.getAllocatedBytes());
+      if (type == RSP_RESULT)
+      {
+        out.writeBoolean(hasResult);
+      }
+      
+      writeString(out, str);
+      out.flush();
+    }
+  }
+  
+  
+  /**
+   * Send the frame that ends a run.
+   * 
+   * @param type the frame type
+   * @param metrics the cost of the run
+   * @param hasResult whether the snippet returned a value
+   * @param str the result text or error message
+   * @throws IOException error writing the frame
+   */
+  private static void sendEnd(final int type,
+                              final RunMetrics metrics,
+                              final boolean hasResult,
+                              final String str)
+    throws IOException
+  {
+    System.out.flush();
+    System.err.flush();
+    writeEnd(frames, type, metrics, hasResult, str);
+  }
+  
+  
+  /**
+   * Entry point of the worker JVM.
+   * 
+   * @param args unused
+   */
+  public static void main(final String[] args)
+  {
+    // Take over standard output for the frames, and send what
+    // the snippets write back as frames
+    frames = new DataOutputStream(new BufferedOutputStream(System.out));
+    System.setOut(new PrintStream(
+        new FrameOutputStream(frames, RSP_OUT), true));
+    System.setErr(new PrintStream(
+        new FrameOutputStream(frames, RSP_ERR), true));
+    DataInputStream in =
+      new DataInputStream(new BufferedInputStream(System.in));
+    
+    try
+    {
+      // Warm up the default engine, then tell the parent
+      EngineRegistry engines = EngineRegistry.createDefault();
+      try
+      {
+        engines.getDefaultEngine().start();
+      }
+      catch (SnippetException se)
+      {
+        System.err.println(se.getMessage());
+      }
+      
+      synchronized (frames)
+      {
+        frames.writeByte(RSP_READY);
+        frames.flush();
+      }
+      
+      // Run snippets until told to quit, or the parent goes away
+      while (in.readByte() == REQ_RUN)
+      {
+        final String engineName = readString(in);
+        ClassPath.setCurrent(ClassPath.parse(readString(in)));
+        final String script = readString(in);
+        runSnippet(engines.choose(engineName, script), script);
+      }
+    }
+    catch (EOFException eofe)
+    {
+      // The parent closed the pipe
+    }
+    catch (IOException ioe)
+    {
+      // The parent went away
+    }
+    
+    System.exit(0);
+  }
+  
+  
+  /**
+   * Run a snippet and send back the result.
+   * 
+   * @param engine the engine
+   * @param script the snippet
+   * @throws IOException error writing the response
+   */
+  private static void runSnippet(final SnippetEngine engine,
+                                 final String script)
+    throws IOException
+  {
+    Object result = null;
+    RunMetrics metrics = new RunMetrics();
+    metrics.start();
+    try
+    {
+      result = engine.run(script);
+    }
+    catch (SnippetException se)
+    {
+      metrics.stop();
+      sendEnd(RSP_FAILED, metrics, false,
+              ((se.getMessage() == null) ? se.toString() : se.getMessage()));
+      return;
+    }
+    catch (Throwable t)
+    {
+      // Any other error, such as a stack overflow, fails the run
+      // and leaves the worker running
+      metrics.stop();
+      sendEnd(RSP_FAILED, metrics, false, t.toString());
+      return;
+    }
+    
+    // Convert the result to text, failing the run if the
+    // result's toString() throws
+    metrics.stop();
+    String text = null;
+    try
+    {
+      text = ((result == null) ? "" : result.toString());
+    }
+    catch (RuntimeException re)
+    {
+      sendEnd(RSP_FAILED, metrics, false, re.toString());
+      return;
+    }
+    
+    // Send the result, flagging whether there was one
+    sendEnd(RSP_RESULT, metrics, (result != null), text);
+  }
+}
@@ -0,0 +1,289 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A pool of warm worker JVMs.  A run takes an idle worker, and a
+ * replacement is started in the background, so the next run also
+ * finds a warm worker.  The workers are killed when JSnip exits.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class WorkerPool
+{
+  /**
+   * The default number of idle workers to keep.
+   */
+  public static final int DEFAULT_SIZE = 1;
+  
+  /**
+   * The maximum number of idle workers to keep.
+   */
+  private int maxIdle = DEFAULT_SIZE;
+  
+  /**
+   * The idle workers.
+   */
+  private final LinkedList<WorkerProcess> idle =
+    new LinkedList<WorkerProcess>();
+  
+  /**
+   * All the live workers, idle or not.
+   */
+  private final Set<WorkerProcess> workers = new HashSet<WorkerProcess>();
+  
+  /**
+   * Whether a background thread is filling the pool.
+   */
+  private boolean filling = false;
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param size the number of idle workers to keep
+   */
+  public WorkerPool(final int size)
+  {
+    super();
+    maxIdle = size;
+    
+    // Kill the workers when JSnip exits
+    Runtime.getRuntime().addShutdownHook(new Thread(new Runnable()
+    {
+      public void run()
+      {
+        shutdown();
+      }
+    }, "JSnip worker shutdown"));
+  }
+  
+  
+  /**
+   * Take a worker for a run.  The caller must pass the worker
+   * to release() or discard() when the run ends.
+   * 
+   * @return the worker
+   * @throws IOException a worker could not be started
+   */
+  public WorkerProcess acquire() throws IOException
+  {
+    WorkerProcess worker = null;
+    synchronized (this)
+    {
+      // Take an idle worker that is still alive
+      while ((worker == null) && !idle.isEmpty())
+      {
+        worker = idle.removeFirst();
+        if (!worker.isAlive())
+        {
+          workers.remove(worker);
+          worker = null;
+        }
+      }
+    }
+    
+    // If none were idle, start one now (outside the lock)
+    if (worker == null)
+    {
+      worker = startWorker();
+    }
+    
+    // Replace the worker we took
+    fillInBackground();
+    return worker;
+  }
+  
+  
+  /**
+   * Return a worker to the pool after a run that ended normally.
+   * 
+   * @param worker the worker
+   */
+  public void release(final WorkerProcess worker)
+  {
+    synchronized (this)
+    {
+      if (worker.isAlive() && (idle.size() < maxIdle))
+      {
+        idle.addLast(worker);
+        return;
+      }
+      
+      workers.remove(worker);
+    }
+    
+    worker.quit();
+  }
+  
+  
+  /**
+   * Kill a worker, such as one running a stopped snippet.
+   * 
+   * @param worker the worker
+   */
+  public void discard(final WorkerProcess worker)
+  {
+    worker.kill();
+    synchronized (this)
+    {
+      workers.remove(worker);
+    }
+    
+    fillInBackground();
+  }
+  
+  
+  /**
+   * Start workers until the pool is full.
+   */
+  public void fill()
+  {
+    while (true)
+    {
+      synchronized (this)
+      {
+        if (idle.size() >= maxIdle)
+        {
+          return;
+        }
+      }
+      
+      // Start the worker outside the lock, since it's slow
+      final WorkerProcess worker;
+      try
+      {
+        worker = startWorker();
+      }
+      catch (IOException ioe)
+      {
+        System.err.println("Unable to start a worker JVM: "
+                           + ioe.getMessage());
+        return;
+      }
+      
+      synchronized (this)
+      {
+        if (idle.size() >= maxIdle)
+        {
+          workers.remove(worker);
+          worker.quit();
+          return;
+        }
+        
+        idle.addLast(worker);
+      }
+    }
+  }
+  
+  
+  /**
+   * Fill the pool on a background thread.
+   */
+  public void fillInBackground()
+  {
+    synchronized (this)
+    {
+      // Only run one filler at a time
+      if (filling || (idle.size() >= maxIdle))
+      {
+        return;
+      }
+      
+      filling = true;
+    }
+    
+    // The filler is started by a run, but is not part of it
+    Thread t = TaskExecutor.newBackgroundThread(new Runnable()
+    {
+      public void run()
+      {
+        try
+        {
+          fill();
+        }
+        finally
+        {
+          synchronized (WorkerPool.this)
+          {
+            filling = false;
+          }
+        }
+      }
+    }, "JSnip worker pool");
+    t.setPriority(Thread.MIN_PRIORITY);
+    t.start();
+  }
+  
+  
+  /**
+   * Kill all the workers.
+   */
+  public void shutdown()
+  {
+    List<WorkerProcess> all = null;
+    synchronized (this)
+    {
+      all = new ArrayList<WorkerProcess>(workers);
+      workers.clear();
+      idle.clear();
+    }
+    
+    for (WorkerProcess worker : all)
+    {
+      worker.kill();
+    }
+  }
+  
+  
+  /**
+   * Start a worker and add it to the set of live workers.
+   * 
+   * @return the worker
+   * @throws IOException the worker could not be started
+   */
+  private WorkerProcess startWorker() throws IOException
+  {
+    WorkerProcess worker = new WorkerProcess();
+    synchronized (this)
+    {
+      workers.add(worker);
+    }
+    
+    return worker;
+  }
+}
@@ -0,0 +1,222 @@
+/*
+ * Written by Mike Wallace (mfwallace at gmail.com).  Available
+ * on the web site http://mfwallace.googlepages.com/.
+ * 
+ * Copyright (c) 2006 Mike Wallace.
+ * 
+ * Permission is hereby granted, free of charge, to any person
+ * obtaining a copy of this software and associated documentation
+ * files (the "Software"), to deal in the Software without
+ * restriction, including without limitation the rights to use,
+ * copy, modify, merge, publish, distribute, sublicense, and/or
+ * sell copies of the Software, and to permit persons to whom
+ * the Software is furnished to do so, subject to the following
+ * conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+ * OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+ * WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package io.miti.jsnip.app;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * A worker JVM, as seen from the JSnip process.  The worker runs
+ * one snippet at a time, and can be killed to stop a snippet
+ * that ignores interrupts.
+ * 
+ * @author Mike Wallace
+ * @version 1.0
+ */
+public final class WorkerProcess
+{
+  /**
+   * The worker process.
+   */
+  private Process process = null;
+  
+  /**
+   * The stream for sending requests.
+   */
+  private DataOutputStream requests = null;
+  
+  /**
+   * The stream for reading responses.
+   */
+  private DataInputStream responses = null;
+  
+  
+  /**
+   * Start a worker JVM with this JVM's class path, and wait for
+   * it to warm up.
+   * 
+   * @throws IOException the worker could not be started
+   */
+  public WorkerProcess() throws IOException
+  {
+    super();
+    
+    // Build the command line
+    final String java = System.getProperty("java.home") + File.separator
+                        + "bin" + File.separator + "java";
+    ProcessBuilder pb = new ProcessBuilder(java, "-cp",
+        System.getProperty("java.class.path"), WorkerMain.class.getName());
+    pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+    
+    // Start the process and wait for it to say it's ready
+    process = pb.start();
+    requests = new DataOutputStream(
+        new BufferedOutputStream(process.getOutputStream()));
+    responses = new DataInputStream(
+        new BufferedInputStream(process.getInputStream()));
+    if (responses.readByte() != WorkerMain.RSP_READY)
+    {
+      kill();
+      throw new IOException("The worker JVM did not start");
+    }
+  }
+  
+  
+  /**
+   * Run a snippet in the worker.  Output from the snippet is
+   * written to this thread's System.out and System.err, and the
+   * CPU time and allocation measured by the worker are recorded
+   * in the metrics.  The worker runs the snippet with this
+   * thread's class path.
+   * 
+   * @param engineName the name of the engine to run it with
+   * @param script the snippet
+   * @param metrics the metrics of the run (may be null)
+   * @return the result text, or null if there was no result
+   * @throws SnippetException the snippet failed
+   * @throws IOException the worker died or was killed
+   */
+  public String run(final String engineName,
+                    final String script,
+                    final RunMetrics metrics)
+    throws SnippetException, IOException
+  {
+    // Send the request
+    requests.writeByte(WorkerMain.REQ_RUN);
+    WorkerMain.writeString(requests, engineName);
+    WorkerMain.writeString(requests, ClassPath.current().toString());
+    WorkerMain.writeString(requests, script);
+    requests.flush();
+    
+    // Copy the output until the run ends
+    final PrintStream out = System.out;
+    final PrintStream err = System.err;
+    while (true)
+    {
+      final int type = responses.readByte();
+      switch (type)
+      {
+        case WorkerMain.RSP_OUT:
+          copyFrame(out);
+          break;
+        
+        case WorkerMain.RSP_ERR:
+          copyFrame(err);
+          break;
+        
+        case WorkerMain.RSP_RESULT:
+          readMetrics(metrics);
+          final boolean hasResult = responses.readBoolean();
+          final String result = WorkerMain.readString(responses);
+          return (hasResult ? result : null);
+        
+        case WorkerMain.RSP_FAILED:
+          readMetrics(metrics);
+          throw new SnippetException(WorkerMain.readString(responses));
+        
+        default:
+          throw new IOException("Unknown frame from the worker: " + type);
+      }
+    }
+  }
+  
+  
+  /**
+   * Read the CPU time and allocation measured by the worker.
+   * 
+   * @param metrics the metrics to record them in (may be null)
+   * @throws IOException error reading the frame
+   */
+  private void readMetrics(final RunMetrics metrics) throws IOException
+  {
+    final long cpu = responses.readLong();
+    final long allocated = responses.readLong();
+    if (metrics != null)
+    {
+      metrics.setMeasured(cpu, allocated);
+    }
+  }
+  
+  
+  /**
+   * Copy the bytes of an output frame to a stream.
+   * 
+   * @param ps the stream
+   * @throws IOException error reading the frame
+   */
+  private void copyFrame(final PrintStream ps) throws IOException
+  {
+    final byte[] bytes = new byte[responses.readInt()];
+    responses.readFully(bytes);
+    ps.write(bytes, 0, bytes.length);
+    ps.flush();
+  }
+  
+  
+  /**
+   * Return whether the worker is running.
+   * 
+   * @return whether the process is alive
+   */
+  public boolean isAlive()
+  {
+    return process.isAlive();
+  }
+  
+  
+  /**
+   * Ask the worker to exit.
+   */
+  public void quit()
+  {
+    try
+    {
+      requests.writeByte(WorkerMain.REQ_QUIT);
+      requests.flush();
+    }
+    catch (IOException ioe)
+    {
+      kill();
+    }
+  }
+  
+  
+  /**
+   * Kill the worker.
+   */
+  public void kill()
+  {
+    process.destroyForcibly();
+  }
+}